@@ -0,0 +1,55 @@
+package com.j9soft.poc.alarms;
+
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.ServletException;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures parsing (and verification) of a JWT token from the "Authorization" header, i.e. work done for each request.
+ * (With a cache of verified tokens a token is verified only once.)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AuthorizationHeaderJwtFilterBenchmark {
+
+    /** Size of the cache of verified tokens. (0 means that each token is verified) */
+    @Param({"0", "10000"})
+    public int verifiedTokensCacheSize;
+
+    private AuthorizationHeaderJwtFilter filter;
+    private String authorizationHeader;
+
+    @Setup
+    public void setUp() {
+        filter = new AuthorizationHeaderJwtFilter(verifiedTokensCacheSize, new SimpleMeterRegistry());
+
+        String token = Jwts.builder()
+                .claim("domain", "CAdev")
+                .claim("adapterName", "AdapterTest")
+                .signWith(SignatureAlgorithm.HS256, "secretkey")
+                .compact();
+        authorizationHeader = "Bearer " + token;
+    }
+
+    @Benchmark
+    public Object doFilter() throws IOException, ServletException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/v2/rawalarms");
+        request.addHeader("Authorization", authorizationHeader);
+
+        filter.doFilter(request, new MockHttpServletResponse(), new MockFilterChain());
+
+        return request.getAttribute("partitionDefinition");
+    }
+}
@@ -0,0 +1,56 @@
+package com.j9soft.poc.alarms;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares patching of alarm values: streaming merge (i.e. the current one) vs. merging of parsed Maps (i.e. the previous one).
+ * (Run with "-prof gc" to see allocations per operation.)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JSONValuePatchingBenchmark {
+
+    /** Number of attributes of an old value. */
+    @Param({"10", "50"})
+    public int attributesCount;
+
+    private final JSONValuePatchingComponent patcher = new JSONValuePatchingComponent();
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private byte[] oldValue;
+    private byte[] newValue;
+
+    @Setup
+    public void setUp() {
+        StringBuilder builder = new StringBuilder("{\"notificationIdentifier\":\"eric2g:33\"");
+        for (int i = 0; i < attributesCount; i++) {
+            builder.append(",\"attribute").append(i).append("\":\"value of attribute ").append(i).append('"');
+        }
+        oldValue = builder.append(",\"perceivedSeverity\":1}").toString().getBytes(StandardCharsets.UTF_8);
+
+        newValue = "{\"perceivedSeverity\":3,\"additionalText\":\"foo bar\",\"attribute1\":\"changed\"}".getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] streamingMerge() {
+        return patcher.patchOldValue("dev", "Adapter", "eric2g:33", newValue, oldValue);
+    }
+
+    @Benchmark
+    public byte[] mapsMerge() throws IOException {
+        Map<String, Object> oldValueAsMap = mapper.readValue(oldValue, new TypeReference<Map<String, Object>>() {});
+        oldValueAsMap.putAll(mapper.readValue(newValue, new TypeReference<Map<String, Object>>() {}));
+        return mapper.writeValueAsBytes(oldValueAsMap);
+    }
+}
@@ -0,0 +1,103 @@
+package com.j9soft.poc.alarms;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reads and writes of {@link RaasDaoDevMock}.
+ *
+ * Reads may be measured while alarms are updated in background. (i.e. with a churn)
+ * (For 10M alarms a bigger heap is needed, e.g.: -p alarmsCount=10000000 -jvmArgsAppend -Xmx8g)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RaasDaoDevMockBenchmark {
+
+    private static final String DOMAIN = "benchmark";
+    private static final String ADAPTER_NAME = "BenchmarkAdapter";
+    private static final String SUBPARTITION_NAME = "33";
+    private static final String VALUE = "{\"perceivedSeverity\":\"1\",\"additionalText\":\"foo bar\",\"moIdentifier\":\"cell:1\"}";
+
+    /** Number of existing alarms. */
+    @Param({"10000", "1000000"})
+    public int alarmsCount;
+
+    /** Maximum number of alarms in a pack. */
+    @Param({"100", "1000"})
+    public int packSize;
+
+    /** Number of alarms updated per second in background. */
+    @Param({"0", "10000"})
+    public int churnPerSecond;
+
+    private RaasDaoDevMock dao;
+    private Thread churner;
+    private volatile boolean closed;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        dao = new RaasDaoDevMock();
+        for (int i = 0; i < alarmsCount; i++) {
+            dao.createOrUpdateAlarm(DOMAIN, ADAPTER_NAME, "alarm:" + i, VALUE);
+        }
+
+        if (churnPerSecond > 0) {
+            closed = false;
+            churner = new Thread(this::churn, "churner");
+            churner.setDaemon(true);
+            churner.start();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        closed = true;
+        if (churner != null) {
+            churner.join();
+        }
+    }
+
+    @Benchmark
+    public RawAlarmsPack queryFirstPack() {
+        return dao.queryAlarms(DOMAIN, ADAPTER_NAME, SUBPARTITION_NAME, null, packSize);
+    }
+
+    @Benchmark
+    public RawAlarmsPack queryNextPack() {
+        // (Tags of the dev mock are positions of alarms.)
+        String tag = String.valueOf(ThreadLocalRandom.current().nextInt(alarmsCount));
+        return dao.queryAlarms(DOMAIN, ADAPTER_NAME, SUBPARTITION_NAME, tag, packSize);
+    }
+
+    @Benchmark
+    public void createOrUpdateAlarm() {
+        dao.createOrUpdateAlarm(DOMAIN, ADAPTER_NAME, "alarm:" + ThreadLocalRandom.current().nextInt(alarmsCount), VALUE);
+    }
+
+    /*
+     * Updates random alarms. (every 10 ms a portion of them)
+     */
+    private void churn() {
+        int updatesPer10Ms = Math.max(1, churnPerSecond / 100);
+        while (!closed) {
+            long start = System.nanoTime();
+            for (int i = 0; i < updatesPer10Ms; i++) {
+                createOrUpdateAlarm();
+            }
+            long sleepMs = 10 - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            if (sleepMs > 0) {
+                try {
+                    Thread.sleep(sleepMs);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.j9soft.poc.alarms;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reads and writes of {@link RaasDaoKafka} connected to an embedded Kafka broker.
+ * (See {@link RaasDaoKafkaTestEmbeddedBroker})
+ *
+ * Churn is the number of changes of the loaded alarms (updates and every 10th a removal) in percents of alarmsCount.
+ * It makes the log longer than the number of alarms, i.e. it shows how reads depend on superseded records and tombstones.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class RaasDaoKafkaBenchmark {
+
+    private static final String DOMAIN = "benchmark";
+    private static final String ADAPTER_NAME = "BenchmarkAdapter";
+    private static final String SUBPARTITION_NAME = "0";
+    private static final String VALUE = "{\"perceivedSeverity\":\"1\",\"additionalText\":\"foo bar\",\"moIdentifier\":\"cell:1\"}";
+    private static final String CHANGED_VALUE = "{\"perceivedSeverity\":\"2\",\"additionalText\":\"foo bar\",\"moIdentifier\":\"cell:1\"}";
+    private static final int LOADING_BATCH_SIZE = 1000;
+
+    /** Number of existing alarms. */
+    @Param({"10000", "100000", "1000000"})
+    public int alarmsCount;
+
+    /** Number of changes of the existing alarms (in percents of alarmsCount) saved before the measurement. */
+    @Param({"0", "100", "500"})
+    public int churnPercent;
+
+    /** Maximum number of alarms in a pack. */
+    @Param({"100", "1000"})
+    public int packSize;
+
+    private RaasDaoKafkaTestEmbeddedBroker embeddedBroker;
+    private RaasDaoKafkaTestConfiguration testConfig;
+    private RaasDao dao;
+    private long logSize;  // (number of saved records, i.e. the range of tags)
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException, ExecutionException {
+        embeddedBroker = new RaasDaoKafkaTestEmbeddedBroker();
+        embeddedBroker.init();
+        testConfig = new RaasDaoKafkaTestConfiguration();
+        embeddedBroker.createTopic(testConfig.getTopicName());
+        dao = testConfig.getDao();
+
+        // Load alarms in batches.
+        //
+        for (int i = 0; i < alarmsCount; i += LOADING_BATCH_SIZE) {
+            RawAlarmsBatch batch = new RawAlarmsBatch();
+            int size = Math.min(LOADING_BATCH_SIZE, alarmsCount - i);
+            batch.alarmNotificationIdentifiers = new String[size];
+            batch.alarmValues = new String[size];
+            for (int j = 0; j < size; j++) {
+                batch.alarmNotificationIdentifiers[j] = "alarm:" + (i + j);
+                batch.alarmValues[j] = VALUE;
+            }
+            dao.saveAlarmsBatchAsync(DOMAIN, ADAPTER_NAME, batch).get();
+        }
+
+        // Change random alarms. (Removed ones are created again by later changes or by the measured writes.)
+        //
+        long churnCount = (long) alarmsCount * churnPercent / 100;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (long i = 0; i < churnCount; i += LOADING_BATCH_SIZE) {
+            RawAlarmsBatch batch = new RawAlarmsBatch();
+            int size = (int) Math.min(LOADING_BATCH_SIZE, churnCount - i);
+            batch.alarmNotificationIdentifiers = new String[size];
+            batch.alarmValues = new String[size];
+            for (int j = 0; j < size; j++) {
+                batch.alarmNotificationIdentifiers[j] = "alarm:" + random.nextInt(alarmsCount);
+                batch.alarmValues[j] = ((i + j) % 10 == 9) ? null : CHANGED_VALUE;
+            }
+            dao.saveAlarmsBatchAsync(DOMAIN, ADAPTER_NAME, batch).get();
+        }
+        logSize = alarmsCount + churnCount;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        testConfig.close();
+        embeddedBroker.close();
+    }
+
+    @Benchmark
+    public RawAlarmsPack queryFirstPack() {
+        return dao.queryAlarms(DOMAIN, ADAPTER_NAME, SUBPARTITION_NAME, null, packSize);
+    }
+
+    @Benchmark
+    public RawAlarmsPack queryNextPack() {
+        // (Tags of Kafka Dao are offsets in a subpartition.)
+        String tag = String.valueOf(ThreadLocalRandom.current().nextLong(logSize));
+        return dao.queryAlarms(DOMAIN, ADAPTER_NAME, SUBPARTITION_NAME, tag, packSize);
+    }
+
+    @Benchmark
+    public void createOrUpdateAlarm() {
+        dao.createOrUpdateAlarm(DOMAIN, ADAPTER_NAME, "alarm:" + ThreadLocalRandom.current().nextInt(alarmsCount), VALUE);
+    }
+}
@@ -0,0 +1,85 @@
+package com.j9soft.poc.alarms;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reads and writes of {@link RaasDaoLocalLog} in a temporary directory.
+ * (The same operations as {@link RaasDaoKafkaBenchmark}, so that the edge mode may be compared with a local broker.)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RaasDaoLocalLogBenchmark {
+
+    private static final String DOMAIN = "benchmark";
+    private static final String ADAPTER_NAME = "BenchmarkAdapter";
+    private static final String SUBPARTITION_NAME = "0";
+    private static final String VALUE = "{\"perceivedSeverity\":\"1\",\"additionalText\":\"foo bar\",\"moIdentifier\":\"cell:1\"}";
+    private static final int LOADING_BATCH_SIZE = 1000;
+
+    /** Number of existing alarms. */
+    @Param({"10000", "100000"})
+    public int alarmsCount;
+
+    /** Maximum number of alarms in a pack. */
+    @Param({"100", "1000"})
+    public int packSize;
+
+    private File directory;
+    private RaasDaoLocalLog dao;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException, ExecutionException {
+        directory = Files.createTempDirectory("raas-log").toFile();
+        dao = new RaasDaoLocalLog(directory.getPath(), 1, 1, 64 * 1024 * 1024, 1000, 60_000, 3_600_000);
+
+        // Load alarms in batches.
+        //
+        for (int i = 0; i < alarmsCount; i += LOADING_BATCH_SIZE) {
+            RawAlarmsBatch batch = new RawAlarmsBatch();
+            int size = Math.min(LOADING_BATCH_SIZE, alarmsCount - i);
+            batch.alarmNotificationIdentifiers = new String[size];
+            batch.alarmValues = new String[size];
+            for (int j = 0; j < size; j++) {
+                batch.alarmNotificationIdentifiers[j] = "alarm:" + (i + j);
+                batch.alarmValues[j] = VALUE;
+            }
+            dao.saveAlarmsBatchAsync(DOMAIN, ADAPTER_NAME, batch).get();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        dao.close();
+        Files.walk(directory.toPath()).sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+
+    @Benchmark
+    public RawAlarmsPack queryFirstPack() {
+        return dao.queryAlarms(DOMAIN, ADAPTER_NAME, SUBPARTITION_NAME, null, packSize);
+    }
+
+    @Benchmark
+    public RawAlarmsPack queryNextPack() {
+        // (Tags of this Dao are offsets in a partition of the log.)
+        String tag = String.valueOf(ThreadLocalRandom.current().nextInt(alarmsCount));
+        return dao.queryAlarms(DOMAIN, ADAPTER_NAME, SUBPARTITION_NAME, tag, packSize);
+    }
+
+    @Benchmark
+    public void createOrUpdateAlarm() {
+        dao.createOrUpdateAlarm(DOMAIN, ADAPTER_NAME, "alarm:" + ThreadLocalRandom.current().nextInt(alarmsCount), VALUE);
+    }
+}
@@ -0,0 +1,488 @@
+package com.j9soft.poc.alarms;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An end to end load generator. It starts the application (with the chosen Dao) and drives it over HTTP
+ * with a fleet of adapters and a population of clients:
+ * - writers send PUT and DELETE requests of random alarms of random adapters,
+ * - clients run full paginated resynchronizations of random adapters. (GET /v2/rawalarms with tagOfTheFirstAlarmToBeReturned)
+ *
+ * It reports throughput and p50/p99/p99.9 latency per endpoint (HdrHistogram), resynchronization completion time
+ * and heap/GC behavior during the measurement. (The application, the embedded Kafka broker and the generator run
+ * in one JVM, so heap/GC figures include the generator and are only for comparing Daos under the same load.
+ * Bytes allocated by threads of the application, e.g. http-nio, tailer and kafka ones, are reported apart from the ones
+ * allocated by threads of the generator. Use --url to load an external application.)
+ *
+ * If --writeRate is set, writers send at that rate and latency is measured from the intended start of each request.
+ * (i.e. it is corrected for coordinated omission) Otherwise writers send as fast as the application answers.
+ *
+ * Usage: mvn -Ploadtest test-compile exec:exec -Dloadtest.args="--dao=kafka --adapters=1000 --clients=20"
+ * Options other than the ones below are passed to the application. (e.g. --kafka-subpartitions-per-adapter=2)
+ */
+public class RaasLoadGenerator {
+
+    private static final String SECRET_KEY = "secretkey";  // (the same as in AuthorizationHeaderJwtFilter)
+    private static final String DOMAIN = "loadtest";
+    private static final String VALUE_FORMAT =
+            "{\"perceivedSeverity\":\"%d\",\"additionalText\":\"foo bar\",\"moIdentifier\":\"cell:%d\"}";
+    private static final int PRELOAD_BATCH_SIZE = 1000;
+
+    private static final String PUT = "PUT /v2/rawalarms/{id}";
+    private static final String DELETE = "DELETE /v2/rawalarms/{id}";
+    private static final String GET_SUBPARTITIONS = "GET /v2/rawalarmssubpartitions";
+    private static final String GET = "GET /v2/rawalarms";
+    private static final String RESYNC = "resync";
+
+    // Options. (--name=value)
+    private String dao = "kafka";                 // mock, kafka or edge
+    private String url = null;                    // base URL of an external application (then no application is started)
+    private int adapters = 1000;
+    private int alarmsPerAdapter = 100;           // preloaded, then updated and removed at random
+    private int writers = 16;                     // threads
+    private int writeRate = 0;                    // requests per second of all writers (0 means as fast as possible)
+    private long writes = 0;                      // writes to be sent (0 means until the end of the measurement)
+    private double deleteRatio = 0.1;
+    private int clients = 20;                     // threads, each runs one resynchronization after another
+    private int packSize = 100;
+    private int kafkaPartitions = 4;
+    private int warmupSeconds = 10;
+    private int durationSeconds = 60;
+    private String histogramsDirectory = null;    // where percentile distributions are saved (.hgrm)
+
+    private final Map<String, String> applicationProperties = new LinkedHashMap<>();
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<String, Recorder> recorders = new LinkedHashMap<>();
+    private final Map<String, LongAdder> errors = new HashMap<>();
+    private final LongAdder resyncedAlarms = new LongAdder();
+    private final AtomicLong remainingWrites = new AtomicLong(Long.MAX_VALUE);
+    private String[] authorizations;
+    private final Set<Long> generatorThreadIds = ConcurrentHashMap.newKeySet();  // (i.e. not threads of the application)
+    private volatile boolean running = true;
+    private volatile long maxHeapUsed = 0;
+
+    public static void main(String[] args) throws Exception {
+        RaasLoadGenerator generator = new RaasLoadGenerator();
+        generator.parse(args);
+        generator.run();
+        System.exit(0);  // (e.g. threads of the embedded broker are not daemons)
+    }
+
+    private void parse(String[] args) {
+        // (Logging of every request would be measured too.)
+        applicationProperties.put("logging.level.root", "warn");
+        applicationProperties.put("logging.level.com.j9soft.poc.alarms", "warn");
+
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Invalid argument (expected --name=value): " + arg);
+            }
+            String name = arg.substring(2, arg.indexOf('='));
+            String value = arg.substring(arg.indexOf('=') + 1);
+            switch (name) {
+                case "dao": dao = value; break;
+                case "url": url = value; break;
+                case "adapters": adapters = Integer.parseInt(value); break;
+                case "alarmsPerAdapter": alarmsPerAdapter = Integer.parseInt(value); break;
+                case "writers": writers = Integer.parseInt(value); break;
+                case "writeRate": writeRate = Integer.parseInt(value); break;
+                case "writes": writes = Long.parseLong(value); break;
+                case "deleteRatio": deleteRatio = Double.parseDouble(value); break;
+                case "clients": clients = Integer.parseInt(value); break;
+                case "packSize": packSize = Integer.parseInt(value); break;
+                case "kafkaPartitions": kafkaPartitions = Integer.parseInt(value); break;
+                case "warmupSeconds": warmupSeconds = Integer.parseInt(value); break;
+                case "durationSeconds": durationSeconds = Integer.parseInt(value); break;
+                case "histogramsDirectory": histogramsDirectory = value; break;
+                default: applicationProperties.put(name, value);
+            }
+        }
+    }
+
+    private void run() throws Exception {
+        for (String endpoint : new String[] {PUT, DELETE, GET_SUBPARTITIONS, GET, RESYNC}) {
+            recorders.put(endpoint, new Recorder(TimeUnit.HOURS.toMicros(1), 3));
+            errors.put(endpoint, new LongAdder());
+        }
+        authorizations = new String[adapters];
+        for (int i = 0; i < adapters; i++) {
+            authorizations[i] = "Bearer " + Jwts.builder().claim("domain", DOMAIN).claim("adapterName", "Adapter" + i)
+                    .signWith(SignatureAlgorithm.HS256, SECRET_KEY).compact();
+        }
+        System.setProperty("http.maxConnections", String.valueOf(writers + clients));  // (keep-alive connections per host)
+
+        // Start the application.
+        //
+        RaasDaoKafkaTestEmbeddedBroker embeddedBroker = null;
+        ConfigurableApplicationContext application = null;
+        if (url == null) {
+            if ("kafka".equals(dao)) {
+                embeddedBroker = new RaasDaoKafkaTestEmbeddedBroker();
+                embeddedBroker.init();
+                embeddedBroker.createTopic(new KafkaConnector().getTopicName(), kafkaPartitions);
+                applicationProperties.putIfAbsent("spring.profiles.active", "kafka-dev");
+                applicationProperties.putIfAbsent("kafka-host", "127.0.0.1");
+                applicationProperties.putIfAbsent("kafka-port", "9092");
+            } else if ("edge".equals(dao)) {
+                applicationProperties.putIfAbsent("spring.profiles.active", "edge");
+                applicationProperties.putIfAbsent("edge-log-directory",
+                        Files.createTempDirectory("raas-loadtest-").toAbsolutePath().toString());
+            } else if (!"mock".equals(dao)) {
+                throw new IllegalArgumentException("Unknown dao (expected mock, kafka or edge): " + dao);
+            }
+            applicationProperties.putIfAbsent("server.port", "0");
+
+            System.setProperty("spring.devtools.restart.enabled", "false");  // (a restart would run main() of this class again)
+            List<String> applicationArgs = new ArrayList<>();
+            applicationProperties.forEach((name, value) -> applicationArgs.add("--" + name + "=" + value));
+            application = SpringApplication.run(RaasApplication.class, applicationArgs.toArray(new String[0]));
+            url = "http://localhost:" + ((ServletWebServerApplicationContext) application).getWebServer().getPort();
+        }
+        System.out.printf("Load of %s (dao=%s): adapters=%d, alarmsPerAdapter=%d, writers=%d, writeRate=%d, clients=%d, packSize=%d%n",
+                url, dao, adapters, alarmsPerAdapter, writers, writeRate, clients, packSize);
+
+        // Preload alarms of all adapters. (so that resynchronizations read full partitions)
+        //
+        long preloadStartTime = System.nanoTime();
+        preload();
+        long preloadNanos = System.nanoTime() - preloadStartTime;
+        System.out.printf("Preloaded %d alarms in %.1f s (%.0f alarms/s)%n", (long) adapters * alarmsPerAdapter,
+                preloadNanos / 1e9, (double) adapters * alarmsPerAdapter * 1e9 / preloadNanos);
+
+        // Run the workload. (Histograms of the warmup are discarded.)
+        //
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < writers; i++) {
+            threads.add(new Thread(this::write, "writer-" + i));
+        }
+        for (int i = 0; i < clients; i++) {
+            threads.add(new Thread(this::resync, "client-" + i));
+        }
+        threads.forEach(thread -> generatorThreadIds.add(thread.getId()));
+        generatorThreadIds.add(Thread.currentThread().getId());
+        threads.forEach(Thread::start);
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(warmupSeconds));
+        recorders.values().forEach(Recorder::getIntervalHistogram);
+        errors.values().forEach(LongAdder::reset);
+        resyncedAlarms.reset();
+        if (writes > 0) {
+            remainingWrites.set(writes);
+        }
+
+        Thread heapSampler = new Thread(this::sampleHeap, "heap-sampler");
+        heapSampler.setDaemon(true);
+        generatorThreadIds.add(heapSampler.getId());
+        heapSampler.start();
+        Map<String, long[]> gcStart = getGcCounters();
+        Map<Long, Long> allocatedStart = getAllocatedBytes();
+        long measurementStartTime = System.nanoTime();
+
+        long deadline = measurementStartTime + TimeUnit.SECONDS.toNanos(durationSeconds);
+        while (System.nanoTime() < deadline && remainingWrites.get() > 0) {
+            Thread.sleep(100);
+        }
+        double measurementSeconds = (System.nanoTime() - measurementStartTime) / 1e9;
+        Map<String, Histogram> histograms = new LinkedHashMap<>();
+        recorders.forEach((endpoint, recorder) -> histograms.put(endpoint, recorder.getIntervalHistogram()));
+        Map<String, long[]> gcEnd = getGcCounters();
+        Map<Long, Long> allocatedEnd = getAllocatedBytes();
+
+        running = false;
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        report(histograms, measurementSeconds, gcStart, gcEnd, allocatedStart, allocatedEnd, application != null);
+
+        if (application != null) {
+            application.close();
+        }
+        if (embeddedBroker != null) {
+            embeddedBroker.close();
+        }
+    }
+
+    private void preload() throws IOException {
+        for (int adapter = 0; adapter < adapters; adapter++) {
+            for (int first = 0; first < alarmsPerAdapter; first += PRELOAD_BATCH_SIZE) {
+                int size = Math.min(PRELOAD_BATCH_SIZE, alarmsPerAdapter - first);
+                RawAlarmsBatch batch = new RawAlarmsBatch();
+                batch.alarmNotificationIdentifiers = new String[size];
+                batch.alarmValues = new String[size];
+                for (int i = 0; i < size; i++) {
+                    batch.alarmNotificationIdentifiers[i] = "alarm:" + (first + i);
+                    batch.alarmValues[i] = String.format(VALUE_FORMAT, 1, first + i);
+                }
+                int status = send("POST", new URL(url + "/v2/rawalarmsbatch"), authorizations[adapter],
+                        mapper.writeValueAsBytes(batch), null);
+                if (status != HttpURLConnection.HTTP_OK) {
+                    throw new IOException("Failed to preload alarms of Adapter" + adapter + ": status=" + status);
+                }
+            }
+        }
+    }
+
+    /*
+     * Sends PUT and DELETE requests of random alarms of random adapters.
+     */
+    private void write() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long intervalNanos = (writeRate > 0) ? TimeUnit.SECONDS.toNanos(writers) / writeRate : 0;
+        long intendedStartTime = System.nanoTime();
+
+        while (running && remainingWrites.decrementAndGet() >= 0) {
+            if (intervalNanos > 0) {
+                intendedStartTime += intervalNanos;
+                long delay = intendedStartTime - System.nanoTime();
+                if (delay > 0) {
+                    LockSupport.parkNanos(delay);
+                }
+            } else {
+                intendedStartTime = System.nanoTime();
+            }
+
+            int adapter = random.nextInt(adapters);
+            int alarm = random.nextInt(alarmsPerAdapter);
+            boolean delete = random.nextDouble() < deleteRatio;
+            String endpoint = delete ? DELETE : PUT;
+            try {
+                int status = send(delete ? "DELETE" : "PUT", new URL(url + "/v2/rawalarms/alarm:" + alarm),
+                        authorizations[adapter],
+                        delete ? null : String.format(VALUE_FORMAT, random.nextInt(1, 6), alarm).getBytes(StandardCharsets.UTF_8),
+                        null);
+                record(endpoint, intendedStartTime, status);
+            } catch (IOException e) {
+                errors.get(endpoint).increment();
+            }
+        }
+    }
+
+    /*
+     * Runs full resynchronizations of random adapters. (i.e. reads all packs of all their subpartitions)
+     */
+    private void resync() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (running) {
+            int adapter = random.nextInt(adapters);
+            long resyncStartTime = System.nanoTime();
+            try {
+                ByteArrayOutputStream response = new ByteArrayOutputStream();
+                long startTime = System.nanoTime();
+                int status = send("GET", new URL(url + "/v2/rawalarmssubpartitions"), authorizations[adapter], null, response);
+                if (!record(GET_SUBPARTITIONS, startTime, status)) {
+                    errors.get(RESYNC).increment();
+                    continue;
+                }
+
+                boolean completed = true;
+                for (String subpartitionName : mapper.readValue(response.toByteArray(), String[].class)) {
+                    String tag = null;
+                    do {
+                        response.reset();
+                        startTime = System.nanoTime();
+                        status = send("GET", new URL(url + "/v2/rawalarms?subpartitionName=" + subpartitionName
+                                        + "&howMany=" + packSize
+                                        + (tag == null ? "" : "&tagOfTheFirstAlarmToBeReturned=" + URLEncoder.encode(tag, "UTF-8"))),
+                                authorizations[adapter], null, response);
+                        if (!record(GET, startTime, status)) {
+                            completed = false;
+                            break;
+                        }
+                        RawAlarmsPack pack = mapper.readValue(response.toByteArray(), RawAlarmsPack.class);
+                        resyncedAlarms.add(pack.alarmNotificationIdentifiers.length);
+                        tag = pack.tagOfTheNextAvailableAlarm;
+                    } while (tag != null && running);
+                }
+                if (!completed) {
+                    errors.get(RESYNC).increment();  // (i.e. a page failed)
+                } else if (running) {
+                    record(RESYNC, resyncStartTime, HttpURLConnection.HTTP_OK);
+                }
+            } catch (IOException e) {
+                errors.get(RESYNC).increment();
+            }
+        }
+    }
+
+    /*
+     * Records latency of a request (or counts an error) and returns whether it succeeded.
+     */
+    private boolean record(String endpoint, long startTime, int status) {
+        if (status != HttpURLConnection.HTTP_OK) {
+            errors.get(endpoint).increment();
+            return false;
+        }
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startTime);
+        recorders.get(endpoint).recordValue(Math.min(micros, TimeUnit.HOURS.toMicros(1)));
+        return true;
+    }
+
+    /*
+     * Sends a request and reads its whole response. (so that the connection is reused)
+     */
+    private static int send(String method, URL url, String authorization, byte[] body, ByteArrayOutputStream response)
+            throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod(method);
+        connection.setRequestProperty("Authorization", authorization);
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            connection.setFixedLengthStreamingMode(body.length);
+            try (OutputStream output = connection.getOutputStream()) {
+                output.write(body);
+            }
+        }
+
+        int status = connection.getResponseCode();
+        InputStream input = (status < HttpURLConnection.HTTP_BAD_REQUEST) ? connection.getInputStream() : connection.getErrorStream();
+        if (input != null) {
+            try (InputStream in = input) {
+                byte[] buffer = new byte[8192];
+                int count;
+                while ((count = in.read(buffer)) >= 0) {
+                    if (response != null) {
+                        response.write(buffer, 0, count);
+                    }
+                }
+            }
+        }
+        return status;
+    }
+
+    private void sampleHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        while (running) {
+            maxHeapUsed = Math.max(maxHeapUsed, memory.getHeapMemoryUsage().getUsed());
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(200));
+        }
+    }
+
+    private static Map<String, long[]> getGcCounters() {
+        Map<String, long[]> counters = new LinkedHashMap<>();
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            counters.put(collector.getName(), new long[] {collector.getCollectionCount(), collector.getCollectionTime()});
+        }
+        return counters;
+    }
+
+    /*
+     * Returns bytes allocated by each live thread. (null if the JVM does not measure it)
+     */
+    private static Map<Long, Long> getAllocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        long[] threadIds = threads.getAllThreadIds();
+        long[] allocated = ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(threadIds);
+        Map<Long, Long> bytes = new HashMap<>();
+        for (int i = 0; i < threadIds.length; i++) {
+            if (allocated[i] >= 0) {
+                bytes.put(threadIds[i], allocated[i]);
+            }
+        }
+        return bytes;
+    }
+
+    /*
+     * Returns bytes allocated during the measurement by threads of the generator or by the other ones.
+     * (Threads started meanwhile count from zero, threads which ended meanwhile are not counted.)
+     */
+    private long getAllocatedBytes(Map<Long, Long> start, Map<Long, Long> end, boolean ofGenerator) {
+        long bytes = 0;
+        for (Map.Entry<Long, Long> thread : end.entrySet()) {
+            if (generatorThreadIds.contains(thread.getKey()) == ofGenerator) {
+                bytes += thread.getValue() - start.getOrDefault(thread.getKey(), 0L);
+            }
+        }
+        return bytes;
+    }
+
+    private void report(Map<String, Histogram> histograms, double seconds, Map<String, long[]> gcStart, Map<String, long[]> gcEnd,
+                        Map<Long, Long> allocatedStart, Map<Long, Long> allocatedEnd, boolean applicationInProcess)
+            throws IOException {
+        PrintStream out = System.out;
+        out.printf("%nMeasured %.1f s:%n", seconds);
+        out.printf("%-32s %10s %10s %8s %9s %9s %9s %9s%n", "endpoint", "count", "per s", "errors", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            Histogram histogram = entry.getValue();
+            out.printf("%-32s %10d %10.1f %8d %9.2f %9.2f %9.2f %9.2f%n", entry.getKey(),
+                    histogram.getTotalCount(), histogram.getTotalCount() / seconds, errors.get(entry.getKey()).sum(),
+                    histogram.getValueAtPercentile(50) / 1000.0, histogram.getValueAtPercentile(99) / 1000.0,
+                    histogram.getValueAtPercentile(99.9) / 1000.0, histogram.getMaxValue() / 1000.0);
+        }
+        out.printf("Resynchronized alarms: %d (%.0f per s)%n", resyncedAlarms.sum(), resyncedAlarms.sum() / seconds);
+
+        // (Heap and GC are shared by the application and the generator, i.e. they are not split.)
+        String jvm = applicationInProcess ? "application and generator" : "generator only";
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        out.printf("Heap (%s): max used %.1f MB, committed %.1f MB, limit %.1f MB%n", jvm, maxHeapUsed / 1e6,
+                memory.getHeapMemoryUsage().getCommitted() / 1e6, memory.getHeapMemoryUsage().getMax() / 1e6);
+        for (Map.Entry<String, long[]> collector : gcEnd.entrySet()) {
+            long[] start = gcStart.getOrDefault(collector.getKey(), new long[2]);
+            out.printf("GC %s (%s): %d collections, %d ms%n", collector.getKey(), jvm,
+                    collector.getValue()[0] - start[0], collector.getValue()[1] - start[1]);
+        }
+        if (allocatedStart != null && allocatedEnd != null) {
+            if (applicationInProcess) {
+                long applicationBytes = getAllocatedBytes(allocatedStart, allocatedEnd, false);
+                out.printf("Allocated by application threads: %.1f MB (%.1f MB/s)%n",
+                        applicationBytes / 1e6, applicationBytes / 1e6 / seconds);
+            }
+            long generatorBytes = getAllocatedBytes(allocatedStart, allocatedEnd, true);
+            out.printf("Allocated by generator threads: %.1f MB (%.1f MB/s)%n", generatorBytes / 1e6, generatorBytes / 1e6 / seconds);
+        }
+
+        // Save full distributions. (e.g. to compare Daos with HdrHistogram's plotter)
+        //
+        if (histogramsDirectory != null) {
+            File directory = new File(histogramsDirectory);
+            Files.createDirectories(directory.toPath());
+            for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+                String fileName = dao + "-" + entry.getKey().replaceAll("[^A-Za-z0-9]+", "_") + ".hgrm";
+                try (PrintStream file = new PrintStream(new File(directory, fileName), "UTF-8")) {
+                    entry.getValue().outputPercentileDistribution(file, 1000.0);  // (in milliseconds)
+                }
+            }
+            out.printf("Histograms saved in: %s%n", directory.getAbsolutePath());
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.j9soft.poc.alarms;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Limits of writes of each adapter, so that one adapter is not able to fill the shared producer's buffer
+ * and to stall writes of all other adapters. (e.g. during its alarm storm)
+ *
+ * An adapter has a token bucket (i.e. a sustained rate of written alarms and a burst of alarms saved up while it was quiet)
+ * and a limit of bytes of its requests which are not yet saved. (i.e. a batch weighs more than a single alarm)
+ * A request takes a token and a batch takes one more for each further alarm. (See {@link #tryAcquireRecords})
+ * A request which exceeds a limit is rejected at once, i.e. it does not wait for tokens or for other requests.
+ * (A request bigger than the bytes limit is admitted when the adapter has no other requests in flight.
+ * A batch bigger than the bucket is admitted when the bucket is full, its tokens are then paid off by the rate.)
+ *
+ * Adapters which were idle for a while (i.e. with a full bucket and no bytes in flight) are forgotten,
+ * so the number of kept adapters is not growing. (Their state is the same as of a new adapter.)
+ *
+ * Metrics: "raas.admission.rejected" (rejected requests per domain and reason)
+ * and "raas.admission.in.flight.bytes" (bytes of requests of all adapters which are not yet completed).
+ * (Adapters are not used as tags, because their number is not limited.)
+ */
+class AdapterAdmissionControl {
+
+    static final long ADMITTED = 0;
+
+    static final String REASON_RATE = "rate";
+    static final String REASON_IN_FLIGHT_BYTES = "inFlightBytes";
+
+    private static final long IDLE_ADAPTERS_EVICTION_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private static final class Adapter {
+        final double ratePerSecond;
+        final double capacity;
+        final AtomicLong inFlightBytes = new AtomicLong();  // (released without the lock)
+
+        double tokens;        // (guarded by this)
+        long lastRefillTime;  // (guarded by this)
+        boolean evicted;      // (guarded by this, i.e. the adapter is no longer in the map)
+
+        Adapter(double ratePerSecond, double capacity, long now) {
+            this.ratePerSecond = ratePerSecond;
+            this.capacity = capacity;
+            this.tokens = capacity;
+            this.lastRefillTime = now;
+        }
+
+        void refill(long now) {
+            tokens = Math.min(capacity, tokens + (now - lastRefillTime) * ratePerSecond / TimeUnit.SECONDS.toNanos(1));
+            lastRefillTime = now;
+        }
+    }
+
+    private final int defaultRatePerSecond;
+    private final Map<RawAlarmsPartitionDefinition, Integer> ratesPerSecond;
+    private final double burstSeconds;
+    private final long maxInFlightBytes;
+    private final MeterRegistry meterRegistry;
+    private final LongSupplier nanoTime;
+
+    private final Map<RawAlarmsPartitionDefinition, Adapter> adapters = new ConcurrentHashMap<>();
+    private final AtomicLong inFlightBytes = new AtomicLong();  // (of all adapters)
+    private final AtomicLong lastEvictionTime;
+
+    /**
+     * @param ratePerSecond written alarms per second of an adapter (0 disables the limit)
+     * @param ratesPerSecond rates of chosen adapters (e.g. of big ones)
+     * @param burstSeconds number of seconds of the rate which an adapter may use at once (i.e. the size of its bucket)
+     * @param maxInFlightBytes bytes of not completed write requests of an adapter (0 disables the limit)
+     */
+    AdapterAdmissionControl(int ratePerSecond, Map<RawAlarmsPartitionDefinition, Integer> ratesPerSecond, double burstSeconds,
+                            long maxInFlightBytes, MeterRegistry meterRegistry) {
+        this(ratePerSecond, ratesPerSecond, burstSeconds, maxInFlightBytes, meterRegistry, System::nanoTime);
+    }
+
+    AdapterAdmissionControl(int ratePerSecond, Map<RawAlarmsPartitionDefinition, Integer> ratesPerSecond, double burstSeconds,
+                            long maxInFlightBytes, MeterRegistry meterRegistry, LongSupplier nanoTime) {
+        this.defaultRatePerSecond = ratePerSecond;
+        this.ratesPerSecond = ratesPerSecond;
+        this.burstSeconds = burstSeconds;
+        this.maxInFlightBytes = maxInFlightBytes;
+        this.meterRegistry = meterRegistry;
+        this.nanoTime = nanoTime;
+        this.lastEvictionTime = new AtomicLong(nanoTime.getAsLong());
+
+        Gauge.builder("raas.admission.in.flight.bytes", inFlightBytes, AtomicLong::get).register(meterRegistry);
+    }
+
+    /**
+     * Parses rates of chosen adapters. (in the format of {@link HashingSubpartitionAssignmentStrategy#parseSubpartitionsCounts})
+     *
+     * @param ratesPerSecond e.g. "CAdev/BigAdapter=5000"
+     */
+    static Map<RawAlarmsPartitionDefinition, Integer> parseRatesPerSecond(String ratesPerSecond) {
+        return HashingSubpartitionAssignmentStrategy.parseAdapterNumbers(ratesPerSecond,
+                "Invalid rate of writes of an adapter (expected 'domain/adapterName=ratePerSecond'): ");
+    }
+
+    /**
+     * Admits a write request of an adapter. (It takes one token.) An admitted request has to be released when it is completed.
+     *
+     * @param bytes size of the request
+     * @return {@link #ADMITTED} or number of seconds after which the adapter should retry
+     */
+    long tryAcquire(RawAlarmsPartitionDefinition partitionDefinition, long bytes) {
+        long now = nanoTime.getAsLong();
+        evictIdleAdapters(now);
+
+        while (true) {
+            Adapter adapter = adapters.computeIfAbsent(partitionDefinition, d -> createAdapter(d, now));
+            synchronized (adapter) {
+                if (adapter.evicted) {
+                    continue;  // (it was forgotten meanwhile, i.e. a new one is created)
+                }
+
+                // Check bytes of requests in flight.
+                //
+                long adapterInFlightBytes = adapter.inFlightBytes.get();
+                if (maxInFlightBytes > 0 && adapterInFlightBytes + bytes > maxInFlightBytes && adapterInFlightBytes != 0) {
+                    rejectionsCounter(partitionDefinition, REASON_IN_FLIGHT_BYTES).increment();
+                    return 1;  // (we do not know when other requests complete, but it is usually sooner)
+                }
+
+                // Take a token.
+                //
+                long retryAfterSeconds = takeTokens(adapter, 1, now);
+                if (retryAfterSeconds != ADMITTED) {
+                    rejectionsCounter(partitionDefinition, REASON_RATE).increment();
+                    return retryAfterSeconds;
+                }
+
+                adapter.inFlightBytes.addAndGet(bytes);
+                inFlightBytes.addAndGet(bytes);
+                return ADMITTED;
+            }
+        }
+    }
+
+    /**
+     * Takes tokens for further alarms of an admitted batch. (i.e. beside the one taken by {@link #tryAcquire})
+     * A rejected batch has to be released, the same as an admitted one.
+     *
+     * @return {@link #ADMITTED} or number of seconds after which the adapter should retry
+     */
+    long tryAcquireRecords(RawAlarmsPartitionDefinition partitionDefinition, int recordsCount) {
+        if (recordsCount <= 0) {
+            return ADMITTED;
+        }
+        long now = nanoTime.getAsLong();
+
+        while (true) {
+            Adapter adapter = adapters.computeIfAbsent(partitionDefinition, d -> createAdapter(d, now));
+            synchronized (adapter) {
+                if (adapter.evicted) {
+                    continue;
+                }
+                long retryAfterSeconds = takeTokens(adapter, recordsCount, now);
+                if (retryAfterSeconds != ADMITTED) {
+                    rejectionsCounter(partitionDefinition, REASON_RATE).increment();
+                }
+                return retryAfterSeconds;
+            }
+        }
+    }
+
+    /**
+     * Releases bytes of an admitted request. (when it is completed, i.e. when its alarms are saved or it failed)
+     */
+    void release(RawAlarmsPartitionDefinition partitionDefinition, long bytes) {
+        Adapter adapter = adapters.get(partitionDefinition);  // (an adapter with bytes in flight is not evicted)
+        if (adapter != null) {
+            adapter.inFlightBytes.addAndGet(-bytes);
+            inFlightBytes.addAndGet(-bytes);
+        }
+    }
+
+    /**
+     * Returns number of kept adapters. (i.e. of adapters which were not idle recently)
+     */
+    int getAdaptersCount() {
+        return adapters.size();
+    }
+
+    private Adapter createAdapter(RawAlarmsPartitionDefinition partitionDefinition, long now) {
+        double ratePerSecond = ratesPerSecond.getOrDefault(partitionDefinition, defaultRatePerSecond);
+        return new Adapter(ratePerSecond, Math.max(1, ratePerSecond * burstSeconds), now);
+    }
+
+    /*
+     * Takes tokens from the bucket of an adapter. (Note: It needs to be invoked with the lock of the adapter.)
+     * More tokens than the bucket holds are taken when it is full. (i.e. its tokens go below zero)
+     */
+    private static long takeTokens(Adapter adapter, int count, long now) {
+        if (adapter.ratePerSecond <= 0) {
+            return ADMITTED;
+        }
+        adapter.refill(now);
+        double missingTokens = Math.min(count, adapter.capacity) - adapter.tokens;
+        if (missingTokens > 0) {
+            return Math.max(1, (long) Math.ceil(missingTokens / adapter.ratePerSecond));
+        }
+        adapter.tokens -= count;
+        return ADMITTED;
+    }
+
+    /*
+     * Forgets adapters with a full bucket and no bytes in flight. (once per interval, by the thread which notices it)
+     */
+    private void evictIdleAdapters(long now) {
+        long lastTime = lastEvictionTime.get();
+        if (now - lastTime < IDLE_ADAPTERS_EVICTION_INTERVAL_NANOS || !lastEvictionTime.compareAndSet(lastTime, now)) {
+            return;
+        }
+
+        Iterator<Map.Entry<RawAlarmsPartitionDefinition, Adapter>> iterator = adapters.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Adapter adapter = iterator.next().getValue();
+            synchronized (adapter) {
+                if (adapter.ratePerSecond > 0) {
+                    adapter.refill(now);
+                }
+                if (adapter.inFlightBytes.get() == 0 && adapter.tokens >= adapter.capacity) {
+                    adapter.evicted = true;
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /*
+     * (Counters are registered once, i.e. a registry returns the existing one.)
+     */
+    private Counter rejectionsCounter(RawAlarmsPartitionDefinition partitionDefinition, String reason) {
+        return Counter.builder("raas.admission.rejected")
+                .tag("domain", partitionDefinition.getDomain())
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,153 @@
+package com.j9soft.poc.alarms;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.GenericFilterBean;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A filter which admits write requests (PUT, POST, PATCH and DELETE) according to limits of their adapter.
+ * (See {@link AdapterAdmissionControl}) The adapter is read from "partitionDefinition" request attribute,
+ * i.e. this filter follows {@link AuthorizationHeaderJwtFilter}.
+ *
+ * A rejected request gets "429 Too Many Requests" with "Retry-After" header at once. (i.e. no servlet thread waits)
+ * Bytes of an admitted request are released when its response is sent. (i.e. also after an asynchronous processing)
+ *
+ * The admission control is provided to the controller as "admissionControl" request attribute, because alarms
+ * of a batch are known only after its body is read. (See {@link AdapterAdmissionControl#tryAcquireRecords})
+ */
+@Component
+class AdapterAdmissionFilter extends GenericFilterBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdapterAdmissionFilter.class);
+
+    static final int SC_TOO_MANY_REQUESTS = 429;
+
+    static final String ADMISSION_CONTROL_ATTRIBUTE = "admissionControl";
+
+    private final AdapterAdmissionControl admissionControl;
+
+    @Autowired
+    AdapterAdmissionFilter(@Value("${admission-rate-per-adapter:1000}") int ratePerSecond,
+                           @Value("${admission-rate-per-adapter-overrides:}") String ratesPerSecond,
+                           @Value("${admission-burst-seconds:5}") double burstSeconds,
+                           @Value("${admission-in-flight-bytes-per-adapter:4194304}") long maxInFlightBytes,
+                           MeterRegistry meterRegistry) {
+        this(new AdapterAdmissionControl(ratePerSecond, AdapterAdmissionControl.parseRatesPerSecond(ratesPerSecond),
+                burstSeconds, maxInFlightBytes, meterRegistry));
+    }
+
+    AdapterAdmissionFilter(AdapterAdmissionControl admissionControl) {
+        this.admissionControl = admissionControl;
+    }
+
+    @Override
+    public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain filterChain)
+            throws IOException, ServletException {
+
+        final HttpServletRequest request = (HttpServletRequest) servletRequest;
+        final HttpServletResponse response = (HttpServletResponse) servletResponse;
+        final RawAlarmsPartitionDefinition partitionDefinition =
+                (RawAlarmsPartitionDefinition) request.getAttribute("partitionDefinition");
+
+        if (partitionDefinition == null || !isWrite(request.getMethod())) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        long bytes = Math.max(0, request.getContentLengthLong());  // (unknown for chunked requests, they are limited by the rate)
+        long retryAfterSeconds = admissionControl.tryAcquire(partitionDefinition, bytes);
+        if (retryAfterSeconds != AdapterAdmissionControl.ADMITTED) {
+            logger.info("doFilter: domain='{}', adapterName='{}' - rejected: retryAfter={}",
+                    partitionDefinition.getDomain(), partitionDefinition.getAdapterName(), retryAfterSeconds);
+            response.setStatus(SC_TOO_MANY_REQUESTS);
+            response.setHeader("Retry-After", String.valueOf(retryAfterSeconds));
+            return;
+        }
+
+        AtomicBoolean released = new AtomicBoolean(false);
+        Runnable release = () -> {
+            if (released.compareAndSet(false, true)) {
+                admissionControl.release(partitionDefinition, bytes);
+            }
+        };
+        AdmittedRequest admittedRequest = new AdmittedRequest(request, release);
+        admittedRequest.setAttribute(ADMISSION_CONTROL_ATTRIBUTE, admissionControl);
+        try {
+            filterChain.doFilter(admittedRequest, response);
+        } finally {
+            if (!admittedRequest.asyncStarted) {
+                release.run();
+            }
+        }
+    }
+
+    /*
+     * Releases bytes of a request when its asynchronous processing ends. (The response is sent when the alarms are saved,
+     * see RaasV2Controller.) The listener is added when the processing starts, i.e. before it may be completed.
+     */
+    private static final class AdmittedRequest extends HttpServletRequestWrapper {
+        private final AsyncListener releasingListener;
+        volatile boolean asyncStarted = false;
+
+        AdmittedRequest(HttpServletRequest request, Runnable release) {
+            super(request);
+            this.releasingListener = new AsyncListener() {
+                @Override
+                public void onComplete(AsyncEvent event) {
+                    release.run();
+                }
+
+                @Override
+                public void onTimeout(AsyncEvent event) {
+                    release.run();
+                }
+
+                @Override
+                public void onError(AsyncEvent event) {
+                    release.run();
+                }
+
+                @Override
+                public void onStartAsync(AsyncEvent event) {
+                }
+            };
+        }
+
+        @Override
+        public AsyncContext startAsync() {
+            return started(super.startAsync());
+        }
+
+        @Override
+        public AsyncContext startAsync(ServletRequest servletRequest, ServletResponse servletResponse) {
+            return started(super.startAsync(servletRequest, servletResponse));
+        }
+
+        private AsyncContext started(AsyncContext asyncContext) {
+            asyncContext.addListener(releasingListener);
+            asyncStarted = true;
+            return asyncContext;
+        }
+    }
+
+    private static boolean isWrite(String method) {
+        return "PUT".equals(method) || "POST".equals(method) || "PATCH".equals(method) || "DELETE".equals(method);
+    }
+}
@@ -0,0 +1,20 @@
+package com.j9soft.poc.alarms;
+
+/**
+ * Thrown when a write request exceeds limits of its adapter. (See {@link AdapterAdmissionControl})
+ * (i.e. "429 Too Many Requests" with "Retry-After" header is returned, the same as by {@link AdapterAdmissionFilter})
+ */
+class AdmissionRejectedException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    AdmissionRejectedException(RawAlarmsPartitionDefinition partitionDefinition, long retryAfterSeconds) {
+        super("Limits of adapter " + partitionDefinition.getDomain() + "/" + partitionDefinition.getAdapterName()
+                + " are exceeded, retry after " + retryAfterSeconds + " s");
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -1,8 +1,14 @@
 package com.j9soft.poc.alarms;
 
 import io.jsonwebtoken.Claims;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.GenericFilterBean;
@@ -14,6 +20,7 @@ import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A filter to extract domain and adapter name from the "Authorization" header of a servlet request.
@@ -26,12 +33,43 @@ import java.io.IOException;
  *  (created with 'secretkey')
  * Example request should have header "Authorization: Bearer <put here the above token>".   (Remember about "Bearer: " !!)
  *
+ * Verified tokens are cached. (See {@link VerifiedTokensCache})
+ * Only the health of the node (i.e. its readiness for load balancers, without details) is available without a token.
+ *
+ * Metrics: "raas.requests" (requests per domain and method), "raas.jwt.verify" (time of verification of a token, per result)
+ * and "raas.jwt.cache" (hits and misses of verified tokens).
+ *
  * Inspiration - https://aboullaite.me/spring-boot-token-authentication-using-jwt/
  */
 @Profile({"default","kafka-dev"})
 @Component
 class AuthorizationHeaderJwtFilter extends GenericFilterBean {
 
+    private static final RawAlarmsPartitionDefinition DEFAULT_PARTITION_DEFINITION =
+            new RawAlarmsPartitionDefinition("dev", "AdapterTest");
+
+    private static final String HEALTH_PATH = "/actuator/health";
+
+    private final VerifiedTokensCache verifiedTokens;
+    private final MeterRegistry meterRegistry;
+    private final Timer verifyTimer;
+    private final Timer failedVerifyTimer;
+
+    @Autowired
+    AuthorizationHeaderJwtFilter(@Value("${jwt-verified-tokens-cache-size:10000}") int verifiedTokensCacheSize,
+                                 MeterRegistry meterRegistry) {
+        this.verifiedTokens = new VerifiedTokensCache(verifiedTokensCacheSize);
+        this.meterRegistry = meterRegistry;
+        this.verifyTimer = Timer.builder("raas.jwt.verify").tag("result", "success")
+                .publishPercentileHistogram().register(meterRegistry);
+        this.failedVerifyTimer = Timer.builder("raas.jwt.verify").tag("result", "failure")
+                .publishPercentileHistogram().register(meterRegistry);
+        FunctionCounter.builder("raas.jwt.cache", verifiedTokens, VerifiedTokensCache::getHitsCount)
+                .tag("result", "hit").register(meterRegistry);
+        FunctionCounter.builder("raas.jwt.cache", verifiedTokens, VerifiedTokensCache::getMissesCount)
+                .tag("result", "miss").register(meterRegistry);
+    }
+
     @Override
     public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain filterChain)
             throws IOException, ServletException {
@@ -44,6 +82,8 @@ class AuthorizationHeaderJwtFilter extends GenericFilterBean {
             response.setStatus(HttpServletResponse.SC_OK);
 
             filterChain.doFilter(servletRequest, servletResponse);
+        } else if (HEALTH_PATH.equals(request.getRequestURI())) {
+            filterChain.doFilter(servletRequest, servletResponse);  // (its status is set by the health endpoint)
         } else {
 
             if (authHeader == null || !authHeader.startsWith("Bearer ")) {
@@ -52,32 +92,70 @@ class AuthorizationHeaderJwtFilter extends GenericFilterBean {
             } else {
 
                 final String token = authHeader.substring(7);
-                final Claims claims;
 
-                try {
-                    // @TODO do something about secretkey
-                    claims = Jwts.parser().setSigningKey("secretkey").parseClaimsJws(token).getBody();
-                } catch (final SignatureException e) {
-                    throw new ServletException("Invalid token - wrong Signature");
+                RawAlarmsPartitionDefinition partitionDefinition = verifiedTokens.get(token);
+                if (partitionDefinition == null) {
+                    long startTime = System.nanoTime();
+                    try {
+                        partitionDefinition = verifyToken(token);
+                    } catch (ServletException|RuntimeException e) {
+                        failedVerifyTimer.record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+                        throw e;
+                    }
+                    verifyTimer.record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
                 }
 
-                final String domain = claims.get("domain", String.class);
-                final String adapterName = claims.get("adapterName", String.class);
-
-                if (domain == null || domain.trim().isEmpty()) {
-                    throw new ServletException("Invalid token - wrong domain:" + domain);
-                }
-                if (adapterName == null || adapterName.trim().isEmpty()) {
-                    throw new ServletException("Invalid token - wrong adapterName:" + adapterName);
-                }
-
-                request.setAttribute("partitionDefinition", new RawAlarmsPartitionDefinition(domain.trim(), adapterName.trim()));
+                request.setAttribute("partitionDefinition", partitionDefinition);
             }
+            countRequest(request);
 
             filterChain.doFilter(request, response);
         }
     }
 
+    VerifiedTokensCache getVerifiedTokens() {
+        return verifiedTokens;
+    }
+
+    /*
+     * Counts a request of a domain. (Adapters are not used as tags, because their number is not limited.)
+     */
+    private void countRequest(HttpServletRequest request) {
+        RawAlarmsPartitionDefinition partitionDefinition = (RawAlarmsPartitionDefinition) request.getAttribute("partitionDefinition");
+
+        Counter.builder("raas.requests")
+                .tag("domain", partitionDefinition.getDomain())
+                .tag("method", request.getMethod())
+                .register(meterRegistry).increment();
+    }
+
+    /*
+     * Verifies signature of a token and reads domain and adapter name from its claims.
+     */
+    private RawAlarmsPartitionDefinition verifyToken(String token) throws ServletException {
+        final Claims claims;
+
+        try {
+            // @TODO do something about secretkey
+            claims = Jwts.parser().setSigningKey("secretkey").parseClaimsJws(token).getBody();
+        } catch (final SignatureException e) {
+            throw new ServletException("Invalid token - wrong Signature");
+        }
+
+        final String domain = claims.get("domain", String.class);
+        final String adapterName = claims.get("adapterName", String.class);
+
+        if (domain == null || domain.trim().isEmpty()) {
+            throw new ServletException("Invalid token - wrong domain:" + domain);
+        }
+        if (adapterName == null || adapterName.trim().isEmpty()) {
+            throw new ServletException("Invalid token - wrong adapterName:" + adapterName);
+        }
+
+        return verifiedTokens.put(token, new RawAlarmsPartitionDefinition(domain.trim(), adapterName.trim()),
+                claims.getExpiration());
+    }
+
     /*
      * Launched if request has missing "Bearer " string in "Authorization" HTTP header field.
      * This method should be overwritten by production-mode class(es).
@@ -86,6 +164,6 @@ class AuthorizationHeaderJwtFilter extends GenericFilterBean {
         // In development mode, if client does not provide JWT token, then we assume defaults.
         //  (In order to make it easier for newbie developers.)
         //
-        request.setAttribute("partitionDefinition", new RawAlarmsPartitionDefinition("dev", "AdapterTest"));
+        request.setAttribute("partitionDefinition", DEFAULT_PARTITION_DEFINITION);
     }
 }
@@ -1,5 +1,8 @@
 package com.j9soft.poc.alarms;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Component;
 
@@ -7,16 +10,22 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 
 /**
- * This Filter is used in production mode, i.e. it verifies signatures for JWT.
+ * This Filter is used in production and edge modes, i.e. it verifies signatures for JWT.
  *
  * Inspiration: https://aboullaite.me/spring-boot-token-authentication-using-jwt/
  *
  * @see AuthorizationHeaderJwtFilter
  */
-@Profile("prod")
+@Profile({"prod","edge"})
 @Component
 class AuthorizationHeaderJwtFilterVerifying extends AuthorizationHeaderJwtFilter {
 
+    @Autowired
+    AuthorizationHeaderJwtFilterVerifying(@Value("${jwt-verified-tokens-cache-size:10000}") int verifiedTokensCacheSize,
+                                          MeterRegistry meterRegistry) {
+        super(verifiedTokensCacheSize, meterRegistry);
+    }
+
     @Override
     void onMissingAuthorizationHeader(HttpServletRequest request) throws ServletException {
         throw new ServletException("Missing or invalid Authorization header");
@@ -0,0 +1,295 @@
+package com.j9soft.poc.alarms;
+
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression of alarm values saved in Kafka. (i.e. of values of records, the views keep decoded values)
+ *
+ * Alarms of an adapter are very similar (the same attribute names and mostly the same values), but a single alarm is too
+ * small to be compressed well on its own. So each value is compressed by Deflater with a preset dictionary of its adapter.
+ * A dictionary is trained from a sample of values saved by the adapter. (i.e. from the first ones saved by this node)
+ *
+ * Dictionaries are saved in Kafka partitions (as records with "codec" header = "dictionary") before the first compressed value
+ * of the partition, so they are read by the tailer before they are needed. A dictionary is identified by a digest of its
+ * contents, so dictionaries trained by different nodes do not collide. Keys of dictionary records are the ids with
+ * a reserved prefix, so that they do not collide with keys of alarms in the compacted topic. (Such alarms are rejected.)
+ * A compressed value has headers "codec" = "deflate-dictionary" and "dictionary" = the dictionary id.
+ *
+ * (Values are decoded regardless of whether compression is enabled, i.e. it may be disabled at any time.)
+ */
+class DictionaryValueCodec {
+
+    private static final Logger logger = LoggerFactory.getLogger(DictionaryValueCodec.class);
+
+    static final String CODEC_NONE = "none";
+    static final String CODEC_DEFLATE_DICTIONARY = "deflate-dictionary";
+
+    // Names of headers of Kafka records.
+    static final String HEADER_CODEC = "codec";
+    static final String HEADER_DICTIONARY = "dictionary";
+
+    static final String CODEC_DICTIONARY_RECORD = "dictionary";  // (a value of "codec" header of a record containing a dictionary)
+
+    // Prefix of keys of dictionary records. (Keys of alarms, i.e. notification identifiers, must not start with it.)
+    static final String DICTIONARY_KEY_PREFIX = "__raas.dictionary:";
+
+    // (Deflater does not look further back than 32 KB, so a bigger dictionary would not help.)
+    private static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    static final class Dictionary {
+        final String id;
+        final byte[] contents;
+        private final Set<Integer> savedInPartitions = ConcurrentHashMap.newKeySet();
+        private final Set<Integer> savingInPartitions = ConcurrentHashMap.newKeySet();
+
+        Dictionary(String id, byte[] contents) {
+            this.id = id;
+            this.contents = contents;
+        }
+
+        boolean isSavedIn(int partition) {
+            return savedInPartitions.contains(partition);
+        }
+
+        /**
+         * @return false if the dictionary is already being saved in the partition (i.e. by another thread)
+         */
+        boolean startSavingIn(int partition) {
+            return savingInPartitions.add(partition);
+        }
+
+        void finishSavingIn(int partition, boolean saved) {
+            if (saved) {
+                savedInPartitions.add(partition);
+            }
+            savingInPartitions.remove(partition);
+        }
+    }
+
+    /*
+     * Values collected in order to train a dictionary of an adapter.
+     */
+    private static final class Sample {
+        final List<byte[]> values = new ArrayList<>();
+        int size = 0;
+    }
+
+    private final boolean compressionEnabled;
+    private final int sampleSize;
+
+    private final Map<RawAlarmsPartitionDefinition, Dictionary> dictionariesByAdapter = new ConcurrentHashMap<>();  // (used for compression)
+    private final Map<RawAlarmsPartitionDefinition, Sample> samples = new ConcurrentHashMap<>();
+    private final Map<String, byte[]> dictionariesById = new ConcurrentHashMap<>();  // (used for decompression)
+
+    /**
+     * @param codec "deflate-dictionary" enables compression ("none" disables it)
+     * @param sampleSize number of values of an adapter needed to train its dictionary
+     */
+    DictionaryValueCodec(String codec, int sampleSize) {
+        if (!CODEC_NONE.equals(codec) && !CODEC_DEFLATE_DICTIONARY.equals(codec)) {
+            throw new IllegalArgumentException("Unknown codec of alarm values: " + codec);
+        }
+        this.compressionEnabled = CODEC_DEFLATE_DICTIONARY.equals(codec);
+        this.sampleSize = sampleSize;
+    }
+
+    /**
+     * Returns a dictionary to compress values of the adapter or null if there is no dictionary yet.
+     * (The value is added to the sample of the adapter, i.e. the dictionary is trained when the sample is complete.)
+     */
+    Dictionary getDictionary(RawAlarmsPartitionDefinition partitionDefinition, byte[] value) {
+        if (!compressionEnabled) {
+            return null;
+        }
+        Dictionary dictionary = dictionariesByAdapter.get(partitionDefinition);
+        if (dictionary != null) {
+            return dictionary;
+        }
+
+        Sample sample = samples.computeIfAbsent(partitionDefinition, d -> new Sample());
+        synchronized (sample) {
+            dictionary = dictionariesByAdapter.get(partitionDefinition);
+            if (dictionary != null) {
+                samples.remove(partitionDefinition, sample);  // (i.e. it was created while the dictionary was being trained)
+                return dictionary;
+            }
+
+            sample.values.add(value);
+            sample.size += value.length;
+            if (sample.values.size() < sampleSize) {
+                return null;
+            }
+
+            dictionary = train(sample);
+            dictionariesById.put(dictionary.id, dictionary.contents);
+            dictionariesByAdapter.put(partitionDefinition, dictionary);
+            samples.remove(partitionDefinition, sample);
+            sample.values.clear();  // (the sample is not needed anymore, even if another thread still refers to it)
+            logger.info("getDictionary: domain='{}', adapterName='{}' - trained: id='{}', size={}",
+                    partitionDefinition.getDomain(), partitionDefinition.getAdapterName(), dictionary.id, dictionary.contents.length);
+            return dictionary;
+        }
+    }
+
+    /**
+     * Returns number of adapters which still collect their samples.
+     */
+    int getSamplesCount() {
+        return samples.size();
+    }
+
+    /**
+     * Compresses a value. Headers describing the compression are added to the provided ones.
+     * (A value which does not get smaller is returned as it is, i.e. without headers.)
+     */
+    byte[] encode(Dictionary dictionary, byte[] value, List<Header> headers) {
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setDictionary(dictionary.contents);
+        deflater.setInput(value);
+        deflater.finish();
+
+        byte[] buffer = new byte[value.length];
+        int length = 0;
+        while (!deflater.finished() && length < buffer.length) {
+            length += deflater.deflate(buffer, length, buffer.length - length);
+        }
+        if (!deflater.finished()) {
+            return value;  // (i.e. it is not worth it)
+        }
+
+        headers.add(new RecordHeader(HEADER_CODEC, CODEC_DEFLATE_DICTIONARY.getBytes(StandardCharsets.UTF_8)));
+        headers.add(new RecordHeader(HEADER_DICTIONARY, dictionary.id.getBytes(StandardCharsets.UTF_8)));
+        byte[] encoded = new byte[length];
+        System.arraycopy(buffer, 0, encoded, 0, length);
+        return encoded;
+    }
+
+    /**
+     * Returns whether a record contains a dictionary. (i.e. it is not an alarm)
+     */
+    boolean isDictionaryRecord(Headers headers) {
+        Header codec = headers.lastHeader(HEADER_CODEC);
+        return codec != null && CODEC_DICTIONARY_RECORD.equals(new String(codec.value(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns the key of a record containing the dictionary.
+     */
+    static String getDictionaryKey(Dictionary dictionary) {
+        return DICTIONARY_KEY_PREFIX + dictionary.id;
+    }
+
+    /**
+     * Returns whether a key is reserved for dictionary records. (i.e. it must not be used by alarms)
+     */
+    static boolean isReservedKey(String key) {
+        return key.startsWith(DICTIONARY_KEY_PREFIX);
+    }
+
+    /**
+     * Remembers a dictionary read from a record. (i.e. it is needed to decode values of next records)
+     *
+     * @param key key of the record (i.e. the id with the reserved prefix, or the id alone in records saved before the prefix)
+     */
+    void addDictionary(String key, byte[] contents) {
+        String id = isReservedKey(key) ? key.substring(DICTIONARY_KEY_PREFIX.length()) : key;
+        dictionariesById.putIfAbsent(id, contents);
+    }
+
+    /**
+     * Returns all known dictionaries by their ids. (e.g. to be saved with a checkpoint of the views)
+     */
+    Map<String, byte[]> getDictionaries() {
+        return new HashMap<>(dictionariesById);
+    }
+
+    /**
+     * Returns a decoded value of a record. (i.e. the same value if it is not compressed)
+     */
+    byte[] decode(byte[] value, Headers headers) {
+        Header codec = headers.lastHeader(HEADER_CODEC);
+        if (value == null || codec == null) {
+            return value;
+        }
+        String codecName = new String(codec.value(), StandardCharsets.UTF_8);
+        if (!CODEC_DEFLATE_DICTIONARY.equals(codecName)) {
+            throw new IllegalArgumentException("Unknown codec of alarm value: " + codecName);
+        }
+
+        String dictionaryId = new String(headers.lastHeader(HEADER_DICTIONARY).value(), StandardCharsets.UTF_8);
+        byte[] dictionary = dictionariesById.get(dictionaryId);
+        if (dictionary == null) {
+            throw new IllegalArgumentException("Unknown dictionary of alarm value: " + dictionaryId);
+        }
+
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setDictionary(dictionary);
+        inflater.setInput(value);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream(value.length * 4);
+        byte[] buffer = new byte[Math.max(256, value.length * 4)];
+        try {
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("Truncated value");
+                }
+                output.write(buffer, 0, length);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupted alarm value compressed with dictionary: " + dictionaryId, e);
+        }
+        return output.toByteArray();
+    }
+
+    /*
+     * The most recent values are put at the end of the dictionary, because Deflater finds closer matches cheaper.
+     */
+    private static Dictionary train(Sample sample) {
+        byte[] contents = new byte[Math.min(sample.size, MAX_DICTIONARY_SIZE)];
+        int end = contents.length;
+        for (int i = sample.values.size() - 1; i >= 0 && end > 0; i--) {
+            byte[] value = sample.values.get(i);
+            int length = Math.min(value.length, end);
+            System.arraycopy(value, value.length - length, contents, end - length, length);
+            end -= length;
+        }
+        return new Dictionary(digest(contents), contents);
+    }
+
+    private static String digest(byte[] contents) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(contents);
+            StringBuilder id = new StringBuilder();
+            for (int i = 0; i < 8; i++) {
+                id.append(String.format("%02x", digest[i]));
+            }
+            return id.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);  // (every JVM has to support it)
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.j9soft.poc.alarms;
+
+import org.apache.kafka.common.utils.Utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Assigns consecutive Kafka partitions to an adapter, starting from a partition chosen by a hash of domain and adapter name.
+ * Alarms of the adapter are spread over its partitions by a hash of notification identifier.
+ *
+ * By default an adapter has one subpartition. Big adapters may be configured to have more.
+ * (E.g. "CAdev/BigAdapter=4,CAprod/HugeAdapter=8")
+ *
+ * Alarms of the legacy adapter (if configured) are kept the way they were saved before adapters had subpartitions,
+ * i.e. in all partitions, chosen by a hash of notification identifier only. (the same as Kafka's default partitioner)
+ * So a new value of a legacy alarm replaces the old one in the same partition.
+ */
+class HashingSubpartitionAssignmentStrategy implements SubpartitionAssignmentStrategy {
+
+    private final int partitionsCount;
+    private final int defaultSubpartitionsCount;
+    private final Map<RawAlarmsPartitionDefinition, Integer> subpartitionsCounts;
+    private final RawAlarmsPartitionDefinition legacyAdapter;  // (null if there are no legacy records)
+
+    /**
+     * @param partitionsCount number of partitions of the Kafka topic
+     * @param defaultSubpartitionsCount number of subpartitions of an adapter (if not specified in subpartitionsCounts)
+     * @param subpartitionsCounts numbers of subpartitions of big adapters
+     */
+    HashingSubpartitionAssignmentStrategy(int partitionsCount, int defaultSubpartitionsCount,
+                                          Map<RawAlarmsPartitionDefinition, Integer> subpartitionsCounts) {
+        this(partitionsCount, defaultSubpartitionsCount, subpartitionsCounts, null);
+    }
+
+    /**
+     * @param legacyAdapter adapter which owns records saved without domain and adapter name (null if there are none)
+     */
+    HashingSubpartitionAssignmentStrategy(int partitionsCount, int defaultSubpartitionsCount,
+                                          Map<RawAlarmsPartitionDefinition, Integer> subpartitionsCounts,
+                                          RawAlarmsPartitionDefinition legacyAdapter) {
+        if (partitionsCount < 1) {
+            throw new IllegalArgumentException("Number of partitions must be positive: " + partitionsCount);
+        }
+        this.partitionsCount = partitionsCount;
+        this.defaultSubpartitionsCount = defaultSubpartitionsCount;
+        this.subpartitionsCounts = subpartitionsCounts;
+        this.legacyAdapter = legacyAdapter;
+    }
+
+    @Override
+    public int[] getSubpartitions(String domain, String adapterName) {
+        if (isLegacyAdapter(domain, adapterName)) {
+            int[] subpartitions = new int[partitionsCount];
+            for (int i = 0; i < subpartitions.length; i++) {
+                subpartitions[i] = i;
+            }
+            return subpartitions;
+        }
+
+        int firstPartition = hash(domain + "/" + adapterName) % partitionsCount;
+
+        int[] subpartitions = new int[getSubpartitionsCount(domain, adapterName)];
+        for (int i = 0; i < subpartitions.length; i++) {
+            subpartitions[i] = (firstPartition + i) % partitionsCount;
+        }
+        return subpartitions;
+    }
+
+    @Override
+    public int getSubpartition(String domain, String adapterName, String notificationIdentifier) {
+        if (isLegacyAdapter(domain, adapterName)) {
+            return hash(notificationIdentifier) % partitionsCount;
+        }
+
+        int firstPartition = hash(domain + "/" + adapterName) % partitionsCount;
+        int index = hash(notificationIdentifier) % getSubpartitionsCount(domain, adapterName);
+
+        return (firstPartition + index) % partitionsCount;
+    }
+
+    @Override
+    public RawAlarmsPartitionDefinition getLegacyAdapter() {
+        return legacyAdapter;
+    }
+
+    /**
+     * Parses an adapter. (e.g. the legacy one)
+     *
+     * @param adapter e.g. "CAdev/OldAdapter" (empty if not configured)
+     * @return null if adapter is empty
+     */
+    static RawAlarmsPartitionDefinition parseAdapter(String adapter) {
+        if (adapter.trim().isEmpty()) {
+            return null;
+        }
+        int slash = adapter.indexOf('/');
+        if (slash < 0) {
+            throw new IllegalArgumentException("Invalid adapter (expected 'domain/adapterName'): " + adapter);
+        }
+        return new RawAlarmsPartitionDefinition(adapter.substring(0, slash).trim(), adapter.substring(slash + 1).trim());
+    }
+
+    /**
+     * Parses numbers of subpartitions of adapters.
+     *
+     * @param subpartitionsCounts e.g. "CAdev/BigAdapter=4,CAprod/HugeAdapter=8"
+     */
+    static Map<RawAlarmsPartitionDefinition, Integer> parseSubpartitionsCounts(String subpartitionsCounts) {
+        return parseAdapterNumbers(subpartitionsCounts, "Invalid number of subpartitions (expected 'domain/adapterName=count'): ");
+    }
+
+    /**
+     * Parses numbers of adapters in the format of {@link #parseSubpartitionsCounts}. (e.g. also rates of writes)
+     *
+     * @param invalidEntryMessage message of the exception thrown for an invalid entry (followed by the entry)
+     */
+    static Map<RawAlarmsPartitionDefinition, Integer> parseAdapterNumbers(String adapterNumbers, String invalidEntryMessage) {
+        Map<RawAlarmsPartitionDefinition, Integer> result = new HashMap<>();
+
+        for (String entry : adapterNumbers.split(",")) {
+            if (entry.trim().isEmpty()) {
+                continue;
+            }
+            int slash = entry.indexOf('/');
+            int equals = entry.lastIndexOf('=');
+            if (slash < 0 || equals < slash) {
+                throw new IllegalArgumentException(invalidEntryMessage + entry);
+            }
+            result.put(new RawAlarmsPartitionDefinition(entry.substring(0, slash).trim(), entry.substring(slash + 1, equals).trim()),
+                    Integer.valueOf(entry.substring(equals + 1).trim()));
+        }
+        return result;
+    }
+
+    private boolean isLegacyAdapter(String domain, String adapterName) {
+        return legacyAdapter != null && legacyAdapter.equals(new RawAlarmsPartitionDefinition(domain, adapterName));
+    }
+
+    private int getSubpartitionsCount(String domain, String adapterName) {
+        int count = subpartitionsCounts.getOrDefault(new RawAlarmsPartitionDefinition(domain, adapterName), defaultSubpartitionsCount);
+        return Math.max(1, Math.min(count, partitionsCount));
+    }
+
+    private static int hash(String text) {
+        // The same hash as used by Kafka's default partitioner. (i.e. it is stable across JVMs)
+        return Utils.toPositive(Utils.murmur2(text.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,15 @@
+package com.j9soft.poc.alarms;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown when a request of a client is malformed. (i.e. "400 Bad Request" is returned instead of "500 Internal Server Error")
+ */
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+class InvalidRequestException extends RuntimeException {
+
+    InvalidRequestException(String message) {
+        super(message);
+    }
+}
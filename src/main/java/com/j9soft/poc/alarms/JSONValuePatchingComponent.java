@@ -1,9 +1,17 @@
 package com.j9soft.poc.alarms;
 
-import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
@@ -14,47 +22,106 @@ import java.util.Map;
 class JSONValuePatchingComponent {
 
     private final ObjectMapper mapper = new ObjectMapper();
+    private final JsonFactory factory = mapper.getFactory();
 
     /**
-     *  * Parses new value and old value from String to JSON
-     *  and then applies new field values to the old value.
-     * @param newValue JSON string (containing pairs "attribute name":"attribute value")
-     * @param oldValue JSON string
-     * @return String containing serialized JSON of a resulting value
+     *  Applies new field values to the old value.
+     *
+     *  Both values are streamed token by token. (i.e. they are not parsed into Maps, and not decoded into Strings)
+     *  Only the fields of the new value are buffered, fields of the old value are copied as they are read.
+     *  The result is the same as of "old map putAll new map": old fields keep their order (overwritten ones in place)
+     *  and the fields which exist only in the new value are appended.
+     *  (Note: Duplicated field names in the old value are not merged, i.e. each of them is copied.)
+     *
+     * @param newValue UTF-8 bytes of JSON string (containing pairs "attribute name":"attribute value")
+     * @param oldValue UTF-8 bytes of JSON string
+     * @return UTF-8 bytes of serialized JSON of a resulting value
      */
-    String patchOldValue(String domain, String adapterName, String notificationIdentifier, String newValue, String oldValue) {
+    byte[] patchOldValue(String domain, String adapterName, String notificationIdentifier, byte[] newValue, byte[] oldValue) {
 
         if (oldValue != null) {
             // It means that the previous value exists. We should patch it with new contents.  (i.e. new alarm attributes)
 
-            Map<String, Object> oldValueAsMap;
-            Map<String, Object> newValueAsMap;
-
+            Map<String, TokenBuffer> newFields;
             try {
-                oldValueAsMap = mapper.readValue(oldValue, new TypeReference<Map<String, Object>>() {});
-            } catch (IOException e) {
-                throw new RuntimeException(
-                        String.format("Unsupported non-JSON value for alarm with Notification Identifier = '%s'. Old value = '%s'",
-                                notificationIdentifier, oldValue), e);
-            }
-            try {
-                newValueAsMap = mapper.readValue(newValue, new TypeReference<Map<String, Object>>() {});
+                newFields = readFields(newValue);
             } catch (IOException e) {
                 throw new RuntimeException(
                         String.format("Unsupported non-JSON value for alarm with Notification Identifier = '%s'. New value = '%s'",
-                                notificationIdentifier, newValue), e);
+                                notificationIdentifier, new String(newValue, StandardCharsets.UTF_8)), e);
             }
 
-            try {
-                oldValueAsMap.putAll(newValueAsMap);  // we overwrite old attributes with new ones
-                newValue = mapper.writeValueAsString(oldValueAsMap);   // we create an updated newValue
+            // (The initial size fits the patched value in most cases, i.e. the output is not grown.)
+            ByteArrayBuilder output = new ByteArrayBuilder(oldValue.length + newValue.length);
+            try (JsonParser oldParser = factory.createParser(oldValue);
+                 JsonGenerator generator = factory.createGenerator(output, JsonEncoding.UTF8)) {
+
+                mergeFields(oldParser, newFields, generator);
 
             } catch (IOException e) {
                 throw new RuntimeException(
-                        String.format("Problem producing JSON value for alarm with Notification Identifier = %s",
-                                notificationIdentifier), e);
+                        String.format("Unsupported non-JSON value for alarm with Notification Identifier = '%s'. Old value = '%s'",
+                                notificationIdentifier, new String(oldValue, StandardCharsets.UTF_8)), e);
             }
+            newValue = output.toByteArray();   // we create an updated newValue
         }
         return newValue;
     }
+
+    /*
+     * Buffers (as tokens) value of each field of a JSON object.
+     */
+    private Map<String, TokenBuffer> readFields(byte[] value) throws IOException {
+        Map<String, TokenBuffer> fields = new LinkedHashMap<>();
+
+        try (JsonParser parser = factory.createParser(value)) {
+            expectStartObject(parser);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                parser.nextToken();
+                TokenBuffer fieldValue = new TokenBuffer(parser);
+                fieldValue.copyCurrentStructure(parser);
+                fields.put(fieldName, fieldValue);  // (the last one wins, as in a Map)
+            }
+        }
+        return fields;
+    }
+
+    /*
+     * Copies fields of the old object (overwriting their values with new ones) and then appends the remaining new fields.
+     */
+    private static void mergeFields(JsonParser oldParser, Map<String, TokenBuffer> newFields,
+                                    JsonGenerator generator) throws IOException {
+        expectStartObject(oldParser);
+        generator.writeStartObject();
+
+        while (oldParser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = oldParser.getCurrentName();
+            oldParser.nextToken();
+
+            TokenBuffer newFieldValue = newFields.remove(fieldName);
+            if (newFieldValue == null) {
+                // We keep the old attribute.
+                generator.writeFieldName(fieldName);
+                generator.copyCurrentStructure(oldParser);
+            } else {
+                // We overwrite the old attribute.
+                oldParser.skipChildren();
+                generator.writeFieldName(fieldName);
+                newFieldValue.serialize(generator);
+            }
+        }
+
+        for (Map.Entry<String, TokenBuffer> newField : newFields.entrySet()) {
+            generator.writeFieldName(newField.getKey());
+            newField.getValue().serialize(generator);
+        }
+        generator.writeEndObject();
+    }
+
+    private static void expectStartObject(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IOException("JSON object expected but found: " + parser.getCurrentToken());
+        }
+    }
 }
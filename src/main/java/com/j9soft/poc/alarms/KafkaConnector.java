@@ -1,5 +1,6 @@
 package com.j9soft.poc.alarms;
 
+import org.apache.kafka.clients.admin.AdminClient;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.slf4j.Logger;
@@ -10,7 +11,7 @@ import java.util.UUID;
 
 
 /**
- * Provider of producer and consumer connected to a Kafka cluster.
+ * Provider of producer and consumers connected to a Kafka cluster.
  */
 public class KafkaConnector {
 
@@ -18,10 +19,26 @@ public class KafkaConnector {
 
     private static final Logger logger = LoggerFactory.getLogger(KafkaConnector.class);
 
+    private static final int DEFAULT_CONSUMER_POOL_SIZE = 8;
+    private static final long DEFAULT_CONSUMER_BORROW_TIMEOUT_MS = 5_000;
+
     private KafkaProducer<String, byte[]> producer;
-    private KafkaConsumer<String, byte[]> consumer;
+    private KafkaConsumerPool consumerPool;
+    private String bootstrapServers;
+    private Properties consumerFetchProps;
 
     void connect(final String brokerHost, final Integer brokerPort) {
+        connect(brokerHost, brokerPort, DEFAULT_CONSUMER_POOL_SIZE, DEFAULT_CONSUMER_BORROW_TIMEOUT_MS, new Properties());
+    }
+
+    /**
+     * @param consumerFetchProps fetch settings of consumers (e.g. "fetch.max.wait.ms", "max.poll.records")
+     */
+    void connect(final String brokerHost, final Integer brokerPort,
+                 final int consumerPoolSize, final long consumerBorrowTimeoutMs, final Properties consumerFetchProps) {
+
+        bootstrapServers = brokerHost + ":" + brokerPort;
+        this.consumerFetchProps = consumerFetchProps;
 
         // Producer:
         //
@@ -35,26 +52,54 @@ public class KafkaConnector {
         producer = new KafkaProducer<>(producerProps);
         logger.info("Kafka producer: " + producer);
 
-        // Consumer:
+        // Consumers:
         //
-        // Consumer configuration.
-        Properties consumerProps = new Properties();
-        consumerProps.setProperty("bootstrap.servers", brokerHost + ":" + brokerPort);
+        consumerPool = new KafkaConsumerPool(this, consumerPoolSize, consumerBorrowTimeoutMs);
+    }
+
+    /**
+     * Creates a new consumer. It is owned by the caller, i.e. the caller is responsible for closing it.
+     * (KafkaConsumer is not thread-safe, so every thread reading in a loop needs its own instance.)
+     */
+    KafkaConsumer<String, byte[]> createConsumer(String clientId) {
         // We use different group IDs because according to KafkaConsumer javadoc:
         //   "To avoid offset commit conflicts, you should usually ensure that the groupId is unique for each consumer instance. "
-        consumerProps.setProperty("group.id", "raasV2-" + UUID.randomUUID());
-        consumerProps.setProperty("client.id", "consumer0");
+        return createConsumer(clientId, "raasV2-" + UUID.randomUUID());
+    }
+
+    /**
+     * Creates a new consumer which is a member of the specified group. (i.e. partitions may be split between members by Kafka)
+     * Offsets are not committed. (Views are loaded from the beginning or from a checkpoint, see {@link KafkaSubpartitionsTailer})
+     */
+    KafkaConsumer<String, byte[]> createConsumer(String clientId, String groupId) {
+        // Consumer configuration.
+        Properties consumerProps = new Properties();
+        consumerProps.setProperty("bootstrap.servers", bootstrapServers);
+        consumerProps.setProperty("group.id", groupId);
+        consumerProps.setProperty("enable.auto.commit", "false");
+        consumerProps.setProperty("client.id", clientId);
         consumerProps.setProperty("key.deserializer","org.apache.kafka.common.serialization.StringDeserializer");
         consumerProps.setProperty("value.deserializer", "org.apache.kafka.common.serialization.ByteArrayDeserializer");
         consumerProps.put("auto.offset.reset", "earliest");  // to make sure the consumer starts from the beginning of the topic
+        consumerProps.putAll(consumerFetchProps);
         //
         // Create a new instance.
-        consumer = new KafkaConsumer<>(consumerProps);
-        logger.info("Kafka consumer: " + consumer);
+        KafkaConsumer<String, byte[]> newConsumer = new KafkaConsumer<>(consumerProps);
+        logger.info("Kafka consumer: " + newConsumer);
+        return newConsumer;
     }
 
-    public KafkaConsumer<String,byte[]> getConsumer() {
-        return this.consumer;
+    /**
+     * Creates a new admin client. It is owned by the caller, i.e. the caller is responsible for closing it.
+     */
+    AdminClient createAdminClient() {
+        Properties adminProps = new Properties();
+        adminProps.setProperty("bootstrap.servers", bootstrapServers);
+        return AdminClient.create(adminProps);
+    }
+
+    KafkaConsumerPool getConsumerPool() {
+        return this.consumerPool;
     }
     public KafkaProducer<String, byte[]> getProducer() {
         return this.producer;
@@ -64,9 +109,13 @@ public class KafkaConnector {
         return TOPIC_NAME_RAW_ACTIVE_ALARMS;
     }
 
+    int getPartitionsCount() {
+        return producer.partitionsFor(TOPIC_NAME_RAW_ACTIVE_ALARMS).size();
+    }
+
     void close() {
         producer.close();
-        consumer.close();
+        consumerPool.close();
     }
 
 }
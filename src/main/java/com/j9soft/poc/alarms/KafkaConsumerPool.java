@@ -0,0 +1,67 @@
+package com.j9soft.poc.alarms;
+
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A bounded pool of Kafka consumers.
+ *
+ * KafkaConsumer is not thread-safe, so a request thread borrows a consumer for exclusive use
+ * and then releases it back to the pool. (I.e. concurrent requests do not share a consumer.)
+ */
+class KafkaConsumerPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(KafkaConsumerPool.class);
+
+    private final List<KafkaConsumer<String, byte[]>> allConsumers;
+    private final BlockingQueue<KafkaConsumer<String, byte[]>> idleConsumers;
+    private final long borrowTimeoutMs;
+
+    KafkaConsumerPool(KafkaConnector connector, int size, long borrowTimeoutMs) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Consumer pool size must be positive: " + size);
+        }
+        this.borrowTimeoutMs = borrowTimeoutMs;
+        this.allConsumers = new ArrayList<>(size);
+        this.idleConsumers = new ArrayBlockingQueue<>(size);
+
+        for (int i = 0; i < size; i++) {
+            KafkaConsumer<String, byte[]> consumer = connector.createConsumer("consumer" + i);
+            allConsumers.add(consumer);
+            idleConsumers.add(consumer);
+        }
+        logger.info("Kafka consumer pool: size={}, borrowTimeoutMs={}", size, borrowTimeoutMs);
+    }
+
+    /**
+     * Waits (up to the configured timeout) until a consumer is available and takes it for exclusive use.
+     * The consumer needs to be given back with {@link #release(KafkaConsumer)}.
+     */
+    KafkaConsumer<String, byte[]> borrow() throws TimeoutException, InterruptedException {
+        KafkaConsumer<String, byte[]> consumer = idleConsumers.poll(borrowTimeoutMs, TimeUnit.MILLISECONDS);
+        if (consumer == null) {
+            throw new TimeoutException("No Kafka consumer available within " + borrowTimeoutMs + " ms");
+        }
+        return consumer;
+    }
+
+    void release(KafkaConsumer<String, byte[]> consumer) {
+        idleConsumers.add(consumer);
+    }
+
+    int getSize() {
+        return allConsumers.size();
+    }
+
+    void close() {
+        allConsumers.forEach(KafkaConsumer::close);
+    }
+}
@@ -8,9 +8,11 @@ import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Component;
 
 import java.util.Arrays;
+import java.util.Properties;
 
 /**
  * Configuration settings are read from system properties named "kafka-host" and "kafka-port".
+ * (Optionally also "kafka-consumer-pool-size", "kafka-consumer-borrow-timeout-ms" and fetch settings of consumers.)
  */
 @Profile({"prod","kafka-dev"})
 @Component
@@ -19,7 +21,13 @@ public class KafkaEnvConnector extends KafkaConnector {
     private static final Logger logger = LoggerFactory.getLogger(KafkaEnvConnector.class);
 
     @Autowired
-    KafkaEnvConnector(@Value("${kafka-host}") String brokerHost, @Value("${kafka-port:9092}") Integer brokerPort) {
+    KafkaEnvConnector(@Value("${kafka-host}") String brokerHost, @Value("${kafka-port:9092}") Integer brokerPort,
+                      @Value("${kafka-consumer-pool-size:8}") int consumerPoolSize,
+                      @Value("${kafka-consumer-borrow-timeout-ms:5000}") long consumerBorrowTimeoutMs,
+                      @Value("${kafka-consumer-fetch-min-bytes:1}") String fetchMinBytes,
+                      @Value("${kafka-consumer-fetch-max-wait-ms:500}") String fetchMaxWaitMs,
+                      @Value("${kafka-consumer-max-partition-fetch-bytes:1048576}") String maxPartitionFetchBytes,
+                      @Value("${kafka-consumer-max-poll-records:500}") String maxPollRecords) {
         if (logger.isInfoEnabled()) {
             logger.info("Connecting to Kafka with system properties: {}", Arrays.asList(
                     System.getProperties().entrySet().stream()
@@ -29,6 +37,12 @@ public class KafkaEnvConnector extends KafkaConnector {
             logger.info("Connecting to Kafka at: {}:{}", brokerHost, brokerPort);
         }
 
-        connect(brokerHost, brokerPort);
+        Properties consumerFetchProps = new Properties();
+        consumerFetchProps.setProperty("fetch.min.bytes", fetchMinBytes);
+        consumerFetchProps.setProperty("fetch.max.wait.ms", fetchMaxWaitMs);
+        consumerFetchProps.setProperty("max.partition.fetch.bytes", maxPartitionFetchBytes);
+        consumerFetchProps.setProperty("max.poll.records", maxPollRecords);
+
+        connect(brokerHost, brokerPort, consumerPoolSize, consumerBorrowTimeoutMs, consumerFetchProps);
     }
 }
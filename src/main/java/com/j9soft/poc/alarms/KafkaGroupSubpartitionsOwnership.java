@@ -0,0 +1,127 @@
+package com.j9soft.poc.alarms;
+
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.ConsumerGroupDescription;
+import org.apache.kafka.clients.admin.MemberDescription;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.IntPredicate;
+
+/**
+ * Ownership of subpartitions (i.e. of Kafka partitions) decided by Kafka group membership.
+ *
+ * Tailers of all nodes are members of the same consumer group, so Kafka splits partitions between them and moves them
+ * when a node joins or leaves. (See {@link KafkaSubpartitionsTailer}) A tailer uses the base URL of its node as its
+ * client id, so owners of other partitions are found by describing the group. (Descriptions are cached for a while.)
+ *
+ * Any client may join the group with any client id, so only the configured URLs of cluster nodes are trusted.
+ * (Requests are proxied to owners with the "Authorization" header of clients, see {@link RaasNodeClient})
+ * A partition of a member with another client id is treated as one without a known owner.
+ */
+class KafkaGroupSubpartitionsOwnership implements SubpartitionsOwnership {
+
+    private static final Logger logger = LoggerFactory.getLogger(KafkaGroupSubpartitionsOwnership.class);
+
+    private static final long DESCRIBE_TIMEOUT_MS = 5_000;
+
+    private final AdminClient adminClient;
+    private final String topicName;
+    private final String groupId;
+    private final String nodeUrl;
+    private final Set<String> clusterNodeUrls;
+    private final IntPredicate localPartitions;
+    private final long refreshIntervalMs;
+
+    // (guarded by this)
+    private Map<Integer, String> ownerUrls = Collections.emptyMap();
+    private long lastRefreshTime = 0;
+    private Set<String> untrustedClientIds = Collections.emptySet();
+
+    /**
+     * @param nodeUrl base URL of this node (i.e. the client id of its tailer)
+     * @param clusterNodeUrls base URLs of all nodes of the cluster (i.e. the trusted client ids)
+     * @param localPartitions tells which partitions are read by the tailer of this node
+     * @param refreshIntervalMs how long a description of the group is used
+     */
+    KafkaGroupSubpartitionsOwnership(KafkaConnector connector, String groupId, String nodeUrl, Set<String> clusterNodeUrls,
+                                     IntPredicate localPartitions, long refreshIntervalMs) {
+        this.adminClient = connector.createAdminClient();
+        this.topicName = connector.getTopicName();
+        this.groupId = groupId;
+        this.nodeUrl = nodeUrl;
+        this.clusterNodeUrls = clusterNodeUrls;
+        this.localPartitions = localPartitions;
+        this.refreshIntervalMs = refreshIntervalMs;
+    }
+
+    @Override
+    public boolean isLocal(int subpartition) {
+        return localPartitions.test(subpartition);
+    }
+
+    @Override
+    public synchronized String getOwnerUrl(int subpartition) {
+        long now = System.currentTimeMillis();
+        if (now - lastRefreshTime >= refreshIntervalMs) {
+            refresh();
+            lastRefreshTime = now;
+        }
+
+        String ownerUrl = ownerUrls.get(subpartition);
+        if (nodeUrl.equals(ownerUrl) && !isLocal(subpartition)) {
+            return null;  // (the description is older than the assignment of this node, i.e. we would redirect to ourselves)
+        }
+        return ownerUrl;
+    }
+
+    @Override
+    public void close() {
+        adminClient.close(DESCRIBE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /*
+     * Reads the current assignment of partitions to members of the group. (The previous one is kept if it fails.)
+     */
+    private void refresh() {
+        try {
+            ConsumerGroupDescription group = adminClient.describeConsumerGroups(Collections.singleton(groupId))
+                    .describedGroups().get(groupId).get(DESCRIBE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+            Map<Integer, String> newOwnerUrls = new HashMap<>();
+            Set<String> newUntrustedClientIds = new HashSet<>();
+            for (MemberDescription member : group.members()) {
+                if (!clusterNodeUrls.contains(member.clientId())) {
+                    newUntrustedClientIds.add(member.clientId());
+                    if (!untrustedClientIds.contains(member.clientId())) {
+                        logger.warn("refresh: groupId='{}' - member with unknown node URL: clientId='{}', host='{}'",
+                                groupId, member.clientId(), member.host());
+                    }
+                    continue;
+                }
+                for (TopicPartition partition : member.assignment().topicPartitions()) {
+                    if (topicName.equals(partition.topic())) {
+                        newOwnerUrls.put(partition.partition(), member.clientId());
+                    }
+                }
+            }
+            ownerUrls = newOwnerUrls;
+            untrustedClientIds = newUntrustedClientIds;  // (i.e. each of them is reported once)
+            logger.debug("refresh: groupId='{}' - success: owners={}", groupId, ownerUrls);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException|TimeoutException e) {
+            logger.warn("refresh: groupId='{}' - failure", groupId, e);
+        }
+    }
+}
@@ -0,0 +1,702 @@
+package com.j9soft.poc.alarms;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.ConfigEntry;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.config.ConfigResource;
+import org.apache.kafka.common.config.TopicConfig;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.header.Header;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A background reader which continuously tails all Kafka partitions of a topic
+ * and keeps {@link RawAlarmsSubpartitionView}s up to date.
+ *
+ * A Kafka partition is shared by many adapters, so there is a separate view for each adapter in each partition.
+ * (Domain and adapter name of a record are read from its headers. Records saved before headers were introduced
+ * are alarms of the legacy adapter, see {@link SubpartitionAssignmentStrategy#getLegacyAdapter})
+ *
+ * (KafkaConsumer is not thread-safe, so the consumer is used only by the tailing thread.)
+ *
+ * If checkpoints are enabled, the views are loaded from the last checkpoint at start and Kafka partitions are read only
+ * from the offsets saved in it. (See {@link KafkaViewsCheckpoint}) A checkpoint is ignored for a partition whose saved
+ * offset is not between the beginning and the end of the partition. (e.g. the topic was recreated or records were deleted)
+ * The whole checkpoint is ignored if it is older than "delete.retention.ms" of the topic, because Kafka could have
+ * dropped removals of alarms since then. (i.e. replaying would not remove them from the views)
+ * The views are caught up when they reach the end offsets which the partitions had at start.
+ *
+ * If a cluster group is set, tailers of all nodes are members of that Kafka consumer group and each of them reads
+ * only the partitions which Kafka assigned to it. (i.e. nodes split subpartitions between them) A newly assigned
+ * partition is loaded like at start, while views of a partition which stays assigned after a rebalance are kept.
+ * (Subscriptions of a partition which is moved to another node are closed with {@link SubpartitionNotOwnedException}.)
+ *
+ * Metrics: "raas.kafka.tailer.polls" (empty and not), "raas.kafka.tailer.records" (applied records),
+ * "raas.kafka.tailer.legacy.records" (records without domain and adapter name headers),
+ * "raas.kafka.views.entries" (entries kept by the views, i.e. records / entries is the compaction ratio)
+ * "raas.kafka.view.catch.up" (time which queries wait for the views to reach the end of subpartitions)
+ * and "raas.kafka.checkpoint" (time of saving a checkpoint).
+ */
+class KafkaSubpartitionsTailer {
+
+    private static final Logger logger = LoggerFactory.getLogger(KafkaSubpartitionsTailer.class);
+
+    private static final Duration POLL_TIMEOUT = Duration.ofMillis(100);
+    private static final long TOMBSTONES_PURGE_INTERVAL_MS = 60_000;
+    private static final long FAILED_PARTITION_RETRY_INTERVAL_MS = 60_000;
+    private static final long DESCRIBE_TIMEOUT_MS = 5_000;
+    private static final RawAlarmsSubpartitionView EMPTY_VIEW = new RawAlarmsSubpartitionView();  // (nothing is applied to it)
+
+    private final String topicName;
+    private final KafkaConnector connector;
+    private final KafkaConsumer<String, byte[]> consumer;
+    private final DictionaryValueCodec valueCodec;
+    private final RawAlarmsPartitionDefinition legacyAdapter;  // (null if records without headers are ignored)
+    private final long tombstonesRetentionMs;
+
+    private final Counter pollsCount;
+    private final Counter emptyPollsCount;
+    private final Counter recordsCount;
+    private final Counter legacyRecordsCount;
+    private final Timer catchUpTimer;
+    private final Timer checkpointTimer;
+
+    private final KafkaViewsCheckpoint checkpoint;  // (null if checkpoints are disabled)
+    private final ExecutorService checkpointExecutor;
+    private final AtomicBoolean checkpointInProgress = new AtomicBoolean(false);
+    private Map<Integer, Long> lastCheckpointPositions = Collections.emptyMap();  // (used by the tailing thread only)
+    private long lastCheckpointTime = System.currentTimeMillis();  // (used by the tailing thread only)
+
+    private final Map<Integer, Map<RawAlarmsPartitionDefinition, RawAlarmsSubpartitionView>> views = new ConcurrentHashMap<>();
+    private final Map<Integer, Long> positions = new ConcurrentHashMap<>();  // next offsets to be applied to the views
+    private final RawAlarmsLongPolling.ChangeListeners newViewsListeners = new RawAlarmsLongPolling.ChangeListeners();
+    private final Map<Integer, PartitionFailure> failedPartitions = new ConcurrentHashMap<>();  // (partitions not read, see failPartition)
+    private final Object positionsMonitor = new Object();
+    private volatile Map<Integer, Long> catchUpOffsets = Collections.emptyMap();  // end offsets of partitions at start
+    private volatile boolean assigned = false;  // (i.e. the first partitions are known)
+    private volatile boolean caughtUp = false;
+
+    private final String clusterGroupId;  // (null if all partitions are read)
+    private Map<Integer, KafkaViewsCheckpoint.PartitionSnapshot> restorableSnapshots = new HashMap<>();  // (see startReading)
+    private long restorableSnapshotsTime = 0;  // (wall-clock time of the checkpoint)
+    private long deleteRetentionMs = 0;  // (how long Kafka keeps removals, i.e. how old a checkpoint may be)
+    private Set<TopicPartition> revokedPartitions = Collections.emptySet();  // (used by the tailing thread only)
+
+    private final Thread thread;
+    private volatile boolean closed = false;
+    private long lastPurgeTime = System.currentTimeMillis();  // (used by the tailing thread only)
+    private final Set<Integer> partitionsWithLegacyRecords = new HashSet<>();  // (used by the tailing thread only)
+
+    /*
+     * Why views of a partition stopped at a record. (They are not loaded further, i.e. the record is not skipped.)
+     */
+    private static final class PartitionFailure {
+        final String reason;
+        final long time;
+
+        PartitionFailure(String reason, long time) {
+            this.reason = reason;
+            this.time = time;
+        }
+    }
+
+    /**
+     * @param checkpoint where the views are saved periodically (null disables checkpoints)
+     * @param clusterGroupId Kafka consumer group of all nodes of a cluster (null if this node reads all partitions)
+     * @param nodeUrl base URL of this node (used as the client id in the group, i.e. other nodes find owners by it)
+     * @param legacyAdapter adapter of records without domain and adapter name headers (null if they are ignored)
+     */
+    KafkaSubpartitionsTailer(KafkaConnector connector, DictionaryValueCodec valueCodec, KafkaViewsCheckpoint checkpoint,
+                             String clusterGroupId, String nodeUrl, RawAlarmsPartitionDefinition legacyAdapter,
+                             long tombstonesRetentionMs, MeterRegistry meterRegistry) {
+        this.topicName = connector.getTopicName();
+        this.connector = connector;
+        this.clusterGroupId = clusterGroupId;
+        this.consumer = (clusterGroupId == null) ? connector.createConsumer("tailer-" + topicName)
+                : connector.createConsumer(nodeUrl, clusterGroupId);
+        this.valueCodec = valueCodec;
+        this.legacyAdapter = legacyAdapter;
+        this.checkpoint = checkpoint;
+        this.checkpointExecutor = (checkpoint == null) ? null : Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "checkpoint-" + topicName);
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.tombstonesRetentionMs = tombstonesRetentionMs;
+        this.pollsCount = Counter.builder("raas.kafka.tailer.polls").tag("empty", "false").register(meterRegistry);
+        this.emptyPollsCount = Counter.builder("raas.kafka.tailer.polls").tag("empty", "true").register(meterRegistry);
+        this.recordsCount = Counter.builder("raas.kafka.tailer.records").register(meterRegistry);
+        this.legacyRecordsCount = Counter.builder("raas.kafka.tailer.legacy.records").register(meterRegistry);
+        this.catchUpTimer = Timer.builder("raas.kafka.view.catch.up").publishPercentileHistogram().register(meterRegistry);
+        this.checkpointTimer = Timer.builder("raas.kafka.checkpoint").register(meterRegistry);
+        Gauge.builder("raas.kafka.views.entries", this, KafkaSubpartitionsTailer::getViewsSize).register(meterRegistry);
+        this.thread = new Thread(this::run, "tailer-" + topicName);
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        KafkaViewsCheckpoint.Snapshot snapshot = (checkpoint == null) ? null : checkpoint.load();
+        if (snapshot != null) {
+            snapshot.dictionaries.forEach(valueCodec::addDictionary);  // (records containing them may precede the saved offsets)
+            restorableSnapshots = snapshot.partitions;
+            restorableSnapshotsTime = snapshot.time;
+            deleteRetentionMs = readDeleteRetentionMs();
+        }
+
+        if (clusterGroupId == null) {
+            // Read all Kafka partitions. (from the beginning or from the last checkpoint)
+            //
+            List<TopicPartition> partitions = new ArrayList<>();
+            List<PartitionInfo> partitionInfos = consumer.partitionsFor(topicName);
+            if (partitionInfos != null) {
+                for (PartitionInfo partitionInfo : partitionInfos) {
+                    partitions.add(new TopicPartition(topicName, partitionInfo.partition()));
+                }
+            }
+            consumer.assign(partitions);  // btw: Without a cluster group we do not use kafka's built-in group coordination.
+            startReading(partitions);
+        } else {
+            // Read the Kafka partitions which are assigned to this node. (They are known after the first poll.)
+            //
+            consumer.subscribe(Collections.singletonList(topicName), new ConsumerRebalanceListener() {
+                @Override
+                public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+                    revokedPartitions = new HashSet<>(partitions);  // (the views are kept until we know whether they are assigned again)
+                }
+
+                @Override
+                public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+                    reassign(partitions);
+                }
+            });
+        }
+        logger.info("start: topic='{}' - clusterGroupId='{}', restoredPositions={}", topicName, clusterGroupId, positions);
+
+        thread.start();
+    }
+
+    /**
+     * Returns whether the views of the specified Kafka partition are kept by this tailer.
+     */
+    boolean isReading(int partition) {
+        return views.containsKey(partition);
+    }
+
+    /**
+     * Returns a view of the specified adapter's subpartition as soon as it contains all records with offsets lower than the specified end offset.
+     * (I.e. as soon as the view reflects everything what was already saved in the log.)
+     * An empty view is returned if the adapter has no alarms in this subpartition. (See {@link #getView})
+     */
+    RawAlarmsSubpartitionView awaitView(RawAlarmsPartitionDefinition partitionDefinition, int partition, long endOffset,
+                                        long timeoutMs) throws TimeoutException, InterruptedException {
+
+        awaitPosition(partition, endOffset, timeoutMs);
+        return getView(partitionDefinition, partition);
+    }
+
+    /**
+     * Waits until views of the specified Kafka partition contain all records with offsets lower than the specified end offset.
+     */
+    void awaitPosition(int partition, long endOffset, long timeoutMs) throws TimeoutException, InterruptedException {
+
+        Map<RawAlarmsPartitionDefinition, RawAlarmsSubpartitionView> partitionViews = getPartitionViews(partition);
+
+        long startTime = System.nanoTime();
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (positionsMonitor) {
+            while (positions.getOrDefault(partition, 0L) < endOffset) {
+                if (views.get(partition) != partitionViews) {
+                    throw new SubpartitionNotOwnedException(String.valueOf(partition), null);
+                }
+                PartitionFailure failure = failedPartitions.get(partition);
+                if (failure != null) {
+                    throw new IllegalStateException(String.format("Subpartition %d not loaded up to offset %d: %s",
+                            partition, endOffset, failure.reason));
+                }
+                long remainingMs = deadline - System.currentTimeMillis();
+                if (remainingMs <= 0) {
+                    throw new TimeoutException(String.format("Subpartition %d not loaded up to offset %d within %d ms",
+                            partition, endOffset, timeoutMs));
+                }
+                positionsMonitor.wait(remainingMs);
+            }
+        }
+        catchUpTimer.record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the current view of the specified adapter's subpartition.
+     * (A shared empty view is returned if the adapter has no alarms in this subpartition, i.e. reads do not create views.)
+     */
+    RawAlarmsSubpartitionView getView(RawAlarmsPartitionDefinition partitionDefinition, int partition) {
+        return getPartitionViews(partition).getOrDefault(partitionDefinition, EMPTY_VIEW);
+    }
+
+    /**
+     * Returns the current view of the specified adapter's subpartition. (An empty one is created if the adapter has no alarms
+     * in this subpartition, so that its changes may be subscribed to.)
+     */
+    RawAlarmsSubpartitionView getOrCreateView(RawAlarmsPartitionDefinition partitionDefinition, int partition) {
+        Map<RawAlarmsPartitionDefinition, RawAlarmsSubpartitionView> partitionViews = getPartitionViews(partition);
+        RawAlarmsSubpartitionView view = partitionViews.get(partitionDefinition);
+        if (view == null) {
+            view = partitionViews.computeIfAbsent(partitionDefinition, d -> new RawAlarmsSubpartitionView());
+            newViewsListeners.notifyListeners();  // (requests waiting for the first alarm now have to wait for changes of the view)
+        }
+        return view;
+    }
+
+    /**
+     * Returns listeners waiting for changes of the specified adapter's subpartition.
+     * (If the adapter has no view in this subpartition yet, they are the listeners waiting for new views.)
+     */
+    RawAlarmsLongPolling.ChangeListeners getChangeListeners(RawAlarmsPartitionDefinition partitionDefinition, int partition) {
+        RawAlarmsSubpartitionView view = getPartitionViews(partition).get(partitionDefinition);
+        return (view != null) ? view.getChangeListeners() : newViewsListeners;
+    }
+
+    private Map<RawAlarmsPartitionDefinition, RawAlarmsSubpartitionView> getPartitionViews(int partition) {
+        Map<RawAlarmsPartitionDefinition, RawAlarmsSubpartitionView> partitionViews = views.get(partition);
+        if (partitionViews == null) {
+            if (clusterGroupId != null) {
+                throw new SubpartitionNotOwnedException(String.valueOf(partition), null);  // (e.g. it was just moved to another node)
+            }
+            throw new InvalidRequestException("Unknown subpartition: " + partition);
+        }
+        return partitionViews;
+    }
+
+    /**
+     * Returns whether the views reached the end offsets which Kafka partitions had at start. (It stays true afterwards.)
+     * (In a cluster group, the end offsets of the partitions which were assigned first are used.)
+     */
+    boolean isCaughtUp() {
+        return caughtUp;
+    }
+
+    /**
+     * Returns number of offsets which the views still need to read until they are caught up.
+     */
+    long getCatchUpLag() {
+        if (caughtUp) {
+            return 0;
+        }
+        long lag = 0;
+        for (Map.Entry<Integer, Long> catchUpOffset : catchUpOffsets.entrySet()) {
+            lag += Math.max(0, catchUpOffset.getValue() - positions.getOrDefault(catchUpOffset.getKey(), 0L));
+        }
+        return lag;
+    }
+
+    void close() {
+        closed = true;
+        consumer.wakeup();
+        try {
+            thread.join();
+            if (checkpointExecutor != null) {
+                checkpointExecutor.shutdown();  // (i.e. after the last checkpoint is saved)
+                checkpointExecutor.awaitTermination(60, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private double getViewsSize() {
+        long size = 0;
+        for (Map<RawAlarmsPartitionDefinition, RawAlarmsSubpartitionView> partitionViews : views.values()) {
+            for (RawAlarmsSubpartitionView view : partitionViews.values()) {
+                size += view.size();
+            }
+        }
+        return size;
+    }
+
+    private void run() {
+        try {
+            while (!closed) {
+                try {
+                    pollOnce();
+                } catch (WakeupException e) {
+                    break;
+                } catch (RuntimeException e) {
+                    logger.error("run: topic='{}' - failure", topicName, e);
+                }
+            }
+        } finally {
+            // (A restart will need to read only what is saved after this checkpoint.)
+            if (checkpoint != null) {
+                saveCheckpointInBackground(true);
+            }
+            consumer.close();
+            logger.info("run: topic='{}' - closed", topicName);
+        }
+    }
+
+    private void pollOnce() {
+        // Load from Kafka.
+        //
+        ConsumerRecords<String, byte[]> records = consumer.poll(POLL_TIMEOUT);
+        if (!records.isEmpty()) {
+            logger.debug("pollOnce: topic='{}' - poll: count={}", topicName, records.count());
+            pollsCount.increment();
+            recordsCount.increment(records.count());
+        } else {
+            emptyPollsCount.increment();
+        }
+
+        Set<RawAlarmsSubpartitionView> changedViews = Collections.newSetFromMap(new IdentityHashMap<>());
+        boolean viewsCreated = false;
+        for (ConsumerRecord<String, byte[]> record : records) {
+            if (failedPartitions.containsKey(record.partition())) {
+                continue;  // (i.e. records following the one which failed, they are read again after a retry)
+            }
+            RawAlarmsPartitionDefinition partitionDefinition = getPartitionDefinition(record);
+            if (partitionDefinition == null) {
+                continue;
+            }
+
+            if (valueCodec.isDictionaryRecord(record.headers())) {
+                valueCodec.addDictionary(record.key(), record.value());  // (it is needed to decode next records of the partition)
+                continue;
+            }
+            byte[] value;
+            try {
+                value = valueCodec.decode(record.value(), record.headers());
+            } catch (IllegalArgumentException e) {
+                failPartition(record, e);
+                continue;
+            }
+
+            Map<RawAlarmsPartitionDefinition, RawAlarmsSubpartitionView> partitionViews = views.get(record.partition());
+            RawAlarmsSubpartitionView view = partitionViews.get(partitionDefinition);
+            if (view == null) {
+                view = partitionViews.computeIfAbsent(partitionDefinition, d -> new RawAlarmsSubpartitionView());
+                viewsCreated = true;
+            }
+            view.apply(record.key(), record.offset(), value, record.timestamp());
+            changedViews.add(view);
+        }
+
+        // Publish how far the views are loaded.
+        //
+        synchronized (positionsMonitor) {
+            for (TopicPartition partition : consumer.assignment()) {
+                positions.put(partition.partition(), consumer.position(partition));
+            }
+            positionsMonitor.notifyAll();
+        }
+        if (!caughtUp) {
+            updateCaughtUp();
+        }
+
+        // Wake up long-polling requests. (once per poll, not per record)
+        //
+        for (RawAlarmsSubpartitionView view : changedViews) {
+            view.getChangeListeners().notifyListeners();
+        }
+        if (viewsCreated) {
+            newViewsListeners.notifyListeners();  // (i.e. of adapters which had no alarms in a subpartition)
+        }
+
+        // Retry loading of partitions stopped at a record which could not be decoded.
+        //
+        if (!failedPartitions.isEmpty()) {
+            retryFailedPartitions(System.currentTimeMillis());
+        }
+
+        // Forget about alarms removed long time ago.
+        //
+        long now = System.currentTimeMillis();
+        if (now - lastPurgeTime >= TOMBSTONES_PURGE_INTERVAL_MS) {
+            for (Map<RawAlarmsPartitionDefinition, RawAlarmsSubpartitionView> partitionViews : views.values()) {
+                for (RawAlarmsSubpartitionView view : partitionViews.values()) {
+                    view.purgeTombstonesOlderThan(now - tombstonesRetentionMs);
+                }
+            }
+            lastPurgeTime = now;
+        }
+
+        // Save a checkpoint of the views.
+        //
+        if (checkpoint != null && now - lastCheckpointTime >= checkpoint.getIntervalMs()) {
+            saveCheckpointInBackground(false);
+            lastCheckpointTime = now;
+        }
+    }
+
+    /*
+     * Stops loading views of a partition at a record which cannot be decoded. (e.g. its dictionary is not known)
+     * Skipping it would make the views silently miss an alarm, so queries of the partition fail instead until
+     * the record is decoded. (It is retried periodically, e.g. a dictionary may be read from another partition meanwhile.)
+     */
+    private void failPartition(ConsumerRecord<String, byte[]> record, IllegalArgumentException cause) {
+        TopicPartition partition = new TopicPartition(topicName, record.partition());
+        consumer.seek(partition, record.offset());
+        consumer.pause(Collections.singletonList(partition));
+        failedPartitions.put(record.partition(), new PartitionFailure(
+                String.format("record at offset %d cannot be decoded: %s", record.offset(), cause.getMessage()),
+                System.currentTimeMillis()));
+        logger.error("pollOnce: topic='{}' - stopped at a record which cannot be decoded: partition={}, offset={}",
+                topicName, record.partition(), record.offset(), cause);
+    }
+
+    private void retryFailedPartitions(long now) {
+        for (Map.Entry<Integer, PartitionFailure> failure : failedPartitions.entrySet()) {
+            if (now - failure.getValue().time >= FAILED_PARTITION_RETRY_INTERVAL_MS) {
+                failedPartitions.remove(failure.getKey());
+                consumer.resume(Collections.singletonList(new TopicPartition(topicName, failure.getKey())));
+                logger.info("pollOnce: topic='{}' - retry of the failed partition={}", topicName, failure.getKey());
+            }
+        }
+    }
+
+    /**
+     * Returns failures of Kafka partitions which are not loaded further. (by partition numbers)
+     */
+    Map<Integer, String> getFailedPartitions() {
+        Map<Integer, String> failures = new HashMap<>();
+        failedPartitions.forEach((partition, failure) -> failures.put(partition, failure.reason));
+        return failures;
+    }
+
+    /*
+     * Returns the adapter of a record. (from its headers, or the legacy adapter if the record was saved without them)
+     * Returns null if the record is to be ignored.
+     */
+    private RawAlarmsPartitionDefinition getPartitionDefinition(ConsumerRecord<String, byte[]> record) {
+        Header domain = record.headers().lastHeader(RaasDaoKafka.HEADER_DOMAIN);
+        Header adapterName = record.headers().lastHeader(RaasDaoKafka.HEADER_ADAPTER_NAME);
+        if (domain != null && adapterName != null) {
+            return new RawAlarmsPartitionDefinition(
+                    new String(domain.value(), StandardCharsets.UTF_8), new String(adapterName.value(), StandardCharsets.UTF_8));
+        }
+
+        // (It is logged once per partition, not per record.)
+        legacyRecordsCount.increment();
+        if (partitionsWithLegacyRecords.add(record.partition())) {
+            if (legacyAdapter != null) {
+                logger.warn("pollOnce: topic='{}' - records without adapter headers are read as alarms of '{}': partition={}, offset={}",
+                        topicName, legacyAdapter, record.partition(), record.offset());
+            } else {
+                logger.warn("pollOnce: topic='{}' - records without adapter headers are ignored (see kafka-legacy-adapter): partition={}, offset={}",
+                        topicName, record.partition(), record.offset());
+            }
+        }
+        return legacyAdapter;
+    }
+
+    /*
+     * Starts to load views of the specified Kafka partitions. (from the beginning or from the last checkpoint)
+     * A checkpoint of a partition is used only once, i.e. a partition assigned again later is loaded from the beginning.
+     */
+    private void startReading(Collection<TopicPartition> partitions) {
+        Map<TopicPartition, Long> beginningOffsets = consumer.beginningOffsets(partitions);
+        Map<TopicPartition, Long> endOffsets = consumer.endOffsets(partitions);
+        Map<Integer, Long> offsetsToCatchUp = new HashMap<>(catchUpOffsets);
+        for (TopicPartition partition : partitions) {
+            views.put(partition.partition(), new ConcurrentHashMap<>());
+            failedPartitions.remove(partition.partition());  // (i.e. it is loaded again from the beginning)
+            KafkaViewsCheckpoint.PartitionSnapshot partitionSnapshot = restorableSnapshots.remove(partition.partition());
+            if (partitionSnapshot != null && partitionSnapshot.position >= beginningOffsets.get(partition)
+                    && partitionSnapshot.position <= endOffsets.get(partition)
+                    && System.currentTimeMillis() - restorableSnapshotsTime < deleteRetentionMs) {
+                restore(partition.partition(), partitionSnapshot);
+                consumer.seek(partition, partitionSnapshot.position);
+            } else {
+                if (partitionSnapshot != null) {
+                    logger.warn("startReading: topic='{}' - checkpoint ignored: partition={}, position={}, checkpointTime={}, deleteRetentionMs={}",
+                            topicName, partition.partition(), partitionSnapshot.position, restorableSnapshotsTime, deleteRetentionMs);
+                }
+                consumer.seekToBeginning(Collections.singletonList(partition));
+            }
+            offsetsToCatchUp.put(partition.partition(), endOffsets.get(partition));
+        }
+        catchUpOffsets = offsetsToCatchUp;
+        assigned = true;
+        if (!caughtUp) {
+            updateCaughtUp();
+        }
+        logger.info("startReading: topic='{}' - partitions={}", topicName, partitions);
+    }
+
+    /*
+     * Applies a new assignment of a cluster group. (by the tailing thread, during a poll)
+     */
+    private void reassign(Collection<TopicPartition> partitions) {
+        // Forget views of partitions which were moved to other nodes.
+        //
+        Set<TopicPartition> stoppedPartitions = new HashSet<>(revokedPartitions);
+        stoppedPartitions.removeAll(partitions);
+        if (!stoppedPartitions.isEmpty()) {
+            Map<Integer, Long> offsetsToCatchUp = new HashMap<>(catchUpOffsets);
+            for (TopicPartition partition : stoppedPartitions) {
+                Map<RawAlarmsPartitionDefinition, RawAlarmsSubpartitionView> partitionViews;
+                synchronized (positionsMonitor) {
+                    partitionViews = views.remove(partition.partition());
+                    positions.remove(partition.partition());
+                    positionsMonitor.notifyAll();  // (queries waiting for the partition fail at once)
+                }
+                offsetsToCatchUp.remove(partition.partition());
+                failedPartitions.remove(partition.partition());
+                if (partitionViews != null) {
+                    // (Waiting requests read again, i.e. they fail at once as the views are not there.)
+                    SubpartitionNotOwnedException cause = new SubpartitionNotOwnedException(String.valueOf(partition.partition()), null);
+                    for (RawAlarmsSubpartitionView view : partitionViews.values()) {
+                        view.getChangeFeed().closeSubscriptions(cause);
+                        view.getChangeListeners().notifyListeners();
+                    }
+                }
+            }
+            newViewsListeners.notifyListeners();  // (i.e. also requests of adapters without views in the stopped partitions)
+            catchUpOffsets = offsetsToCatchUp;
+            logger.info("reassign: topic='{}' - stopped: partitions={}", topicName, stoppedPartitions);
+        }
+        revokedPartitions = Collections.emptySet();
+
+        // Continue with views which are kept and start the new ones.
+        //
+        List<TopicPartition> newPartitions = new ArrayList<>();
+        for (TopicPartition partition : partitions) {
+            Long position = positions.get(partition.partition());
+            if (views.containsKey(partition.partition()) && position != null) {
+                consumer.seek(partition, position);  // (offsets are not committed, i.e. the consumer does not know them)
+                if (failedPartitions.containsKey(partition.partition())) {
+                    consumer.pause(Collections.singletonList(partition));  // (a new assignment is not paused)
+                }
+            } else {
+                newPartitions.add(partition);
+            }
+        }
+        startReading(newPartitions);
+    }
+
+    /*
+     * Reads how long Kafka keeps removals of alarms in the topic. (0 if it cannot be read, i.e. a checkpoint is not used)
+     */
+    private long readDeleteRetentionMs() {
+        ConfigResource topic = new ConfigResource(ConfigResource.Type.TOPIC, topicName);
+        AdminClient adminClient = connector.createAdminClient();
+        try {
+            ConfigEntry deleteRetention = adminClient.describeConfigs(Collections.singleton(topic)).all()
+                    .get(DESCRIBE_TIMEOUT_MS, TimeUnit.MILLISECONDS).get(topic).get(TopicConfig.DELETE_RETENTION_MS_CONFIG);
+            return Long.parseLong(deleteRetention.value());
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        } catch (ExecutionException|TimeoutException|RuntimeException e) {
+            logger.warn("readDeleteRetentionMs: topic='{}' - failure (the checkpoint is not used)", topicName, e);
+            return 0;
+        } finally {
+            adminClient.close(DESCRIBE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /*
+     * Applies entries of views loaded from a checkpoint. (before the partition is polled)
+     */
+    private void restore(int partition, KafkaViewsCheckpoint.PartitionSnapshot partitionSnapshot) {
+        Map<RawAlarmsPartitionDefinition, RawAlarmsSubpartitionView> partitionViews = views.get(partition);
+        for (Map.Entry<RawAlarmsPartitionDefinition, List<RawAlarmsSubpartitionView.Entry>> viewEntries
+                : partitionSnapshot.entries.entrySet()) {
+            RawAlarmsSubpartitionView view = partitionViews.computeIfAbsent(viewEntries.getKey(), d -> new RawAlarmsSubpartitionView());
+            for (RawAlarmsSubpartitionView.Entry entry : viewEntries.getValue()) {
+                view.apply(entry.notificationIdentifier, entry.offset, entry.value, entry.timestamp);
+            }
+        }
+        positions.put(partition, partitionSnapshot.position);
+    }
+
+    private void updateCaughtUp() {
+        if (!assigned) {
+            return;  // (the partitions of this node are not known yet)
+        }
+        for (Map.Entry<Integer, Long> catchUpOffset : catchUpOffsets.entrySet()) {
+            if (positions.getOrDefault(catchUpOffset.getKey(), 0L) < catchUpOffset.getValue()) {
+                return;
+            }
+        }
+        caughtUp = true;
+        logger.info("updateCaughtUp: topic='{}' - caught up: positions={}", topicName, positions);
+    }
+
+    /*
+     * Takes a snapshot of the views and saves it by another thread. (so that tailing is not stopped by writing)
+     * The positions are taken by the tailing thread between polls, while the entries of the views are copied by the
+     * checkpoint thread in chunks. (See {@link RawAlarmsSubpartitionView#getEntries}) So the copied views may be newer
+     * than the positions, and records replayed from the positions are ignored by them.
+     */
+    private void saveCheckpointInBackground(boolean last) {
+        long time = System.currentTimeMillis();
+        Map<Integer, Long> checkpointPositions = new HashMap<>(positions);
+        if (checkpointPositions.equals(lastCheckpointPositions)) {
+            return;  // (nothing was read since the last one)
+        }
+        if (!checkpointInProgress.compareAndSet(false, true) && !last) {
+            return;  // (the previous one is still being saved, the last one is queued after it)
+        }
+
+        Map<Integer, Map<RawAlarmsPartitionDefinition, RawAlarmsSubpartitionView>> checkpointViews = new HashMap<>();
+        for (Integer partition : checkpointPositions.keySet()) {
+            checkpointViews.put(partition, new HashMap<>(views.get(partition)));  // (i.e. views created later are not saved)
+        }
+        Map<String, byte[]> dictionaries = valueCodec.getDictionaries();
+        lastCheckpointPositions = checkpointPositions;
+
+        checkpointExecutor.execute(() -> {
+            long startTime = System.nanoTime();
+            try {
+                Map<Integer, KafkaViewsCheckpoint.PartitionSnapshot> partitionSnapshots = new HashMap<>();
+                for (Map.Entry<Integer, Long> position : checkpointPositions.entrySet()) {
+                    Map<RawAlarmsPartitionDefinition, List<RawAlarmsSubpartitionView.Entry>> entries = new HashMap<>();
+                    for (Map.Entry<RawAlarmsPartitionDefinition, RawAlarmsSubpartitionView> view
+                            : checkpointViews.get(position.getKey()).entrySet()) {
+                        List<RawAlarmsSubpartitionView.Entry> viewEntries = view.getValue().getEntries();
+                        if (!viewEntries.isEmpty()) {
+                            entries.put(view.getKey(), viewEntries);
+                        }
+                    }
+                    partitionSnapshots.put(position.getKey(), new KafkaViewsCheckpoint.PartitionSnapshot(position.getValue(), entries));
+                }
+                checkpoint.save(new KafkaViewsCheckpoint.Snapshot(time, partitionSnapshots, dictionaries));
+                logger.info("saveCheckpoint: topic='{}' - success: positions={}", topicName, checkpointPositions);
+            } catch (IOException|RuntimeException e) {
+                logger.error("saveCheckpoint: topic='{}' - failure", topicName, e);
+            } finally {
+                checkpointTimer.record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+                checkpointInProgress.set(false);
+            }
+        });
+    }
+}
@@ -0,0 +1,257 @@
+package com.j9soft.poc.alarms;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * A checkpoint of views of all Kafka partitions of a topic, saved in a local file. (i.e. the latest value of every alarm
+ * together with the offset of each partition which the views reflect)
+ *
+ * After a restart the views are loaded from the checkpoint and Kafka is replayed only from the saved offsets,
+ * instead of from the beginning. (See {@link KafkaSubpartitionsTailer})
+ * Dictionaries of compressed values are saved too, because records which contain them may precede the saved offsets.
+ *
+ * The file is written to a temporary file first which then replaces the old one atomically, so a crash leaves either
+ * the old or the new checkpoint. A checkpoint with a wrong CRC is ignored. (i.e. the views are loaded from the beginning)
+ *
+ * The time of a snapshot is saved too, because Kafka keeps removals (i.e. tombstones) only for "delete.retention.ms" of
+ * the topic. Views replayed from an older checkpoint could miss removals, so it must not be used then.
+ * Entries of a snapshot may be newer than its offsets. (i.e. views are copied while records are applied to them,
+ * and records replayed over such entries are ignored, see {@link RawAlarmsSubpartitionView#apply})
+ */
+class KafkaViewsCheckpoint {
+
+    private static final Logger logger = LoggerFactory.getLogger(KafkaViewsCheckpoint.class);
+
+    private static final int MAGIC = 0x52614153;  // "RaAS"
+    private static final int VERSION = 2;  // (1 had no time of the snapshot)
+    private static final String CHECKPOINT_SUFFIX = ".checkpoint";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    /**
+     * Views of one Kafka partition and the offset of the next record which is not reflected by them.
+     */
+    static final class PartitionSnapshot {
+        final long position;
+        final Map<RawAlarmsPartitionDefinition, List<RawAlarmsSubpartitionView.Entry>> entries;  // (in the order of offsets)
+
+        PartitionSnapshot(long position, Map<RawAlarmsPartitionDefinition, List<RawAlarmsSubpartitionView.Entry>> entries) {
+            this.position = position;
+            this.entries = entries;
+        }
+    }
+
+    /**
+     * Contents of a checkpoint.
+     */
+    static final class Snapshot {
+        final long time;  // (wall-clock time when its offsets were taken)
+        final Map<Integer, PartitionSnapshot> partitions;
+        final Map<String, byte[]> dictionaries;
+
+        Snapshot(long time, Map<Integer, PartitionSnapshot> partitions, Map<String, byte[]> dictionaries) {
+            this.time = time;
+            this.partitions = partitions;
+            this.dictionaries = dictionaries;
+        }
+    }
+
+    private final File file;
+    private final long intervalMs;
+
+    /**
+     * @param directory where the checkpoint file (named after the topic) is saved
+     * @param intervalMs how often the checkpoint is saved
+     */
+    KafkaViewsCheckpoint(String directory, String topicName, long intervalMs) {
+        this.file = new File(directory, topicName + CHECKPOINT_SUFFIX);
+        this.intervalMs = intervalMs;
+    }
+
+    long getIntervalMs() {
+        return intervalMs;
+    }
+
+    /**
+     * Writes a snapshot to the disk. (It is forced to the disk before it replaces the previous one.)
+     */
+    void save(Snapshot snapshot) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create directory: " + directory);
+        }
+
+        File temporaryFile = new File(directory, file.getName() + TEMPORARY_SUFFIX);
+        try (FileOutputStream fileOutput = new FileOutputStream(temporaryFile)) {
+            CheckedOutputStream checkedOutput = new CheckedOutputStream(new BufferedOutputStream(fileOutput, 64 * 1024), new CRC32());
+            DataOutputStream output = new DataOutputStream(checkedOutput);
+
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeLong(snapshot.time);
+            output.writeInt(snapshot.dictionaries.size());
+            for (Map.Entry<String, byte[]> dictionary : snapshot.dictionaries.entrySet()) {
+                writeString(output, dictionary.getKey());
+                writeBytes(output, dictionary.getValue());
+            }
+
+            output.writeInt(snapshot.partitions.size());
+            for (Map.Entry<Integer, PartitionSnapshot> partition : snapshot.partitions.entrySet()) {
+                output.writeInt(partition.getKey());
+                output.writeLong(partition.getValue().position);
+                output.writeInt(partition.getValue().entries.size());
+                for (Map.Entry<RawAlarmsPartitionDefinition, List<RawAlarmsSubpartitionView.Entry>> view
+                        : partition.getValue().entries.entrySet()) {
+                    writeString(output, view.getKey().getDomain());
+                    writeString(output, view.getKey().getAdapterName());
+                    output.writeInt(view.getValue().size());
+                    for (RawAlarmsSubpartitionView.Entry entry : view.getValue()) {
+                        writeString(output, entry.notificationIdentifier);
+                        output.writeLong(entry.offset);
+                        output.writeLong(entry.timestamp);
+                        writeBytes(output, entry.value);
+                    }
+                }
+            }
+
+            // (The CRC is not a part of the checksummed data.)
+            output.flush();
+            new DataOutputStream(fileOutput).writeLong(checkedOutput.getChecksum().getValue());
+            fileOutput.getChannel().force(true);
+        }
+        Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Reads the last saved snapshot.
+     *
+     * @return null if there is no checkpoint or if it is not valid (e.g. it was written by another version)
+     */
+    Snapshot load() {
+        if (!file.exists()) {
+            return null;
+        }
+
+        try (FileInputStream fileInput = new FileInputStream(file)) {
+            long length = file.length();  // (a damaged count or length must not cause allocating more than that)
+            CheckedInputStream checkedInput = new CheckedInputStream(new BufferedInputStream(fileInput, 64 * 1024), new CRC32());
+            DataInputStream input = new DataInputStream(checkedInput);
+
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                logger.warn("load: file='{}' - ignored checkpoint of unknown format", file);
+                return null;
+            }
+            long time = input.readLong();
+
+            Map<String, byte[]> dictionaries = new HashMap<>();
+            int dictionariesCount = readCount(input, length);
+            for (int i = 0; i < dictionariesCount; i++) {
+                dictionaries.put(readString(input, length), readBytes(input, length));
+            }
+
+            Map<Integer, PartitionSnapshot> partitions = new HashMap<>();
+            int partitionsCount = readCount(input, length);
+            for (int i = 0; i < partitionsCount; i++) {
+                int partition = input.readInt();
+                long position = input.readLong();
+                Map<RawAlarmsPartitionDefinition, List<RawAlarmsSubpartitionView.Entry>> entries = new HashMap<>();
+                int viewsCount = readCount(input, length);
+                for (int j = 0; j < viewsCount; j++) {
+                    String domain = readString(input, length);
+                    RawAlarmsPartitionDefinition partitionDefinition = new RawAlarmsPartitionDefinition(domain, readString(input, length));
+                    int entriesCount = readCount(input, length);
+                    List<RawAlarmsSubpartitionView.Entry> viewEntries = new ArrayList<>(entriesCount);
+                    for (int k = 0; k < entriesCount; k++) {
+                        String notificationIdentifier = readString(input, length);
+                        long offset = input.readLong();
+                        long timestamp = input.readLong();
+                        byte[] value = readBytes(input, length);
+                        viewEntries.add(new RawAlarmsSubpartitionView.Entry(notificationIdentifier, offset, value, timestamp));
+                    }
+                    entries.put(partitionDefinition, viewEntries);
+                }
+                partitions.put(partition, new PartitionSnapshot(position, entries));
+            }
+
+            // Verify that nothing was damaged. (i.e. that the checksum follows the data and matches it)
+            //
+            long checksum = checkedInput.getChecksum().getValue();
+            if (input.readLong() != checksum || input.read() != -1) {
+                logger.warn("load: file='{}' - ignored checkpoint with wrong CRC", file);
+                return null;
+            }
+
+            logger.info("load: file='{}' - success: partitions={}, time={}", file, partitions.size(), time);
+            return new Snapshot(time, partitions, dictionaries);
+
+        } catch (EOFException e) {
+            logger.warn("load: file='{}' - ignored truncated checkpoint", file);
+            return null;
+        } catch (IOException|RuntimeException e) {
+            logger.warn("load: file='{}' - ignored checkpoint which cannot be read", file, e);
+            return null;
+        }
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        writeBytes(output, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeBytes(DataOutputStream output, byte[] value) throws IOException {
+        if (value == null) {
+            output.writeInt(-1);
+        } else {
+            output.writeInt(value.length);
+            output.write(value);
+        }
+    }
+
+    private static int readCount(DataInputStream input, long maxCount) throws IOException {
+        int count = input.readInt();
+        if (count < 0 || count > maxCount) {
+            throw new IOException("Unexpected count: " + count);
+        }
+        return count;
+    }
+
+    private static String readString(DataInputStream input, long maxLength) throws IOException {
+        byte[] value = readBytes(input, maxLength);
+        if (value == null) {
+            throw new IOException("Unexpected null string");
+        }
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readBytes(DataInputStream input, long maxLength) throws IOException {
+        int length = input.readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > maxLength) {
+            throw new IOException("Unexpected length: " + length);
+        }
+        byte[] value = new byte[length];
+        input.readFully(value);
+        return value;
+    }
+}
@@ -0,0 +1,40 @@
+package com.j9soft.poc.alarms;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Readiness of this node: it is OUT_OF_SERVICE until the views of Kafka partitions caught up with what was saved
+ * before the start. (i.e. until queries are served without waiting for the tailer)
+ *
+ * So http://localhost:8080/actuator/health returns 503 meanwhile and a load balancer keeps the node out of rotation.
+ * It is DOWN if views of a subpartition stopped at a record which cannot be decoded.
+ */
+@Profile({"prod","kafka-dev"})
+@Component
+class KafkaViewsHealthIndicator implements HealthIndicator {
+
+    private final RaasDaoKafka dao;
+
+    @Autowired
+    KafkaViewsHealthIndicator(RaasDaoKafka dao) {
+        this.dao = dao;
+    }
+
+    @Override
+    public Health health() {
+        Map<Integer, String> failedSubpartitions = dao.getFailedSubpartitions();
+        if (!failedSubpartitions.isEmpty()) {
+            return Health.down().withDetail("failedSubpartitions", failedSubpartitions).build();
+        }
+        if (dao.isCaughtUp()) {
+            return Health.up().build();
+        }
+        return Health.outOfService().withDetail("catchUpLag", dao.getCatchUpLag()).build();
+    }
+}
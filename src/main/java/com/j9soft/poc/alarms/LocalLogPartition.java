@@ -0,0 +1,445 @@
+package com.j9soft.poc.alarms;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.CRC32;
+
+/**
+ * One partition of a local append-only log. (i.e. a Kafka-less replacement of a Kafka partition)
+ *
+ * The log is a directory of segment files named by the offset of their first record. Records are appended to the last
+ * (i.e. the active) segment through a memory-mapped buffer, so an append costs no system call. A segment is preallocated
+ * with a fixed size and a new one is started when a record does not fit.
+ *
+ * Record format: size (int, 0 marks the end of data), CRC32 of the rest (int), offset (long), timestamp (long),
+ * domain, adapter name, notification identifier (int length + UTF-8 bytes each) and value (int length + bytes, -1 for a removal).
+ *
+ * Recovery after a crash stops at the first record with a wrong size or CRC. (i.e. at a torn write, the rest is cleared)
+ * Compaction rewrites old segments without superseded records into temporary files which replace them atomically,
+ * so a crash during compaction leaves either the old or the new segment. (Offsets of kept records are not changed.)
+ *
+ * Only the active segment is memory-mapped. It is unmapped explicitly when a new one is started, because a mapped file
+ * cannot be replaced on Windows. (and the mapping would stay until a GC otherwise) Closed segments are read through
+ * a FileChannel.
+ *
+ * Note: Instances are not thread-safe. Appends need to be serialized by the caller. (Compaction and flushing
+ * touch only segments which are no longer appended to, or use the active buffer in a thread-safe way.)
+ */
+class LocalLogPartition {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocalLogPartition.class);
+
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String COMPACTED_SEGMENT_SUFFIX = ".compacting";
+
+    private static final int RECORD_HEADER_SIZE = 8;  // size and CRC
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Receives records read from the log.
+     */
+    interface RecordConsumer {
+        void accept(RawAlarmsPartitionDefinition partitionDefinition, String notificationIdentifier, long offset,
+                    byte[] value, long timestamp);
+    }
+
+    /**
+     * Decides which records are kept by compaction.
+     */
+    interface RecordFilter {
+        boolean isLive(RawAlarmsPartitionDefinition partitionDefinition, String notificationIdentifier, long offset);
+    }
+
+    private final File directory;
+    private final int segmentSize;
+
+    private final NavigableMap<Long, File> segments = new ConcurrentSkipListMap<>();  // by offset of the first record
+    private volatile MappedByteBuffer activeSegment;
+    private final Object activeSegmentLock = new Object();  // (a buffer must not be forced while it is being unmapped)
+    private long nextOffset = 0;
+
+    private final CRC32 crc = new CRC32();  // (used by appends only)
+    private ByteBuffer recordBuffer = ByteBuffer.allocate(1024);
+
+    LocalLogPartition(File directory, int segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Reads all records of the log (in the order of offsets) and prepares the log for appends.
+     */
+    void recover(RecordConsumer consumer) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create directory: " + directory);
+        }
+
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(COMPACTED_SEGMENT_SUFFIX)) {
+                    Files.delete(file.toPath());  // (i.e. compaction was interrupted, the old segment is still there)
+                } else if (file.getName().endsWith(SEGMENT_SUFFIX)) {
+                    segments.put(Long.parseLong(file.getName().substring(0, file.getName().length() - SEGMENT_SUFFIX.length())), file);
+                }
+            }
+        }
+
+        for (Map.Entry<Long, File> segment : segments.entrySet()) {
+            boolean last = segment.getKey().equals(segments.lastKey());
+            nextOffset = Math.max(nextOffset, segment.getKey());
+
+            int end;
+            boolean torn;
+            try (SegmentReader reader = new SegmentReader(segment.getValue())) {
+                end = scan(reader, (partitionDefinition, notificationIdentifier, offset, value, timestamp, position, size) -> {
+                    consumer.accept(partitionDefinition, notificationIdentifier, offset, value, timestamp);
+                    nextOffset = offset + 1;
+                });
+                ByteBuffer next = reader.read(end, 4);
+                torn = next != null && next.getInt(next.position()) != 0;
+            }
+
+            if (torn) {
+                // A torn write (or a corrupted record) ends the segment. Its leftovers must not be taken for a record later.
+                logger.warn("recover: '{}' - invalid record at position {} (the rest of the segment is ignored)",
+                        segment.getValue(), end);
+            }
+            if (last) {
+                MappedByteBuffer buffer = map(segment.getValue());
+                if (torn) {
+                    clear(buffer, end);
+                }
+                buffer.position(end);
+                activeSegment = buffer;
+            }
+        }
+
+        if (activeSegment == null) {
+            startSegment();
+        }
+        logger.info("recover: directory='{}' - segments={}, nextOffset={}", directory, segments.size(), nextOffset);
+    }
+
+    /**
+     * Appends a record. (A new segment is started if the record does not fit into the active one.)
+     *
+     * @param value null if the alarm is removed
+     * @return offset of the record
+     */
+    long append(RawAlarmsPartitionDefinition partitionDefinition, String notificationIdentifier, byte[] value,
+                long timestamp) throws IOException {
+
+        ByteBuffer record = encode(partitionDefinition, notificationIdentifier, nextOffset, value, timestamp);
+        if (record.remaining() > segmentSize - 4) {
+            throw new IOException("Alarm is too big to be saved: " + notificationIdentifier);
+        }
+        if (activeSegment.remaining() < record.remaining() + 4) {  // (4 bytes of 0 mark the end of data)
+            synchronized (activeSegmentLock) {
+                MappedByteBuffer closedSegment = activeSegment;
+                closedSegment.force();
+                startSegment();
+                unmap(closedSegment);
+            }
+        }
+        activeSegment.put(record);
+        return nextOffset++;
+    }
+
+    /**
+     * Writes appended records to the disk. (Appended records survive a crash of the process anyway, i.e. they are
+     * in the page cache. This protects them from a crash of the operating system.)
+     */
+    void flush() {
+        synchronized (activeSegmentLock) {
+            if (activeSegment != null) {
+                activeSegment.force();
+            }
+        }
+    }
+
+    /**
+     * Writes appended records to the disk and unmaps the active segment. (No records may be appended afterwards.)
+     */
+    void close() {
+        synchronized (activeSegmentLock) {
+            if (activeSegment != null) {
+                activeSegment.force();
+                unmap(activeSegment);
+                activeSegment = null;
+            }
+        }
+    }
+
+    /**
+     * Rewrites segments (other than the active one) without records which are not live.
+     * Segments are compacted in the order of offsets, so a removal is dropped only after the alarm's older values are.
+     */
+    void compact(RecordFilter filter) throws IOException {
+        boolean activeSegmentForced = false;
+        for (Map.Entry<Long, File> segment : new ArrayList<>(segments.headMap(segments.lastKey(), false).entrySet())) {
+            File file = segment.getValue();
+
+            List<int[]> liveRecords = new ArrayList<>();  // positions and sizes
+            int[] recordsCount = new int[1];
+            try (SegmentReader reader = new SegmentReader(file)) {
+                scan(reader, (partitionDefinition, notificationIdentifier, offset, value, timestamp, position, size) -> {
+                    recordsCount[0]++;
+                    if (filter.isLive(partitionDefinition, notificationIdentifier, offset)) {
+                        liveRecords.add(new int[] {position, size});
+                    }
+                });
+                if (liveRecords.size() == recordsCount[0]) {
+                    continue;  // (there is nothing to drop)
+                }
+
+                // Records which superseded the dropped ones need to be on the disk before the dropped ones are gone.
+                // (Otherwise a crash of the operating system could lose both.)
+                //
+                if (!activeSegmentForced) {
+                    flush();
+                    activeSegmentForced = true;
+                }
+
+                if (!liveRecords.isEmpty()) {
+                    File compactedFile = new File(directory, file.getName() + COMPACTED_SEGMENT_SUFFIX);
+                    try (FileChannel compacted = FileChannel.open(compactedFile.toPath(),
+                            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                        for (int[] liveRecord : liveRecords) {
+                            long transferred = 0;
+                            while (transferred < liveRecord[1]) {
+                                transferred += reader.channel.transferTo(liveRecord[0] + transferred, liveRecord[1] - transferred, compacted);
+                            }
+                        }
+                        compacted.force(true);
+                    }
+                }
+            }
+
+            if (liveRecords.isEmpty()) {
+                segments.remove(segment.getKey());
+                Files.delete(file.toPath());
+            } else {
+                Files.move(new File(directory, file.getName() + COMPACTED_SEGMENT_SUFFIX).toPath(), file.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            forceDirectory();  // (i.e. the rename or the removal survives a crash of the operating system)
+            logger.info("compact: '{}' - records={}, kept={}", file, recordsCount[0], liveRecords.size());
+        }
+    }
+
+    int getSegmentsCount() {
+        return segments.size();
+    }
+
+    private void startSegment() throws IOException {
+        File file = new File(directory, String.format("%020d%s", nextOffset, SEGMENT_SUFFIX));
+        activeSegment = map(file);
+        segments.put(nextOffset, file);
+    }
+
+    /*
+     * Maps the active segment for writing with its full, preallocated size.
+     */
+    private MappedByteBuffer map(File file) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+             FileChannel channel = randomAccessFile.getChannel()) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(segmentSize, channel.size()));  // (a mapping stays valid after closing)
+        }
+    }
+
+    /*
+     * Writes changes of entries of the directory (i.e. new, renamed and removed segments) to the disk.
+     */
+    private void forceDirectory() {
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // (e.g. on Windows, where a directory cannot be opened, its entries are written with the files anyway)
+            logger.debug("forceDirectory: '{}' - failure", directory, e);
+        }
+    }
+
+    /*
+     * Releases a mapping at once. (Note: The buffer must not be used afterwards, it would crash the JVM.)
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            try {
+                // Java 9 and newer.
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            } catch (NoSuchMethodException e) {
+                // Java 8.
+                Method cleaner = buffer.getClass().getMethod("cleaner");
+                cleaner.setAccessible(true);
+                Object bufferCleaner = cleaner.invoke(buffer);
+                bufferCleaner.getClass().getMethod("clean").invoke(bufferCleaner);
+            }
+        } catch (ReflectiveOperationException|RuntimeException e) {
+            logger.warn("unmap: failure (the segment is unmapped by a GC)", e);
+        }
+    }
+
+    private ByteBuffer encode(RawAlarmsPartitionDefinition partitionDefinition, String notificationIdentifier, long offset,
+                              byte[] value, long timestamp) {
+        byte[] domain = partitionDefinition.getDomain().getBytes(StandardCharsets.UTF_8);
+        byte[] adapterName = partitionDefinition.getAdapterName().getBytes(StandardCharsets.UTF_8);
+        byte[] key = notificationIdentifier.getBytes(StandardCharsets.UTF_8);
+        int size = 8 + 8 + 4 + domain.length + 4 + adapterName.length + 4 + key.length + 4 + (value == null ? 0 : value.length);
+
+        if (recordBuffer.capacity() < RECORD_HEADER_SIZE + size) {
+            recordBuffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + size);
+        }
+        ByteBuffer record = recordBuffer;
+        record.clear();
+        record.putInt(size).putInt(0);
+        record.putLong(offset).putLong(timestamp);
+        record.putInt(domain.length).put(domain);
+        record.putInt(adapterName.length).put(adapterName);
+        record.putInt(key.length).put(key);
+        if (value == null) {
+            record.putInt(-1);
+        } else {
+            record.putInt(value.length).put(value);
+        }
+
+        crc.reset();
+        crc.update(record.array(), RECORD_HEADER_SIZE, size);
+        record.putInt(4, (int) crc.getValue());
+        record.flip();
+        return record;
+    }
+
+    /*
+     * Reads valid records of a segment.
+     */
+    private interface ScannedRecordConsumer {
+        void accept(RawAlarmsPartitionDefinition partitionDefinition, String notificationIdentifier, long offset,
+                    byte[] value, long timestamp, int position, int size);
+    }
+
+    /*
+     * Reads a segment through a FileChannel. (i.e. without mapping it)
+     */
+    private static class SegmentReader implements AutoCloseable {
+        final FileChannel channel;
+        final long size;
+        private ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private long bufferStart = 0;  // (position of the first byte of the buffer in the file)
+
+        SegmentReader(File file) throws IOException {
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            this.size = channel.size();
+            buffer.limit(0);
+        }
+
+        /**
+         * @return buffer with the requested bytes between its position and limit, or null if the file is shorter
+         *         (It is valid until the next read.)
+         */
+        ByteBuffer read(long position, int length) throws IOException {
+            if (position + length > size) {
+                return null;
+            }
+            if (position < bufferStart || position + length > bufferStart + buffer.limit()) {
+                if (buffer.capacity() < length) {
+                    buffer = ByteBuffer.allocate(length);
+                }
+                buffer.clear();
+                bufferStart = position;
+                while (buffer.position() < length) {
+                    if (channel.read(buffer, bufferStart + buffer.position()) < 0) {
+                        throw new IOException("Segment was truncated while being read");
+                    }
+                }
+                buffer.flip();
+            }
+            ByteBuffer bytes = buffer.duplicate();
+            bytes.limit((int) (position - bufferStart) + length).position((int) (position - bufferStart));
+            return bytes;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * @return position following the last valid record
+     */
+    private static int scan(SegmentReader reader, ScannedRecordConsumer consumer) throws IOException {
+        CRC32 crc = new CRC32();
+
+        int position = 0;
+        ByteBuffer header;
+        while ((header = reader.read(position, RECORD_HEADER_SIZE)) != null) {
+            int size = header.getInt();
+            int expectedCrc = header.getInt();
+            if (size <= 0 || size > reader.size - position - RECORD_HEADER_SIZE) {
+                break;
+            }
+            ByteBuffer record = reader.read(position + RECORD_HEADER_SIZE, size);
+            crc.reset();
+            crc.update(record.array(), record.arrayOffset() + record.position(), size);
+            if ((int) crc.getValue() != expectedCrc) {
+                break;
+            }
+
+            long offset = record.getLong();
+            long timestamp = record.getLong();
+            String domain = readString(record);
+            String adapterName = readString(record);
+            String notificationIdentifier = readString(record);
+            int valueLength = record.getInt();
+            byte[] value = null;
+            if (valueLength >= 0) {
+                value = new byte[valueLength];
+                record.get(value);
+            }
+
+            consumer.accept(new RawAlarmsPartitionDefinition(domain, adapterName), notificationIdentifier, offset, value,
+                    timestamp, position, RECORD_HEADER_SIZE + size);
+            position += RECORD_HEADER_SIZE + size;
+        }
+        return position;
+    }
+
+    private static String readString(ByteBuffer record) {
+        int length = record.getInt();
+        String string = new String(record.array(), record.arrayOffset() + record.position(), length, StandardCharsets.UTF_8);
+        record.position(record.position() + length);
+        return string;
+    }
+
+    private static void clear(ByteBuffer buffer, int from) {
+        byte[] zeros = new byte[64 * 1024];
+        ByteBuffer target = buffer.duplicate();
+        target.position(from);
+        while (target.hasRemaining()) {
+            target.put(zeros, 0, Math.min(zeros.length, target.remaining()));
+        }
+    }
+}
@@ -18,11 +18,25 @@ public class RaasApplication {
     @Autowired
     private AuthorizationHeaderJwtFilter authorizationHeaderFilter;   // based on Spring Profile we have here a filter with/without JWT token verification
 
+    @Autowired
+    private AdapterAdmissionFilter adapterAdmissionFilter;
+
     @Bean
     public FilterRegistrationBean jwtFilter() {
         final FilterRegistrationBean<Filter> registrationBean = new FilterRegistrationBean<>();
         registrationBean.setFilter(this.authorizationHeaderFilter);
-        registrationBean.addUrlPatterns("/*");
+        registrationBean.addUrlPatterns("/*");  // (i.e. also /actuator/*, only health is read without a token)
+        registrationBean.setOrder(1);
+
+        return registrationBean;
+    }
+
+    @Bean
+    public FilterRegistrationBean admissionFilter() {
+        final FilterRegistrationBean<Filter> registrationBean = new FilterRegistrationBean<>();
+        registrationBean.setFilter(this.adapterAdmissionFilter);
+        registrationBean.addUrlPatterns("/v2/*");
+        registrationBean.setOrder(2);  // (after jwtFilter, i.e. when the adapter is known)
 
         return registrationBean;
     }
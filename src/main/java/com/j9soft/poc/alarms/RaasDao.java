@@ -1,5 +1,8 @@
 package com.j9soft.poc.alarms;
 
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Interface defining what functionality is provided by a data access layer.
  */
@@ -7,9 +10,74 @@ public interface RaasDao {
 
     void createOrUpdateAlarm(String domain, String adapterName, String notificationIdentifier, String value);
 
+    /**
+     * Non-blocking variant of {@link #createOrUpdateAlarm}.
+     * The returned future is completed when the alarm is saved. (i.e. with the same durability as the blocking variant)
+     *
+     * @param value UTF-8 bytes of a JSON string (i.e. as received, they are stored without decoding)
+     */
+    CompletableFuture<Void> createOrUpdateAlarmAsync(String domain, String adapterName, String notificationIdentifier, byte[] value);
+
     RawAlarmsPack queryAlarms(String domain, String adapterName, String subpartitionName, String tagOfTheFirstAlarmToBeReturned, int howMany);
 
+    /**
+     * Long-polling variant of {@link #queryAlarms}. If there are no alarms to be returned then the returned future is completed
+     * as soon as some are saved, or with an empty pack when waitTimeoutMs passes. (No thread is blocked while waiting.)
+     *
+     * Tag of the next available alarm of the returned pack is never null, i.e. it may be used to wait for next changes.
+     */
+    CompletableFuture<RawAlarmsPack> awaitAlarms(String domain, String adapterName, String subpartitionName,
+                                                 String tagOfTheFirstAlarmToBeReturned, int howMany, long waitTimeoutMs);
+
+    /**
+     * Streaming variant of {@link #queryAlarms}. Alarms are pushed to the writer while they are read.
+     * (So memory used does not depend on howMany.)
+     *
+     * An alarm changed while the pack is being read is not pushed. (It is provided in a next pack.)
+     *
+     * @return tag of the next available alarm (null if there are no more alarms)
+     */
+    String streamAlarms(String domain, String adapterName, String subpartitionName, String tagOfTheFirstAlarmToBeReturned,
+                        int howMany, RawAlarmsWriter writer) throws IOException;
+
+    /**
+     * Pushes alarms of a subpartition to the subscriber: first the ones starting from the provided tag (i.e. as consecutive
+     * packs of {@link #queryAlarms} would provide them) and then every change as soon as it is saved. (including removals)
+     * A subscriber which does not keep up with the changes is closed. (See {@link RawAlarmsSubscriptions})
+     *
+     * @return subscription to be closed when the subscriber is no longer interested
+     */
+    RawAlarmsSubscriptions.Subscription subscribeToAlarms(String domain, String adapterName, String subpartitionName,
+                                                          String tagOfTheFirstAlarmToBeReturned, RawAlarmsSubscriber subscriber);
+
     void removeAlarm(String domain, String adapterName, String notificationIdentifier);
 
+    /**
+     * Non-blocking variant of {@link #removeAlarm}.
+     * The returned future is completed when the alarm is removed.
+     */
+    CompletableFuture<Void> removeAlarmAsync(String domain, String adapterName, String notificationIdentifier);
+
+    /**
+     * Creates, updates or removes (i.e. if a value is null) many alarms at once.
+     * The returned future is completed when all of them are saved.
+     */
+    CompletableFuture<Void> saveAlarmsBatchAsync(String domain, String adapterName, RawAlarmsBatch batch);
+
+    /**
+     * Applies the provided attributes to the current value of an alarm. (i.e. its other attributes are kept)
+     * If the alarm does not exist then it is created with the provided attributes.
+     * Concurrent patches of the same alarm are applied one after another, so no attribute is lost.
+     * The returned future is completed when the patched alarm is saved.
+     */
+    CompletableFuture<Void> patchAlarmAsync(String domain, String adapterName, String notificationIdentifier, byte[] attributes);
+
     String[] getSubpartitions(RawAlarmsPartitionDefinition partitionDefinition);
+
+    /**
+     * Throws {@link SubpartitionNotOwnedException} if the subpartition is served by another node of a cluster.
+     * (e.g. before a streamed response is committed) Reads of such a subpartition fail the same way.
+     */
+    default void checkSubpartitionOwned(String subpartitionName) {
+    }
 }
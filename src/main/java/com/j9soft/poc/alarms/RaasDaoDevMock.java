@@ -3,11 +3,22 @@ package com.j9soft.poc.alarms;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * Implementation of data access layer (DAO) based on a hashmap kept in memory.
+ * Implementation of data access layer (DAO) based on concurrent maps kept in memory.
+ * (Alarms are also indexed by position, so a pack is found in O(log n) and loaded in O(howMany).
+ *  A tag is a position of an alarm.)
+ *
+ * Alarms of every adapter (i.e. domain and adapter name) are kept in a separate shard.
+ * Writers of a shard are serialized by its lock. Readers do not take any locks, i.e. they never block writers.
  *
  * This Dao is used in dev mode, i.e. in development environments.
  * (BTW: In prod (i.e. production) mode a different Dao is used. One which connects to a real DB.)
@@ -17,33 +28,45 @@ import java.util.stream.Collectors;
 public class RaasDaoDevMock implements RaasDao {
 
     public static class AlarmEntry {
-        long position;
-        String value;
+        final long position;
+        final byte[] value;  // UTF-8 bytes of JSON string
 
-        public AlarmEntry(long position, String value) {
+        public AlarmEntry(long position, byte[] value) {
             this.position = position;
             this.value = value;
         }
     }
 
+    /*
+     * Alarms of one adapter.
+     */
+    private static class AlarmsShard {
+        final Lock writeLock = new ReentrantLock();
+        final Map<String, AlarmEntry> inMemoryMap = new ConcurrentHashMap<>();
+        final NavigableMap<Long, String> notificationIdentifiersByPosition = new ConcurrentSkipListMap<>();  // (i.e. alarms sorted by position)
+        long nextPosition = 0;  // (guarded by writeLock)
+        final RawAlarmsLongPolling.ChangeListeners changeListeners = new RawAlarmsLongPolling.ChangeListeners();
+        final RawAlarmsChangeFeed changeFeed = new RawAlarmsChangeFeed();
+    }
+
     private static final String THE_ONLY_SUBPARTITION = "33";
 
     private final JSONValuePatchingComponent patcher = new JSONValuePatchingComponent();
+    private final RawAlarmsLongPolling longPolling = new RawAlarmsLongPolling();
+    private final RawAlarmsSubscriptions subscriptions = new RawAlarmsSubscriptions();
 
-    private Map<String, AlarmEntry> inMemoryMap = new HashMap<>();
-    private long nextPosition = 0;
+    private final Map<RawAlarmsPartitionDefinition, AlarmsShard> shards = new ConcurrentHashMap<>();
 
     @Override
     public void createOrUpdateAlarm(String domain, String adapterName, String notificationIdentifier, String value) {
-        synchronized (inMemoryMap) {
-
-            if (value != null) {
-                inMemoryMap.put(notificationIdentifier, new AlarmEntry(nextPosition++, value));
-            } else {
-                inMemoryMap.remove(notificationIdentifier);
-            }
+        saveAlarm(domain, adapterName, notificationIdentifier, value.getBytes(StandardCharsets.UTF_8));
+    }
 
-        }
+    @Override
+    public CompletableFuture<Void> createOrUpdateAlarmAsync(String domain, String adapterName, String notificationIdentifier,
+                                                            byte[] value) {
+        saveAlarm(domain, adapterName, notificationIdentifier, value);
+        return CompletableFuture.completedFuture(null);  // (there is nothing to wait for)
     }
 
     @Override
@@ -51,92 +74,153 @@ public class RaasDaoDevMock implements RaasDao {
                                      String tagOfTheFirstAlarmToBeReturned, int howMany) {
 
         RawAlarmsPack result = new RawAlarmsPack();
+        AlarmsShard shard = getShard(domain, adapterName);
 
-        synchronized (inMemoryMap) {
-            int availableAlarmsCount = inMemoryMap.size();
-
-            // First we need to have a sorted list of alarms.
-            //
-            LinkedHashMap<String, AlarmEntry> sortedMap =
-                    inMemoryMap.entrySet().stream()
-                            .sorted(Map.Entry.comparingByValue(new Comparator<AlarmEntry>() {
-                                @Override
-                                public int compare(AlarmEntry o1, AlarmEntry o2) {
-                                    return Long.compare(o1.position, o2.position);
-                                }
-                            }))
-                            .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue,
-                                    (e1, e2) -> e1, LinkedHashMap::new));
-
-            // Now we can read the map.
-            //
-            Iterator<Map.Entry<String,AlarmEntry>> existingAlarmsIterator = sortedMap.entrySet().iterator();
-            Map.Entry<String,AlarmEntry> entry = null;
-            Map.Entry<String,AlarmEntry> theFirstAlarmToBeReturned = null;
-
-            // Let's move to the specified "page" within our set of alarms.
-            if (tagOfTheFirstAlarmToBeReturned != null) {
-                while (existingAlarmsIterator.hasNext()) {
-                    availableAlarmsCount--;
-                    entry = existingAlarmsIterator.next();
-                    if ( tagOfTheFirstAlarmToBeReturned.equals(entry.getKey()) ) {
-                        // We have found the alarm to be returned as the first one.
-                        break;
-                    } else {
-                        entry = null;
-                    }
-                }
+        // Let's move to the specified "page" within our set of alarms. (i.e. to the position provided as a tag)
+        //
+        NavigableMap<Long, String> sortedAlarms = shard.notificationIdentifiersByPosition;
+        if (tagOfTheFirstAlarmToBeReturned != null) {
+            sortedAlarms = sortedAlarms.tailMap(Long.parseLong(tagOfTheFirstAlarmToBeReturned), true);
+        }
+        Iterator<Map.Entry<Long, String>> existingAlarmsIterator = sortedAlarms.entrySet().iterator();
 
-                if (entry == null) {
-                    // There are no more alarms to be returned.
-                } else {
-                    // We already have the first alarm to be returned.
-                    theFirstAlarmToBeReturned = entry;
-                    availableAlarmsCount++;
-                }
+        // Let's load the returned alarms.
+        // (Writers do not wait for us, so an alarm may be moved to the end while we read. The iterator might not reach
+        //  its new position, so the alarm is taken at its old one. Then it may be found twice. We keep its newest value.
+        //  It may be also returned again in a next pack, but it is never left out.)
+        //
+        Map<String, byte[]> loadedAlarms = new LinkedHashMap<>();
+        while (loadedAlarms.size() < howMany && existingAlarmsIterator.hasNext()) {
+            Map.Entry<Long, String> entry = existingAlarmsIterator.next();
+            byte[] value = getLatestValue(shard, entry);
+            if (value != null) {
+                loadedAlarms.remove(entry.getValue());  // (i.e. the newest value is moved to the end)
+                loadedAlarms.put(entry.getValue(), value);
             }
+        }
+        result.alarmNotificationIdentifiers = loadedAlarms.keySet().toArray(new String[0]);
+        result.alarmValues = loadedAlarms.values().toArray(new byte[0][]);
 
-            // Let's prepare the returned object.
-            int numberOfAlarmsToReturn;
-            if (availableAlarmsCount > howMany) {
-                numberOfAlarmsToReturn = howMany;
-            } else {
-                numberOfAlarmsToReturn = availableAlarmsCount;
+        // Let's calculate where to start a next page of results.
+        result.tagOfTheNextAvailableAlarm = null;
+        while (existingAlarmsIterator.hasNext()) {
+            Map.Entry<Long, String> entry = existingAlarmsIterator.next();
+            if (getLatestValue(shard, entry) != null) {
+                result.tagOfTheNextAvailableAlarm = String.valueOf(entry.getKey());
+                break;
             }
-            result.alarmValues = new String[numberOfAlarmsToReturn];
-            result.alarmNotificationIdentifiers = new String[numberOfAlarmsToReturn];
+        }
 
-            // Let's load the returned alarms.
-            int i = 0;
+        return result;
+    }
 
-            if (theFirstAlarmToBeReturned !=null) {
-                result.alarmNotificationIdentifiers[i] = theFirstAlarmToBeReturned.getKey();
-                result.alarmValues[i] = theFirstAlarmToBeReturned.getValue().value;
-                i++;
-            }
+    @Override
+    public CompletableFuture<RawAlarmsPack> awaitAlarms(String domain, String adapterName, String subpartitionName,
+                                                        String tagOfTheFirstAlarmToBeReturned, int howMany, long waitTimeoutMs) {
+        AlarmsShard shard = getShard(domain, adapterName);
 
-            for ( ; i < numberOfAlarmsToReturn ; i++ ) {
-                entry = existingAlarmsIterator.next();
-                result.alarmNotificationIdentifiers[i] = entry.getKey();
-                result.alarmValues[i] = entry.getValue().value;
-            }
+        return longPolling.awaitPack(shard.changeListeners,
+                () -> readChanges(shard, tagOfTheFirstAlarmToBeReturned, howMany), waitTimeoutMs);
+    }
+
+    @Override
+    public String streamAlarms(String domain, String adapterName, String subpartitionName,
+                               String tagOfTheFirstAlarmToBeReturned, int howMany, RawAlarmsWriter writer) throws IOException {
+
+        AlarmsShard shard = getShard(domain, adapterName);
+        NavigableMap<Long, String> sortedAlarms = shard.notificationIdentifiersByPosition;
+        if (tagOfTheFirstAlarmToBeReturned != null) {
+            sortedAlarms = sortedAlarms.tailMap(Long.parseLong(tagOfTheFirstAlarmToBeReturned), true);
+        }
+
+        // We push only alarms which existed when we started. (An alarm updated in the meantime gets a higher position,
+        // so it is pushed at its old one, like in queryAlarms(), and it is not pushed twice.)
+        //
+        Map.Entry<Long, String> lastEntry = sortedAlarms.lastEntry();
+        long endPosition = (lastEntry == null) ? 0 : lastEntry.getKey() + 1;
 
-            // Let's calculate where to start a next page of results.
-            if (existingAlarmsIterator.hasNext()) {
-                entry = existingAlarmsIterator.next();
-                result.tagOfTheNextAvailableAlarm = entry.getKey();
-            } else {
-                result.tagOfTheNextAvailableAlarm = null;
+        int count = 0;
+        Map.Entry<Long, String> nextEntry = null;
+        for (Map.Entry<Long, String> entry : sortedAlarms.entrySet()) {
+            byte[] value = getLatestValue(shard, entry);
+            if (value == null) {
+                continue;
+            }
+            if (count == howMany || entry.getKey() >= endPosition) {
+                nextEntry = entry;  // (i.e. it will be provided in a next pack)
+                break;
             }
+            writer.write(entry.getValue(), value);
+            count++;
         }
 
-        return result;
+        return (nextEntry == null) ? null : String.valueOf(nextEntry.getKey());
+    }
+
+    @Override
+    public RawAlarmsSubscriptions.Subscription subscribeToAlarms(String domain, String adapterName, String subpartitionName,
+                                                                 String tagOfTheFirstAlarmToBeReturned, RawAlarmsSubscriber subscriber) {
+        AlarmsShard shard = getShard(domain, adapterName);
+
+        return subscriptions.subscribe(shard.changeFeed, (tag, howMany) -> readChanges(shard, tag, howMany),
+                tagOfTheFirstAlarmToBeReturned, subscriber);
     }
 
     @Override
     public void removeAlarm(String domain, String adapterName, String notificationIdentifier) {
-        synchronized (inMemoryMap) {
-            inMemoryMap.remove(notificationIdentifier);
+        saveAlarm(domain, adapterName, notificationIdentifier, null);
+    }
+
+    @Override
+    public CompletableFuture<Void> removeAlarmAsync(String domain, String adapterName, String notificationIdentifier) {
+        removeAlarm(domain, adapterName, notificationIdentifier);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<Void> saveAlarmsBatchAsync(String domain, String adapterName, RawAlarmsBatch batch) {
+        AlarmsShard shard = getShard(domain, adapterName);
+
+        shard.writeLock.lock();  // (the whole batch is applied at once)
+        try {
+            for (int i = 0; i < batch.alarmNotificationIdentifiers.length; i++) {
+                String value = batch.alarmValues[i];
+                saveAlarm(shard, batch.alarmNotificationIdentifiers[i], value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+            }
+        } finally {
+            shard.writeLock.unlock();
+        }
+        shard.changeListeners.notifyListeners();
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<Void> patchAlarmAsync(String domain, String adapterName, String notificationIdentifier,
+                                                   byte[] attributes) {
+        AlarmsShard shard = getShard(domain, adapterName);
+
+        // Attributes are merged without a lock. (so patches of different alarms are not serialized)
+        // If the alarm was changed in the meantime then we merge them again with its newer value.
+        //
+        while (true) {
+            AlarmEntry oldEntry = shard.inMemoryMap.get(notificationIdentifier);
+            byte[] newValue = patcher.patchOldValue(domain, adapterName, notificationIdentifier, attributes,
+                    oldEntry == null ? null : oldEntry.value);
+
+            boolean saved = false;
+            shard.writeLock.lock();
+            try {
+                if (shard.inMemoryMap.get(notificationIdentifier) == oldEntry) {
+                    saveAlarm(shard, notificationIdentifier, newValue);
+                    saved = true;
+                }
+            } finally {
+                shard.writeLock.unlock();
+            }
+            if (saved) {
+                shard.changeListeners.notifyListeners();
+                return CompletableFuture.completedFuture(null);
+            }
         }
     }
 
@@ -144,4 +228,100 @@ public class RaasDaoDevMock implements RaasDao {
     public String[] getSubpartitions(RawAlarmsPartitionDefinition partitionDefinition) {
         return new String[] {THE_ONLY_SUBPARTITION};
     }
+
+    private AlarmsShard getShard(String domain, String adapterName) {
+        return shards.computeIfAbsent(new RawAlarmsPartitionDefinition(domain, adapterName), d -> new AlarmsShard());
+    }
+
+    private void saveAlarm(String domain, String adapterName, String notificationIdentifier, byte[] value) {
+        AlarmsShard shard = getShard(domain, adapterName);
+
+        shard.writeLock.lock();
+        try {
+            saveAlarm(shard, notificationIdentifier, value);
+        } finally {
+            shard.writeLock.unlock();
+        }
+        shard.changeListeners.notifyListeners();
+    }
+
+    /*
+     * Reads alarms like streamAlarms() does (i.e. only the ones which existed when we started) but into a pack.
+     * So the returned tag never points behind an alarm saved in the meantime, and it is never null. (It points at the end
+     * if there are no more alarms.)
+     */
+    private static RawAlarmsPack readChanges(AlarmsShard shard, String tagOfTheFirstAlarmToBeReturned, int howMany) {
+        long startPosition = (tagOfTheFirstAlarmToBeReturned == null) ? 0 : Long.parseLong(tagOfTheFirstAlarmToBeReturned);
+        Map.Entry<Long, String> lastEntry = shard.notificationIdentifiersByPosition.lastEntry();
+        long endPosition = Math.max(startPosition, (lastEntry == null) ? 0 : lastEntry.getKey() + 1);
+
+        List<String> notificationIdentifiers = new ArrayList<>();
+        List<byte[]> values = new ArrayList<>();
+        long nextPosition = endPosition;
+        for (Map.Entry<Long, String> entry : shard.notificationIdentifiersByPosition.subMap(startPosition, endPosition).entrySet()) {
+            byte[] value = getCurrentValue(shard, entry);
+            if (value == null) {
+                continue;
+            }
+            if (notificationIdentifiers.size() == howMany) {
+                nextPosition = entry.getKey();  // (i.e. it will be provided in a next pack)
+                break;
+            }
+            notificationIdentifiers.add(entry.getValue());
+            values.add(value);
+        }
+
+        RawAlarmsPack result = new RawAlarmsPack();
+        result.alarmNotificationIdentifiers = notificationIdentifiers.toArray(new String[0]);
+        result.alarmValues = values.toArray(new byte[0][]);
+        result.tagOfTheNextAvailableAlarm = String.valueOf(nextPosition);
+        return result;
+    }
+
+    /*
+     * Creates, updates or removes (if value is null) an alarm. (Note: It needs to be invoked with writeLock of the shard.)
+     * An updated alarm is moved to the end, i.e. it gets a new position.
+     */
+    private static void saveAlarm(AlarmsShard shard, String notificationIdentifier, byte[] value) {
+        AlarmEntry oldEntry;
+        if (value != null) {
+            AlarmEntry newEntry = new AlarmEntry(shard.nextPosition++, value);
+            shard.notificationIdentifiersByPosition.put(newEntry.position, notificationIdentifier);
+            oldEntry = shard.inMemoryMap.put(notificationIdentifier, newEntry);
+            shard.changeFeed.publish(notificationIdentifier, newEntry.position, newEntry.position + 1, value);
+        } else {
+            oldEntry = shard.inMemoryMap.remove(notificationIdentifier);
+            // (A removal has no position. It is published as the next one, so it is never taken as already replayed.)
+            shard.changeFeed.publish(notificationIdentifier, shard.nextPosition, shard.nextPosition, null);
+        }
+
+        if (oldEntry != null) {
+            shard.notificationIdentifiersByPosition.remove(oldEntry.position);
+        }
+    }
+
+    /*
+     * Returns value of an alarm found at the specified position.
+     * Returns null if the alarm was updated or removed in the meantime. (i.e. it is no longer at this position)
+     */
+    private static byte[] getCurrentValue(AlarmsShard shard, Map.Entry<Long, String> positionEntry) {
+        AlarmEntry alarmEntry = shard.inMemoryMap.get(positionEntry.getValue());
+        if (alarmEntry == null || alarmEntry.position != positionEntry.getKey()) {
+            return null;
+        }
+        return alarmEntry.value;
+    }
+
+    /*
+     * Returns the latest value of an alarm found at the specified position, also if it was moved to a higher one
+     * in the meantime. (i.e. the key is followed to its current position)
+     * Returns null if the alarm was removed in the meantime.
+     */
+    private static byte[] getLatestValue(AlarmsShard shard, Map.Entry<Long, String> positionEntry) {
+        AlarmEntry alarmEntry = shard.inMemoryMap.get(positionEntry.getValue());
+        if (alarmEntry == null || alarmEntry.position < positionEntry.getKey()) {
+            return null;
+        }
+        return alarmEntry.value;
+    }
 }
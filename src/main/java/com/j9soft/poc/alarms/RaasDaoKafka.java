@@ -1,26 +1,57 @@
 package com.j9soft.poc.alarms;
 
-import org.apache.kafka.clients.consumer.ConsumerRecord;
-import org.apache.kafka.clients.consumer.ConsumerRecords;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.apache.kafka.common.utils.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Implementation of data access layer (DAO) based on a Kafka producer.
  *
  * This Dao is used in production mode, i.e. in production environments.
+ *
+ * Alarms are read from in-memory views of subpartitions. (i.e. not from the log)
+ * The views are loaded and kept up to date by a background tailer. (See {@link KafkaSubpartitionsTailer})
+ * If "kafka-checkpoint-directory" is set, the views are saved there periodically, so that a restart does not need to read
+ * Kafka from the beginning. (See {@link KafkaViewsCheckpoint} and {@link KafkaViewsHealthIndicator})
+ *
+ * If "kafka-cluster-group-id" is set, nodes of a cluster split subpartitions between them. (i.e. each node keeps views only
+ * of the subpartitions it owns, see {@link KafkaGroupSubpartitionsOwnership}) Reads of other subpartitions fail with
+ * {@link SubpartitionNotOwnedException}, which tells the owner. (i.e. one of "kafka-cluster-node-urls")
+ * Writes do not depend on ownership. (They go to Kafka.)
+ *
+ * Alarms of an adapter are saved in subpartitions (i.e. Kafka partitions) chosen by {@link SubpartitionAssignmentStrategy}.
+ * Kafka partitions are shared by adapters, so domain and adapter name are saved in headers of records.
+ * (Records saved before, i.e. without headers, are alarms of the adapter set in "kafka-legacy-adapter".)
+ *
+ * Metrics: "raas.kafka.send" (send-to-ack time per operation and result), "raas.kafka.query" (queryAlarms end to end, per result),
+ * "raas.kafka.end.offsets" (lookup of the end of a subpartition), "raas.kafka.pack.cache" (hits and misses)
+ * and metrics of the tailer. (See {@link KafkaSubpartitionsTailer})
  */
 @Profile({"prod","kafka-dev"})
 @Service
@@ -28,39 +59,200 @@ public class RaasDaoKafka implements RaasDao {
 
     private static final Logger logger = LoggerFactory.getLogger(RaasDaoKafka.class);
 
+    // Names of headers of Kafka records. (Kafka partitions are shared by many adapters.)
+    static final String HEADER_DOMAIN = "domain";
+    static final String HEADER_ADAPTER_NAME = "adapterName";
+
+    // Operations which send records. (i.e. values of the "operation" tag of "raas.kafka.send")
+    private static final String[] SEND_OPERATIONS = {"createOrUpdateAlarm", "removeAlarm", "patchAlarm", "saveDictionary"};
+
+    // Number of queues of patches. (Patches of alarms in different queues are applied concurrently.)
+    private static final int PATCH_QUEUE_STRIPES = 256;
+
     private String topicName;
     private KafkaProducer<String, byte[]> producer;
-    private KafkaConsumer<String, byte[]> consumer;
+    private KafkaConsumerPool consumerPool;
+    private KafkaSubpartitionsTailer tailer;
+    private SubpartitionsOwnership ownership;  // (null if this node serves all subpartitions)
+    private SubpartitionAssignmentStrategy subpartitionAssignmentStrategy;
+    private long viewCatchUpTimeoutMs;
+    private RawAlarmsPackCache packCache;
+    private DictionaryValueCodec valueCodec;
+    private Timer queryTimer;
+    private Timer failedQueryTimer;
+    private Timer endOffsetsTimer;
+    private Map<String, Timer[]> sendTimers;  // (by operation, i.e. of a success and of a failure)
+
+    private final JSONValuePatchingComponent patcher = new JSONValuePatchingComponent();
+    private final RawAlarmsLongPolling longPolling = new RawAlarmsLongPolling();
+    private final RawAlarmsSubscriptions subscriptions = new RawAlarmsSubscriptions();
+    private final CompletableFuture<?>[] patchQueueTails = new CompletableFuture<?>[PATCH_QUEUE_STRIPES];  // (guarded by itself)
+    private final Map<List<String>, PendingValue> pendingPatches = new ConcurrentHashMap<>();  // values sent but not acknowledged yet
+    private ExecutorService catchUpExecutor;
+
+    /*
+     * A value of an alarm which is sent but not acknowledged yet. (null if the alarm is removed)
+     */
+    private static final class PendingValue {
+        final byte[] value;
+        final CompletableFuture<Void> acknowledgement;
+
+        PendingValue(byte[] value, CompletableFuture<Void> acknowledgement) {
+            this.value = value;
+            this.acknowledgement = acknowledgement;
+        }
+    }
 
     /**
      * Note: Autowire - The idea is that it is possible to create a new class annotated as @Configuration
      *  and this class will get autowired here. (btw: In this class it is important remember about a destroy method to close a producer.)
      */
     @Autowired
-    RaasDaoKafka(KafkaConnector connector) {
+    RaasDaoKafka(KafkaConnector connector,
+                 @Value("${kafka-subpartitions-per-adapter:1}") int subpartitionsPerAdapter,
+                 @Value("${kafka-subpartitions-per-adapter-overrides:}") String subpartitionsPerAdapterOverrides,
+                 @Value("${kafka-legacy-adapter:}") String legacyAdapter,
+                 @Value("${kafka-view-catch-up-timeout-ms:30000}") long viewCatchUpTimeoutMs,
+                 @Value("${kafka-view-tombstones-retention-ms:3600000}") long tombstonesRetentionMs,
+                 @Value("${kafka-pack-cache-size:64}") int packCacheSize,
+                 @Value("${kafka-value-codec:none}") String valueCodec,
+                 @Value("${kafka-value-codec-sample-size:100}") int valueCodecSampleSize,
+                 @Value("${kafka-checkpoint-directory:}") String checkpointDirectory,
+                 @Value("${kafka-checkpoint-interval-ms:60000}") long checkpointIntervalMs,
+                 @Value("${kafka-cluster-group-id:}") String clusterGroupId,
+                 @Value("${kafka-cluster-node-url:}") String nodeUrl,
+                 @Value("${kafka-cluster-node-urls:}") String clusterNodeUrls,
+                 @Value("${kafka-cluster-owners-refresh-ms:1000}") long ownersRefreshMs,
+                 MeterRegistry meterRegistry) {
+        this(connector,
+                new HashingSubpartitionAssignmentStrategy(connector.getPartitionsCount(), subpartitionsPerAdapter,
+                        HashingSubpartitionAssignmentStrategy.parseSubpartitionsCounts(subpartitionsPerAdapterOverrides),
+                        HashingSubpartitionAssignmentStrategy.parseAdapter(legacyAdapter)),
+                viewCatchUpTimeoutMs, tombstonesRetentionMs, packCacheSize, new DictionaryValueCodec(valueCodec, valueCodecSampleSize),
+                checkpointDirectory.isEmpty() ? null
+                        : new KafkaViewsCheckpoint(checkpointDirectory, connector.getTopicName(), checkpointIntervalMs),
+                clusterGroupId.isEmpty() ? null : clusterGroupId, nodeUrl, parseNodeUrls(clusterNodeUrls), ownersRefreshMs,
+                meterRegistry);
+    }
+
+    RaasDaoKafka(KafkaConnector connector, SubpartitionAssignmentStrategy subpartitionAssignmentStrategy,
+                 long viewCatchUpTimeoutMs, long tombstonesRetentionMs, int packCacheSize, DictionaryValueCodec valueCodec,
+                 KafkaViewsCheckpoint checkpoint, MeterRegistry meterRegistry) {
+        this(connector, subpartitionAssignmentStrategy, viewCatchUpTimeoutMs, tombstonesRetentionMs, packCacheSize, valueCodec,
+                checkpoint, null, null, Collections.emptySet(), 0, meterRegistry);
+    }
+
+    /**
+     * @param clusterGroupId Kafka consumer group of all nodes of a cluster (null if this node serves all subpartitions)
+     * @param nodeUrl base URL of this node, under which other nodes and clients reach it (e.g. "http://10.0.0.5:8080")
+     * @param clusterNodeUrls base URLs of all nodes of the cluster (i.e. also of this one), other owners are not trusted
+     * @param ownersRefreshMs how long owners of subpartitions served by other nodes are cached
+     */
+    RaasDaoKafka(KafkaConnector connector, SubpartitionAssignmentStrategy subpartitionAssignmentStrategy,
+                 long viewCatchUpTimeoutMs, long tombstonesRetentionMs, int packCacheSize, DictionaryValueCodec valueCodec,
+                 KafkaViewsCheckpoint checkpoint, String clusterGroupId, String nodeUrl, Set<String> clusterNodeUrls,
+                 long ownersRefreshMs, MeterRegistry meterRegistry) {
+        if (clusterGroupId != null && (nodeUrl == null || nodeUrl.isEmpty())) {
+            throw new IllegalArgumentException("kafka-cluster-node-url is required when kafka-cluster-group-id is set");
+        }
+        if (clusterGroupId != null && !clusterNodeUrls.contains(nodeUrl)) {
+            throw new IllegalArgumentException("kafka-cluster-node-urls has to contain kafka-cluster-node-url: " + nodeUrl);
+        }
         this.topicName = connector.getTopicName();
         this.producer = connector.getProducer();
-        this.consumer = connector.getConsumer();
+        this.consumerPool = connector.getConsumerPool();
+        this.subpartitionAssignmentStrategy = subpartitionAssignmentStrategy;
+        this.viewCatchUpTimeoutMs = viewCatchUpTimeoutMs;
+        this.packCache = new RawAlarmsPackCache(packCacheSize);
+        this.valueCodec = valueCodec;
+        Arrays.fill(patchQueueTails, CompletableFuture.completedFuture(null));
+        // (Waiting for a view to catch up needs a consumer, so there are not more threads than consumers.)
+        this.catchUpExecutor = Executors.newFixedThreadPool(consumerPool.getSize(), runnable -> {
+            Thread thread = new Thread(runnable, "catch-up-" + topicName);
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.queryTimer = Timer.builder("raas.kafka.query").tag("result", "success")
+                .publishPercentileHistogram().register(meterRegistry);
+        this.failedQueryTimer = Timer.builder("raas.kafka.query").tag("result", "failure")
+                .publishPercentileHistogram().register(meterRegistry);
+        this.sendTimers = new HashMap<>();
+        for (String operationName : SEND_OPERATIONS) {
+            sendTimers.put(operationName, new Timer[]{
+                    Timer.builder("raas.kafka.send").tag("operation", operationName).tag("result", "success")
+                            .publishPercentileHistogram().register(meterRegistry),
+                    Timer.builder("raas.kafka.send").tag("operation", operationName).tag("result", "failure")
+                            .publishPercentileHistogram().register(meterRegistry)});
+        }
+        this.endOffsetsTimer = Timer.builder("raas.kafka.end.offsets").publishPercentileHistogram().register(meterRegistry);
+        FunctionCounter.builder("raas.kafka.pack.cache", packCache, RawAlarmsPackCache::getHitsCount)
+                .tag("result", "hit").register(meterRegistry);
+        FunctionCounter.builder("raas.kafka.pack.cache", packCache, RawAlarmsPackCache::getMissesCount)
+                .tag("result", "miss").register(meterRegistry);
+
+        // Start loading the views of subpartitions. (They are kept up to date in background.)
+        this.tailer = new KafkaSubpartitionsTailer(connector, valueCodec, checkpoint, clusterGroupId, nodeUrl,
+                subpartitionAssignmentStrategy.getLegacyAdapter(), tombstonesRetentionMs, meterRegistry);
+        if (clusterGroupId != null) {
+            this.ownership = new KafkaGroupSubpartitionsOwnership(connector, clusterGroupId, nodeUrl, clusterNodeUrls,
+                    tailer::isReading, ownersRefreshMs);
+        }
+        this.tailer.start();
+    }
+
+    RaasDaoKafka(KafkaConnector connector) {
+        this(connector, 1, "", "", 30_000, 3_600_000, 64, DictionaryValueCodec.CODEC_NONE, 100, "", 60_000, "", "", "", 1_000,
+                new SimpleMeterRegistry());
+    }
+
+    @PreDestroy
+    void close() {
+        tailer.close();
+        if (ownership != null) {
+            ownership.close();
+        }
+        longPolling.close();
+        subscriptions.close();
+        catchUpExecutor.shutdown();
+    }
+
+    /**
+     * Returns whether the views caught up with what was saved in Kafka before the start. (i.e. whether queries are served without delay)
+     */
+    boolean isCaughtUp() {
+        return tailer.isCaughtUp();
+    }
+
+    /**
+     * Returns number of records which the views still need to read until they are caught up.
+     */
+    long getCatchUpLag() {
+        return tailer.getCatchUpLag();
+    }
+
+    /**
+     * Returns failures of subpartitions which are not loaded further. (See {@link KafkaSubpartitionsTailer#getFailedPartitions})
+     */
+    Map<Integer, String> getFailedSubpartitions() {
+        return tailer.getFailedPartitions();
     }
 
     @Override
     public void createOrUpdateAlarm(String domain, String adapterName, String notificationIdentifier, String value) {
 
-        ProducerRecord<String, byte[]> data = new ProducerRecord<>(
-                topicName, notificationIdentifier, value.getBytes(StandardCharsets.UTF_8));
-
-        logger.info("createOrUpdateAlarm: '{}' - start", notificationIdentifier);
-        try {
-            // @TODO save to a subpartition assigned to this adapter
+        waitForAcknowledgement(createOrUpdateAlarmAsync(domain, adapterName, notificationIdentifier,
+                value.getBytes(StandardCharsets.UTF_8)));
+    }
 
-            producer.send(data).get(); // We want to save it immediately.
+    @Override
+    public CompletableFuture<Void> createOrUpdateAlarmAsync(String domain, String adapterName, String notificationIdentifier,
+                                                            byte[] value) {
 
-        } catch (InterruptedException|ExecutionException e) {
-            logger.info("createOrUpdateAlarm: '{}' - failure", notificationIdentifier);
-            throw new RuntimeException("Failed to save the alarm: " + notificationIdentifier, e);  // @TODO add exception to API
-        }
+        ProducerRecord<String, byte[]> data = createRecord(domain, adapterName, notificationIdentifier, value);
 
-        logger.info("createOrUpdateAlarm: '{}' - success", notificationIdentifier);
+        return replacePendingPatch(domain, adapterName, notificationIdentifier, value, false,
+                send(data, "createOrUpdateAlarm", "Failed to save the alarm: "));
     }
 
     @Override
@@ -68,151 +260,449 @@ public class RaasDaoKafka implements RaasDao {
                                      String tagOfTheFirstAlarmToBeReturned, int howMany) {
 
         logger.info("queryAlarms: subpartitionName='{}' - start", subpartitionName);
+        long startTime = System.nanoTime();
 
-        RawAlarmsPack result = new RawAlarmsPack();
-
-        // Prepare from which Kafka partition we will read.
+        // Read the data from the view. (i.e. a materialized, compacted copy of the subpartition)
+        // Identical queries (of the same version of the view) share one read. (e.g. when many clients resynchronize at once)
         //
-        TopicPartition partition = new TopicPartition(topicName, Integer.parseInt(subpartitionName));
-        Collection<TopicPartition> partitions = Arrays.asList(partition);
+        int partition = parseSubpartition(subpartitionName);
+        RawAlarmsPartitionDefinition partitionDefinition = new RawAlarmsPartitionDefinition(domain, adapterName);
+        RawAlarmsPack result;
+        try {
+            RawAlarmsSubpartitionView view = awaitCurrentView(domain, adapterName, partition);
+            result = packCache.get(
+                    new RawAlarmsPackCache.Key(partitionDefinition, partition, tagOfTheFirstAlarmToBeReturned, howMany, view.getVersion()),
+                    () -> view.readPack(tagOfTheFirstAlarmToBeReturned, howMany));
+        } catch (InterruptedException|TimeoutException e) {
+            failedQueryTimer.record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+            logger.info("queryAlarms: subpartitionName='{}' - failure", subpartitionName);
+            throw new RuntimeException("Failed to load alarms from subpartition: " + subpartitionName, e);  // @TODO add exception to API
+        } catch (RuntimeException e) {
+            failedQueryTimer.record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);  // (e.g. the subpartition is not owned)
+            logger.info("queryAlarms: subpartitionName='{}' - failure", subpartitionName);
+            throw e;
+        }
 
-        // Calculate current end of data in this Kafka partition.
-        // (We need this to calculate whether there is a next pack available.)
-        //
-        Map<TopicPartition, Long> endOffsets = consumer.endOffsets(partitions);
-        long subpartitionEndOffset =  endOffsets.get(partition);
+        queryTimer.record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+        logger.info("queryAlarms: subpartitionName='{}' - success: count={}",
+                subpartitionName, result.alarmNotificationIdentifiers.length);
 
-        // Rewind to the beginning of data. (either start from zero (in case of the first pack) or a designated place)
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<RawAlarmsPack> awaitAlarms(String domain, String adapterName, String subpartitionName,
+                                                        String tagOfTheFirstAlarmToBeReturned, int howMany, long waitTimeoutMs) {
+
+        logger.info("awaitAlarms: subpartitionName='{}' - start", subpartitionName);
+
+        // We make sure once that the view contains everything what was already saved. Then we only wait for the tailer
+        // to apply new records. (i.e. waiting does not cost any calls to Kafka)
+        // The catching up runs on our threads, so a request thread is not blocked by it either.
+        // (If the adapter has no alarms in the subpartition yet, then we wait until its view is created.)
         //
-        consumer.assign(partitions);  // btw: We do not use subscribe(), i.e. we do not use kafka's built-in group coordination.
-        if (tagOfTheFirstAlarmToBeReturned == null) {
-            // We want to load all contents. (i.e. its the first pack)
-            logger.info("queryAlarms: subpartitionName='{}' - seekToBeginning", subpartitionName);
-            consumer.seekToBeginning(partitions);
-        } else {
-            logger.info("queryAlarms: subpartitionName='{}' - seek({}):", subpartitionName, tagOfTheFirstAlarmToBeReturned);
-            consumer.seek(partition, Long.parseLong(tagOfTheFirstAlarmToBeReturned)); // We want to load another pack.
+        int partition = parseSubpartition(subpartitionName);
+        checkOwned(partition);
+        RawAlarmsPartitionDefinition partitionDefinition = new RawAlarmsPartitionDefinition(domain, adapterName);
+        CompletableFuture<RawAlarmsPack> result = new CompletableFuture<>();
+        catchUpExecutor.execute(() -> {
+            try {
+                tailer.awaitPosition(partition, getEndOffset(partition), viewCatchUpTimeoutMs);
+                longPolling.awaitPack(() -> tailer.getChangeListeners(partitionDefinition, partition),
+                        () -> tailer.getView(partitionDefinition, partition).readChanges(tagOfTheFirstAlarmToBeReturned, howMany),
+                        waitTimeoutMs)
+                        .whenComplete((pack, exception) -> {
+                            if (exception != null) {
+                                result.completeExceptionally(exception);
+                            } else {
+                                result.complete(pack);
+                            }
+                        });
+            } catch (InterruptedException|TimeoutException e) {
+                result.completeExceptionally(new RuntimeException(
+                        "Failed to load alarms from subpartition: " + subpartitionName, e));  // @TODO add exception to API
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);  // (e.g. the subpartition was just moved to another node)
+            }
+        });
+
+        return result.whenComplete((pack, exception) -> logger.info("awaitAlarms: subpartitionName='{}' - {}", subpartitionName,
+                exception == null ? "success: count=" + pack.alarmNotificationIdentifiers.length : "failure"));
+    }
+
+    @Override
+    public String streamAlarms(String domain, String adapterName, String subpartitionName,
+                               String tagOfTheFirstAlarmToBeReturned, int howMany, RawAlarmsWriter writer) throws IOException {
+
+        logger.info("streamAlarms: subpartitionName='{}' - start", subpartitionName);
+
+        RawAlarmsSubpartitionView view;
+        try {
+            view = awaitCurrentView(domain, adapterName, parseSubpartition(subpartitionName));
+        } catch (InterruptedException|TimeoutException e) {
+            logger.info("streamAlarms: subpartitionName='{}' - failure", subpartitionName);
+            throw new RuntimeException("Failed to load alarms from subpartition: " + subpartitionName, e);  // @TODO add exception to API
         }
-        long currentPosition = consumer.position(partition);
+        String tagOfTheNextAvailableAlarm = view.streamPack(tagOfTheFirstAlarmToBeReturned, howMany, writer);
 
-        // Read the data.
-        //
-        Map<String, Integer> loadedAlarms = new HashMap<>();
-        List<String> notificationIdentifiers = new ArrayList<>(howMany);
-        List<String> values = new ArrayList<>(howMany);
-        ConsumerRecords<String, byte[]> records;
-        String key;
-        byte[] value;
-        int resultCounter = 0;
-        Integer lastIndex;
-        boolean stopReading = false;
-        do {
-            // Load from Kafka.
-            records = consumer.poll(Duration.ofMillis(100));
-            logger.info("queryAlarms: subpartitionName='{}' - poll: count={}", subpartitionName, records.count());
-
-            for (ConsumerRecord<String, byte[]> record: records) {
-                logger.debug("queryAlarms: subpartitionName='{}' - poll: record={}", subpartitionName, record);
-                resultCounter++;
-                key = record.key();
-                value = record.value();
-                currentPosition = record.offset();
-
-                // Remove duplicated keys.
-                // (I.e. it is like a "compaction" within a pack. We overwrite old alarm value with a new one.)
-                //
-                lastIndex = loadedAlarms.get(key);
-                if (lastIndex != null) {
-                    // We will ignore the value previously gathered for the same Notification Identifier.
-                    resultCounter--;
-                    notificationIdentifiers.set(lastIndex, null); // we will not use this old value so set null
-                    loadedAlarms.remove(key);
-                }
+        logger.info("streamAlarms: subpartitionName='{}' - success", subpartitionName);
 
-                // Remove keys with null value. (Note: It is possible to do this in the first pack only.)
-                //
-                if (tagOfTheFirstAlarmToBeReturned == null   // are we loading the first pack ?
-                        && value == null) {
+        return tagOfTheNextAvailableAlarm;
+    }
 
-                    resultCounter--;
-                    continue; // We simply ignore this alarm.  (AND we support a case that it was removed within the first pack !)
-                }
+    @Override
+    public RawAlarmsSubscriptions.Subscription subscribeToAlarms(String domain, String adapterName, String subpartitionName,
+                                                                 String tagOfTheFirstAlarmToBeReturned, RawAlarmsSubscriber subscriber) {
 
-                // We gather this alarm for the result.
-                //
-                loadedAlarms.put(key, notificationIdentifiers.size());
-                notificationIdentifiers.add(key);
-                if (value != null) {
-                    values.add( new String(record.value(), StandardCharsets.UTF_8) );
-                } else {
-                    values.add(null);  // In the second and the next packs we must deliver nulls because they may concern alarms from the previous packs.
-                }
+        logger.info("subscribeToAlarms: subpartitionName='{}' - start", subpartitionName);
 
-                if (resultCounter >= howMany) {
-                    // Client does not want more results.
-                    stopReading = true;
-                    break;
-                }
+        // (An empty view is created if the adapter has no alarms in the subpartition, so that its changes are pushed.)
+        int partition = parseSubpartition(subpartitionName);
+        RawAlarmsSubpartitionView view;
+        try {
+            awaitCurrentView(domain, adapterName, partition);
+            view = tailer.getOrCreateView(new RawAlarmsPartitionDefinition(domain, adapterName), partition);
+        } catch (InterruptedException|TimeoutException e) {
+            logger.info("subscribeToAlarms: subpartitionName='{}' - failure", subpartitionName);
+            throw new RuntimeException("Failed to load alarms from subpartition: " + subpartitionName, e);  // @TODO add exception to API
+        }
+
+        // (Changes are pushed by the tailer, i.e. there is no additional reading of Kafka per subscriber.)
+        return subscriptions.subscribe(view.getChangeFeed(), view::readChanges, tagOfTheFirstAlarmToBeReturned, subscriber);
+    }
+
+    @Override
+    public void removeAlarm(String domain, String adapterName, String notificationIdentifier) {
+
+        waitForAcknowledgement(removeAlarmAsync(domain, adapterName, notificationIdentifier));
+    }
+
+    @Override
+    public CompletableFuture<Void> removeAlarmAsync(String domain, String adapterName, String notificationIdentifier) {
+
+        ProducerRecord<String, byte[]> data = createRecord(domain, adapterName, notificationIdentifier,
+                null);  // null is a marker for a deleted record
+
+        return replacePendingPatch(domain, adapterName, notificationIdentifier, null, false,
+                send(data, "removeAlarm", "Failed to remove the alarm: "));
+    }
+
+    @Override
+    public CompletableFuture<Void> saveAlarmsBatchAsync(String domain, String adapterName, RawAlarmsBatch batch) {
+
+        logger.info("saveAlarmsBatch: count={} - start", batch.alarmNotificationIdentifiers.length);
+        for (String notificationIdentifier : batch.alarmNotificationIdentifiers) {
+            checkNotificationIdentifier(notificationIdentifier);  // (i.e. nothing is sent if the batch is rejected)
+        }
+
+        // Send all records. (They are batched by the producer. Each of them is logged only at debug level.)
+        //
+        CompletableFuture<?>[] acknowledgements = new CompletableFuture<?>[batch.alarmNotificationIdentifiers.length];
+        for (int i = 0; i < acknowledgements.length; i++) {
+            String notificationIdentifier = batch.alarmNotificationIdentifiers[i];
+            String value = batch.alarmValues[i];
+            if (value != null) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                acknowledgements[i] = replacePendingPatch(domain, adapterName, notificationIdentifier, bytes, false,
+                        send(createRecord(domain, adapterName, notificationIdentifier, bytes),
+                                "createOrUpdateAlarm", "Failed to save the alarm: ", true));
+            } else {
+                acknowledgements[i] = replacePendingPatch(domain, adapterName, notificationIdentifier, null, false,
+                        send(createRecord(domain, adapterName, notificationIdentifier, null),
+                                "removeAlarm", "Failed to remove the alarm: ", true));
             }
+        }
 
-        } while ( !stopReading && !records.isEmpty() );
+        // We wait once for all of them.
+        return CompletableFuture.allOf(acknowledgements)
+                .whenComplete((result, exception) -> logger.info("saveAlarmsBatch: count={} - {}",
+                        acknowledgements.length, exception == null ? "success" : "failure"));
+    }
 
-        // Prepare the result.
+    @Override
+    public CompletableFuture<Void> patchAlarmAsync(String domain, String adapterName, String notificationIdentifier,
+                                                   byte[] attributes) {
+
+        checkNotificationIdentifier(notificationIdentifier);
+        int partition = subpartitionAssignmentStrategy.getSubpartition(domain, adapterName, notificationIdentifier);
+        checkOwned(partition);  // (i.e. a misdirected patch is rejected at once)
+
+        // Patches of the same alarm need to be applied one after another. (Otherwise attributes of one of them could be lost.)
+        // So a patch is queued after the previous patch of the same queue, and it is started when the previous one is sent.
+        // (i.e. no thread waits for a lock and the queue waits for an acknowledgement only of a value of the same alarm)
+        // A value which is sent but not acknowledged yet is not in the view, so a next patch reads it from pendingPatches.
+        // (It waits for its acknowledgement first. If that send failed, then the patch is applied to the view instead.)
         //
-        result.alarmNotificationIdentifiers = new String[resultCounter];
-        result.alarmValues = new String[resultCounter];
-        int resultIndex = 0;
-        logger.debug("queryAlarms: subpartitionName='{}' - resultCounter = '{}'", subpartitionName, resultCounter);
-        for (int i = 0; i < notificationIdentifiers.size(); i++) {
-            if (logger.isDebugEnabled()) {
-                logger.debug("queryAlarms: subpartitionName='{}' - notificationIdentifiers[{}] = '{}'",
-                        subpartitionName, i, notificationIdentifiers.get(i));
+        List<String> alarmKey = Arrays.asList(domain, adapterName, notificationIdentifier);
+        CompletableFuture<Void> sent = new CompletableFuture<>();
+        CompletableFuture<?> previousSent;
+        int stripe = Utils.toPositive(alarmKey.hashCode()) % patchQueueTails.length;
+        synchronized (patchQueueTails) {
+            previousSent = patchQueueTails[stripe];
+            patchQueueTails[stripe] = sent;
+        }
+
+        CompletableFuture<Void> acknowledgement = new CompletableFuture<>();
+        previousSent.whenCompleteAsync((ignored, previousException) -> {
+            PendingValue pending = pendingPatches.get(alarmKey);
+            if (pending == null) {
+                sendPatch(domain, adapterName, notificationIdentifier, partition, attributes, null, sent, acknowledgement);
+            } else {
+                pending.acknowledgement.whenCompleteAsync((result, pendingException) -> sendPatch(domain, adapterName,
+                        notificationIdentifier, partition, attributes, (pendingException == null) ? pending : null,
+                        sent, acknowledgement), catchUpExecutor);
             }
-            if (notificationIdentifiers.get(i) == null) {
-                continue;  // this alarm is ignored because it got overwritten
+        }, catchUpExecutor);
+
+        return acknowledgement;
+    }
+
+    /*
+     * Applies attributes to the current value of an alarm and sends it. (by the queue of patches, see patchAlarmAsync)
+     *
+     * @param pending an acknowledged value which is maybe not in the view yet (null if the value is read from the view)
+     */
+    private void sendPatch(String domain, String adapterName, String notificationIdentifier, int partition, byte[] attributes,
+                           PendingValue pending, CompletableFuture<Void> sent, CompletableFuture<Void> acknowledgement) {
+        try {
+            // Read the current value of the alarm and apply the new attributes.
+            //
+            byte[] oldValue;
+            if (pending != null) {
+                oldValue = pending.value;
+            } else {
+                try {
+                    oldValue = awaitCurrentView(domain, adapterName, partition).getValue(notificationIdentifier);
+                } catch (InterruptedException|TimeoutException e) {
+                    logger.info("patchAlarm: '{}' - failure", notificationIdentifier);
+                    throw new RuntimeException("Failed to load the alarm: " + notificationIdentifier, e);  // @TODO add exception to API
+                }
             }
-            result.alarmNotificationIdentifiers[resultIndex] = notificationIdentifiers.get(i);
-            result.alarmValues[resultIndex] = values.get(i);
-            resultIndex++;
+            byte[] newValue = patcher.patchOldValue(domain, adapterName, notificationIdentifier, attributes, oldValue);
+
+            CompletableFuture<Void> sentPatch = send(createRecord(domain, adapterName, notificationIdentifier, newValue),
+                    "patchAlarm", "Failed to save the alarm: ");
+            replacePendingPatch(domain, adapterName, notificationIdentifier, newValue, true, sentPatch)
+                    .whenComplete((result, exception) -> {
+                        if (exception != null) {
+                            acknowledgement.completeExceptionally(exception);
+                        } else {
+                            acknowledgement.complete(null);
+                        }
+                    });
+        } catch (RuntimeException e) {
+            acknowledgement.completeExceptionally(e);
+        } finally {
+            sent.complete(null);  // (the next patch of the queue may start)
         }
+    }
 
-        // Read the next possible position. (It does not necessarily  mean that at the moment there is an alarm available.)
-        //
-        long nextPossiblePosition = currentPosition + 1;
-        if (nextPossiblePosition >= subpartitionEndOffset) {
-            // There are no more alarms.
-            result.tagOfTheNextAvailableAlarm = null;
-        } else {
-            // There are more alarms available.  (i.e. they can be retrieved by another call)
-            result.tagOfTheNextAvailableAlarm = String.valueOf(nextPossiblePosition);
+    /*
+     * Makes a value sent by a write the one which a next patch of the alarm starts from. (i.e. a patch queued after a write
+     * does not start from an older patched value) It is kept until the value is acknowledged, unless it is replaced.
+     *
+     * @param patched whether the value is kept also if there is no pending value yet (Other writes only replace one,
+     *                so they do not change the map when the alarm is not being patched.)
+     */
+    private CompletableFuture<Void> replacePendingPatch(String domain, String adapterName, String notificationIdentifier,
+                                                        byte[] value, boolean patched, CompletableFuture<Void> acknowledgement) {
+        List<String> alarmKey = Arrays.asList(domain, adapterName, notificationIdentifier);
+        PendingValue pending = new PendingValue(value, acknowledgement);
+        if (patched) {
+            pendingPatches.put(alarmKey, pending);
+        } else if (pendingPatches.computeIfPresent(alarmKey, (key, previous) -> pending) == null) {
+            return acknowledgement;
         }
+        acknowledgement.whenComplete((result, exception) ->
+                pendingPatches.remove(alarmKey, pending));  // (unless a next write already replaced it)
+        return acknowledgement;
+    }
 
-        logger.info("queryAlarms: subpartitionName='{}' - success", subpartitionName);
+    @Override
+    public void checkSubpartitionOwned(String subpartitionName) {
+        checkOwned(parseSubpartition(subpartitionName));
+    }
 
+    @Override
+    public String[] getSubpartitions(RawAlarmsPartitionDefinition partitionDefinition) {
+        int[] subpartitions = subpartitionAssignmentStrategy.getSubpartitions(
+                partitionDefinition.getDomain(), partitionDefinition.getAdapterName());
+
+        return Arrays.stream(subpartitions).mapToObj(String::valueOf).toArray(String[]::new);
+    }
+
+    /*
+     * Rejects keys reserved for dictionary records. (An alarm with such a key would replace a dictionary in the compacted topic.)
+     */
+    private static void checkNotificationIdentifier(String notificationIdentifier) {
+        if (DictionaryValueCodec.isReservedKey(notificationIdentifier)) {
+            throw new InvalidRequestException("Reserved prefix of notificationIdentifier: " + DictionaryValueCodec.DICTIONARY_KEY_PREFIX);
+        }
+    }
+
+    /*
+     * Returns the Kafka partition of the specified subpartition. (A malformed name is rejected as a bad request.)
+     */
+    private static int parseSubpartition(String subpartitionName) {
+        try {
+            return Integer.parseInt(subpartitionName);
+        } catch (NumberFormatException e) {
+            throw new InvalidRequestException("Invalid subpartition name: " + subpartitionName);
+        }
+    }
+
+    /*
+     * Parses base URLs of cluster nodes. (e.g. "http://10.0.0.5:8080,http://10.0.0.6:8080")
+     */
+    private static Set<String> parseNodeUrls(String nodeUrls) {
+        Set<String> result = new HashSet<>();
+        for (String nodeUrl : nodeUrls.split(",")) {
+            if (!nodeUrl.trim().isEmpty()) {
+                result.add(nodeUrl.trim());
+            }
+        }
         return result;
     }
 
-    @Override
-    public void removeAlarm(String domain, String adapterName, String notificationIdentifier) {
-        ProducerRecord<String, byte[]> data = new ProducerRecord<>(
-                topicName, notificationIdentifier, null);  // null is a marker for a deleted record
+    /*
+     * Returns a view of the specified Kafka partition as soon as it contains everything what was already saved in the partition.
+     * (An empty view if the adapter has no alarms in the partition.)
+     */
+    private RawAlarmsSubpartitionView awaitCurrentView(String domain, String adapterName, int partitionNumber)
+            throws InterruptedException, TimeoutException {
+
+        checkOwned(partitionNumber);
+        return tailer.awaitView(new RawAlarmsPartitionDefinition(domain, adapterName), partitionNumber,
+                getEndOffset(partitionNumber), viewCatchUpTimeoutMs);
+    }
 
-        logger.info("removeAlarm: '{}' - start", notificationIdentifier);
+    /*
+     * Throws SubpartitionNotOwnedException if the specified Kafka partition is served by another node of the cluster.
+     */
+    private void checkOwned(int partitionNumber) {
+        if (ownership != null && !ownership.isLocal(partitionNumber)) {
+            throw new SubpartitionNotOwnedException(String.valueOf(partitionNumber), ownership.getOwnerUrl(partitionNumber));
+        }
+    }
+
+    /*
+     * Returns current end of data in the specified Kafka partition.
+     */
+    private long getEndOffset(int partitionNumber) throws InterruptedException, TimeoutException {
+        TopicPartition partition = new TopicPartition(topicName, partitionNumber);
+        long startTime = System.nanoTime();
+        KafkaConsumer<String, byte[]> consumer = consumerPool.borrow();  // (a consumer is not thread-safe so we need an exclusive one)
         try {
-            // @TODO save to a subpartition assigned to this adapter
+            Map<TopicPartition, Long> endOffsets = consumer.endOffsets(Collections.singletonList(partition));
+            return endOffsets.get(partition);
+        } finally {
+            consumerPool.release(consumer);
+            endOffsetsTimer.record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);  // (including waiting for a free consumer)
+        }
+    }
+
+    /*
+     * Creates a record to be saved in a subpartition assigned to the adapter.
+     */
+    private ProducerRecord<String, byte[]> createRecord(String domain, String adapterName, String notificationIdentifier,
+                                                        byte[] value) {
+        checkNotificationIdentifier(notificationIdentifier);
+        int partition = subpartitionAssignmentStrategy.getSubpartition(domain, adapterName, notificationIdentifier);
+
+        List<Header> headers = new ArrayList<>(4);
+        headers.add(new RecordHeader(HEADER_DOMAIN, domain.getBytes(StandardCharsets.UTF_8)));
+        headers.add(new RecordHeader(HEADER_ADAPTER_NAME, adapterName.getBytes(StandardCharsets.UTF_8)));
 
-            producer.send(data).get(); // We want to save it immediately.
+        if (value != null) {
+            value = encodeValue(new RawAlarmsPartitionDefinition(domain, adapterName), partition, value, headers);
+        }
+        return new ProducerRecord<>(topicName, partition, notificationIdentifier, value, headers);
+    }
 
-        } catch (InterruptedException|ExecutionException e) {
-            logger.info("removeAlarm: '{}' - failure", notificationIdentifier);
-            throw new RuntimeException("Failed to remove the alarm: " + notificationIdentifier, e);  // @TODO add exception to API
+    /*
+     * Compresses a value with a dictionary of the adapter. (if compression is enabled, see {@link DictionaryValueCodec})
+     * A value is saved uncompressed until the dictionary is saved in the partition, i.e. until the tailer is able to decode it.
+     */
+    private byte[] encodeValue(RawAlarmsPartitionDefinition partitionDefinition, int partition, byte[] value, List<Header> headers) {
+        DictionaryValueCodec.Dictionary dictionary = valueCodec.getDictionary(partitionDefinition, value);
+        if (dictionary == null) {
+            return value;
+        }
+        if (dictionary.isSavedIn(partition)) {
+            return valueCodec.encode(dictionary, value, headers);
         }
 
-        logger.info("removeAlarm: '{}' - success", notificationIdentifier);
+        if (dictionary.startSavingIn(partition)) {
+            List<Header> dictionaryHeaders = Arrays.asList(
+                    new RecordHeader(HEADER_DOMAIN, partitionDefinition.getDomain().getBytes(StandardCharsets.UTF_8)),
+                    new RecordHeader(HEADER_ADAPTER_NAME, partitionDefinition.getAdapterName().getBytes(StandardCharsets.UTF_8)),
+                    new RecordHeader(DictionaryValueCodec.HEADER_CODEC,
+                            DictionaryValueCodec.CODEC_DICTIONARY_RECORD.getBytes(StandardCharsets.UTF_8)));
+
+            send(new ProducerRecord<>(topicName, partition, DictionaryValueCodec.getDictionaryKey(dictionary), dictionary.contents,
+                            dictionaryHeaders),
+                    "saveDictionary", "Failed to save the dictionary: ")
+                    .whenComplete((result, exception) -> dictionary.finishSavingIn(partition, exception == null));
+        }
+        return value;
     }
 
-    @Override
-    public String[] getSubpartitions(RawAlarmsPartitionDefinition partitionDefinition) {
-        return new String[] {"0"};  //       @TODO
+    /*
+     * Sends a record without blocking. (so that the producer is able to put records from many requests into one batch)
+     * The returned future is completed when the record is acknowledged by Kafka, i.e. when it is saved.
+     */
+    private CompletableFuture<Void> send(ProducerRecord<String, byte[]> data, String operationName, String failureMessage) {
+        return send(data, operationName, failureMessage, false);
+    }
+
+    /*
+     * @param inBatch whether the record is one of many records of a batch (then it is logged only at debug level)
+     */
+    private CompletableFuture<Void> send(ProducerRecord<String, byte[]> data, String operationName, String failureMessage,
+                                         boolean inBatch) {
+        String notificationIdentifier = data.key();
+        CompletableFuture<Void> acknowledgement = new CompletableFuture<>();
+        Timer[] sendTimer = sendTimers.get(operationName);
+        long startTime = System.nanoTime();
+
+        logRecord(inBatch, operationName, notificationIdentifier, "start");
+        try {
+            producer.send(data, (metadata, exception) -> {
+                sendTimer[exception == null ? 0 : 1].record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+                if (exception != null) {
+                    logRecord(inBatch, operationName, notificationIdentifier, "failure");
+                    acknowledgement.completeExceptionally(
+                            new RuntimeException(failureMessage + notificationIdentifier, exception));  // @TODO add exception to API
+                } else {
+                    logRecord(inBatch, operationName, notificationIdentifier, "success");
+                    acknowledgement.complete(null);
+                }
+            });
+        } catch (RuntimeException e) {
+            logRecord(inBatch, operationName, notificationIdentifier, "failure");
+            acknowledgement.completeExceptionally(new RuntimeException(failureMessage + notificationIdentifier, e));
+        }
+
+        return acknowledgement;
+    }
+
+    private static void logRecord(boolean inBatch, String operationName, String notificationIdentifier, String stage) {
+        if (inBatch) {
+            logger.debug("{}: '{}' - {}", operationName, notificationIdentifier, stage);
+        } else {
+            logger.info("{}: '{}' - {}", operationName, notificationIdentifier, stage);
+        }
+    }
+
+    private static void waitForAcknowledgement(CompletableFuture<Void> acknowledgement) {
+        try {
+            acknowledgement.get(); // We want to save it immediately.
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for Kafka acknowledgement", e);
+        } catch (ExecutionException e) {
+            throw (RuntimeException) e.getCause();  // (it is a RuntimeException created by send())
+        }
     }
 }
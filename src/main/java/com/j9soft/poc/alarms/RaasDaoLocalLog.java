@@ -0,0 +1,337 @@
+package com.j9soft.poc.alarms;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Implementation of data access layer (DAO) based on a local append-only log. (i.e. without Kafka)
+ *
+ * This Dao is used in edge mode, i.e. at sites which cannot run a Kafka cluster.
+ *
+ * The log has partitions like a Kafka topic, and alarms of an adapter are saved in subpartitions chosen by
+ * {@link SubpartitionAssignmentStrategy}. A tag is an offset in a partition, i.e. like in {@link RaasDaoKafka}.
+ * (See {@link LocalLogPartition} for the format of the log.)
+ *
+ * Alarms are read from in-memory views of subpartitions. (See {@link RawAlarmsSubpartitionView})
+ * A view is updated together with its log, so a saved alarm is returned by the next query.
+ * The views are loaded from the log at start. Old segments of the log are compacted in background.
+ */
+@Profile("edge")
+@Service
+public class RaasDaoLocalLog implements RaasDao {
+
+    private static final Logger logger = LoggerFactory.getLogger(RaasDaoLocalLog.class);
+
+    private static final String PARTITION_DIRECTORY_PREFIX = "partition-";
+
+    /*
+     * A partition of the log and views of its subpartitions.
+     */
+    private static class Partition {
+        final LocalLogPartition log;
+        final Lock writeLock = new ReentrantLock();  // (the log and the views have a single writer at a time)
+        final Map<RawAlarmsPartitionDefinition, RawAlarmsSubpartitionView> views = new ConcurrentHashMap<>();
+
+        Partition(LocalLogPartition log) {
+            this.log = log;
+        }
+
+        RawAlarmsSubpartitionView getView(RawAlarmsPartitionDefinition partitionDefinition) {
+            return views.computeIfAbsent(partitionDefinition, d -> new RawAlarmsSubpartitionView());
+        }
+    }
+
+    private final Partition[] partitions;
+    private final SubpartitionAssignmentStrategy subpartitionAssignmentStrategy;
+    private final long tombstonesRetentionMs;
+
+    private final JSONValuePatchingComponent patcher = new JSONValuePatchingComponent();
+    private final RawAlarmsLongPolling longPolling = new RawAlarmsLongPolling();
+    private final RawAlarmsSubscriptions subscriptions = new RawAlarmsSubscriptions();
+    private final ScheduledExecutorService maintenanceExecutor;
+
+    @Autowired
+    RaasDaoLocalLog(@Value("${edge-log-directory:raas-log}") String directory,
+                    @Value("${edge-log-partitions:4}") int partitionsCount,
+                    @Value("${edge-subpartitions-per-adapter:1}") int subpartitionsPerAdapter,
+                    @Value("${edge-log-segment-size:67108864}") int segmentSize,
+                    @Value("${edge-log-flush-interval-ms:1000}") long flushIntervalMs,
+                    @Value("${edge-log-compaction-interval-ms:60000}") long compactionIntervalMs,
+                    @Value("${edge-log-tombstones-retention-ms:3600000}") long tombstonesRetentionMs) {
+
+        this.subpartitionAssignmentStrategy = new HashingSubpartitionAssignmentStrategy(partitionsCount, subpartitionsPerAdapter,
+                Collections.emptyMap());
+        this.tombstonesRetentionMs = tombstonesRetentionMs;
+
+        // Load the views from the log.
+        //
+        File root = new File(directory);
+        checkPartitionsCount(root, partitionsCount);
+        partitions = new Partition[partitionsCount];
+        for (int i = 0; i < partitionsCount; i++) {
+            Partition partition = new Partition(new LocalLogPartition(new File(root, PARTITION_DIRECTORY_PREFIX + i), segmentSize));
+            try {
+                partition.log.recover((partitionDefinition, notificationIdentifier, offset, value, timestamp) ->
+                        partition.getView(partitionDefinition).apply(notificationIdentifier, offset, value, timestamp));
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to load the log: " + root.getAbsolutePath(), e);
+            }
+            partitions[i] = partition;
+        }
+
+        // Flush and compact the log in background.
+        //
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "local-log");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (flushIntervalMs > 0) {
+            executor.scheduleWithFixedDelay(this::flush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        }
+        if (compactionIntervalMs > 0) {
+            executor.scheduleWithFixedDelay(this::compact, compactionIntervalMs, compactionIntervalMs, TimeUnit.MILLISECONDS);
+        }
+        this.maintenanceExecutor = executor;
+    }
+
+    @PreDestroy
+    void close() {
+        maintenanceExecutor.shutdownNow();
+        try {
+            maintenanceExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Partition partition : partitions) {
+            partition.writeLock.lock();
+            try {
+                partition.log.close();  // (i.e. its records are flushed and its segment is unmapped)
+            } finally {
+                partition.writeLock.unlock();
+            }
+        }
+        longPolling.close();
+        subscriptions.close();
+    }
+
+    @Override
+    public void createOrUpdateAlarm(String domain, String adapterName, String notificationIdentifier, String value) {
+        saveAlarm(domain, adapterName, notificationIdentifier, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public CompletableFuture<Void> createOrUpdateAlarmAsync(String domain, String adapterName, String notificationIdentifier,
+                                                            byte[] value) {
+        saveAlarm(domain, adapterName, notificationIdentifier, value);
+        return CompletableFuture.completedFuture(null);  // (an append does not wait for the disk, i.e. there is nothing to wait for)
+    }
+
+    @Override
+    public RawAlarmsPack queryAlarms(String domain, String adapterName, String subpartitionName,
+                                     String tagOfTheFirstAlarmToBeReturned, int howMany) {
+        return getView(domain, adapterName, subpartitionName).readPack(tagOfTheFirstAlarmToBeReturned, howMany);
+    }
+
+    @Override
+    public CompletableFuture<RawAlarmsPack> awaitAlarms(String domain, String adapterName, String subpartitionName,
+                                                        String tagOfTheFirstAlarmToBeReturned, int howMany, long waitTimeoutMs) {
+        RawAlarmsSubpartitionView view = getView(domain, adapterName, subpartitionName);
+
+        return longPolling.awaitPack(view.getChangeListeners(),
+                () -> view.readChanges(tagOfTheFirstAlarmToBeReturned, howMany), waitTimeoutMs);
+    }
+
+    @Override
+    public String streamAlarms(String domain, String adapterName, String subpartitionName,
+                               String tagOfTheFirstAlarmToBeReturned, int howMany, RawAlarmsWriter writer) throws IOException {
+        return getView(domain, adapterName, subpartitionName).streamPack(tagOfTheFirstAlarmToBeReturned, howMany, writer);
+    }
+
+    @Override
+    public RawAlarmsSubscriptions.Subscription subscribeToAlarms(String domain, String adapterName, String subpartitionName,
+                                                                 String tagOfTheFirstAlarmToBeReturned, RawAlarmsSubscriber subscriber) {
+        RawAlarmsSubpartitionView view = getView(domain, adapterName, subpartitionName);
+
+        return subscriptions.subscribe(view.getChangeFeed(), view::readChanges, tagOfTheFirstAlarmToBeReturned, subscriber);
+    }
+
+    @Override
+    public void removeAlarm(String domain, String adapterName, String notificationIdentifier) {
+        saveAlarm(domain, adapterName, notificationIdentifier, null);  // null is a marker for a removed alarm
+    }
+
+    @Override
+    public CompletableFuture<Void> removeAlarmAsync(String domain, String adapterName, String notificationIdentifier) {
+        removeAlarm(domain, adapterName, notificationIdentifier);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<Void> saveAlarmsBatchAsync(String domain, String adapterName, RawAlarmsBatch batch) {
+        RawAlarmsPartitionDefinition partitionDefinition = new RawAlarmsPartitionDefinition(domain, adapterName);
+
+        // Alarms of each partition are appended at once. (i.e. with one lock)
+        //
+        Map<Integer, List<Integer>> alarmsByPartition = new TreeMap<>();
+        for (int i = 0; i < batch.alarmNotificationIdentifiers.length; i++) {
+            int partition = subpartitionAssignmentStrategy.getSubpartition(domain, adapterName, batch.alarmNotificationIdentifiers[i]);
+            alarmsByPartition.computeIfAbsent(partition, p -> new ArrayList<>()).add(i);
+        }
+
+        for (Map.Entry<Integer, List<Integer>> partitionAlarms : alarmsByPartition.entrySet()) {
+            Partition partition = partitions[partitionAlarms.getKey()];
+            RawAlarmsSubpartitionView view = partition.getView(partitionDefinition);
+
+            partition.writeLock.lock();
+            try {
+                for (int i : partitionAlarms.getValue()) {
+                    String value = batch.alarmValues[i];
+                    append(partition, view, partitionDefinition, batch.alarmNotificationIdentifiers[i],
+                            value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+                }
+            } finally {
+                partition.writeLock.unlock();
+            }
+            view.getChangeListeners().notifyListeners();
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<Void> patchAlarmAsync(String domain, String adapterName, String notificationIdentifier,
+                                                   byte[] attributes) {
+        RawAlarmsPartitionDefinition partitionDefinition = new RawAlarmsPartitionDefinition(domain, adapterName);
+        Partition partition = partitions[subpartitionAssignmentStrategy.getSubpartition(domain, adapterName, notificationIdentifier)];
+        RawAlarmsSubpartitionView view = partition.getView(partitionDefinition);
+
+        // Attributes are merged with the value read under the lock of the partition, so no attribute of concurrent patches is lost.
+        // (An append does not wait for anything, so the lock is held for a short time.)
+        //
+        partition.writeLock.lock();
+        try {
+            byte[] newValue = patcher.patchOldValue(domain, adapterName, notificationIdentifier, attributes,
+                    view.getValue(notificationIdentifier));
+            append(partition, view, partitionDefinition, notificationIdentifier, newValue);
+        } finally {
+            partition.writeLock.unlock();
+        }
+        view.getChangeListeners().notifyListeners();
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public String[] getSubpartitions(RawAlarmsPartitionDefinition partitionDefinition) {
+        int[] subpartitions = subpartitionAssignmentStrategy.getSubpartitions(
+                partitionDefinition.getDomain(), partitionDefinition.getAdapterName());
+
+        return Arrays.stream(subpartitions).mapToObj(String::valueOf).toArray(String[]::new);
+    }
+
+    /**
+     * Writes appended records to the disk. (See {@link LocalLogPartition#flush})
+     */
+    void flush() {
+        for (Partition partition : partitions) {
+            partition.log.flush();
+        }
+    }
+
+    /**
+     * Drops superseded values and expired removals from old segments of the log.
+     */
+    void compact() {
+        long now = System.currentTimeMillis();
+        for (Partition partition : partitions) {
+            // Expired removals are forgotten by the views first. (Then their records are no longer live.)
+            //
+            partition.writeLock.lock();
+            try {
+                for (RawAlarmsSubpartitionView view : partition.views.values()) {
+                    view.purgeTombstonesOlderThan(now - tombstonesRetentionMs);
+                }
+            } finally {
+                partition.writeLock.unlock();
+            }
+
+            try {
+                partition.log.compact((partitionDefinition, notificationIdentifier, offset) -> {
+                    RawAlarmsSubpartitionView view = partition.views.get(partitionDefinition);
+                    return view != null && view.isLatest(notificationIdentifier, offset);
+                });
+            } catch (IOException e) {
+                logger.error("compact: failure", e);  // (the log is still consistent, it is compacted again later)
+            }
+        }
+    }
+
+    private RawAlarmsSubpartitionView getView(String domain, String adapterName, String subpartitionName) {
+        int partition;
+        try {
+            partition = Integer.parseInt(subpartitionName);
+        } catch (NumberFormatException e) {
+            throw new InvalidRequestException("Invalid subpartition name: " + subpartitionName);
+        }
+        if (partition < 0 || partition >= partitions.length) {
+            throw new InvalidRequestException("Unknown subpartition: " + subpartitionName);
+        }
+        return partitions[partition].getView(new RawAlarmsPartitionDefinition(domain, adapterName));
+    }
+
+    private void saveAlarm(String domain, String adapterName, String notificationIdentifier, byte[] value) {
+        RawAlarmsPartitionDefinition partitionDefinition = new RawAlarmsPartitionDefinition(domain, adapterName);
+        Partition partition = partitions[subpartitionAssignmentStrategy.getSubpartition(domain, adapterName, notificationIdentifier)];
+        RawAlarmsSubpartitionView view = partition.getView(partitionDefinition);
+
+        partition.writeLock.lock();
+        try {
+            append(partition, view, partitionDefinition, notificationIdentifier, value);
+        } finally {
+            partition.writeLock.unlock();
+        }
+        view.getChangeListeners().notifyListeners();
+    }
+
+    /*
+     * Appends a record to the log and applies it to the view. (Note: It needs to be invoked with writeLock of the partition.)
+     */
+    private static void append(Partition partition, RawAlarmsSubpartitionView view, RawAlarmsPartitionDefinition partitionDefinition,
+                               String notificationIdentifier, byte[] value) {
+        long timestamp = System.currentTimeMillis();
+        long offset;
+        try {
+            offset = partition.log.append(partitionDefinition, notificationIdentifier, value, timestamp);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to save the alarm: " + notificationIdentifier, e);  // @TODO add exception to API
+        }
+        view.apply(notificationIdentifier, offset, value, timestamp);
+    }
+
+    /*
+     * Partitions are chosen by hashing, so their number cannot be changed without moving the alarms.
+     */
+    private static void checkPartitionsCount(File root, int partitionsCount) {
+        File[] partitionDirectories = root.listFiles(file -> file.isDirectory() && file.getName().startsWith(PARTITION_DIRECTORY_PREFIX));
+        if (partitionDirectories != null && partitionDirectories.length > 0 && partitionDirectories.length != partitionsCount) {
+            throw new IllegalStateException(String.format("The log '%s' has %d partitions, not %d",
+                    root.getAbsolutePath(), partitionDirectories.length, partitionsCount));
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.j9soft.poc.alarms;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
+
+/**
+ * A client of other nodes of a cluster. (i.e. of owners of subpartitions, see {@link SubpartitionsOwnership})
+ *
+ * Requests are sent with the "Authorization" header of the original request, so the owner reads the same adapter.
+ * (Nodes are reached only under URLs of the configured cluster nodes, see {@link KafkaGroupSubpartitionsOwnership})
+ */
+@Component
+class RaasNodeClient {
+
+    private final RestTemplate restTemplate;
+
+    @Autowired
+    RaasNodeClient(@Value("${raas-node-client-timeout-ms:30000}") int timeoutMs) {
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(timeoutMs);
+        requestFactory.setReadTimeout(timeoutMs);
+        this.restTemplate = new RestTemplate(requestFactory);
+    }
+
+    /**
+     * Reads a pack of alarms from a subpartition served by the specified node. (See {@link RaasDao#queryAlarms})
+     *
+     * @param nodeUrl base URL of the node (e.g. "http://10.0.0.5:8080")
+     */
+    RawAlarmsPack queryAlarms(String nodeUrl, String authorization, String subpartitionName,
+                              String tagOfTheFirstAlarmToBeReturned, int howMany) {
+
+        UriComponentsBuilder uri = UriComponentsBuilder.fromHttpUrl(nodeUrl).path("/v2/rawalarms")
+                .queryParam("subpartitionName", subpartitionName)
+                .queryParam("howMany", howMany);
+        if (tagOfTheFirstAlarmToBeReturned != null) {
+            uri.queryParam("tagOfTheFirstAlarmToBeReturned", tagOfTheFirstAlarmToBeReturned);
+        }
+        HttpHeaders headers = new HttpHeaders();
+        if (authorization != null) {
+            headers.set(HttpHeaders.AUTHORIZATION, authorization);
+        }
+
+        try {
+            return restTemplate.exchange(uri.build().encode().toUri(), HttpMethod.GET, new HttpEntity<>(headers),
+                    RawAlarmsPack.class).getBody();
+        } catch (HttpStatusCodeException e) {
+            if (e.getRawStatusCode() == RaasV2Controller.SC_MISDIRECTED_REQUEST
+                    || e.getRawStatusCode() == HttpStatus.SERVICE_UNAVAILABLE.value()) {
+                // (The subpartition was just moved, i.e. the client should retry after the rebalance.)
+                throw new SubpartitionNotOwnedException(subpartitionName, null);
+            }
+            throw new RuntimeException("Failed to load alarms from node: " + nodeUrl, e);  // @TODO add exception to API
+        } catch (RestClientException e) {
+            throw new RuntimeException("Failed to load alarms from node: " + nodeUrl, e);  // @TODO add exception to API
+        }
+    }
+}
@@ -1,5 +1,10 @@
 package com.j9soft.poc.alarms;
 
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Interface defining functionality provided by API (version 2) of Raw Active Alarms Store.
  */
@@ -26,13 +31,68 @@ public interface RaasV2 {
      * then it is possible that obsolete alarms (i.e. already removed) retrieved in the previous packs will not have "nullify" value in the following packs,
      * i.e. that these obsolete alarms cannot be distinguished by a client.
      *
-     * @param subpartitionName
+     * @param subpartitionName one of {@link #getRawAlarmsSubpartitions} (if null then the only subpartition of the adapter,
+     *                         other subpartitions are rejected with "400 Bad Request")
      * @param tagOfTheFirstAlarmToBeReturned if null then the first pack is returned
      * @return struct(String,tagOfTheNextAvailableAlarm,moreAvailable)
      */
     RawAlarmsPack getRawAlarms(RawAlarmsPartitionDefinition partitionDefinition,
                                 String subpartitionName, String tagOfTheFirstAlarmToBeReturned, int howMany);
 
+    /**
+     * Retrieve a pack of alarms or wait until some are available. (i.e. long polling of changes)
+     *
+     * It has the same semantics as {@link #getRawAlarms} but if there are no alarms to be returned then the response is sent
+     * as soon as some are saved. (or an empty pack is sent after waitTimeoutMs)
+     * The returned TagOfTheNextAvailableAlarm is never null, so a client may use it to wait for next changes
+     * instead of polling in a loop.
+     *
+     * @return future completed when alarms are available (i.e. no thread is blocked while waiting)
+     */
+    CompletableFuture<RawAlarmsPack> getRawAlarmsWhenAvailable(RawAlarmsPartitionDefinition partitionDefinition,
+                                                               String subpartitionName, String tagOfTheFirstAlarmToBeReturned,
+                                                               int howMany, long waitTimeoutMs);
+
+    /**
+     * Retrieve a pack of alarms as a stream. (i.e. alarms are sent while they are read, so big packs may be retrieved
+     * without waiting until the whole pack is ready)
+     *
+     * It has the same semantics as {@link #getRawAlarms} but the response has a different structure:
+     * {"alarms":[{"notificationIdentifier":"...","value":"..."},...],"tagOfTheNextAvailableAlarm":"..."}
+     * (An alarm changed while the pack is being sent is provided in a next pack.)
+     */
+    StreamingResponseBody getRawAlarmsStream(RawAlarmsPartitionDefinition partitionDefinition,
+                                             String subpartitionName, String tagOfTheFirstAlarmToBeReturned, int howMany);
+
+    /**
+     * Subscribe to changes of alarms. (i.e. Server-Sent Events are sent as long as the client is connected)
+     *
+     * First alarms starting from the provided tag are sent (i.e. the same alarms as in consecutive packs of {@link #getRawAlarms})
+     * and then every change as soon as it is saved. (Removed alarms are sent with null value.)
+     * Each event is named "alarm" and contains {"notificationIdentifier":"...","value":"..."}.
+     * Its id is a tag, so a client may reconnect from where it stopped. (e.g. with "Last-Event-ID" header)
+     *
+     * A client which does not keep up with the changes is disconnected.
+     *
+     * @param tagOfTheFirstAlarmToBeReturned if null then all alarms are sent
+     * @param lastEventId id of the last event received before reconnecting (if provided then it is used instead of the tag)
+     */
+    SseEmitter getRawAlarmsChanges(RawAlarmsPartitionDefinition partitionDefinition,
+                                   String subpartitionName, String tagOfTheFirstAlarmToBeReturned, String lastEventId);
+
+    /**
+     * Retrieve a pack of alarms from all subpartitions of the specified partition.
+     * Subpartitions are read concurrently, so this is faster than {@link #getRawAlarms} invoked for each subpartition.
+     *
+     * The returned pack contains up to howMany alarms from each subpartition. (So it is as consistent as packs
+     * returned by {@link #getRawAlarms}.) Its TagOfTheNextAvailableAlarm is a composite one, i.e. it contains
+     * positions in all subpartitions which have more alarms available.
+     *
+     * @param tagOfTheFirstAlarmToBeReturned if null then the first packs are returned
+     */
+    RawAlarmsPack getRawAlarmsFromAllSubpartitions(RawAlarmsPartitionDefinition partitionDefinition,
+                                                   String tagOfTheFirstAlarmToBeReturned, int howMany);
+
     /**
      * Retrieve names of subpartitions available in the specified partition.
      * (Note: Alarms from a big adapter may be kept in several subpartitions in order to facilitate concurrent processing.)
@@ -42,13 +102,37 @@ public interface RaasV2 {
     /**
      * Create or Replace an alarm. (if replacing then all not provided attributes are nullified)
      * (Note: providing null valueObjectAsJson is equivalent to {@link #deleteAlarm(String,RawAlarmsPartitionDefinition)}.)
+     *
+     * @return future completed when the alarm is saved (i.e. a response may be sent without blocking a thread until then)
+     */
+    CompletableFuture<Void> putRawAlarm(String notificationIdentifier, RawAlarmsPartitionDefinition partitionDefinition,
+                                        byte[] valueObjectAsJson);
+
+    /**
+     * Create, Replace or Delete (if a value is null) many alarms at once.
+     * (It is more efficient than many invocations of {@link #putRawAlarm} and {@link #deleteAlarm}, e.g. during an alarm storm.)
+     * A malformed batch (e.g. with arrays of different lengths) is rejected with "400 Bad Request".
+     *
+     * @return future completed when all alarms are saved
+     */
+    CompletableFuture<Void> putRawAlarmsBatch(RawAlarmsPartitionDefinition partitionDefinition, RawAlarmsBatch batch);
+
+    /**
+     * Update only the provided attributes of an alarm. (i.e. all not provided attributes are kept)
+     * (It is more efficient than {@link #putRawAlarm} if only a few attributes change, e.g. a perceivedSeverity.)
+     * If the alarm does not exist then it is created.
+     *
+     * @param attributesObjectAsJson JSON object with new values of attributes
+     * @return future completed when the patched alarm is saved
      */
-    void putRawAlarm(String notificationIdentifier, RawAlarmsPartitionDefinition partitionDefinition,
-                     String valueObjectAsJson);
+    CompletableFuture<Void> patchRawAlarm(String notificationIdentifier, RawAlarmsPartitionDefinition partitionDefinition,
+                                          byte[] attributesObjectAsJson);
 
     /**
      * Delete an alarm.
+     *
+     * @return future completed when the alarm is removed
      */
-    void deleteAlarm(String notificationIdentifier, RawAlarmsPartitionDefinition partitionDefinition);
+    CompletableFuture<Void> deleteAlarm(String notificationIdentifier, RawAlarmsPartitionDefinition partitionDefinition);
 
 }
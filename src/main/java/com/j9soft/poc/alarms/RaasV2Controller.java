@@ -1,12 +1,28 @@
 package com.j9soft.poc.alarms;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.util.Assert;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.annotation.PostConstruct;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Servlet based implementation of Raw Active Alarms Store API (v.2).
@@ -17,70 +33,349 @@ import javax.annotation.PostConstruct;
  *
  * This implementation is based on Spring Boot annotations for request mappings.
  * See https://spring.io/guides/gs/spring-boot/
+ *
+ * A request of a subpartition served by another node of a cluster (e.g. also a patch) gets "421 Misdirected Request"
+ * with the URL of that node in the body, i.e. {"ownerUrl": ..., "location": ...}. It is not a redirect, because clients
+ * drop the "Authorization" header when they follow a redirect to another host. If the owner is not known yet
+ * (e.g. during a rebalance) then "503 Service Unavailable" with "Retry-After" header is returned.
+ *
+ * Each alarm of a batch takes a token of its adapter. (See {@link AdapterAdmissionFilter}, it takes the first one
+ * before the body is read.) A batch over the limit gets "429 Too Many Requests" with "Retry-After" header.
+ *
+ * Metrics: "raas.pack.alarms" and "raas.pack.bytes" (sizes of returned packs).
+ * (Latency of requests is measured by Spring Boot, see "http.server.requests".)
  */
 @RestController
 public class RaasV2Controller implements RaasV2 {
 
     private static final Logger logger = LoggerFactory.getLogger(RaasV2Controller.class);
 
+    static final int SC_MISDIRECTED_REQUEST = 421;
+
+    // (It is lower than the default timeout of asynchronous requests in Tomcat, i.e. 30 seconds.)
+    private static final long MAX_WAIT_TIMEOUT_MS = 25_000;
+
+    // (Then a client reconnects, e.g. EventSource of a browser does it automatically with "Last-Event-ID" header.)
+    private static final long SSE_TIMEOUT_MS = 600_000;
+
     // @Autowired  - is not used because:
     // https://spring.io/blog/2016/04/15/testing-improvements-in-spring-boot-1-4
     // "Don’t use field injection as it just makes your tests harder to write."
     //
     private final RaasDao raasDao;
+    private final RawAlarmsSubpartitionsFanOut subpartitionsFanOut;
+    private final DistributionSummary packAlarmsSummary;
+    private final DistributionSummary packBytesSummary;
+
+    private final JsonFactory jsonFactory = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
 
 
     @Autowired
-    RaasV2Controller(RaasDao raasDao) {
+    RaasV2Controller(RaasDao raasDao, RawAlarmsSubpartitionsFanOut subpartitionsFanOut, MeterRegistry meterRegistry) {
 
         this.raasDao = raasDao;
+        this.subpartitionsFanOut = subpartitionsFanOut;
+        this.packAlarmsSummary = DistributionSummary.builder("raas.pack.alarms").baseUnit("alarms").register(meterRegistry);
+        this.packBytesSummary = DistributionSummary.builder("raas.pack.bytes").baseUnit("bytes").register(meterRegistry);
     }
 
     @Override
     @GetMapping("/v2/rawalarms")
     public RawAlarmsPack getRawAlarms(@RequestAttribute(name = "partitionDefinition") RawAlarmsPartitionDefinition partitionDefinition,
-                                      @RequestParam(name = "subpartitionName", defaultValue = "0") String subpartitionName,
+                                      @RequestParam(name = "subpartitionName", required = false) String subpartitionName,
                                       @RequestParam(name = "tagOfTheFirstAlarmToBeReturned", required = false) String tagOfTheFirstAlarmToBeReturned,
                                       @RequestParam(name = "howMany", defaultValue = "100") int howMany) {
 
         logger.info("rawAlarms( domain='{}', adapterName='{}')",
                 partitionDefinition.getDomain(), partitionDefinition.getAdapterName());
 
-        return this.raasDao.queryAlarms(partitionDefinition.getDomain(), partitionDefinition.getAdapterName(),
-                subpartitionName, tagOfTheFirstAlarmToBeReturned, howMany);
+        return recordPackSize(this.raasDao.queryAlarms(partitionDefinition.getDomain(), partitionDefinition.getAdapterName(),
+                resolveSubpartition(partitionDefinition, subpartitionName), tagOfTheFirstAlarmToBeReturned, howMany));
+    }
+
+    @Override
+    @GetMapping(value = "/v2/rawalarms", params = "waitTimeoutMs")
+    public CompletableFuture<RawAlarmsPack> getRawAlarmsWhenAvailable(@RequestAttribute(name = "partitionDefinition") RawAlarmsPartitionDefinition partitionDefinition,
+                                                                      @RequestParam(name = "subpartitionName", required = false) String subpartitionName,
+                                                                      @RequestParam(name = "tagOfTheFirstAlarmToBeReturned", required = false) String tagOfTheFirstAlarmToBeReturned,
+                                                                      @RequestParam(name = "howMany", defaultValue = "100") int howMany,
+                                                                      @RequestParam(name = "waitTimeoutMs") long waitTimeoutMs) {
+
+        logger.info("rawAlarmsWhenAvailable( domain='{}', adapterName='{}', waitTimeoutMs={})",
+                partitionDefinition.getDomain(), partitionDefinition.getAdapterName(), waitTimeoutMs);
+
+        // (The request thread is released while waiting. The response is sent when the future is completed.)
+        return this.raasDao.awaitAlarms(partitionDefinition.getDomain(), partitionDefinition.getAdapterName(),
+                resolveSubpartition(partitionDefinition, subpartitionName), tagOfTheFirstAlarmToBeReturned, howMany,
+                Math.min(waitTimeoutMs, MAX_WAIT_TIMEOUT_MS))
+                .thenApply(this::recordPackSize);
+    }
+
+    @Override
+    @GetMapping(value = "/v2/rawalarms", params = "stream=true", produces = MediaType.APPLICATION_JSON_VALUE)
+    public StreamingResponseBody getRawAlarmsStream(@RequestAttribute(name = "partitionDefinition") RawAlarmsPartitionDefinition partitionDefinition,
+                                                    @RequestParam(name = "subpartitionName", required = false) String subpartitionName,
+                                                    @RequestParam(name = "tagOfTheFirstAlarmToBeReturned", required = false) String tagOfTheFirstAlarmToBeReturned,
+                                                    @RequestParam(name = "howMany", defaultValue = "100") int howMany) {
+
+        logger.info("rawAlarmsStream( domain='{}', adapterName='{}')",
+                partitionDefinition.getDomain(), partitionDefinition.getAdapterName());
+
+        // (The response is committed when the body is written, so the owner has to be checked before.)
+        String checkedSubpartitionName = resolveSubpartition(partitionDefinition, subpartitionName);
+        this.raasDao.checkSubpartitionOwned(checkedSubpartitionName);
+
+        // (Alarms are written by the generator into the response while Dao reads them. Nothing is kept in memory.)
+        return outputStream -> {
+            try (JsonGenerator generator = jsonFactory.createGenerator(outputStream)) {
+                generator.writeStartObject();
+                generator.writeArrayFieldStart("alarms");
+
+                String tagOfTheNextAvailableAlarm = this.raasDao.streamAlarms(
+                        partitionDefinition.getDomain(), partitionDefinition.getAdapterName(),
+                        checkedSubpartitionName, tagOfTheFirstAlarmToBeReturned, howMany,
+                        (notificationIdentifier, value) -> writeAlarm(generator, notificationIdentifier, value));
+
+                generator.writeEndArray();
+                generator.writeStringField("tagOfTheNextAvailableAlarm", tagOfTheNextAvailableAlarm);
+                generator.writeEndObject();
+            }
+        };
+    }
+
+    @Override
+    @GetMapping(value = "/v2/rawalarmschanges", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter getRawAlarmsChanges(@RequestAttribute(name = "partitionDefinition") RawAlarmsPartitionDefinition partitionDefinition,
+                                          @RequestParam(name = "subpartitionName", required = false) String subpartitionName,
+                                          @RequestParam(name = "tagOfTheFirstAlarmToBeReturned", required = false) String tagOfTheFirstAlarmToBeReturned,
+                                          @RequestHeader(name = "Last-Event-ID", required = false) String lastEventId) {
+
+        logger.info("rawAlarmsChanges( domain='{}', adapterName='{}', lastEventId='{}')",
+                partitionDefinition.getDomain(), partitionDefinition.getAdapterName(), lastEventId);
+
+        SseEmitter emitter = new SseEmitter(SSE_TIMEOUT_MS);
+        RawAlarmsSubscriptions.Subscription subscription = this.raasDao.subscribeToAlarms(
+                partitionDefinition.getDomain(), partitionDefinition.getAdapterName(),
+                resolveSubpartition(partitionDefinition, subpartitionName),
+                lastEventId != null ? lastEventId : tagOfTheFirstAlarmToBeReturned,
+                new RawAlarmsSubscriber() {
+                    @Override
+                    public void onAlarm(String notificationIdentifier, byte[] value, String tagOfTheNextAlarm) throws IOException {
+                        SseEmitter.SseEventBuilder event = SseEmitter.event().name("alarm")
+                                .data(toJson(notificationIdentifier, value), MediaType.APPLICATION_JSON);
+                        if (tagOfTheNextAlarm != null) {
+                            event.id(tagOfTheNextAlarm);
+                        }
+                        emitter.send(event);
+                    }
+
+                    @Override
+                    public void onClose(Throwable cause) {
+                        if (cause != null) {
+                            emitter.completeWithError(cause);  // (e.g. the client is too slow)
+                        }
+                    }
+                });
+
+        // (The subscription ends when the client disconnects, when the emitter times out or when its connection fails.)
+        // (onCompletion is invoked after each of them, the others free the subscription at once.)
+        emitter.onCompletion(subscription::close);
+        emitter.onTimeout(subscription::close);
+        emitter.onError(exception -> subscription.close());
+        return emitter;
+    }
+
+    @Override
+    @GetMapping(value = "/v2/rawalarms", params = "allSubpartitions=true")
+    public RawAlarmsPack getRawAlarmsFromAllSubpartitions(@RequestAttribute(name = "partitionDefinition") RawAlarmsPartitionDefinition partitionDefinition,
+                                                          @RequestParam(name = "tagOfTheFirstAlarmToBeReturned", required = false) String tagOfTheFirstAlarmToBeReturned,
+                                                          @RequestParam(name = "howMany", defaultValue = "100") int howMany) {
+
+        logger.info("rawAlarmsFromAllSubpartitions( domain='{}', adapterName='{}')",
+                partitionDefinition.getDomain(), partitionDefinition.getAdapterName());
+
+        return recordPackSize(
+                this.subpartitionsFanOut.queryAlarms(this.raasDao, partitionDefinition, tagOfTheFirstAlarmToBeReturned, howMany));
     }
 
     @Override
     @GetMapping("/v2/rawalarmssubpartitions")
-    public String[] getRawAlarmsSubpartitions(RawAlarmsPartitionDefinition partitionDefinition) {
+    public String[] getRawAlarmsSubpartitions(@RequestAttribute(name = "partitionDefinition") RawAlarmsPartitionDefinition partitionDefinition) {
         return this.raasDao.getSubpartitions(partitionDefinition);
     }
 
     @Override
     @PutMapping("/v2/rawalarms/{notificationIdentifier}")
-    public void putRawAlarm(@PathVariable("notificationIdentifier") String notificationIdentifier,
-                            @RequestAttribute(name = "partitionDefinition") RawAlarmsPartitionDefinition partitionDefinition,
-                            @RequestBody String valueObjectAsJson) {
+    public CompletableFuture<Void> putRawAlarm(@PathVariable("notificationIdentifier") String notificationIdentifier,
+                                               @RequestAttribute(name = "partitionDefinition") RawAlarmsPartitionDefinition partitionDefinition,
+                                               @RequestBody byte[] valueObjectAsJson) {
 
         logger.info("putRawAlarm(notificationIdentifier='{}', domain='{}', adapterName='{}')",
                 notificationIdentifier, partitionDefinition.getDomain(), partitionDefinition.getAdapterName());
 
-        this.raasDao.createOrUpdateAlarm(partitionDefinition.getDomain(), partitionDefinition.getAdapterName(),
+        // (Spring MVC sends the response when the returned future is completed, i.e. when the alarm is saved.)
+        return this.raasDao.createOrUpdateAlarmAsync(partitionDefinition.getDomain(), partitionDefinition.getAdapterName(),
                 notificationIdentifier, valueObjectAsJson);
     }
 
+    @Override
+    @PostMapping("/v2/rawalarmsbatch")
+    public CompletableFuture<Void> putRawAlarmsBatch(@RequestAttribute(name = "partitionDefinition") RawAlarmsPartitionDefinition partitionDefinition,
+                                                     @RequestBody RawAlarmsBatch batch) {
+
+        // (A malformed batch is an error of the client, i.e. "400 Bad Request".)
+        if (batch.alarmNotificationIdentifiers == null || batch.alarmValues == null) {
+            throw new InvalidRequestException("alarmNotificationIdentifiers and alarmValues are required!");
+        }
+        if (batch.alarmNotificationIdentifiers.length != batch.alarmValues.length) {
+            throw new InvalidRequestException("alarmNotificationIdentifiers and alarmValues have different lengths!");
+        }
+        for (String notificationIdentifier : batch.alarmNotificationIdentifiers) {
+            if (notificationIdentifier == null || notificationIdentifier.isEmpty()) {
+                throw new InvalidRequestException("alarmNotificationIdentifiers contains an empty identifier!");
+            }
+        }
+
+        logger.info("putRawAlarmsBatch(count={}, domain='{}', adapterName='{}')",
+                batch.alarmNotificationIdentifiers.length, partitionDefinition.getDomain(), partitionDefinition.getAdapterName());
+
+        acquireBatchRecords(partitionDefinition, batch.alarmNotificationIdentifiers.length);
+
+        return this.raasDao.saveAlarmsBatchAsync(partitionDefinition.getDomain(), partitionDefinition.getAdapterName(), batch);
+    }
+
+    @Override
+    @PatchMapping("/v2/rawalarms/{notificationIdentifier}")
+    public CompletableFuture<Void> patchRawAlarm(@PathVariable("notificationIdentifier") String notificationIdentifier,
+                                                 @RequestAttribute(name = "partitionDefinition") RawAlarmsPartitionDefinition partitionDefinition,
+                                                 @RequestBody byte[] attributesObjectAsJson) {
+
+        logger.info("patchRawAlarm(notificationIdentifier='{}', domain='{}', adapterName='{}')",
+                notificationIdentifier, partitionDefinition.getDomain(), partitionDefinition.getAdapterName());
+
+        // (Attributes are merged in Dao, so that concurrent patches of the same alarm do not overwrite each other.)
+        return this.raasDao.patchAlarmAsync(partitionDefinition.getDomain(), partitionDefinition.getAdapterName(),
+                notificationIdentifier, attributesObjectAsJson);
+    }
+
     @Override
     @DeleteMapping("/v2/rawalarms/{notificationIdentifier}")
-    public void deleteAlarm(@PathVariable("notificationIdentifier") String notificationIdentifier,
-                            @RequestAttribute(name = "partitionDefinition") RawAlarmsPartitionDefinition partitionDefinition) {
+    public CompletableFuture<Void> deleteAlarm(@PathVariable("notificationIdentifier") String notificationIdentifier,
+                                               @RequestAttribute(name = "partitionDefinition") RawAlarmsPartitionDefinition partitionDefinition) {
 
         logger.info("deleteAlarm(notificationIdentifier='{}', domain='{}', adapterName='{}')",
                 notificationIdentifier, partitionDefinition.getDomain(), partitionDefinition.getAdapterName());
 
-        this.raasDao.removeAlarm(partitionDefinition.getDomain(), partitionDefinition.getAdapterName(),
+        return this.raasDao.removeAlarmAsync(partitionDefinition.getDomain(), partitionDefinition.getAdapterName(),
                 notificationIdentifier);
     }
 
+    @ExceptionHandler(SubpartitionNotOwnedException.class)
+    public void handleSubpartitionNotOwned(SubpartitionNotOwnedException e, HttpServletRequest request,
+                                           HttpServletResponse response) throws IOException {
+        if (e.getOwnerUrl() != null) {
+            String queryString = request.getQueryString();
+            response.setStatus(SC_MISDIRECTED_REQUEST);
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            try (JsonGenerator generator = jsonFactory.createGenerator(response.getOutputStream())) {
+                generator.writeStartObject();
+                generator.writeStringField("message", e.getMessage());
+                generator.writeStringField("ownerUrl", e.getOwnerUrl());
+                generator.writeStringField("location",
+                        e.getOwnerUrl() + request.getRequestURI() + (queryString != null ? "?" + queryString : ""));
+                generator.writeEndObject();
+            }
+        } else {
+            response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+        }
+        logger.info("handleSubpartitionNotOwned: {} - status={}", e.getMessage(), response.getStatus());
+    }
+
+    @ExceptionHandler(AdmissionRejectedException.class)
+    public void handleAdmissionRejected(AdmissionRejectedException e, HttpServletResponse response) {
+        response.setStatus(AdapterAdmissionFilter.SC_TOO_MANY_REQUESTS);
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()));
+        logger.info("handleAdmissionRejected: {}", e.getMessage());
+    }
+
+    /*
+     * Takes tokens for the alarms of a batch beside the first one. (It is taken by AdapterAdmissionFilter, which does not
+     * run e.g. in tests of the controller alone.)
+     */
+    private static void acquireBatchRecords(RawAlarmsPartitionDefinition partitionDefinition, int recordsCount) {
+        RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+        AdapterAdmissionControl admissionControl = (requestAttributes == null) ? null : (AdapterAdmissionControl)
+                requestAttributes.getAttribute(AdapterAdmissionFilter.ADMISSION_CONTROL_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if (admissionControl == null) {
+            return;
+        }
+
+        long retryAfterSeconds = admissionControl.tryAcquireRecords(partitionDefinition, recordsCount - 1);
+        if (retryAfterSeconds != AdapterAdmissionControl.ADMITTED) {
+            throw new AdmissionRejectedException(partitionDefinition, retryAfterSeconds);
+        }
+    }
+
+    /*
+     * Returns the requested subpartition if it is one of the adapter's subpartitions. (i.e. a client reads only its own alarms)
+     * If it is not specified then the only subpartition of the adapter is returned. (as before adapters had many of them)
+     */
+    private String resolveSubpartition(RawAlarmsPartitionDefinition partitionDefinition, String subpartitionName) {
+        String[] subpartitions = this.raasDao.getSubpartitions(partitionDefinition);
+        if (subpartitionName == null) {
+            if (subpartitions.length != 1) {
+                throw new InvalidRequestException("subpartitionName is required, the adapter has subpartitions: "
+                        + String.join(",", subpartitions));
+            }
+            return subpartitions[0];
+        }
+        for (String subpartition : subpartitions) {
+            if (subpartition.equals(subpartitionName)) {
+                return subpartitionName;
+            }
+        }
+        throw new InvalidRequestException("Unknown subpartition of the adapter: " + subpartitionName);
+    }
+
+    /*
+     * Records number of alarms and size of their values in a returned pack.
+     */
+    private RawAlarmsPack recordPackSize(RawAlarmsPack pack) {
+        if (pack.alarmValues != null) {
+            long bytes = 0;
+            for (byte[] value : pack.alarmValues) {
+                bytes += (value == null) ? 0 : value.length;
+            }
+            packAlarmsSummary.record(pack.alarmValues.length);
+            packBytesSummary.record(bytes);
+        }
+        return pack;
+    }
+
+    /*
+     * Serializes an alarm as {"notificationIdentifier":"...","value":"..."}.
+     */
+    private byte[] toJson(String notificationIdentifier, byte[] value) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(64 + (value == null ? 0 : value.length));
+        try (JsonGenerator generator = jsonFactory.createGenerator(output)) {
+            writeAlarm(generator, notificationIdentifier, value);
+        }
+        return output.toByteArray();
+    }
+
+    private static void writeAlarm(JsonGenerator generator, String notificationIdentifier, byte[] value) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("notificationIdentifier", notificationIdentifier);
+        generator.writeFieldName("value");
+        if (value != null) {
+            generator.writeUTF8String(value, 0, value.length);  // (i.e. without decoding)
+        } else {
+            generator.writeNull();
+        }
+        generator.writeEndObject();
+    }
+
     @PostConstruct
     public void init() {
         Assert.notNull(raasDao, "raasDao is null!");
@@ -0,0 +1,23 @@
+package com.j9soft.poc.alarms;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads an alarm value written as a string by {@link RawAlarmValueSerializer}. (i.e. not as base64)
+ */
+class RawAlarmValueDeserializer extends StdDeserializer<byte[]> {
+
+    RawAlarmValueDeserializer() {
+        super(byte[].class);
+    }
+
+    @Override
+    public byte[] deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+        return parser.getValueAsString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,30 @@
+package com.j9soft.poc.alarms;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.json.UTF8JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes an alarm value (i.e. UTF-8 bytes of a JSON string) as a string.
+ * (The bytes are written as they are, i.e. they are not decoded into chars. Only characters which need it are escaped.)
+ * (Only generators writing bytes support it, so for others, e.g. of ObjectMapper.writeValueAsString, the bytes are decoded.)
+ */
+class RawAlarmValueSerializer extends StdSerializer<byte[]> {
+
+    RawAlarmValueSerializer() {
+        super(byte[].class);
+    }
+
+    @Override
+    public void serialize(byte[] value, JsonGenerator generator, SerializerProvider provider) throws IOException {
+        if (generator instanceof UTF8JsonGenerator) {
+            generator.writeUTF8String(value, 0, value.length);
+        } else {
+            generator.writeString(new String(value, StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package com.j9soft.poc.alarms;
+
+/**
+ * Changes of many alarms sent at once.
+ * (Values are JSON strings. A null value means that the alarm is removed.)
+ */
+public class RawAlarmsBatch {
+    public String[] alarmNotificationIdentifiers;
+    public String[] alarmValues;
+}
@@ -0,0 +1,57 @@
+package com.j9soft.poc.alarms;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Changes of alarms of one subpartition, pushed to its subscriptions as they are applied.
+ * (I.e. the only reader of the subpartition, e.g. a Kafka tailer, fans out the changes to all subscribers.)
+ *
+ * Changes have to be published in the order of their tags.
+ */
+class RawAlarmsChangeFeed {
+
+    static final class Change {
+        final String notificationIdentifier;
+        final long tag;       // position of the change (i.e. it is compared with the end of a replay)
+        final long nextTag;   // position following the change (i.e. to resume after it)
+        final byte[] value;   // UTF-8 bytes of JSON string (null is a marker for a removed alarm)
+
+        Change(String notificationIdentifier, long tag, long nextTag, byte[] value) {
+            this.notificationIdentifier = notificationIdentifier;
+            this.tag = tag;
+            this.nextTag = nextTag;
+            this.value = value;
+        }
+    }
+
+    private final Set<RawAlarmsSubscriptions.Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+
+    void publish(String notificationIdentifier, long tag, long nextTag, byte[] value) {
+        if (subscriptions.isEmpty()) {
+            return;  // (the usual case, i.e. nothing is allocated)
+        }
+
+        Change change = new Change(notificationIdentifier, tag, nextTag, value);
+        for (RawAlarmsSubscriptions.Subscription subscription : subscriptions) {
+            subscription.offer(change);  // (it does not block, i.e. a slow subscriber does not delay the others)
+        }
+    }
+
+    void add(RawAlarmsSubscriptions.Subscription subscription) {
+        subscriptions.add(subscription);
+    }
+
+    void remove(RawAlarmsSubscriptions.Subscription subscription) {
+        subscriptions.remove(subscription);
+    }
+
+    /**
+     * Closes all subscriptions. (e.g. when the subpartition is no longer read by this node)
+     */
+    void closeSubscriptions(Throwable cause) {
+        for (RawAlarmsSubscriptions.Subscription subscription : subscriptions) {
+            subscription.close(cause);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.j9soft.poc.alarms;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Parks long-polling requests until alarms they wait for are saved. (i.e. without blocking a thread per request)
+ *
+ * A waiting request is only a listener registered in {@link ChangeListeners} of a subpartition plus a scheduled timeout.
+ * When the subpartition changes, its listeners read the new alarms (on a thread of this component) and the ones which
+ * found something complete their futures. The others wait for a next change.
+ */
+class RawAlarmsLongPolling {
+
+    private static final Logger logger = LoggerFactory.getLogger(RawAlarmsLongPolling.class);
+
+    // Threads used to read alarms for woken up requests and to complete timed out ones.
+    private static final int THREADS_COUNT = 2;
+
+    /**
+     * Listeners waiting for changes of one subpartition.
+     * (It is notified by writers of the subpartition, e.g. once per applied batch of records.)
+     */
+    static class ChangeListeners {
+        private final Set<Runnable> listeners = ConcurrentHashMap.newKeySet();
+
+        void notifyListeners() {
+            for (Runnable listener : listeners) {
+                if (listeners.remove(listener)) {  // (a listener registers itself again if it needs to wait more)
+                    listener.run();
+                }
+            }
+        }
+
+        int size() {
+            return listeners.size();
+        }
+    }
+
+    private final ScheduledThreadPoolExecutor executor;
+
+    RawAlarmsLongPolling() {
+        executor = new ScheduledThreadPoolExecutor(THREADS_COUNT, runnable -> {
+            Thread thread = new Thread(runnable, "long-polling");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);  // (most of the timeouts are cancelled, we do not want to keep them)
+    }
+
+    /**
+     * Returns a future completed with the first non empty pack read from the subpartition
+     * or with an empty one (i.e. the last read) when waitTimeoutMs passes.
+     *
+     * @param reader reads a pack (it has to be invoked again to see changes, i.e. it is not a snapshot)
+     */
+    CompletableFuture<RawAlarmsPack> awaitPack(ChangeListeners changeListeners, Supplier<RawAlarmsPack> reader,
+                                               long waitTimeoutMs) {
+        return awaitPack(() -> changeListeners, reader, waitTimeoutMs);
+    }
+
+    /**
+     * Returns a future like {@link #awaitPack(ChangeListeners, Supplier, long)} but the listeners are looked up before each read.
+     * (e.g. a subpartition without alarms of an adapter is waited for by listeners of new views until its view is created)
+     */
+    CompletableFuture<RawAlarmsPack> awaitPack(Supplier<ChangeListeners> changeListeners, Supplier<RawAlarmsPack> reader,
+                                               long waitTimeoutMs) {
+
+        Waiter waiter = new Waiter(changeListeners, reader);
+        waiter.read();  // (the first read is done by the requesting thread, i.e. the usual case "alarms available" does not wait)
+
+        if (!waiter.result.isDone()) {
+            ScheduledFuture<?> timeout = executor.schedule(waiter::expire, waitTimeoutMs, TimeUnit.MILLISECONDS);
+            waiter.result.whenComplete((pack, exception) -> timeout.cancel(false));
+        }
+        return waiter.result;
+    }
+
+    void close() {
+        executor.shutdownNow();
+    }
+
+    /*
+     * A parked request.
+     */
+    private class Waiter implements Runnable {
+        final Supplier<ChangeListeners> changeListenersSupplier;
+        final Supplier<RawAlarmsPack> reader;
+        final CompletableFuture<RawAlarmsPack> result = new CompletableFuture<>();
+        volatile ChangeListeners changeListeners;  // (the ones this waiter is registered in)
+
+        Waiter(Supplier<ChangeListeners> changeListeners, Supplier<RawAlarmsPack> reader) {
+            this.changeListenersSupplier = changeListeners;
+            this.reader = reader;
+        }
+
+        /*
+         * Invoked when the subpartition changes. (i.e. by its writer, so the reading is passed to our threads)
+         */
+        @Override
+        public void run() {
+            try {
+                executor.execute(this::read);
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);  // (e.g. when the executor is already closed)
+            }
+        }
+
+        void read() {
+            if (result.isDone()) {
+                return;
+            }
+
+            // We register before reading, so no change is missed. (i.e. if it happens while we read then we read again)
+            // If the listeners changed meanwhile (e.g. the view was just created) then we register in the new ones and read again.
+            //
+            RawAlarmsPack pack;
+            ChangeListeners registeredListeners;
+            try {
+                do {
+                    registeredListeners = changeListenersSupplier.get();
+                    changeListeners = registeredListeners;
+                    registeredListeners.listeners.add(this);
+                    pack = reader.get();
+                } while (pack.alarmNotificationIdentifiers.length == 0 && unregisterIfChanged(registeredListeners));
+            } catch (RuntimeException e) {
+                unregister();
+                result.completeExceptionally(e);
+                return;
+            }
+
+            if (pack.alarmNotificationIdentifiers.length > 0) {
+                unregister();
+                result.complete(pack);
+            }
+        }
+
+        private boolean unregisterIfChanged(ChangeListeners registeredListeners) {
+            if (changeListenersSupplier.get() == registeredListeners) {
+                return false;
+            }
+            registeredListeners.listeners.remove(this);
+            return true;
+        }
+
+        private void unregister() {
+            ChangeListeners registeredListeners = changeListeners;
+            if (registeredListeners != null) {
+                registeredListeners.listeners.remove(this);
+            }
+        }
+
+        void expire() {
+            unregister();
+            if (!result.isDone()) {
+                logger.debug("expire: listeners={}", changeListeners.size());
+                try {
+                    result.complete(reader.get());  // (it is empty unless a change is just being applied)
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            }
+        }
+    }
+}
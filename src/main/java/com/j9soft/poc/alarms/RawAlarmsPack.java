@@ -1,7 +1,15 @@
 package com.j9soft.poc.alarms;
 
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
 public class RawAlarmsPack {
     public String[] alarmNotificationIdentifiers;
-    public String[] alarmValues;
+
+    // UTF-8 bytes of JSON strings, i.e. as they are stored. (They are sent as strings.)
+    @JsonSerialize(contentUsing = RawAlarmValueSerializer.class)
+    @JsonDeserialize(contentUsing = RawAlarmValueDeserializer.class)
+    public byte[][] alarmValues;
+
     public String tagOfTheNextAvailableAlarm;
 }
@@ -0,0 +1,128 @@
+package com.j9soft.poc.alarms;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * A small cache of packs recently read from views of subpartitions.
+ *
+ * After an incident many clients resynchronize at once, i.e. they read the same packs at the same time.
+ * Identical queries which are in flight together share one read (i.e. "single flight"), and read packs are kept until
+ * the view changes. (Packs are keyed by the version of a view, so they are not read again because of records of other
+ * adapters of the same subpartition, and a pack never misses what was already applied to the view.)
+ *
+ * (Cached packs are shared by many responses, so they must not be modified.)
+ */
+class RawAlarmsPackCache {
+
+    static final class Key {
+        private final RawAlarmsPartitionDefinition partitionDefinition;
+        private final int subpartition;
+        private final String tagOfTheFirstAlarmToBeReturned;
+        private final int howMany;
+        private final long viewVersion;
+
+        Key(RawAlarmsPartitionDefinition partitionDefinition, int subpartition, String tagOfTheFirstAlarmToBeReturned,
+            int howMany, long viewVersion) {
+            this.partitionDefinition = partitionDefinition;
+            this.subpartition = subpartition;
+            this.tagOfTheFirstAlarmToBeReturned = tagOfTheFirstAlarmToBeReturned;
+            this.howMany = howMany;
+            this.viewVersion = viewVersion;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return subpartition == key.subpartition &&
+                    howMany == key.howMany &&
+                    viewVersion == key.viewVersion &&
+                    partitionDefinition.equals(key.partitionDefinition) &&
+                    Objects.equals(tagOfTheFirstAlarmToBeReturned, key.tagOfTheFirstAlarmToBeReturned);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(partitionDefinition, subpartition, tagOfTheFirstAlarmToBeReturned, howMany, viewVersion);
+        }
+    }
+
+    private final int maxSize;
+    private final Map<Key, CompletableFuture<RawAlarmsPack>> packs;  // (in flight and read ones, guarded by itself)
+
+    private final LongAdder hitsCount = new LongAdder();
+    private final LongAdder missesCount = new LongAdder();
+
+    /**
+     * @param maxSize maximum number of cached packs (0 disables caching, i.e. also sharing of reads)
+     */
+    RawAlarmsPackCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.packs = new LinkedHashMap<Key, CompletableFuture<RawAlarmsPack>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CompletableFuture<RawAlarmsPack>> eldest) {
+                return size() > RawAlarmsPackCache.this.maxSize;  // (i.e. the least recently used one is forgotten)
+            }
+        };
+    }
+
+    /**
+     * Returns a cached pack or the one being read by another thread. Otherwise reads it.
+     * (A failed read is not cached, i.e. it is only shared by the queries which waited for it.)
+     */
+    RawAlarmsPack get(Key key, Supplier<RawAlarmsPack> reader) {
+        if (maxSize == 0) {
+            return reader.get();
+        }
+
+        CompletableFuture<RawAlarmsPack> pack;
+        boolean reading = false;
+        synchronized (packs) {
+            pack = packs.get(key);
+            if (pack == null) {
+                pack = new CompletableFuture<>();
+                packs.put(key, pack);
+                reading = true;
+            }
+        }
+
+        if (reading) {
+            missesCount.increment();
+            try {
+                pack.complete(reader.get());
+            } catch (RuntimeException|Error e) {
+                synchronized (packs) {
+                    packs.remove(key, pack);
+                }
+                pack.completeExceptionally(e);
+                throw e;
+            }
+        } else {
+            hitsCount.increment();
+        }
+
+        try {
+            return pack.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw (RuntimeException) e.getCause();  // (i.e. the one thrown by the reader)
+        }
+    }
+
+    long getHitsCount() {
+        return hitsCount.sum();
+    }
+
+    long getMissesCount() {
+        return missesCount.sum();
+    }
+}
@@ -1,5 +1,7 @@
 package com.j9soft.poc.alarms;
 
+import java.util.Objects;
+
 class RawAlarmsPartitionDefinition {
     private String domain;
     private String adapterName;
@@ -17,4 +19,25 @@ class RawAlarmsPartitionDefinition {
         return this.domain;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        RawAlarmsPartitionDefinition that = (RawAlarmsPartitionDefinition) o;
+        return Objects.equals(domain, that.domain) && Objects.equals(adapterName, that.adapterName);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(domain, adapterName);
+    }
+
+    @Override
+    public String toString() {
+        return domain + "/" + adapterName;
+    }
 }
@@ -0,0 +1,343 @@
+package com.j9soft.poc.alarms;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A compacted, in-memory view of a subpartition, i.e. the latest value of every alarm kept in the order of
+ * offsets of the log. (It is like a log after Kafka's compaction.)
+ *
+ * Removed alarms are kept as tombstones (i.e. with null value) because they have to be delivered in the second and the next packs.
+ * Tombstones are purged after some time. (See "ONE hour" in {@link RaasV2#getRawAlarms})
+ *
+ * The view is updated by one thread (i.e. a tailer of the log) and read by many threads.
+ * A pack is served in O(log n + howMany) time.
+ */
+class RawAlarmsSubpartitionView {
+
+    // Number of entries read at once by streaming. (The lock is not held while they are written.)
+    private static final int STREAMING_CHUNK_SIZE = 256;
+
+    // Number of entries copied at once by getEntries. (i.e. records are not applied only while they are copied)
+    private static final int COPYING_CHUNK_SIZE = 4096;
+
+    // Versions of all views. (i.e. a version identifies also the view, even if it is loaded again)
+    private static final AtomicLong VERSIONS = new AtomicLong();
+
+    static class Entry {
+        final String notificationIdentifier;
+        final long offset;
+        final byte[] value;   // UTF-8 bytes of JSON string (null is a marker for a removed alarm)
+        final long timestamp;
+
+        Entry(String notificationIdentifier, long offset, byte[] value, long timestamp) {
+            this.notificationIdentifier = notificationIdentifier;
+            this.offset = offset;
+            this.value = value;
+            this.timestamp = timestamp;
+        }
+    }
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<String, Entry> entriesByKey = new HashMap<>();
+    private final TreeMap<Long, Entry> entriesByOffset = new TreeMap<>();     // alarms and tombstones
+    private final TreeMap<Long, Entry> alarmsByOffset = new TreeMap<>();      // alarms only (used by the first pack)
+    private final TreeMap<Long, Entry> tombstonesByOffset = new TreeMap<>();  // tombstones only (used by purging)
+    private long endOffset = 0;  // offset following the last applied record (i.e. where changes not yet seen start)
+    private volatile long version = VERSIONS.incrementAndGet();  // (changed whenever entries change)
+
+    private final RawAlarmsLongPolling.ChangeListeners changeListeners = new RawAlarmsLongPolling.ChangeListeners();
+    private final RawAlarmsChangeFeed changeFeed = new RawAlarmsChangeFeed();
+
+    /**
+     * Applies a record read from the log. Records need to be applied in the order of their offsets.
+     * (A record older than the entry of its alarm is ignored, e.g. a record replayed over a checkpoint.)
+     */
+    void apply(String notificationIdentifier, long offset, byte[] value, long timestamp) {
+        Entry entry = new Entry(notificationIdentifier, offset, value, timestamp);
+
+        lock.writeLock().lock();
+        try {
+            Entry previous = entriesByKey.put(notificationIdentifier, entry);
+            if (previous != null && previous.offset > offset) {
+                entriesByKey.put(notificationIdentifier, previous);
+                return;
+            }
+            if (previous != null) {
+                // We overwrite the old alarm value with a new one.
+                entriesByOffset.remove(previous.offset);
+                alarmsByOffset.remove(previous.offset);
+                tombstonesByOffset.remove(previous.offset);
+            }
+
+            entriesByOffset.put(offset, entry);
+            endOffset = Math.max(endOffset, offset + 1);
+            version = VERSIONS.incrementAndGet();
+            if (value != null) {
+                alarmsByOffset.put(offset, entry);
+            } else {
+                tombstonesByOffset.put(offset, entry);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        changeFeed.publish(notificationIdentifier, offset, offset + 1, value);  // (i.e. by the only writer, so in the order of offsets)
+    }
+
+    /**
+     * Subscriptions to changes of this view. (Every applied record is pushed to them.)
+     */
+    RawAlarmsChangeFeed getChangeFeed() {
+        return changeFeed;
+    }
+
+    /**
+     * Listeners waiting for records not yet applied. (The tailer notifies them when it applies a batch of records.)
+     */
+    RawAlarmsLongPolling.ChangeListeners getChangeListeners() {
+        return changeListeners;
+    }
+
+    /**
+     * Removes tombstones of alarms removed before the specified time.
+     */
+    void purgeTombstonesOlderThan(long timestamp) {
+        lock.writeLock().lock();
+        try {
+            Iterator<Entry> tombstones = tombstonesByOffset.values().iterator();
+            boolean purged = false;
+            while (tombstones.hasNext()) {
+                Entry tombstone = tombstones.next();
+                if (tombstone.timestamp >= timestamp) {
+                    break;  // (timestamps grow together with offsets, so there are no more old tombstones)
+                }
+                tombstones.remove();
+                entriesByOffset.remove(tombstone.offset);
+                entriesByKey.remove(tombstone.notificationIdentifier);
+                purged = true;
+            }
+            if (purged) {
+                version = VERSIONS.incrementAndGet();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the current version of the view. (It is different after each change, also from versions of other views.)
+     * (A version read before a pack is read is not newer than the pack, i.e. a pack cached under it misses nothing.)
+     */
+    long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns number of alarms and tombstones kept by the view.
+     */
+    int size() {
+        lock.readLock().lock();
+        try {
+            return entriesByKey.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns a copy of all alarms and tombstones in the order of offsets. (Entries are immutable, so they are not copied.)
+     * The lock is held only while a chunk is copied, so the copy may contain records applied meanwhile. (and also
+     * the older entry of an alarm changed meanwhile, i.e. it is followed by the newer one)
+     */
+    List<Entry> getEntries() {
+        List<Entry> entries = new ArrayList<>();
+        long lastOffset = Long.MIN_VALUE;  // (offsets are not negative)
+        boolean more = true;
+        while (more) {
+            lock.readLock().lock();
+            try {
+                Iterator<Entry> chunk = entriesByOffset.tailMap(lastOffset, false).values().iterator();
+                for (int i = 0; i < COPYING_CHUNK_SIZE && chunk.hasNext(); i++) {
+                    Entry entry = chunk.next();
+                    entries.add(entry);
+                    lastOffset = entry.offset;
+                }
+                more = chunk.hasNext();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Returns whether a record of an alarm is its latest one, i.e. whether it still has to be kept in the log.
+     * (A removal is not kept after its tombstone is purged.)
+     */
+    boolean isLatest(String notificationIdentifier, long offset) {
+        lock.readLock().lock();
+        try {
+            Entry entry = entriesByKey.get(notificationIdentifier);
+            return entry != null && entry.offset == offset;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the latest value of an alarm or null if the alarm does not exist. (or if it was removed)
+     */
+    byte[] getValue(String notificationIdentifier) {
+        lock.readLock().lock();
+        try {
+            Entry entry = entriesByKey.get(notificationIdentifier);
+            return entry == null ? null : entry.value;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Reads a pack of alarms.
+     * The first pack (i.e. tagOfTheFirstAlarmToBeReturned == null) contains no removed alarms.
+     * The next packs contain all alarms (including removed ones) with offsets starting from the provided tag.
+     */
+    RawAlarmsPack readPack(String tagOfTheFirstAlarmToBeReturned, int howMany) {
+        return readPack(tagOfTheFirstAlarmToBeReturned, howMany, false);
+    }
+
+    /**
+     * Reads a pack of alarms like {@link #readPack} but its tag of the next available alarm is never null.
+     * (If there are no more alarms then the tag points at the end of the view, i.e. at the alarms which will be saved later.)
+     */
+    RawAlarmsPack readChanges(String tagOfTheFirstAlarmToBeReturned, int howMany) {
+        return readPack(tagOfTheFirstAlarmToBeReturned, howMany, true);
+    }
+
+    private RawAlarmsPack readPack(String tagOfTheFirstAlarmToBeReturned, int howMany, boolean tagOfTheEndIfNoMore) {
+
+        List<String> notificationIdentifiers = new ArrayList<>();
+        List<byte[]> values = new ArrayList<>();
+        Long nextOffset;
+
+        lock.readLock().lock();
+        try {
+            // Prepare from which place we will read.
+            //
+            NavigableMap<Long, Entry> source;
+            if (tagOfTheFirstAlarmToBeReturned == null) {
+                source = alarmsByOffset;   // We want to load all contents. (i.e. its the first pack)
+            } else {
+                source = entriesByOffset.tailMap(Long.parseLong(tagOfTheFirstAlarmToBeReturned), true);
+            }
+
+            // Read the data.
+            //
+            long lastOffset = -1;
+            Iterator<Entry> entries = source.values().iterator();
+            while (entries.hasNext() && notificationIdentifiers.size() < howMany) {
+                Entry entry = entries.next();
+                notificationIdentifiers.add(entry.notificationIdentifier);
+                values.add(entry.value);
+                lastOffset = entry.offset;
+            }
+
+            // Check whether more alarms are available. (i.e. whether they can be retrieved by another call)
+            //
+            nextOffset = (lastOffset < 0) ? null : source.higherKey(lastOffset);
+            if (nextOffset != null) {
+                nextOffset = lastOffset + 1;
+            } else if (tagOfTheEndIfNoMore) {
+                nextOffset = (tagOfTheFirstAlarmToBeReturned == null) ? endOffset
+                        : Math.max(endOffset, Long.parseLong(tagOfTheFirstAlarmToBeReturned));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        // Prepare the result.
+        //
+        RawAlarmsPack result = new RawAlarmsPack();
+        result.alarmNotificationIdentifiers = notificationIdentifiers.toArray(new String[0]);
+        result.alarmValues = values.toArray(new byte[0][]);
+        result.tagOfTheNextAvailableAlarm = (nextOffset == null) ? null : String.valueOf(nextOffset);
+
+        return result;
+    }
+
+    /**
+     * Streams a pack of alarms. (i.e. the same alarms as {@link #readPack} but without building the pack in memory)
+     *
+     * Entries are read in chunks, so that the tailer is not blocked by a slow writer.
+     * Only entries which already existed when streaming started are pushed. (i.e. an alarm updated in the meantime
+     * gets a higher offset, so it is not pushed twice)
+     *
+     * @return tag of the next available alarm (null if there are no more alarms)
+     */
+    String streamPack(String tagOfTheFirstAlarmToBeReturned, int howMany, RawAlarmsWriter writer) throws IOException {
+
+        boolean firstPack = (tagOfTheFirstAlarmToBeReturned == null);
+        long lastOffset = firstPack ? -1 : Long.parseLong(tagOfTheFirstAlarmToBeReturned) - 1;
+        long endOffset;
+
+        lock.readLock().lock();
+        try {
+            endOffset = entriesByOffset.isEmpty() ? 0 : entriesByOffset.lastKey() + 1;
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        List<Entry> chunk = new ArrayList<>(Math.min(STREAMING_CHUNK_SIZE, howMany));
+        int count = 0;
+        while (count < howMany) {
+            // Read a chunk.
+            //
+            chunk.clear();
+            lock.readLock().lock();
+            try {
+                NavigableMap<Long, Entry> source = firstPack ? alarmsByOffset : entriesByOffset;
+                int chunkSize = Math.min(STREAMING_CHUNK_SIZE, howMany - count);
+                for (Entry entry : source.subMap(lastOffset, false, endOffset, false).values()) {
+                    chunk.add(entry);
+                    if (chunk.size() == chunkSize) {
+                        break;
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            if (chunk.isEmpty()) {
+                break;
+            }
+
+            // Write it. (without the lock)
+            //
+            for (Entry entry : chunk) {
+                writer.write(entry.notificationIdentifier, entry.value);
+            }
+            count += chunk.size();
+            lastOffset = chunk.get(chunk.size() - 1).offset;
+        }
+
+        // Check whether more alarms are available. (e.g. also the ones updated while streaming)
+        //
+        lock.readLock().lock();
+        try {
+            NavigableMap<Long, Entry> source = firstPack ? alarmsByOffset : entriesByOffset;
+            return (source.higherKey(lastOffset) == null) ? null : String.valueOf(lastOffset + 1);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
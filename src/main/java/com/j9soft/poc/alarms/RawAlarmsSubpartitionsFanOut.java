@@ -0,0 +1,187 @@
+package com.j9soft.poc.alarms;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A helper class to read packs from all subpartitions of a partition concurrently and to merge them into one pack.
+ *
+ * The returned tag is a composite one, i.e. it contains a tag for each subpartition which has more alarms available.
+ * (It is an opaque string for clients. It should be provided as it is in order to retrieve the next pack.)
+ *
+ * A subpartition served by another node of a cluster is read from that node. (i.e. a client is not redirected for a part
+ * of a pack, see {@link RaasNodeClient})
+ */
+@Component
+class RawAlarmsSubpartitionsFanOut {
+
+    private static final Logger logger = LoggerFactory.getLogger(RawAlarmsSubpartitionsFanOut.class);
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ExecutorService executor;
+    private final RaasNodeClient nodeClient;  // (null if packs are not read from other nodes)
+
+    RawAlarmsSubpartitionsFanOut(int threadsCount, int queueCapacity) {
+        this(threadsCount, queueCapacity, null);
+    }
+
+    @Autowired
+    RawAlarmsSubpartitionsFanOut(@Value("${raas-fan-out-threads:8}") int threadsCount,
+                                 @Value("${raas-fan-out-queue-capacity:1000}") int queueCapacity,
+                                 RaasNodeClient nodeClient) {
+        this.nodeClient = nodeClient;
+        AtomicInteger threadNumber = new AtomicInteger();
+
+        // Bounded number of threads and of waiting reads. (If all are busy then a request thread reads by itself.)
+        this.executor = new ThreadPoolExecutor(threadsCount, threadsCount, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "fan-out-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Reads a pack of alarms from every subpartition of the specified partition.
+     *
+     * @param compositeTag if null then the first packs are returned
+     * @param howMany maximum number of alarms returned from one subpartition
+     */
+    RawAlarmsPack queryAlarms(RaasDao raasDao, RawAlarmsPartitionDefinition partitionDefinition,
+                              String compositeTag, int howMany) {
+
+        // Prepare from which subpartitions (and from which places) we will read.
+        //
+        Map<String, String> tags;
+        if (compositeTag == null) {
+            tags = new LinkedHashMap<>();
+            for (String subpartitionName : raasDao.getSubpartitions(partitionDefinition)) {
+                tags.put(subpartitionName, null);  // We want to load all contents. (i.e. the first packs)
+            }
+        } else {
+            tags = decodeCompositeTag(compositeTag);
+        }
+
+        // Read all subpartitions concurrently.
+        //
+        String authorization = getAuthorization();  // (it is bound to the request thread)
+        Map<String, Future<RawAlarmsPack>> futurePacks = new LinkedHashMap<>();
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            futurePacks.put(tag.getKey(), executor.submit(() -> querySubpartition(
+                    raasDao, partitionDefinition, tag.getKey(), tag.getValue(), howMany, authorization)));
+        }
+
+        // Merge the packs.
+        //
+        List<String> notificationIdentifiers = new ArrayList<>();
+        List<byte[]> values = new ArrayList<>();
+        Map<String, String> nextTags = new LinkedHashMap<>();
+        for (Map.Entry<String, Future<RawAlarmsPack>> futurePack : futurePacks.entrySet()) {
+            RawAlarmsPack pack = waitForPack(futurePack.getValue(), futurePack.getKey());
+
+            notificationIdentifiers.addAll(Arrays.asList(pack.alarmNotificationIdentifiers));
+            values.addAll(Arrays.asList(pack.alarmValues));
+            if (pack.tagOfTheNextAvailableAlarm != null) {
+                nextTags.put(futurePack.getKey(), pack.tagOfTheNextAvailableAlarm);
+            }
+        }
+
+        RawAlarmsPack result = new RawAlarmsPack();
+        result.alarmNotificationIdentifiers = notificationIdentifiers.toArray(new String[0]);
+        result.alarmValues = values.toArray(new byte[0][]);
+        result.tagOfTheNextAvailableAlarm = nextTags.isEmpty() ? null : encodeCompositeTag(nextTags);
+
+        return result;
+    }
+
+    @PreDestroy
+    void close() {
+        executor.shutdown();
+    }
+
+    String encodeCompositeTag(Map<String, String> tags) {
+        try {
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(mapper.writeValueAsBytes(tags));
+        } catch (IOException e) {
+            throw new RuntimeException("Problem producing composite tag: " + tags, e);
+        }
+    }
+
+    Map<String, String> decodeCompositeTag(String compositeTag) {
+        try {
+            return mapper.readValue(Base64.getUrlDecoder().decode(compositeTag.getBytes(StandardCharsets.US_ASCII)),
+                    new TypeReference<LinkedHashMap<String, String>>() {});
+        } catch (IOException|IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid composite tag: " + compositeTag, e);
+        }
+    }
+
+    /*
+     * Reads a pack locally or from the node which serves the subpartition.
+     */
+    private RawAlarmsPack querySubpartition(RaasDao raasDao, RawAlarmsPartitionDefinition partitionDefinition,
+                                            String subpartitionName, String tag, int howMany, String authorization) {
+        try {
+            return raasDao.queryAlarms(partitionDefinition.getDomain(), partitionDefinition.getAdapterName(),
+                    subpartitionName, tag, howMany);
+        } catch (SubpartitionNotOwnedException e) {
+            if (nodeClient == null || e.getOwnerUrl() == null) {
+                throw e;
+            }
+            logger.debug("queryAlarms: subpartitionName='{}' - proxied to: {}", subpartitionName, e.getOwnerUrl());
+            return nodeClient.queryAlarms(e.getOwnerUrl(), authorization, subpartitionName, tag, howMany);
+        }
+    }
+
+    private static String getAuthorization() {
+        RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+        if (requestAttributes instanceof ServletRequestAttributes) {
+            return ((ServletRequestAttributes) requestAttributes).getRequest().getHeader(HttpHeaders.AUTHORIZATION);
+        }
+        return null;
+    }
+
+    private static RawAlarmsPack waitForPack(Future<RawAlarmsPack> futurePack, String subpartitionName) {
+        try {
+            return futurePack.get();
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while loading alarms from subpartition: " + subpartitionName, e);
+        } catch (ExecutionException e) {
+            logger.info("queryAlarms: subpartitionName='{}' - failure", subpartitionName);
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException("Failed to load alarms from subpartition: " + subpartitionName, e.getCause());
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.j9soft.poc.alarms;
+
+import java.io.IOException;
+
+/**
+ * A receiver of alarm changes pushed by a subscription. (See {@link RawAlarmsSubscriptions})
+ */
+interface RawAlarmsSubscriber {
+
+    /**
+     * @param value UTF-8 bytes of a JSON string (null if the alarm was removed)
+     * @param tagOfTheNextAlarm tag to resume the subscription after this alarm (null if the alarm is in the middle of a pack)
+     */
+    void onAlarm(String notificationIdentifier, byte[] value, String tagOfTheNextAlarm) throws IOException;
+
+    /**
+     * Invoked once when the subscription ends.
+     *
+     * @param cause reason of the end (null if the subscription was closed by its owner)
+     */
+    void onClose(Throwable cause);
+}
@@ -0,0 +1,342 @@
+package com.j9soft.poc.alarms;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+/**
+ * Pushes alarm changes to subscribers. (e.g. to clients connected with Server-Sent Events)
+ *
+ * A subscription first replays alarms of a subpartition starting from a tag (i.e. like consecutive packs)
+ * and then sends changes published by {@link RawAlarmsChangeFeed} of the subpartition.
+ *
+ * Each subscription has a bounded buffer of changes not yet sent. If a subscriber is too slow, i.e. its buffer is full,
+ * then the subscription is closed. (The subscriber may subscribe again from its last tag.)
+ * Subscriptions are served by a few shared threads. (i.e. there is no thread per subscriber)
+ *
+ * Each subscription is written by one task at a time. A write which takes more than a write timeout (e.g. to a client
+ * which does not read, so its socket buffer is full) closes only this subscription, and its blocked thread is replaced
+ * by a new one until the write returns. (i.e. a slow client does not delay the others)
+ */
+class RawAlarmsSubscriptions {
+
+    private static final Logger logger = LoggerFactory.getLogger(RawAlarmsSubscriptions.class);
+
+    private static final int THREADS_COUNT = 4;
+
+    // Maximum number of changes buffered for a subscriber.
+    static final int BUFFER_CAPACITY = 1000;
+
+    // Number of alarms sent to a subscriber at once. (Then other subscribers get a chance.)
+    private static final int PACK_SIZE = 100;
+
+    // Maximum time of writing one alarm to a subscriber.
+    static final long WRITE_TIMEOUT_MS = 10_000;
+
+    private final long writeTimeoutMs;
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService watchdog;  // (it checks write timeouts)
+    private final ExecutorService closingExecutor;    // (it notifies subscribers blocked by a write that they are closed)
+    private final Set<Subscription> writingSubscriptions = ConcurrentHashMap.newKeySet();
+
+    RawAlarmsSubscriptions() {
+        this(WRITE_TIMEOUT_MS);
+    }
+
+    RawAlarmsSubscriptions(long writeTimeoutMs) {
+        this.writeTimeoutMs = writeTimeoutMs;
+
+        // (It is a fixed pool, but its size may grow while some threads are blocked by timed out writes.)
+        executor = new ThreadPoolExecutor(THREADS_COUNT, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "subscriptions");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "subscriptions-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long checkIntervalMs = Math.max(writeTimeoutMs / 4, 1);
+        watchdog.scheduleWithFixedDelay(this::checkWriteTimeouts, checkIntervalMs, checkIntervalMs, TimeUnit.MILLISECONDS);
+        closingExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "subscriptions-close");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param reader reads a pack of alarms starting from a tag (its tag of the next available alarm is never null,
+     *               see {@link RawAlarmsSubpartitionView#readChanges})
+     * @param tagOfTheFirstAlarmToBeReturned if null then all alarms are replayed
+     */
+    Subscription subscribe(RawAlarmsChangeFeed changeFeed, BiFunction<String, Integer, RawAlarmsPack> reader,
+                           String tagOfTheFirstAlarmToBeReturned, RawAlarmsSubscriber subscriber) {
+
+        Subscription subscription = new Subscription(changeFeed, reader, tagOfTheFirstAlarmToBeReturned, subscriber);
+
+        // We subscribe before replaying, so no change is missed. (Changes already replayed are skipped.)
+        changeFeed.add(subscription);
+        subscription.execute(subscription::replay);
+
+        return subscription;
+    }
+
+    void close() {
+        watchdog.shutdownNow();
+        executor.shutdownNow();
+        closingExecutor.shutdownNow();
+    }
+
+    private void checkWriteTimeouts() {
+        long now = System.nanoTime();
+        for (Subscription subscription : writingSubscriptions) {
+            subscription.checkWriteTimeout(now);
+        }
+    }
+
+    private void resizeExecutor(int delta) {
+        synchronized (executor) {
+            executor.setCorePoolSize(executor.getCorePoolSize() + delta);
+        }
+    }
+
+    class Subscription {
+        private final RawAlarmsChangeFeed changeFeed;
+        private final BiFunction<String, Integer, RawAlarmsPack> reader;
+        private final RawAlarmsSubscriber subscriber;
+
+        private String replayTag;  // (used only by the replaying task)
+
+        // (guarded by this)
+        private final Deque<RawAlarmsChangeFeed.Change> buffer = new ArrayDeque<>();
+        private boolean replaying = true;
+        private boolean replayOverflowed = false;
+        private long replayEndTag;
+        private boolean sending = false;
+        private boolean closed = false;
+        private boolean writing = false;
+        private long writeStartTime;  // (System.nanoTime)
+        private boolean writeTimedOut = false;
+
+        Subscription(RawAlarmsChangeFeed changeFeed, BiFunction<String, Integer, RawAlarmsPack> reader,
+                     String tagOfTheFirstAlarmToBeReturned, RawAlarmsSubscriber subscriber) {
+            this.changeFeed = changeFeed;
+            this.reader = reader;
+            this.subscriber = subscriber;
+            this.replayTag = tagOfTheFirstAlarmToBeReturned;
+        }
+
+        /**
+         * Stops sending. (The subscriber is notified with a null cause.)
+         */
+        void close() {
+            close(null);
+        }
+
+        /*
+         * Invoked by a writer of the subpartition. (i.e. it must not block)
+         */
+        void offer(RawAlarmsChangeFeed.Change change) {
+            boolean tooSlow = false;
+            boolean startSending = false;
+
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                if (buffer.size() < BUFFER_CAPACITY) {
+                    buffer.add(change);
+                    startSending = !replaying && !sending;
+                    sending |= startSending;
+                } else if (replaying) {
+                    // The replay will read these changes from the subpartition anyway.
+                    buffer.clear();
+                    replayOverflowed = true;
+                } else {
+                    tooSlow = true;
+                }
+            }
+
+            if (tooSlow) {
+                close(new IllegalStateException("Subscriber is too slow: more than " + BUFFER_CAPACITY + " changes not sent"));
+            } else if (startSending) {
+                execute(this::send);
+            }
+        }
+
+        /*
+         * Sends the next pack of alarms already saved in the subpartition.
+         */
+        private void replay() {
+            if (isClosed()) {
+                return;
+            }
+
+            RawAlarmsPack pack;
+            try {
+                pack = reader.apply(replayTag, PACK_SIZE);
+                for (int i = 0; i < pack.alarmNotificationIdentifiers.length; i++) {
+                    boolean last = (i == pack.alarmNotificationIdentifiers.length - 1);
+                    write(pack.alarmNotificationIdentifiers[i], pack.alarmValues[i],
+                            last ? pack.tagOfTheNextAvailableAlarm : null);
+                }
+            } catch (IOException|RuntimeException e) {
+                close(e);
+                return;
+            }
+            replayTag = pack.tagOfTheNextAvailableAlarm;
+
+            if (pack.alarmNotificationIdentifiers.length > 0) {
+                execute(this::replay);
+                return;
+            }
+
+            // We reached the end of the subpartition, so we start sending the buffered changes.
+            // (Unless some of them were dropped in the meantime. Then we need to read them again.)
+            //
+            boolean finished;
+            boolean startSending = false;
+            synchronized (this) {
+                finished = !replayOverflowed;
+                replayOverflowed = false;
+                if (finished) {
+                    replaying = false;
+                    replayEndTag = Long.parseLong(replayTag);
+                    startSending = !buffer.isEmpty() && !sending;
+                    sending |= startSending;
+                }
+            }
+            if (!finished) {
+                execute(this::replay);
+            } else if (startSending) {
+                execute(this::send);
+            }
+        }
+
+        /*
+         * Sends the next pack of buffered changes.
+         */
+        private void send() {
+            for (int i = 0; i < PACK_SIZE; i++) {
+                RawAlarmsChangeFeed.Change change;
+                long endTag;
+                synchronized (this) {
+                    change = closed ? null : buffer.poll();
+                    if (change == null) {
+                        sending = false;
+                        return;
+                    }
+                    endTag = replayEndTag;
+                }
+
+                if (change.tag < endTag) {
+                    continue;  // (i.e. it was already replayed)
+                }
+                try {
+                    write(change.notificationIdentifier, change.value, String.valueOf(change.nextTag));
+                } catch (IOException|RuntimeException e) {
+                    close(e);
+                    return;
+                }
+            }
+            execute(this::send);
+        }
+
+        /*
+         * Writes an alarm to the subscriber. (The watchdog closes the subscription if it takes too long.)
+         */
+        private void write(String notificationIdentifier, byte[] value, String tagOfTheNextAlarm) throws IOException {
+            synchronized (this) {
+                if (closed) {
+                    return;  // (e.g. the previous write timed out)
+                }
+                writing = true;
+                writeStartTime = System.nanoTime();
+            }
+            writingSubscriptions.add(this);
+            try {
+                subscriber.onAlarm(notificationIdentifier, value, tagOfTheNextAlarm);
+            } finally {
+                writingSubscriptions.remove(this);
+                boolean timedOut;
+                synchronized (this) {
+                    writing = false;
+                    timedOut = writeTimedOut;
+                }
+                if (timedOut) {
+                    resizeExecutor(-1);  // (the thread replacing this one is not needed anymore)
+                }
+            }
+        }
+
+        /*
+         * Invoked by the watchdog.
+         */
+        private void checkWriteTimeout(long now) {
+            synchronized (this) {
+                if (!writing || writeTimedOut || now - writeStartTime < TimeUnit.MILLISECONDS.toNanos(writeTimeoutMs)) {
+                    return;
+                }
+                writeTimedOut = true;
+            }
+            resizeExecutor(1);  // (the blocked thread is replaced, so other subscriptions are not delayed)
+            close(new IllegalStateException("Subscriber is too slow: writing of an alarm takes more than " + writeTimeoutMs + " ms"));
+        }
+
+        private void execute(Runnable task) {
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                close(e);  // (i.e. Dao is closed)
+            }
+        }
+
+        private synchronized boolean isClosed() {
+            return closed;
+        }
+
+        void close(Throwable cause) {
+            boolean blockedByWrite;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                buffer.clear();
+                blockedByWrite = writing;
+            }
+            changeFeed.remove(this);
+
+            if (cause != null) {
+                logger.info("close: failure: {}", cause.toString());
+            }
+            if (!blockedByWrite) {
+                subscriber.onClose(cause);
+                return;
+            }
+
+            // The subscriber may be blocked until its write returns (e.g. SseEmitter is synchronized), so we do not wait for it.
+            try {
+                closingExecutor.execute(() -> subscriber.onClose(cause));
+            } catch (RejectedExecutionException e) {
+                logger.info("close: subscriber not notified (closed)");
+            }
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.j9soft.poc.alarms;
+
+import java.io.IOException;
+
+/**
+ * A receiver of alarms pushed one by one while a pack is being read.
+ * (It makes it possible to send a pack without building it in memory.)
+ */
+@FunctionalInterface
+interface RawAlarmsWriter {
+
+    /**
+     * @param value UTF-8 bytes of a JSON string (null if the alarm was removed)
+     */
+    void write(String notificationIdentifier, byte[] value) throws IOException;
+}
@@ -0,0 +1,28 @@
+package com.j9soft.poc.alarms;
+
+/**
+ * Strategy defining in which subpartitions (i.e. Kafka partitions) alarms of an adapter are kept.
+ *
+ * (Note: Alarms from a big adapter may be kept in several subpartitions in order to facilitate concurrent processing.)
+ */
+interface SubpartitionAssignmentStrategy {
+
+    /**
+     * @return Kafka partitions assigned to the specified adapter
+     */
+    int[] getSubpartitions(String domain, String adapterName);
+
+    /**
+     * @return Kafka partition where the specified alarm is kept (i.e. one of {@link #getSubpartitions})
+     *  (It must always be the same one for the same alarm.)
+     */
+    int getSubpartition(String domain, String adapterName, String notificationIdentifier);
+
+    /**
+     * @return adapter which owns records saved without domain and adapter name (i.e. before alarms were kept in subpartitions
+     *  of adapters), null if there are no such records
+     */
+    default RawAlarmsPartitionDefinition getLegacyAdapter() {
+        return null;
+    }
+}
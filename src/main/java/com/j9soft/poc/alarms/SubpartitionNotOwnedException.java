@@ -0,0 +1,21 @@
+package com.j9soft.poc.alarms;
+
+/**
+ * Thrown when a subpartition is served by another node of a cluster. (See {@link SubpartitionsOwnership})
+ */
+class SubpartitionNotOwnedException extends RuntimeException {
+
+    private final String ownerUrl;
+
+    /**
+     * @param ownerUrl base URL of the node which serves the subpartition (null if it is not known, e.g. during a rebalance)
+     */
+    SubpartitionNotOwnedException(String subpartitionName, String ownerUrl) {
+        super("Subpartition " + subpartitionName + " is served by " + (ownerUrl != null ? ownerUrl : "an unknown node"));
+        this.ownerUrl = ownerUrl;
+    }
+
+    String getOwnerUrl() {
+        return ownerUrl;
+    }
+}
@@ -0,0 +1,27 @@
+package com.j9soft.poc.alarms;
+
+/**
+ * Decides which node of a cluster serves a subpartition. (i.e. which node keeps its view and answers its queries)
+ *
+ * Nodes split subpartitions between them, so reads scale horizontally. A node serves only the subpartitions it owns
+ * and requests of other ones are sent to their owners. (See {@link KafkaGroupSubpartitionsOwnership})
+ */
+interface SubpartitionsOwnership {
+
+    /**
+     * Returns whether the subpartition is served by this node.
+     */
+    boolean isLocal(int subpartition);
+
+    /**
+     * Returns base URL of the node which serves the subpartition. (e.g. "http://10.0.0.5:8080")
+     *
+     * @return null if the owner is not known at the moment (e.g. during a rebalance)
+     */
+    String getOwnerUrl(int subpartition);
+
+    /**
+     * Releases resources. (e.g. connections to a membership service)
+     */
+    void close();
+}
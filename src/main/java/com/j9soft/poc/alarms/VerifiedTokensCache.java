@@ -0,0 +1,142 @@
+package com.j9soft.poc.alarms;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of already verified JWT tokens. (i.e. of partition definitions read from their claims)
+ *
+ * Adapters use the same token for a long time, so there is no need to verify its signature and to parse its claims
+ * for each request. Tokens are identified by their SHA-256 digests. (i.e. the tokens themselves are not kept in memory)
+ * A token is forgotten when it expires (i.e. according to its "exp" claim) or when it is the least recently used one
+ * and the cache is full.
+ *
+ * Partition definitions are shared, i.e. tokens of the same adapter return the same instance.
+ * (They are kept only as long as a cached token refers to them.)
+ */
+class VerifiedTokensCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(VerifiedTokensCache.class);
+
+    private static final class Entry {
+        final RawAlarmsPartitionDefinition partitionDefinition;
+        final long expirationTime;  // Long.MAX_VALUE if a token does not expire
+
+        Entry(RawAlarmsPartitionDefinition partitionDefinition, long expirationTime) {
+            this.partitionDefinition = partitionDefinition;
+            this.expirationTime = expirationTime;
+        }
+    }
+
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);  // (every JVM has to support it)
+        }
+    });
+
+    private final int maxSize;
+    private final Map<ByteBuffer, Entry> entries;  // (in access order, guarded by itself)
+    private final Map<RawAlarmsPartitionDefinition, WeakReference<RawAlarmsPartitionDefinition>> partitionDefinitions =
+            new WeakHashMap<>();  // (guarded by entries)
+
+    private final LongAdder hitsCount = new LongAdder();
+    private final LongAdder missesCount = new LongAdder();
+
+    /**
+     * @param maxSize maximum number of cached tokens (0 disables caching)
+     */
+    VerifiedTokensCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<ByteBuffer, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Entry> eldest) {
+                return size() > VerifiedTokensCache.this.maxSize;  // (i.e. the least recently used token is forgotten)
+            }
+        };
+    }
+
+    /**
+     * Returns partition definition of an already verified (and not expired) token or null if the token needs to be verified.
+     */
+    RawAlarmsPartitionDefinition get(String token) {
+        ByteBuffer key = digest(token);
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+
+            if (entry != null && entry.expirationTime <= System.currentTimeMillis()) {
+                entries.remove(key);  // (an expired token has to be verified again, i.e. rejected)
+                entry = null;
+            }
+        }
+
+        if (entry == null) {
+            missesCount.increment();
+            return null;
+        }
+        hitsCount.increment();
+        return entry.partitionDefinition;
+    }
+
+    /**
+     * Remembers a verified token.
+     *
+     * @param expiration value of "exp" claim (null if a token does not expire)
+     * @return partition definition to be used instead of the provided one (i.e. a shared instance)
+     */
+    RawAlarmsPartitionDefinition put(String token, RawAlarmsPartitionDefinition partitionDefinition, Date expiration) {
+        ByteBuffer key = digest(token);
+        long expirationTime = expiration == null ? Long.MAX_VALUE : expiration.getTime();
+
+        synchronized (entries) {
+            RawAlarmsPartitionDefinition sharedPartitionDefinition = intern(partitionDefinition);
+            if (maxSize > 0) {
+                entries.put(key, new Entry(sharedPartitionDefinition, expirationTime));
+            }  // else: caching is disabled (i.e. a token is verified for each request)
+            return sharedPartitionDefinition;
+        }
+    }
+
+    long getHitsCount() {
+        return hitsCount.sum();
+    }
+
+    long getMissesCount() {
+        return missesCount.sum();
+    }
+
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private RawAlarmsPartitionDefinition intern(RawAlarmsPartitionDefinition partitionDefinition) {
+        WeakReference<RawAlarmsPartitionDefinition> reference = partitionDefinitions.get(partitionDefinition);
+        RawAlarmsPartitionDefinition sharedPartitionDefinition = reference == null ? null : reference.get();
+        if (sharedPartitionDefinition == null) {
+            // (the value refers to the key weakly too, so a definition is forgotten when no cached token refers to it)
+            partitionDefinitions.put(partitionDefinition, new WeakReference<>(partitionDefinition));
+            sharedPartitionDefinition = partitionDefinition;
+            logger.debug("intern: partitionDefinition={}, count={}", partitionDefinition, partitionDefinitions.size());
+        }
+        return sharedPartitionDefinition;
+    }
+
+    private static ByteBuffer digest(String token) {
+        return ByteBuffer.wrap(SHA_256.get().digest(token.getBytes(StandardCharsets.US_ASCII)));  // (JWT is base64url encoded)
+    }
+}
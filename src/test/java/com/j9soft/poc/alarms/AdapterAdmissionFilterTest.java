@@ -0,0 +1,148 @@
+package com.j9soft.poc.alarms;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class AdapterAdmissionFilterTest {
+
+    private static final RawAlarmsPartitionDefinition ADAPTER = new RawAlarmsPartitionDefinition("CAdev", "AdapterTest");
+    private static final RawAlarmsPartitionDefinition OTHER_ADAPTER = new RawAlarmsPartitionDefinition("CAdev", "OtherAdapter");
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private long now = 0;
+
+    @Test
+    public void whenAdapterExceedsItsRate_thenItsRequestsAreRejectedWithRetryAfter() throws Exception {
+        // (2 requests per second and a bucket of 2 requests)
+        AdapterAdmissionFilter filter = createFilter(2, 1, 0);
+
+        assertThat(doFilter(filter, ADAPTER, "PUT", 10).getStatus(), is(200));
+        assertThat(doFilter(filter, ADAPTER, "PUT", 10).getStatus(), is(200));
+        MockHttpServletResponse rejected = doFilter(filter, ADAPTER, "PUT", 10);
+        assertThat(rejected.getStatus(), is(AdapterAdmissionFilter.SC_TOO_MANY_REQUESTS));
+        assertThat(rejected.getHeader("Retry-After"), is("1"));
+
+        // We expect that other adapters and reads are not limited.
+        //
+        assertThat(doFilter(filter, OTHER_ADAPTER, "PUT", 10).getStatus(), is(200));
+        assertThat(doFilter(filter, ADAPTER, "GET", 0).getStatus(), is(200));
+
+        // We expect that tokens are refilled in time.
+        //
+        now += TimeUnit.MILLISECONDS.toNanos(500);
+        assertThat(doFilter(filter, ADAPTER, "PUT", 10).getStatus(), is(200));
+        assertThat(doFilter(filter, ADAPTER, "PUT", 10).getStatus(), is(AdapterAdmissionFilter.SC_TOO_MANY_REQUESTS));
+
+        assertThat(meterRegistry.get("raas.admission.rejected").tag("domain", "CAdev").tag("reason", "rate")
+                .counter().count(), is(2.0));
+    }
+
+    @Test
+    public void whenAdapterHasTooManyBytesInFlight_thenItsRequestsAreRejectedUntilTheyComplete() throws Exception {
+        AdapterAdmissionFilter filter = createFilter(0, 1, 100);
+
+        // (The first request is completed asynchronously, i.e. when its alarms are saved.)
+        MockHttpServletRequest first = new MockHttpServletRequest("POST", "/v2/rawalarmsbatch");
+        first.setAttribute("partitionDefinition", ADAPTER);
+        first.setContent(new byte[80]);
+        first.setAsyncSupported(true);
+        filter.doFilter(first, new MockHttpServletResponse(), (request, response) -> request.startAsync());
+
+        assertThat(meterRegistry.get("raas.admission.in.flight.bytes").gauge().value(), is(80.0));
+        assertThat(doFilter(filter, ADAPTER, "PUT", 80).getStatus(), is(AdapterAdmissionFilter.SC_TOO_MANY_REQUESTS));
+        assertThat(doFilter(filter, ADAPTER, "PUT", 20).getStatus(), is(200));
+
+        first.getAsyncContext().complete();
+
+        assertThat(meterRegistry.get("raas.admission.in.flight.bytes").gauge().value(), is(0.0));
+        assertThat(doFilter(filter, ADAPTER, "PUT", 80).getStatus(), is(200));
+        assertThat(meterRegistry.get("raas.admission.rejected").tag("reason", "inFlightBytes").counter().count(), is(1.0));
+    }
+
+    @Test
+    public void whenRequestIsBiggerThanTheLimit_thenItIsAdmittedAlone() throws Exception {
+        AdapterAdmissionFilter filter = createFilter(0, 1, 100);
+
+        assertThat(doFilter(filter, ADAPTER, "POST", 1000).getStatus(), is(200));
+    }
+
+    @Test
+    public void whenAsyncRequestIsCompletedBeforeFilterReturns_thenItsBytesAreReleased() throws Exception {
+        AdapterAdmissionFilter filter = createFilter(0, 1, 100);
+
+        MockHttpServletRequest request = new MockHttpServletRequest("PUT", "/v2/rawalarms/eric2g:341");
+        request.setAttribute("partitionDefinition", ADAPTER);
+        request.setContent(new byte[80]);
+        request.setAsyncSupported(true);
+        filter.doFilter(request, new MockHttpServletResponse(), (filteredRequest, response) -> filteredRequest.startAsync().complete());
+
+        assertThat(meterRegistry.get("raas.admission.in.flight.bytes").gauge().value(), is(0.0));
+    }
+
+    @Test
+    public void whenBatchIsAdmitted_thenEachOfItsAlarmsTakesAToken() {
+        // (2 alarms per second and a bucket of 4 alarms)
+        AdapterAdmissionControl admissionControl = createAdmissionControl(2, 2, 0);
+
+        assertThat(admissionControl.tryAcquire(ADAPTER, 0), is(AdapterAdmissionControl.ADMITTED));
+        assertThat(admissionControl.tryAcquireRecords(ADAPTER, 2), is(AdapterAdmissionControl.ADMITTED));
+        assertThat(admissionControl.tryAcquireRecords(ADAPTER, 2), is(1L));
+
+        // We expect that a batch bigger than the bucket is admitted when the bucket is full. (and it is paid off by the rate)
+        //
+        now += TimeUnit.SECONDS.toNanos(2);
+        assertThat(admissionControl.tryAcquireRecords(ADAPTER, 9), is(AdapterAdmissionControl.ADMITTED));
+        assertThat(admissionControl.tryAcquire(ADAPTER, 0), is(3L));
+    }
+
+    @Test
+    public void whenAdapterIsIdle_thenItIsForgotten() {
+        AdapterAdmissionControl admissionControl = createAdmissionControl(2, 1, 100);
+
+        assertThat(admissionControl.tryAcquire(ADAPTER, 10), is(AdapterAdmissionControl.ADMITTED));
+        assertThat(admissionControl.tryAcquire(OTHER_ADAPTER, 10), is(AdapterAdmissionControl.ADMITTED));
+        admissionControl.release(ADAPTER, 10);
+        assertThat(admissionControl.getAdaptersCount(), is(2));
+
+        // We expect that an adapter with bytes in flight is kept.
+        //
+        now += TimeUnit.MINUTES.toNanos(2);
+        admissionControl.tryAcquire(OTHER_ADAPTER, 0);
+        assertThat(admissionControl.getAdaptersCount(), is(1));
+
+        admissionControl.release(OTHER_ADAPTER, 10);
+        assertThat(meterRegistry.get("raas.admission.in.flight.bytes").gauge().value(), is(0.0));
+    }
+
+    private AdapterAdmissionControl createAdmissionControl(int ratePerSecond, double burstSeconds, long maxInFlightBytes) {
+        return new AdapterAdmissionControl(ratePerSecond, Collections.emptyMap(), burstSeconds, maxInFlightBytes,
+                meterRegistry, () -> now);
+    }
+
+    private AdapterAdmissionFilter createFilter(int ratePerSecond, double burstSeconds, long maxInFlightBytes) {
+        return new AdapterAdmissionFilter(createAdmissionControl(ratePerSecond, burstSeconds, maxInFlightBytes));
+    }
+
+    private static MockHttpServletResponse doFilter(AdapterAdmissionFilter filter, RawAlarmsPartitionDefinition partitionDefinition,
+                                                    String method, int bytes) throws IOException, ServletException {
+        MockHttpServletRequest request = new MockHttpServletRequest(method, "/v2/rawalarms/eric2g:341");
+        request.setAttribute("partitionDefinition", partitionDefinition);
+        request.setContent(new byte[bytes]);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        FilterChain chain = (filteredRequest, filteredResponse) -> { };
+
+        filter.doFilter(request, response, chain);
+        return response;
+    }
+}
@@ -0,0 +1,123 @@
+package com.j9soft.poc.alarms;
+
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.ServletException;
+import java.io.IOException;
+import java.util.Date;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class AuthorizationHeaderJwtFilterTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AuthorizationHeaderJwtFilter filter = new AuthorizationHeaderJwtFilter(10, meterRegistry);
+
+    @Test
+    public void whenTokenIsReused_thenItIsVerifiedOnce() throws Exception {
+        String token = createToken("CAdev", "AdapterTest", null);
+
+        Object firstPartitionDefinition = doFilter(token);
+        Object secondPartitionDefinition = doFilter(token);
+
+        assertThat(firstPartitionDefinition, is(new RawAlarmsPartitionDefinition("CAdev", "AdapterTest")));
+        assertThat(secondPartitionDefinition, sameInstance(firstPartitionDefinition));
+        assertThat(filter.getVerifiedTokens().getMissesCount(), is(1L));
+        assertThat(filter.getVerifiedTokens().getHitsCount(), is(1L));
+    }
+
+    @Test
+    public void whenRequestsAreFiltered_thenTheyAreCountedPerDomain() throws Exception {
+        doFilter(createToken("CAdev", "AdapterTest", null));
+        doFilter(createToken("CAdev", "AdapterTest", null));
+        doFilter(createToken("CAdev", "OtherAdapter", null));
+
+        assertThat(meterRegistry.get("raas.requests").tag("domain", "CAdev").counter().count(), is(3.0));
+        assertThat(meterRegistry.find("raas.requests").tagKeys("adapterName").counter(), nullValue());
+        assertThat(meterRegistry.get("raas.jwt.verify").tag("result", "success").timer().count(), is(2L));
+    }
+
+    @Test
+    public void whenTokenIsInvalid_thenFailedVerificationIsTimed() throws Exception {
+        try {
+            doFilter(createToken("CAdev", " ", null));
+        } catch (ServletException expected) {
+            // (tested below)
+        }
+
+        assertThat(meterRegistry.get("raas.jwt.verify").tag("result", "failure").timer().count(), is(1L));
+        assertThat(meterRegistry.get("raas.jwt.verify").tag("result", "success").timer().count(), is(0L));
+    }
+
+    @Test
+    public void whenHealthIsRead_thenTokenIsNotNeeded() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/actuator/health");
+        MockFilterChain filterChain = new MockFilterChain();
+
+        filter.doFilter(request, new MockHttpServletResponse(), filterChain);
+
+        assertThat(filterChain.getRequest(), sameInstance(request));
+        assertThat(request.getAttribute("partitionDefinition"), nullValue());
+    }
+
+    @Test
+    public void whenTokensOfTheSameAdapterAreUsed_thenPartitionDefinitionIsShared() throws Exception {
+        Object firstPartitionDefinition = doFilter(createToken("CAdev", "AdapterTest", null));
+        Object secondPartitionDefinition = doFilter(createToken("CAdev", "AdapterTest", new Date(System.currentTimeMillis() + 60_000)));
+
+        assertThat(secondPartitionDefinition, sameInstance(firstPartitionDefinition));
+    }
+
+    @Test
+    public void whenCachedTokenExpires_thenItIsForgotten() {
+        VerifiedTokensCache cache = new VerifiedTokensCache(10);
+        RawAlarmsPartitionDefinition partitionDefinition = new RawAlarmsPartitionDefinition("CAdev", "AdapterTest");
+
+        cache.put("valid", partitionDefinition, new Date(System.currentTimeMillis() + 60_000));
+        cache.put("expired", partitionDefinition, new Date(System.currentTimeMillis() - 1));
+
+        assertThat(cache.get("valid"), is(partitionDefinition));
+        assertThat(cache.get("expired"), nullValue());
+    }
+
+    @Test
+    public void whenCacheIsFull_thenLeastRecentlyUsedTokenIsForgotten() {
+        VerifiedTokensCache cache = new VerifiedTokensCache(2);
+        RawAlarmsPartitionDefinition partitionDefinition = new RawAlarmsPartitionDefinition("CAdev", "AdapterTest");
+
+        cache.put("first", partitionDefinition, null);
+        cache.put("second", partitionDefinition, null);
+        cache.get("first");
+        cache.put("third", partitionDefinition, null);
+
+        assertThat(cache.size(), is(2));
+        assertThat(cache.get("first"), is(partitionDefinition));
+        assertThat(cache.get("second"), nullValue());
+        assertThat(cache.get("third"), is(partitionDefinition));
+    }
+
+    private Object doFilter(String token) throws IOException, ServletException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/v2/rawalarms");
+        request.addHeader("Authorization", "Bearer " + token);
+
+        filter.doFilter(request, new MockHttpServletResponse(), new MockFilterChain());
+
+        return request.getAttribute("partitionDefinition");
+    }
+
+    private static String createToken(String domain, String adapterName, Date expiration) {
+        return Jwts.builder()
+                .claim("domain", domain)
+                .claim("adapterName", adapterName)
+                .setExpiration(expiration)
+                .signWith(SignatureAlgorithm.HS256, "secretkey")
+                .compact();
+    }
+}
@@ -0,0 +1,89 @@
+package com.j9soft.poc.alarms;
+
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class DictionaryValueCodecTest {
+
+    private static final RawAlarmsPartitionDefinition PARTITION_DEFINITION = new RawAlarmsPartitionDefinition("ala", "ma");
+
+    @Test
+    public void whenSampleIsComplete_thenValuesAreCompressedAndDecoded() {
+        DictionaryValueCodec codec = new DictionaryValueCodec(DictionaryValueCodec.CODEC_DEFLATE_DICTIONARY, 3);
+
+        assertThat(codec.getDictionary(PARTITION_DEFINITION, value(1)), nullValue());
+        assertThat(codec.getDictionary(PARTITION_DEFINITION, value(2)), nullValue());
+        DictionaryValueCodec.Dictionary dictionary = codec.getDictionary(PARTITION_DEFINITION, value(3));
+        assertThat(dictionary, notNullValue());
+
+        List<Header> headers = new ArrayList<>();
+        byte[] encoded = codec.encode(dictionary, value(4), headers);
+        assertThat(encoded.length, lessThan(value(4).length / 2));
+
+        // (Another node knows the dictionary only from its record.)
+        DictionaryValueCodec otherCodec = new DictionaryValueCodec(DictionaryValueCodec.CODEC_NONE, 3);
+        otherCodec.addDictionary(DictionaryValueCodec.getDictionaryKey(dictionary), dictionary.contents);
+        assertThat(otherCodec.decode(encoded, new RecordHeaders(headers)), is(value(4)));
+    }
+
+    @Test
+    public void whenDictionaryIsTrained_thenSampleIsDropped() {
+        DictionaryValueCodec codec = new DictionaryValueCodec(DictionaryValueCodec.CODEC_DEFLATE_DICTIONARY, 2);
+
+        codec.getDictionary(PARTITION_DEFINITION, value(1));
+        assertThat(codec.getSamplesCount(), is(1));
+
+        DictionaryValueCodec.Dictionary dictionary = codec.getDictionary(PARTITION_DEFINITION, value(2));
+        assertThat(codec.getSamplesCount(), is(0));
+        assertThat(codec.getDictionary(PARTITION_DEFINITION, value(3)), sameInstance(dictionary));
+        assertThat(codec.getSamplesCount(), is(0));
+    }
+
+    @Test
+    public void whenDictionaryIsSaved_thenItsKeyIsReserved() {
+        DictionaryValueCodec codec = new DictionaryValueCodec(DictionaryValueCodec.CODEC_DEFLATE_DICTIONARY, 1);
+        DictionaryValueCodec.Dictionary dictionary = codec.getDictionary(PARTITION_DEFINITION, value(1));
+
+        assertThat(DictionaryValueCodec.isReservedKey(DictionaryValueCodec.getDictionaryKey(dictionary)), is(true));
+        assertThat(DictionaryValueCodec.isReservedKey(dictionary.id), is(false));  // (i.e. a key of an alarm may look like an id)
+
+        // (Records saved before the prefix have the id alone as their keys.)
+        List<Header> headers = new ArrayList<>();
+        byte[] encoded = codec.encode(dictionary, value(2), headers);
+        DictionaryValueCodec otherCodec = new DictionaryValueCodec(DictionaryValueCodec.CODEC_NONE, 1);
+        otherCodec.addDictionary(dictionary.id, dictionary.contents);
+        assertThat(otherCodec.decode(encoded, new RecordHeaders(headers)), is(value(2)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void whenDictionaryIsUnknown_thenValueIsNotDecoded() {
+        DictionaryValueCodec codec = new DictionaryValueCodec(DictionaryValueCodec.CODEC_DEFLATE_DICTIONARY, 1);
+        DictionaryValueCodec.Dictionary dictionary = codec.getDictionary(PARTITION_DEFINITION, value(1));
+
+        List<Header> headers = new ArrayList<>();
+        byte[] encoded = codec.encode(dictionary, value(2), headers);
+
+        new DictionaryValueCodec(DictionaryValueCodec.CODEC_NONE, 1).decode(encoded, new RecordHeaders(headers));
+    }
+
+    @Test
+    public void whenCompressionIsDisabled_thenThereIsNoDictionary() {
+        DictionaryValueCodec codec = new DictionaryValueCodec(DictionaryValueCodec.CODEC_NONE, 1);
+
+        assertThat(codec.getDictionary(PARTITION_DEFINITION, value(1)), nullValue());
+        assertThat(codec.decode(value(1), new RecordHeaders()), is(value(1)));
+    }
+
+    private static byte[] value(int i) {
+        return ("{\"moIdentifier\":\"kot\",\"notificationIdentifier\":\"eric2g:" + i
+                + "\",\"perceivedSeverity\":\"CRITICAL\",\"probableCause\":\"LINK_FAILURE\"}").getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,82 @@
+package com.j9soft.poc.alarms;
+
+import org.apache.kafka.common.utils.Utils;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class HashingSubpartitionAssignmentStrategyTest {
+
+    private static final int PARTITIONS_COUNT = 16;
+
+    private final SubpartitionAssignmentStrategy strategy = new HashingSubpartitionAssignmentStrategy(PARTITIONS_COUNT, 1,
+            HashingSubpartitionAssignmentStrategy.parseSubpartitionsCounts("dev/BigAdapter=4, dev/HugeAdapter=100"));
+
+    @Test
+    public void whenAdapterIsNotConfigured_thenItHasOneSubpartition() {
+        assertThat(strategy.getSubpartitions("dev", "SmallAdapter").length, is(1));
+    }
+
+    @Test
+    public void whenAdapterIsConfigured_thenItHasManySubpartitions() {
+        int[] subpartitions = strategy.getSubpartitions("dev", "BigAdapter");
+
+        assertThat(subpartitions.length, is(4));
+        assertThat(Arrays.stream(subpartitions).distinct().count(), is(4L));
+
+        // It is not possible to have more subpartitions than partitions.
+        assertThat(strategy.getSubpartitions("dev", "HugeAdapter").length, is(PARTITIONS_COUNT));
+    }
+
+    @Test
+    public void whenAlarmIsAssigned_thenItIsInOneOfAdapterSubpartitions() {
+        Set<Integer> subpartitions = new HashSet<>();
+        Arrays.stream(strategy.getSubpartitions("dev", "BigAdapter")).forEach(subpartitions::add);
+
+        Set<Integer> usedSubpartitions = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            int subpartition = strategy.getSubpartition("dev", "BigAdapter", "eric2g:" + i);
+
+            assertThat(subpartitions, hasItem(subpartition));
+            assertThat(strategy.getSubpartition("dev", "BigAdapter", "eric2g:" + i), is(subpartition));  // (always the same one)
+            usedSubpartitions.add(subpartition);
+        }
+
+        // We expect that alarms are spread over all subpartitions.
+        assertThat(usedSubpartitions, is(subpartitions));
+    }
+
+    @Test
+    public void whenAdapterIsLegacy_thenItsAlarmsAreWhereKafkaDefaultPartitionerPutThem() {
+        SubpartitionAssignmentStrategy legacyStrategy = new HashingSubpartitionAssignmentStrategy(PARTITIONS_COUNT, 1,
+                Collections.emptyMap(), HashingSubpartitionAssignmentStrategy.parseAdapter("dev/OldAdapter"));
+
+        assertThat(legacyStrategy.getSubpartitions("dev", "OldAdapter").length, is(PARTITIONS_COUNT));
+        for (int i = 0; i < 100; i++) {
+            byte[] key = ("eric2g:" + i).getBytes(StandardCharsets.UTF_8);
+            assertThat(legacyStrategy.getSubpartition("dev", "OldAdapter", "eric2g:" + i),
+                    is(Utils.toPositive(Utils.murmur2(key)) % PARTITIONS_COUNT));
+        }
+
+        // Other adapters are not affected.
+        assertThat(legacyStrategy.getSubpartitions("dev", "SmallAdapter").length, is(1));
+    }
+
+    @Test
+    public void whenParsingSubpartitionsCounts_thenReadDomainAndAdapterName() {
+        Map<RawAlarmsPartitionDefinition, Integer> counts =
+                HashingSubpartitionAssignmentStrategy.parseSubpartitionsCounts("CAdev/BigAdapter=4,CAprod/HugeAdapter=8");
+
+        assertThat(counts.get(new RawAlarmsPartitionDefinition("CAdev", "BigAdapter")), is(4));
+        assertThat(counts.get(new RawAlarmsPartitionDefinition("CAprod", "HugeAdapter")), is(8));
+        assertThat(HashingSubpartitionAssignmentStrategy.parseSubpartitionsCounts("").isEmpty(), is(true));
+    }
+}
@@ -0,0 +1,96 @@
+package com.j9soft.poc.alarms;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class JSONValuePatchingComponentTest {
+
+    private final JSONValuePatchingComponent patcher = new JSONValuePatchingComponent();
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void whenOldValueDoesNotExist_thenNewValueIsReturned() {
+        String newValue = "{ \"perceivedSeverity\" : 1 }";
+
+        assertThat(patch(newValue, null), is(newValue));
+    }
+
+    @Test
+    public void whenFieldsAreOverwritten_thenTheyStayInPlace() {
+        assertThat(patch("{\"b\":\"22\",\"a\":11}", "{\"a\":1,\"b\":\"2\",\"c\":3}"),
+                is("{\"a\":11,\"b\":\"22\",\"c\":3}"));
+    }
+
+    @Test
+    public void whenNewFieldsAreProvided_thenTheyAreAppended() {
+        assertThat(patch("{\"z\":true,\"a\":null,\"y\":[1,2]}", "{\"a\":1,\"b\":2}"),
+                is("{\"a\":null,\"b\":2,\"z\":true,\"y\":[1,2]}"));
+    }
+
+    @Test
+    public void whenValuesArePatched_thenResultIsTheSameAsOfMapsMerge() {
+        String[][] newAndOldValues = {
+                {"{}", "{}"},
+                {"{ \"a\" : 1 }", "{ }"},
+                {"{\"a\":1.50,\"n\":-0.0}", "{\"a\":1e3,\"b\":12345678901234567890,\"c\":2147483648}"},
+                {"{\"text\":\"zażółć \\\"gęślą\\\" \\u0001\"}", "{\"text\":\"foo\\nbar\",\"s\":\"\\u00e9\"}"},
+                {"{\"nested\":{\"x\":[{},[]]}}", "{\"nested\":{\"y\":1}, \"other\": [ 1, { \"k\" : \"v\" } ] }"},
+                {"{\"a\":1,\"a\":2}", "{\"b\":0,\"a\":0}"},
+                {"{\"perceivedSeverity\":\"3\"}",
+                        "{\"notificationIdentifier\":\"eric2g:33\",\"perceivedSeverity\":\"1\",\"additionalText\":\"foo bar\"}"}
+        };
+
+        for (String[] newAndOldValue : newAndOldValues) {
+            assertThat(newAndOldValue[0] + " <- " + newAndOldValue[1],
+                    patch(newAndOldValue[0], newAndOldValue[1]), is(mergeMaps(newAndOldValue[0], newAndOldValue[1])));
+        }
+    }
+
+    @Test
+    public void whenNewValueIsNotJSON_thenExceptionIsThrown() {
+        assertFailure("{\"a\":", "{\"a\":1}", "New value");
+        assertFailure("[1]", "{\"a\":1}", "New value");
+    }
+
+    @Test
+    public void whenOldValueIsNotJSON_thenExceptionIsThrown() {
+        assertFailure("{\"a\":1}", "not a json", "Old value");
+        assertFailure("{\"a\":1}", "\"text\"", "Old value");
+    }
+
+    private String patch(String newValue, String oldValue) {
+        byte[] result = patcher.patchOldValue("dev", "Adapter", "eric2g:33", newValue.getBytes(StandardCharsets.UTF_8),
+                oldValue == null ? null : oldValue.getBytes(StandardCharsets.UTF_8));
+        return new String(result, StandardCharsets.UTF_8);
+    }
+
+    private void assertFailure(String newValue, String oldValue, String expectedMessage) {
+        try {
+            patch(newValue, oldValue);
+            throw new AssertionError("Exception expected for: " + newValue + " <- " + oldValue);
+        } catch (RuntimeException e) {
+            assertThat(e.getMessage(), containsString(expectedMessage));
+        }
+    }
+
+    /*
+     * Previous implementation, i.e. the expected results.
+     */
+    private String mergeMaps(String newValue, String oldValue) {
+        try {
+            Map<String, Object> oldValueAsMap = mapper.readValue(oldValue, new TypeReference<Map<String, Object>>() {});
+            oldValueAsMap.putAll(mapper.readValue(newValue, new TypeReference<Map<String, Object>>() {}));
+            return mapper.writeValueAsString(oldValueAsMap);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.j9soft.poc.alarms;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class LocalLogPartitionTest {
+
+    private static final RawAlarmsPartitionDefinition PARTITION_DEFINITION = new RawAlarmsPartitionDefinition("ala", "ma");
+    private static final byte[] VALUE = "{\"moIdentifier\":\"kot\"}".getBytes(StandardCharsets.UTF_8);
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void whenLastRecordIsTorn_thenLogIsRecoveredUpToThePreviousOne() throws IOException {
+        File directory = temporaryFolder.newFolder();
+        LocalLogPartition log = new LocalLogPartition(directory, 4096);
+        log.recover(collect(new ArrayList<>()));
+        log.append(PARTITION_DEFINITION, "a", VALUE, 1);
+        log.append(PARTITION_DEFINITION, "b", null, 2);
+        log.flush();
+
+        // Let's simulate a record which was written only partially. (i.e. its size is there, but not all of its bytes)
+        //
+        try (RandomAccessFile segment = new RandomAccessFile(new File(directory, String.format("%020d.log", 0)), "rw")) {
+            segment.seek(recordSize("a", VALUE) + recordSize("b", null));
+            segment.writeInt(100);
+            segment.writeInt(12345);
+            segment.writeLong(2);
+        }
+
+        List<String> recovered = new ArrayList<>();
+        log = new LocalLogPartition(directory, 4096);
+        log.recover(collect(recovered));
+        assertThat(recovered, is(asList("a@0", "b@1")));
+
+        // We expect that the next record replaces the torn one.
+        //
+        assertThat(log.append(PARTITION_DEFINITION, "c", VALUE, 3), is(2L));
+        recovered.clear();
+        new LocalLogPartition(directory, 4096).recover(collect(recovered));
+        assertThat(recovered, is(asList("a@0", "b@1", "c@2")));
+    }
+
+    @Test
+    public void whenCompacted_thenOnlyLiveRecordsAreKeptWithTheirOffsets() throws IOException {
+        File directory = temporaryFolder.newFolder();
+        LocalLogPartition log = new LocalLogPartition(directory, 256);  // (i.e. a few records per segment)
+        log.recover(collect(new ArrayList<>()));
+        for (int i = 0; i < 20; i++) {
+            log.append(PARTITION_DEFINITION, "a" + (i % 2), VALUE, i);
+        }
+        int segmentsCount = log.getSegmentsCount();
+        assertThat(segmentsCount, greaterThan(2));
+
+        // Only the latest records of "a0" and "a1" (i.e. offsets 18 and 19) are live.
+        log.compact((partitionDefinition, notificationIdentifier, offset) -> offset >= 18);
+
+        List<String> recovered = new ArrayList<>();
+        new LocalLogPartition(directory, 256).recover(collect(recovered));
+        assertThat(recovered, is(asList("a0@18", "a1@19")));
+        assertThat(log.getSegmentsCount(), lessThan(segmentsCount));
+    }
+
+    @Test
+    public void whenCompactedAgain_thenPreviouslyCompactedSegmentsAreReplaced() throws IOException {
+        File directory = temporaryFolder.newFolder();
+        LocalLogPartition log = new LocalLogPartition(directory, 256);
+        log.recover(collect(new ArrayList<>()));
+        for (int i = 0; i < 20; i++) {
+            log.append(PARTITION_DEFINITION, "a" + (i % 4), VALUE, i);
+        }
+        log.compact((partitionDefinition, notificationIdentifier, offset) -> offset >= 16);
+
+        // The next pass drops records kept by the previous one. (i.e. segments which were already replaced are replaced again)
+        for (int i = 20; i < 40; i++) {
+            log.append(PARTITION_DEFINITION, "a" + (i % 4), VALUE, i);
+        }
+        log.compact((partitionDefinition, notificationIdentifier, offset) -> offset >= 36);
+        log.close();
+
+        List<String> recovered = new ArrayList<>();
+        new LocalLogPartition(directory, 256).recover(collect(recovered));
+        assertThat(recovered, is(asList("a0@36", "a1@37", "a2@38", "a3@39")));
+        assertThat(directory.list((dir, name) -> name.endsWith(".compacting")).length, is(0));
+    }
+
+    private static LocalLogPartition.RecordConsumer collect(List<String> records) {
+        return (partitionDefinition, notificationIdentifier, offset, value, timestamp) -> {
+            assertThat(partitionDefinition, is(PARTITION_DEFINITION));
+            records.add(notificationIdentifier + "@" + offset);
+        };
+    }
+
+    private static List<String> asList(String... records) {
+        List<String> list = new ArrayList<>();
+        for (String record : records) {
+            list.add(record);
+        }
+        return list;
+    }
+
+    private static int recordSize(String notificationIdentifier, byte[] value) {
+        return 4 + 4 + 8 + 8 + 4 + 3 + 4 + 2 + 4 + notificationIdentifier.length() + 4 + (value == null ? 0 : value.length);
+    }
+}
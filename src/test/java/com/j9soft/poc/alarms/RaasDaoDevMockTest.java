@@ -9,10 +9,13 @@ import org.junit.runners.MethodSorters;
 public class RaasDaoDevMockTest {
 
     private static RaasDaoTestScenarios scenarios;
+    private static RaasDaoTestScenarios concurrentScenarios;
 
     @BeforeClass
     public static void initDao() {
         scenarios = new RaasDaoTestScenarios( new RaasDaoDevMock() );
+        // (Scenarios from t8 on run before t1 by name, so they get another Dao. i.e. t1-t5 always start with an empty one)
+        concurrentScenarios = new RaasDaoTestScenarios( new RaasDaoDevMock() );
     }
 
     @Test
@@ -34,4 +37,60 @@ public class RaasDaoDevMockTest {
     public void t5_whenPutThreeAlarms_thenKeepTheirOrder() {
         scenarios.t5_whenPutThreeAlarms_thenKeepTheirOrder();
     }
+
+    @Test
+    public void t6_whenGetTwoAlarms_thenProvideTagOfNextAlarm() {
+        // (This test needs an empty Dao.)
+        new RaasDaoTestScenarios( new RaasDaoDevMock() ).t6_whenGetTwoAlarms_thenProvideTagOfNextAlarm();
+    }
+
+    @Test
+    public void t8_whenQueriedConcurrently_thenReturnTheSameAlarms() throws Exception {
+        concurrentScenarios.t8_whenQueriedConcurrently_thenReturnTheSameAlarms();
+    }
+
+    @Test
+    public void t9_whenCreatedAlarmsAsynchronously_thenReturnThemWhenSaved() throws Exception {
+        concurrentScenarios.t9_whenCreatedAlarmsAsynchronously_thenReturnThemWhenSaved();
+    }
+
+    @Test
+    public void t10_whenSavedBatchOfAlarms_thenApplyAllChanges() throws Exception {
+        concurrentScenarios.t10_whenSavedBatchOfAlarms_thenApplyAllChanges();
+    }
+
+    @Test
+    public void t11_whenAnotherAdapterCreatedAlarm_thenDoNotReturnIt() {
+        concurrentScenarios.t11_whenAnotherAdapterCreatedAlarm_thenDoNotReturnIt();
+    }
+
+    @Test
+    public void t12_whenUpdatedWhileQueried_thenReturnEveryAlarmOnce() throws Exception {
+        concurrentScenarios.t12_whenUpdatedWhileQueried_thenReturnEveryAlarmOnce();
+    }
+
+    @Test
+    public void t13_whenPatchedConcurrently_thenKeepAllAttributes() throws Exception {
+        concurrentScenarios.t13_whenPatchedConcurrently_thenKeepAllAttributes();
+    }
+
+    @Test
+    public void t14_whenStreamed_thenReturnTheSameAlarmsAsQueried() throws Exception {
+        concurrentScenarios.t14_whenStreamed_thenReturnTheSameAlarmsAsQueried();
+    }
+
+    @Test
+    public void t15_whenWaitingForChanges_thenReturnThemAsSoonAsSaved() throws Exception {
+        concurrentScenarios.t15_whenWaitingForChanges_thenReturnThemAsSoonAsSaved();
+    }
+
+    @Test
+    public void t16_whenSubscribed_thenReplayAlarmsAndPushChanges() throws Exception {
+        concurrentScenarios.t16_whenSubscribed_thenReplayAlarmsAndPushChanges();
+    }
+
+    @Test
+    public void t18_whenWaitingForAlarmsOfNewAdapter_thenReturnThemAsSoonAsSaved() throws Exception {
+        concurrentScenarios.t18_whenWaitingForAlarmsOfNewAdapter_thenReturnThemAsSoonAsSaved();
+    }
 }
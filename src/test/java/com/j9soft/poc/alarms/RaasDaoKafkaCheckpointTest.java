@@ -0,0 +1,168 @@
+package com.j9soft.poc.alarms;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.Config;
+import org.apache.kafka.clients.admin.ConfigEntry;
+import org.apache.kafka.common.config.ConfigResource;
+import org.apache.kafka.common.config.TopicConfig;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runners.MethodSorters;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.concurrent.ExecutionException;
+
+import static com.j9soft.poc.alarms.RaasDaoKafkaTestConfiguration.EXISTING_ALARM;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/*
+ * Tests of a warm start from a checkpoint of the views. (i.e. with "kafka-checkpoint-directory")
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class RaasDaoKafkaCheckpointTest {
+
+    private static final int ALARMS_COUNT = 20;
+    private static final long CHECKPOINT_INTERVAL_MS = 100;
+
+    @ClassRule
+    public static TemporaryFolder checkpointFolder = new TemporaryFolder();
+
+    private static RaasDaoKafkaTestEmbeddedBroker embeddedBroker;
+
+    private static RaasDaoKafkaTestConfiguration testConfig;
+
+    @BeforeClass
+    public static void init() throws IOException {
+
+        // Start an embedded Kafka Server
+        //
+        embeddedBroker = new RaasDaoKafkaTestEmbeddedBroker();
+        embeddedBroker.init();
+
+        // Connect to the embedded Kafka.
+        testConfig = new RaasDaoKafkaTestConfiguration();
+
+        embeddedBroker.createTopic(testConfig.getTopicName());
+    }
+
+    @AfterClass
+    public static void cleanup() {
+        testConfig.close();
+        embeddedBroker.close();
+    }
+
+    @Test
+    public void t1_whenDaoIsClosed_thenItsViewsAreSavedInCheckpoint() {
+        RaasDaoKafka kafkaDao = testConfig.getDao(createCheckpoint(), new SimpleMeterRegistry());
+
+        for (int i = 0; i < ALARMS_COUNT; i++) {
+            kafkaDao.createOrUpdateAlarm(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName, "eric2g:" + i, json(i));
+        }
+        kafkaDao.removeAlarm(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName, "eric2g:0");
+        assertThat(queryAllAlarms(kafkaDao).alarmNotificationIdentifiers.length, is(ALARMS_COUNT - 1));
+        assertThat(kafkaDao.isCaughtUp(), is(true));
+
+        testConfig.closeDao(kafkaDao);
+
+        assertThat(getCheckpointFile().exists(), is(true));
+    }
+
+    @Test
+    public void t2_whenDaoIsStartedWithCheckpoint_thenOnlyNewRecordsAreReadFromKafka() {
+        // Let's save one more alarm. (i.e. after the checkpoint)
+        RaasDaoKafka otherDao = testConfig.getDao(null, new SimpleMeterRegistry());
+        otherDao.createOrUpdateAlarm(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName, "eric2g:" + ALARMS_COUNT, json(ALARMS_COUNT));
+        testConfig.closeDao(otherDao);
+
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        RaasDaoKafka kafkaDao = testConfig.getDao(createCheckpoint(), meterRegistry);
+
+        // We expect alarms from the checkpoint together with the new one.
+        //
+        RawAlarmsPack pack = queryAllAlarms(kafkaDao);
+        assertThat(pack.alarmNotificationIdentifiers.length, is(ALARMS_COUNT));
+        assertThat(pack.alarmNotificationIdentifiers[0], is("eric2g:1"));
+        assertThat(pack.alarmNotificationIdentifiers[ALARMS_COUNT - 1], is("eric2g:" + ALARMS_COUNT));
+
+        // We expect that the removal is still known. (i.e. it is returned by the next packs, its offset follows the created alarms)
+        //
+        RawAlarmsPack changes = kafkaDao.queryAlarms(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName, "0",
+                String.valueOf(ALARMS_COUNT), ALARMS_COUNT + 2);
+        assertThat(changes.alarmNotificationIdentifiers[0], is("eric2g:0"));
+        assertThat(changes.alarmValues[0], nullValue());
+
+        // We expect that only the record saved after the checkpoint was read.
+        assertThat(meterRegistry.get("raas.kafka.tailer.records").counter().count(), is(1.0));
+        assertThat(kafkaDao.isCaughtUp(), is(true));
+
+        testConfig.closeDao(kafkaDao);
+    }
+
+    @Test
+    public void t3_whenCheckpointIsDamaged_thenViewsAreLoadedFromTheBeginning() throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(getCheckpointFile(), "rw")) {
+            long position = file.length() / 2;
+            file.seek(position);
+            int damaged = ~file.read();
+            file.seek(position);
+            file.write(damaged);
+        }
+
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        RaasDaoKafka kafkaDao = testConfig.getDao(createCheckpoint(), meterRegistry);
+
+        assertThat(queryAllAlarms(kafkaDao).alarmNotificationIdentifiers.length, is(ALARMS_COUNT));
+        assertThat(meterRegistry.get("raas.kafka.tailer.records").counter().count(), is((double) ALARMS_COUNT + 2));
+    }
+
+    @Test
+    public void t4_whenCheckpointIsOlderThanDeleteRetention_thenViewsAreLoadedFromTheBeginning()
+            throws InterruptedException, ExecutionException {
+        // Let's save a valid checkpoint and check that it is used.
+        RaasDaoKafka savingDao = testConfig.getDao(createCheckpoint(), new SimpleMeterRegistry());
+        assertThat(queryAllAlarms(savingDao).alarmNotificationIdentifiers.length, is(ALARMS_COUNT));
+        testConfig.closeDao(savingDao);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        RaasDaoKafka kafkaDao = testConfig.getDao(createCheckpoint(), meterRegistry);
+        assertThat(queryAllAlarms(kafkaDao).alarmNotificationIdentifiers.length, is(ALARMS_COUNT));
+        assertThat(meterRegistry.get("raas.kafka.tailer.records").counter().count(), is(0.0));
+        testConfig.closeDao(kafkaDao);
+
+        // Kafka may drop removals older than "delete.retention.ms", so the checkpoint could miss them now.
+        //
+        ConfigResource topic = new ConfigResource(ConfigResource.Type.TOPIC, testConfig.getTopicName());
+        try (AdminClient adminClient = testConfig.getClient().createAdminClient()) {
+            adminClient.alterConfigs(Collections.singletonMap(topic,
+                    new Config(Collections.singleton(new ConfigEntry(TopicConfig.DELETE_RETENTION_MS_CONFIG, "1")))))
+                    .all().get();
+        }
+        Thread.sleep(10);
+
+        meterRegistry = new SimpleMeterRegistry();
+        kafkaDao = testConfig.getDao(createCheckpoint(), meterRegistry);
+
+        assertThat(queryAllAlarms(kafkaDao).alarmNotificationIdentifiers.length, is(ALARMS_COUNT));
+        assertThat(meterRegistry.get("raas.kafka.tailer.records").counter().count(), is((double) ALARMS_COUNT + 2));
+    }
+
+    private static KafkaViewsCheckpoint createCheckpoint() {
+        return new KafkaViewsCheckpoint(checkpointFolder.getRoot().getPath(), testConfig.getTopicName(), CHECKPOINT_INTERVAL_MS);
+    }
+
+    private static File getCheckpointFile() {
+        return new File(checkpointFolder.getRoot(), testConfig.getTopicName() + ".checkpoint");
+    }
+
+    private static RawAlarmsPack queryAllAlarms(RaasDao kafkaDao) {
+        return kafkaDao.queryAlarms(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName, "0", null, ALARMS_COUNT + 2);
+    }
+
+    private static String json(int i) {
+        return "{\"moIdentifier\":\"kot\",\"notificationIdentifier\":\"eric2g:" + i + "\"}";
+    }
+}
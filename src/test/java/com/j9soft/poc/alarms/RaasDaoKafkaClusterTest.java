@@ -0,0 +1,255 @@
+package com.j9soft.poc.alarms;
+
+import org.junit.*;
+import org.junit.runners.MethodSorters;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.j9soft.poc.alarms.RaasDaoKafkaTestConfiguration.EXISTING_ALARM;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.fail;
+
+/*
+ * Tests of nodes which split subpartitions between them. (i.e. with "kafka-cluster-group-id")
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class RaasDaoKafkaClusterTest {
+
+    private static final int PARTITIONS_COUNT = 4;
+    private static final int ALARMS_COUNT = 40;
+    private static final long REBALANCE_TIMEOUT_MS = 30_000;
+
+    private static final String CLUSTER_GROUP_ID = "raas-cluster-test";
+    private static final String NODE_A_URL = "http://node-a:8080";
+    private static final String NODE_B_URL = "http://node-b:8080";
+    private static final String NODE_C_URL = "http://node-c:8080";
+    private static final String NODE_D_URL = "http://node-d:8080";  // (i.e. not one of the cluster nodes)
+    private static final Set<String> CLUSTER_NODE_URLS = new HashSet<>(Arrays.asList(NODE_A_URL, NODE_B_URL, NODE_C_URL));
+
+    private static RaasDaoKafkaTestEmbeddedBroker embeddedBroker;
+
+    private static RaasDaoKafkaTestConfiguration testConfig;
+    private static RaasDaoKafka nodeA;
+    private static RaasDaoKafka nodeB;
+    private static RaasDaoKafka nodeC;
+
+    @BeforeClass
+    public static void init() throws IOException {
+
+        // Start an embedded Kafka Server
+        //
+        embeddedBroker = new RaasDaoKafkaTestEmbeddedBroker();
+        embeddedBroker.init();
+
+        // Connect to the embedded Kafka.
+        testConfig = new RaasDaoKafkaTestConfiguration();
+
+        embeddedBroker.createTopic(testConfig.getTopicName(), PARTITIONS_COUNT);
+    }
+
+    @AfterClass
+    public static void cleanup() {
+        testConfig.close();
+        embeddedBroker.close();
+    }
+
+    @Test
+    public void t1_whenTwoNodesAreStarted_thenEachSubpartitionIsServedByOneOfThem() throws InterruptedException {
+        nodeA = testConfig.getDao(createStrategy(), CLUSTER_GROUP_ID, NODE_A_URL, CLUSTER_NODE_URLS);
+        nodeB = testConfig.getDao(createStrategy(), CLUSTER_GROUP_ID, NODE_B_URL, CLUSTER_NODE_URLS);
+        awaitOwners(Arrays.asList(nodeA, nodeB), Arrays.asList(NODE_A_URL, NODE_B_URL));
+
+        for (int i = 0; i < ALARMS_COUNT; i++) {
+            nodeA.createOrUpdateAlarm(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName, "eric2g:" + i, EXISTING_ALARM.json);
+        }
+
+        // We expect that both nodes serve some subpartitions and that every alarm is returned by an owner.
+        //
+        Set<String> returnedAlarms = new HashSet<>();
+        int subpartitionsOfNodeA = 0;
+        for (int subpartition = 0; subpartition < PARTITIONS_COUNT; subpartition++) {
+            String subpartitionName = String.valueOf(subpartition);
+            RaasDaoKafka owner = isOwner(nodeA, subpartitionName) ? nodeA : nodeB;
+            RaasDaoKafka other = (owner == nodeA) ? nodeB : nodeA;
+            subpartitionsOfNodeA += (owner == nodeA) ? 1 : 0;
+
+            returnedAlarms.addAll(Arrays.asList(queryAlarms(owner, subpartitionName).alarmNotificationIdentifiers));
+
+            // We expect that the other node tells who the owner is.
+            //
+            try {
+                queryAlarms(other, subpartitionName);
+                fail("SubpartitionNotOwnedException expected");
+            } catch (SubpartitionNotOwnedException e) {
+                assertThat(e.getOwnerUrl(), is(owner == nodeA ? NODE_A_URL : NODE_B_URL));
+            }
+        }
+        assertThat(subpartitionsOfNodeA, is(both(greaterThan(0)).and(lessThan(PARTITIONS_COUNT))));
+        assertThat(returnedAlarms.size(), is(ALARMS_COUNT));
+    }
+
+    @Test
+    public void t2_whenNodeIsClosed_thenItsSubpartitionsAreServedByTheOtherOne() throws InterruptedException {
+        testConfig.closeDao(nodeB);
+        awaitOwners(Collections.singletonList(nodeA), Collections.singletonList(NODE_A_URL));
+
+        // We expect that the moved subpartitions were loaded by the remaining node.
+        //
+        Set<String> returnedAlarms = new HashSet<>();
+        for (int subpartition = 0; subpartition < PARTITIONS_COUNT; subpartition++) {
+            returnedAlarms.addAll(Arrays.asList(queryAlarms(nodeA, String.valueOf(subpartition)).alarmNotificationIdentifiers));
+        }
+        assertThat(returnedAlarms.size(), is(ALARMS_COUNT));
+    }
+
+    @Test
+    public void t3_whenSubpartitionIsMoved_thenRequestsWaitingForItFail() throws Exception {
+        // Wait for changes of every subpartition. (for alarms of an adapter with a view and of one without it)
+        //
+        List<CompletableFuture<RawAlarmsPack>> waitingForViews = new ArrayList<>();
+        List<CompletableFuture<RawAlarmsPack>> waitingForNewViews = new ArrayList<>();
+        for (int subpartition = 0; subpartition < PARTITIONS_COUNT; subpartition++) {
+            String subpartitionName = String.valueOf(subpartition);
+            String tag = null;
+            RawAlarmsPack pack;
+            do {  // (The last pack provides a tag of the end.)
+                pack = nodeA.awaitAlarms(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName, subpartitionName,
+                        tag, ALARMS_COUNT, 0).get(5, TimeUnit.SECONDS);
+                tag = pack.tagOfTheNextAvailableAlarm;
+            } while (pack.alarmNotificationIdentifiers.length > 0);
+            waitingForViews.add(nodeA.awaitAlarms(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName, subpartitionName,
+                    tag, ALARMS_COUNT, 60_000));
+            waitingForNewViews.add(nodeA.awaitAlarms(EXISTING_ALARM.domain, "WaitingNewAdapter", subpartitionName,
+                    null, ALARMS_COUNT, 60_000));
+        }
+
+        nodeC = testConfig.getDao(createStrategy(), CLUSTER_GROUP_ID, NODE_C_URL, CLUSTER_NODE_URLS);
+        awaitOwners(Arrays.asList(nodeA, nodeC), Arrays.asList(NODE_A_URL, NODE_C_URL));
+
+        // We expect that requests of the moved subpartitions fail at once. (i.e. long before their wait timeout)
+        //
+        for (int subpartition = 0; subpartition < PARTITIONS_COUNT; subpartition++) {
+            if (!isOwner(nodeA, String.valueOf(subpartition))) {
+                assertNotOwned(waitingForViews.get(subpartition));
+                assertNotOwned(waitingForNewViews.get(subpartition));
+            }
+        }
+    }
+
+    @Test
+    public void t4_whenMemberIsNotClusterNode_thenItIsNotTrustedAsOwner() throws InterruptedException {
+        testConfig.closeDao(nodeC);
+        Set<String> nodeUrlsWithD = new HashSet<>(CLUSTER_NODE_URLS);
+        nodeUrlsWithD.add(NODE_D_URL);
+        RaasDaoKafka nodeD = testConfig.getDao(createStrategy(), CLUSTER_GROUP_ID, NODE_D_URL, nodeUrlsWithD);
+
+        // Wait until both nodes serve some subpartitions and the other node knows the owners of those of node A.
+        //
+        long deadline = System.currentTimeMillis() + REBALANCE_TIMEOUT_MS;
+        while (true) {
+            boolean rebalanced = true;
+            int subpartitionsOfNodeD = 0;
+            for (int subpartition = 0; subpartition < PARTITIONS_COUNT; subpartition++) {
+                String subpartitionName = String.valueOf(subpartition);
+                if (isOwner(nodeD, subpartitionName)) {
+                    subpartitionsOfNodeD++;
+                    rebalanced &= getOwnerUrl(nodeA, subpartitionName, "unknown") != null;
+                } else {
+                    rebalanced &= NODE_A_URL.equals(getOwnerUrl(nodeD, subpartitionName, "unknown"));
+                }
+            }
+            if (rebalanced && subpartitionsOfNodeD > 0 && nodeD.isCaughtUp()) {
+                break;
+            }
+            assertThat("Nodes not rebalanced in time", System.currentTimeMillis(), lessThan(deadline));
+            Thread.sleep(100);
+        }
+        Thread.sleep(200);  // (i.e. longer than the owners refresh interval)
+
+        // We expect that node A does not send anybody to the unknown node.
+        //
+        for (int subpartition = 0; subpartition < PARTITIONS_COUNT; subpartition++) {
+            String subpartitionName = String.valueOf(subpartition);
+            if (isOwner(nodeD, subpartitionName)) {
+                assertThat(getOwnerUrl(nodeA, subpartitionName, "unknown"), is("unknown"));
+            }
+        }
+    }
+
+    private static void assertNotOwned(CompletableFuture<RawAlarmsPack> waiting) throws InterruptedException, TimeoutException {
+        try {
+            waiting.get(5, TimeUnit.SECONDS);
+            fail("SubpartitionNotOwnedException expected");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(SubpartitionNotOwnedException.class));
+        }
+    }
+
+    private static SubpartitionAssignmentStrategy createStrategy() {
+        // (Alarms of the adapter are spread over all partitions.)
+        return new HashingSubpartitionAssignmentStrategy(PARTITIONS_COUNT, PARTITIONS_COUNT, Collections.emptyMap());
+    }
+
+    private static RawAlarmsPack queryAlarms(RaasDao kafkaDao, String subpartitionName) {
+        return kafkaDao.queryAlarms(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName, subpartitionName, null, ALARMS_COUNT);
+    }
+
+    private static boolean isOwner(RaasDao kafkaDao, String subpartitionName) {
+        return getOwnerUrl(kafkaDao, subpartitionName, null) == null;
+    }
+
+    /*
+     * Returns the owner known by the node. (null if it is the node itself)
+     */
+    private static String getOwnerUrl(RaasDao kafkaDao, String subpartitionName, String unknownOwner) {
+        try {
+            kafkaDao.checkSubpartitionOwned(subpartitionName);
+            return null;
+        } catch (SubpartitionNotOwnedException e) {
+            return e.getOwnerUrl() != null ? e.getOwnerUrl() : unknownOwner;
+        }
+    }
+
+    /*
+     * Waits until every subpartition is served by exactly one of the nodes, every node serves some and other nodes
+     * know the owners. (i.e. until all nodes joined the group and it is rebalanced)
+     */
+    private static void awaitOwners(List<RaasDaoKafka> nodes, List<String> nodeUrls) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + REBALANCE_TIMEOUT_MS;
+        while (true) {
+            boolean rebalanced = true;
+            int[] subpartitionsCounts = new int[nodes.size()];
+            for (int subpartition = 0; subpartition < PARTITIONS_COUNT; subpartition++) {
+                Set<String> ownerUrls = new HashSet<>();
+                for (int i = 0; i < nodes.size(); i++) {
+                    String ownerUrl = getOwnerUrl(nodes.get(i), String.valueOf(subpartition), "unknown");
+                    if (ownerUrl == null) {
+                        subpartitionsCounts[i]++;
+                        ownerUrl = nodeUrls.get(i);
+                    }
+                    ownerUrls.add(ownerUrl);
+                }
+                rebalanced &= (ownerUrls.size() == 1) && nodeUrls.containsAll(ownerUrls);
+            }
+            for (int i = 0; i < nodes.size(); i++) {
+                rebalanced &= (subpartitionsCounts[i] > 0) && nodes.get(i).isCaughtUp();
+            }
+            if (rebalanced) {
+                return;
+            }
+            assertThat("Nodes not rebalanced in time", System.currentTimeMillis(), lessThan(deadline));
+            Thread.sleep(100);
+        }
+    }
+}
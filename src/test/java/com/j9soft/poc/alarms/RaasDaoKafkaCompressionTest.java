@@ -0,0 +1,161 @@
+package com.j9soft.poc.alarms;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.junit.*;
+import org.junit.runners.MethodSorters;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static com.j9soft.poc.alarms.RaasDaoKafkaTestConfiguration.EXISTING_ALARM;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/*
+ * Tests of alarm values compressed with dictionaries. (i.e. with "kafka-value-codec=deflate-dictionary")
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class RaasDaoKafkaCompressionTest {
+
+    private static final int SAMPLE_SIZE = 5;
+    private static final int ALARMS_COUNT = 30;
+
+    private static RaasDaoKafkaTestEmbeddedBroker embeddedBroker;
+
+    private static RaasDaoKafkaTestConfiguration testConfig;
+
+    @BeforeClass
+    public static void init() throws IOException {
+
+        // Start an embedded Kafka Server
+        //
+        embeddedBroker = new RaasDaoKafkaTestEmbeddedBroker();
+        embeddedBroker.init();
+
+        // Connect to the embedded Kafka.
+        testConfig = new RaasDaoKafkaTestConfiguration();
+
+        embeddedBroker.createTopic(testConfig.getTopicName());
+    }
+
+    @AfterClass
+    public static void cleanup() {
+        testConfig.close();
+        embeddedBroker.close();
+    }
+
+    @Test
+    public void t1_whenCreatedManyAlarms_thenReturnTheirValuesDecoded() {
+        RaasDao kafkaDao = testConfig.getDao(new DictionaryValueCodec(DictionaryValueCodec.CODEC_DEFLATE_DICTIONARY, SAMPLE_SIZE));
+
+        for (int i = 0; i < ALARMS_COUNT; i++) {
+            kafkaDao.createOrUpdateAlarm(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName, "eric2g:" + i, json(i));
+        }
+
+        assertAllAlarmsReturned(kafkaDao);
+    }
+
+    @Test
+    public void t2_whenReadByAnotherNode_thenDecodeValuesWithDictionariesFromKafka() {
+        // (A new codec does not know any dictionary, so it has to read them from the partition.)
+        RaasDao kafkaDao = testConfig.getDao(new DictionaryValueCodec(DictionaryValueCodec.CODEC_NONE, SAMPLE_SIZE));
+
+        assertAllAlarmsReturned(kafkaDao);
+    }
+
+    @Test
+    public void t3_whenDictionaryWasSaved_thenNextValuesAreCompressedInKafka() {
+        int compressedCount = 0;
+        int dictionariesCount = 0;
+
+        try (KafkaConsumer<String, byte[]> consumer = testConfig.getClient().createConsumer("compressionTest")) {
+            List<TopicPartition> partitions = new ArrayList<>();
+            for (PartitionInfo partitionInfo : consumer.partitionsFor(testConfig.getTopicName())) {
+                partitions.add(new TopicPartition(testConfig.getTopicName(), partitionInfo.partition()));
+            }
+            consumer.assign(partitions);
+            consumer.seekToBeginning(partitions);
+            Map<TopicPartition, Long> endOffsets = consumer.endOffsets(partitions);
+
+            while (partitions.stream().anyMatch(partition -> consumer.position(partition) < endOffsets.get(partition))) {
+                for (ConsumerRecord<String, byte[]> record : consumer.poll(Duration.ofMillis(100))) {
+                    if (record.headers().lastHeader(DictionaryValueCodec.HEADER_DICTIONARY) != null) {
+                        assertThat(record.value().length, lessThan(json(0).length()));
+                        compressedCount++;
+                    } else if (record.headers().lastHeader(DictionaryValueCodec.HEADER_CODEC) != null) {
+                        dictionariesCount++;
+                    }
+                }
+            }
+        }
+
+        // We expect that values are compressed as soon as the dictionary is trained from the sample and saved.
+        // (The value which completed the sample is saved uncompressed, because it is sent before its dictionary is acknowledged.)
+        //
+        assertThat(dictionariesCount, is(1));
+        assertThat(compressedCount, is(ALARMS_COUNT - SAMPLE_SIZE));
+    }
+
+    @Test
+    public void t4_whenRecordCannotBeDecoded_thenSubpartitionIsNotServed() throws Exception {
+        RaasDao kafkaDao = testConfig.getDao(new DictionaryValueCodec(DictionaryValueCodec.CODEC_NONE, SAMPLE_SIZE));
+        String subpartitionName = kafkaDao.getSubpartitions(
+                new RawAlarmsPartitionDefinition(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName))[0];
+
+        // A value compressed with a dictionary which was never saved. (The alarm after it must not be served without it.)
+        //
+        List<Header> headers = Arrays.asList(
+                new RecordHeader(RaasDaoKafka.HEADER_DOMAIN, EXISTING_ALARM.domain.getBytes(StandardCharsets.UTF_8)),
+                new RecordHeader(RaasDaoKafka.HEADER_ADAPTER_NAME, EXISTING_ALARM.adapterName.getBytes(StandardCharsets.UTF_8)),
+                new RecordHeader(DictionaryValueCodec.HEADER_CODEC,
+                        DictionaryValueCodec.CODEC_DEFLATE_DICTIONARY.getBytes(StandardCharsets.UTF_8)),
+                new RecordHeader(DictionaryValueCodec.HEADER_DICTIONARY, "0123456789abcdef".getBytes(StandardCharsets.UTF_8)));
+        testConfig.getClient().getProducer().send(new ProducerRecord<>(testConfig.getTopicName(), Integer.parseInt(subpartitionName),
+                "eric2g:unknown", new byte[]{1, 2, 3}, headers)).get();
+        kafkaDao.createOrUpdateAlarm(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName, "eric2g:after", json(0));
+
+        try {
+            kafkaDao.queryAlarms(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName, subpartitionName, null, ALARMS_COUNT + 2);
+            throw new AssertionError("Exception expected");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), containsString("cannot be decoded"));
+        }
+        assertThat(((RaasDaoKafka) kafkaDao).getFailedSubpartitions().keySet(), contains(Integer.parseInt(subpartitionName)));
+    }
+
+    @Test(expected = InvalidRequestException.class)
+    public void t5_whenAlarmHasKeyOfDictionary_thenItIsRejected() {
+        RaasDao kafkaDao = testConfig.getDao(new DictionaryValueCodec(DictionaryValueCodec.CODEC_NONE, SAMPLE_SIZE));
+
+        kafkaDao.removeAlarm(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName, DictionaryValueCodec.DICTIONARY_KEY_PREFIX + "0123");
+    }
+
+    private static void assertAllAlarmsReturned(RaasDao kafkaDao) {
+        String[] subpartitionNames = kafkaDao.getSubpartitions(
+                new RawAlarmsPartitionDefinition(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName));
+        RawAlarmsPack pack = kafkaDao.queryAlarms(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName,
+                subpartitionNames[0], null, ALARMS_COUNT + 1);
+
+        assertThat(pack.alarmNotificationIdentifiers.length, is(ALARMS_COUNT));
+        for (int i = 0; i < ALARMS_COUNT; i++) {
+            assertThat(pack.alarmNotificationIdentifiers[i], is("eric2g:" + i));
+            assertThat(new String(pack.alarmValues[i], StandardCharsets.UTF_8), is(json(i)));
+        }
+    }
+
+    private static String json(int i) {
+        return "{\"moIdentifier\":\"kot\",\"notificationIdentifier\":\"eric2g:" + i
+                + "\",\"perceivedSeverity\":\"CRITICAL\",\"probableCause\":\"LINK_FAILURE\",\"specificProblem\":\"Link " + i + " down\"}";
+    }
+}
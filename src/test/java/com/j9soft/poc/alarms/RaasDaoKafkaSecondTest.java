@@ -47,4 +47,9 @@ public class RaasDaoKafkaSecondTest {
         scenarios.t6_whenGetTwoAlarms_thenProvideTagOfNextAlarm();
     }
 
+    @Test
+    public void t7_whenRemovedAfterTheFirstPack_thenProvideNullInTheNextPack() {
+        scenarios.t7_whenRemovedAfterTheFirstPack_thenProvideNullInTheNextPack();
+    }
+
 }
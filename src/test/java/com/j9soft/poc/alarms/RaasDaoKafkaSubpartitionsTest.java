@@ -0,0 +1,148 @@
+package com.j9soft.poc.alarms;
+
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.junit.*;
+import org.junit.runners.MethodSorters;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static com.j9soft.poc.alarms.RaasDaoKafkaTestConfiguration.EXISTING_ALARM;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/*
+ * Tests of a topic with many partitions. (i.e. of alarms of an adapter kept in many subpartitions)
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class RaasDaoKafkaSubpartitionsTest {
+
+    private static final int PARTITIONS_COUNT = 4;
+    private static final int SUBPARTITIONS_PER_ADAPTER = 2;
+
+    private static RaasDaoKafkaTestEmbeddedBroker embeddedBroker;
+
+    private static RaasDaoKafkaTestConfiguration testConfig;
+    protected RaasDao kafkaDao;
+
+    @BeforeClass
+    public static void init() throws IOException {
+
+        // Start an embedded Kafka Server
+        //
+        embeddedBroker = new RaasDaoKafkaTestEmbeddedBroker();
+        embeddedBroker.init();
+
+        // Connect to the embedded Kafka.
+        testConfig = new RaasDaoKafkaTestConfiguration();
+
+        embeddedBroker.createTopic(testConfig.getTopicName(), PARTITIONS_COUNT);
+    }
+
+    @AfterClass
+    public static void cleanup() {
+        testConfig.close();
+        embeddedBroker.close();
+    }
+
+    @Before
+    public void initDao() {
+        // Create bean to be tested.
+        kafkaDao = testConfig.getDao(new HashingSubpartitionAssignmentStrategy(testConfig.getPartitionsCount(),
+                SUBPARTITIONS_PER_ADAPTER, Collections.emptyMap()));
+    }
+
+    @Test
+    public void t1_whenCreatedManyAlarms_thenSpreadThemOverSubpartitions() {
+
+        // Create alarms.
+        //
+        final int alarmsCount = 40;
+        for (int i = 0; i < alarmsCount; i++) {
+            kafkaDao.createOrUpdateAlarm(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName,
+                    "eric2g:" + i, EXISTING_ALARM.json);
+        }
+
+        // We expect that the adapter has two subpartitions.
+        //
+        String[] subpartitionNames = kafkaDao.getSubpartitions(
+                new RawAlarmsPartitionDefinition(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName));
+        assertThat(subpartitionNames.length, is(SUBPARTITIONS_PER_ADAPTER));
+
+        // We expect that every alarm is returned from exactly one subpartition.
+        //
+        Set<String> returnedAlarms = new HashSet<>();
+        for (String subpartitionName : subpartitionNames) {
+            RawAlarmsPack pack = kafkaDao.queryAlarms(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName,
+                    subpartitionName, null, alarmsCount);
+
+            assertThat(pack.alarmNotificationIdentifiers.length, is(both(greaterThan(0)).and(lessThan(alarmsCount))));
+            for (String notificationIdentifier : pack.alarmNotificationIdentifiers) {
+                assertThat(returnedAlarms.add(notificationIdentifier), is(true));
+            }
+        }
+        assertThat(returnedAlarms.size(), is(alarmsCount));
+    }
+
+    @Test
+    public void t2_whenQueriedAllSubpartitions_thenReturnAllAlarmsInPacks() {
+        RawAlarmsSubpartitionsFanOut fanOut = new RawAlarmsSubpartitionsFanOut(SUBPARTITIONS_PER_ADAPTER, 10);
+        RawAlarmsPartitionDefinition partitionDefinition =
+                new RawAlarmsPartitionDefinition(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName);
+
+        // Let's read all packs. (alarms were created by t1)
+        //
+        Set<String> returnedAlarms = new HashSet<>();
+        String tag = null;
+        int packsCount = 0;
+        do {
+            RawAlarmsPack pack = fanOut.queryAlarms(kafkaDao, partitionDefinition, tag, 5);
+            returnedAlarms.addAll(Arrays.asList(pack.alarmNotificationIdentifiers));
+            tag = pack.tagOfTheNextAvailableAlarm;
+            packsCount++;
+        } while (tag != null);
+        fanOut.close();
+
+        // We expect all alarms. (and up to 5 alarms from each subpartition in a pack)
+        //
+        assertThat(returnedAlarms.size(), is(40));
+        assertThat(packsCount, is(greaterThanOrEqualTo(40 / (5 * SUBPARTITIONS_PER_ADAPTER))));
+    }
+
+    @Test
+    public void t3_whenRecordsWithoutHeadersAreRead_thenTheyAreAlarmsOfLegacyAdapter() throws Exception {
+        RawAlarmsPartitionDefinition legacyAdapter = new RawAlarmsPartitionDefinition("old", "LegacyAdapter");
+
+        // Let's save alarms the way they were saved before subpartitions. (i.e. without headers, by the default partitioner)
+        //
+        for (int i = 0; i < 10; i++) {
+            testConfig.getClient().getProducer().send(new ProducerRecord<>(testConfig.getTopicName(), "legacy:" + i,
+                    EXISTING_ALARM.json.getBytes(StandardCharsets.UTF_8))).get();
+        }
+        RaasDao legacyDao = testConfig.getDao(new HashingSubpartitionAssignmentStrategy(testConfig.getPartitionsCount(),
+                SUBPARTITIONS_PER_ADAPTER, Collections.emptyMap(), legacyAdapter));
+
+        // A new value of a legacy alarm is saved in the same partition. (i.e. it replaces the old one)
+        legacyDao.createOrUpdateAlarm(legacyAdapter.getDomain(), legacyAdapter.getAdapterName(), "legacy:0", "{\"new\":1}");
+
+        // We expect that the legacy alarms are returned once from the subpartitions of the legacy adapter.
+        //
+        Map<String, String> returnedAlarms = new HashMap<>();
+        for (String subpartitionName : legacyDao.getSubpartitions(legacyAdapter)) {
+            RawAlarmsPack pack = legacyDao.queryAlarms(legacyAdapter.getDomain(), legacyAdapter.getAdapterName(),
+                    subpartitionName, null, 100);
+            for (int i = 0; i < pack.alarmNotificationIdentifiers.length; i++) {
+                assertThat(returnedAlarms.put(pack.alarmNotificationIdentifiers[i],
+                        new String(pack.alarmValues[i], StandardCharsets.UTF_8)), is(nullValue()));
+            }
+        }
+        assertThat(returnedAlarms.size(), is(10));
+        assertThat(returnedAlarms.get("legacy:0"), is("{\"new\":1}"));
+    }
+}
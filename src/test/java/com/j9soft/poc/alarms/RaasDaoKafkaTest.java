@@ -74,4 +74,53 @@ public class RaasDaoKafkaTest {
         scenarios.t5_whenPutThreeAlarms_thenKeepTheirOrder();
     }
 
+    @Test
+    public void t8_whenQueriedConcurrently_thenReturnTheSameAlarms() throws Exception {
+        scenarios.t8_whenQueriedConcurrently_thenReturnTheSameAlarms();
+    }
+
+    @Test
+    public void t9_whenCreatedAlarmsAsynchronously_thenReturnThemWhenSaved() throws Exception {
+        scenarios.t9_whenCreatedAlarmsAsynchronously_thenReturnThemWhenSaved();
+    }
+
+    @Test
+    public void t10_whenSavedBatchOfAlarms_thenApplyAllChanges() throws Exception {
+        scenarios.t10_whenSavedBatchOfAlarms_thenApplyAllChanges();
+    }
+
+    @Test
+    public void t11_whenAnotherAdapterCreatedAlarm_thenDoNotReturnIt() {
+        scenarios.t11_whenAnotherAdapterCreatedAlarm_thenDoNotReturnIt();
+    }
+
+    @Test
+    public void t13_whenPatchedConcurrently_thenKeepAllAttributes() throws Exception {
+        scenarios.t13_whenPatchedConcurrently_thenKeepAllAttributes();
+    }
+
+    @Test
+    public void t14_whenStreamed_thenReturnTheSameAlarmsAsQueried() throws Exception {
+        scenarios.t14_whenStreamed_thenReturnTheSameAlarmsAsQueried();
+    }
+
+    @Test
+    public void t15_whenWaitingForChanges_thenReturnThemAsSoonAsSaved() throws Exception {
+        scenarios.t15_whenWaitingForChanges_thenReturnThemAsSoonAsSaved();
+    }
+
+    @Test
+    public void t16_whenSubscribed_thenReplayAlarmsAndPushChanges() throws Exception {
+        scenarios.t16_whenSubscribed_thenReplayAlarmsAndPushChanges();
+    }
+
+    @Test
+    public void t18_whenWaitingForAlarmsOfNewAdapter_thenReturnThemAsSoonAsSaved() throws Exception {
+        scenarios.t18_whenWaitingForAlarmsOfNewAdapter_thenReturnThemAsSoonAsSaved();
+    }
+
+    @Test(expected = InvalidRequestException.class)
+    public void t19_whenSubpartitionNameIsMalformed_thenItIsRejected() {
+        kafkaDao.queryAlarms("CAdev", "AdapterTest", "first", null, 100);
+    }
 }
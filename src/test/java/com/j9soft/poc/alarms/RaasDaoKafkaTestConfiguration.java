@@ -1,5 +1,12 @@
 package com.j9soft.poc.alarms;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
 
 public class RaasDaoKafkaTestConfiguration {
 
@@ -22,6 +29,7 @@ public class RaasDaoKafkaTestConfiguration {
 
 
     private KafkaConnector client;
+    private List<RaasDaoKafka> daos = new ArrayList<>();
 
     public RaasDaoKafkaTestConfiguration() {
         client = new KafkaConnector();
@@ -29,7 +37,52 @@ public class RaasDaoKafkaTestConfiguration {
     }
 
     public RaasDao getDao() {
-        return new RaasDaoKafka(client);
+        RaasDaoKafka dao = new RaasDaoKafka(client);
+        daos.add(dao);  // (we need to close it)
+        return dao;
+    }
+
+    public RaasDao getDao(SubpartitionAssignmentStrategy subpartitionAssignmentStrategy) {
+        RaasDaoKafka dao = new RaasDaoKafka(client, subpartitionAssignmentStrategy, 30_000, 3_600_000, 64,
+                new DictionaryValueCodec(DictionaryValueCodec.CODEC_NONE, 100), null, new SimpleMeterRegistry());
+        daos.add(dao);
+        return dao;
+    }
+
+    public RaasDao getDao(DictionaryValueCodec valueCodec) {
+        RaasDaoKafka dao = new RaasDaoKafka(client, new HashingSubpartitionAssignmentStrategy(client.getPartitionsCount(), 1, Collections.emptyMap()),
+                30_000, 3_600_000, 64, valueCodec, null, new SimpleMeterRegistry());
+        daos.add(dao);
+        return dao;
+    }
+
+    RaasDaoKafka getDao(KafkaViewsCheckpoint checkpoint, MeterRegistry meterRegistry) {
+        RaasDaoKafka dao = new RaasDaoKafka(client, new HashingSubpartitionAssignmentStrategy(client.getPartitionsCount(), 1, Collections.emptyMap()),
+                30_000, 3_600_000, 64, new DictionaryValueCodec(DictionaryValueCodec.CODEC_NONE, 100), checkpoint, meterRegistry);
+        daos.add(dao);
+        return dao;
+    }
+
+    RaasDaoKafka getDao(SubpartitionAssignmentStrategy subpartitionAssignmentStrategy, String clusterGroupId, String nodeUrl,
+                        Set<String> clusterNodeUrls) {
+        RaasDaoKafka dao = new RaasDaoKafka(client, subpartitionAssignmentStrategy, 30_000, 3_600_000, 64,
+                new DictionaryValueCodec(DictionaryValueCodec.CODEC_NONE, 100), null, clusterGroupId, nodeUrl, clusterNodeUrls, 100,
+                new SimpleMeterRegistry());
+        daos.add(dao);
+        return dao;
+    }
+
+    void closeDao(RaasDaoKafka dao) {
+        daos.remove(dao);
+        dao.close();
+    }
+
+    KafkaConnector getClient() {
+        return client;
+    }
+
+    public int getPartitionsCount() {
+        return client.getPartitionsCount();
     }
 
     public String getTopicName() {
@@ -37,6 +90,7 @@ public class RaasDaoKafkaTestConfiguration {
     }
 
     public void close() {
+        daos.forEach(RaasDaoKafka::close);
         client.close();
     }
 }
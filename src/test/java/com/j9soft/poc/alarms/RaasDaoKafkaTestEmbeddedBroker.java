@@ -40,12 +40,17 @@ public class RaasDaoKafkaTestEmbeddedBroker {
         brokerProps.setProperty("log.dirs", Files.createTempDirectory("kafka-").toAbsolutePath().toString());
         brokerProps.setProperty("listeners", "PLAINTEXT://" + BROKERHOST + ":" + BROKERPORT);
         brokerProps.setProperty("offsets.topic.replication.factor", "1");
+        brokerProps.setProperty("group.initial.rebalance.delay.ms", "0");
         KafkaConfig config = new KafkaConfig(brokerProps);
         Time mock = new MockTime();
         kafkaServer = TestUtils.createServer(config, mock);
     }
 
     public void createTopic(String topicName) {
+        createTopic(topicName, 1);
+    }
+
+    public void createTopic(String topicName, int partitions) {
 
         // Create topic.
         //
@@ -62,7 +67,6 @@ public class RaasDaoKafkaTestEmbeddedBroker {
 
         AdminZkClient adminZkClient = new AdminZkClient(zkClient);
 
-        int partitions = 1;
         int replication = 1;
         Properties topicConfig = new Properties();
 
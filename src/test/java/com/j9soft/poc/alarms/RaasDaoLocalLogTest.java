@@ -0,0 +1,181 @@
+package com.j9soft.poc.alarms;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runners.MethodSorters;
+
+import java.io.File;
+import java.io.IOException;
+
+import static com.j9soft.poc.alarms.RaasDaoKafkaTestConfiguration.EXISTING_ALARM;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class RaasDaoLocalLogTest {
+
+    // (Small segments, so that they are rolled and compacted by the tests.)
+    private static final int SEGMENT_SIZE = 4096;
+
+    @ClassRule
+    public static TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static File directory;
+    private static RaasDaoLocalLog dao;
+    private static RaasDaoTestScenarios scenarios;
+
+    @BeforeClass
+    public static void initDao() throws IOException {
+        directory = temporaryFolder.newFolder();
+        dao = createDao(directory);
+        scenarios = new RaasDaoTestScenarios(dao);
+    }
+
+    @AfterClass
+    public static void cleanup() {
+        dao.close();
+    }
+
+    @Test
+    public void t1_whenCreatedANewAlarm_thenReturnIt() {
+        scenarios.t1_whenCreatedANewAlarm_thenReturnIt();
+    }
+
+    @Test
+    public void t2_whenAlarmExists_thenDataShouldSurviveRestart() {
+        // Stop. (i.e. the views are lost)
+        dao.close();
+        // Start again in the same directory.  (do not create test data again !)
+        dao = createDao(directory);
+        scenarios = new RaasDaoTestScenarios(dao);
+
+        scenarios.t2_whenAlarmExists_thenShouldBeReturned();
+    }
+
+    @Test
+    public void t3_whenUpsertingAnExistingAlarm_thenUpdateIt() {
+        scenarios.t3_whenUpsertingAnExistingAlarm_thenUpdateIt();
+    }
+
+    @Test
+    public void t4_whenRemovedAnExistingAlarm_thenCreateIt() {
+        scenarios.t4_whenRemovedAnExistingAlarm_thenCreateIt();
+    }
+
+    @Test
+    public void t5_whenPutThreeAlarms_thenKeepTheirOrder() {
+        scenarios.t5_whenPutThreeAlarms_thenKeepTheirOrder();
+    }
+
+    @Test
+    public void t6_whenGetTwoAlarms_thenProvideTagOfNextAlarm() throws IOException {
+        // (This test needs an empty Dao.)
+        RaasDaoLocalLog emptyDao = createDao(temporaryFolder.newFolder());
+        RaasDaoTestScenarios emptyDaoScenarios = new RaasDaoTestScenarios(emptyDao);
+
+        emptyDaoScenarios.t6_whenGetTwoAlarms_thenProvideTagOfNextAlarm();
+        emptyDaoScenarios.t7_whenRemovedAfterTheFirstPack_thenProvideNullInTheNextPack();
+        emptyDao.close();
+    }
+
+    @Test
+    public void t8_whenQueriedConcurrently_thenReturnTheSameAlarms() throws Exception {
+        scenarios.t8_whenQueriedConcurrently_thenReturnTheSameAlarms();
+    }
+
+    @Test
+    public void t9_whenCreatedAlarmsAsynchronously_thenReturnThemWhenSaved() throws Exception {
+        scenarios.t9_whenCreatedAlarmsAsynchronously_thenReturnThemWhenSaved();
+    }
+
+    @Test
+    public void t10_whenSavedBatchOfAlarms_thenApplyAllChanges() throws Exception {
+        scenarios.t10_whenSavedBatchOfAlarms_thenApplyAllChanges();
+    }
+
+    @Test
+    public void t11_whenAnotherAdapterCreatedAlarm_thenDoNotReturnIt() {
+        scenarios.t11_whenAnotherAdapterCreatedAlarm_thenDoNotReturnIt();
+    }
+
+    @Test
+    public void t12_whenUpdatedWhileQueried_thenReturnEveryAlarmOnce() throws Exception {
+        scenarios.t12_whenUpdatedWhileQueried_thenReturnEveryAlarmOnce();
+    }
+
+    @Test
+    public void t13_whenPatchedConcurrently_thenKeepAllAttributes() throws Exception {
+        scenarios.t13_whenPatchedConcurrently_thenKeepAllAttributes();
+    }
+
+    @Test
+    public void t14_whenStreamed_thenReturnTheSameAlarmsAsQueried() throws Exception {
+        scenarios.t14_whenStreamed_thenReturnTheSameAlarmsAsQueried();
+    }
+
+    @Test
+    public void t15_whenWaitingForChanges_thenReturnThemAsSoonAsSaved() throws Exception {
+        scenarios.t15_whenWaitingForChanges_thenReturnThemAsSoonAsSaved();
+    }
+
+    @Test
+    public void t16_whenSubscribed_thenReplayAlarmsAndPushChanges() throws Exception {
+        scenarios.t16_whenSubscribed_thenReplayAlarmsAndPushChanges();
+    }
+
+    @Test
+    public void t18_whenWaitingForAlarmsOfNewAdapter_thenReturnThemAsSoonAsSaved() throws Exception {
+        scenarios.t18_whenWaitingForAlarmsOfNewAdapter_thenReturnThemAsSoonAsSaved();
+    }
+
+    @Test
+    public void t17_whenCompacted_thenKeepTheSameAlarmsAfterRestart() {
+        // Let's update one alarm many times. (i.e. most of the log is superseded)
+        //
+        for (int i = 0; i < 500; i++) {
+            dao.createOrUpdateAlarm(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName, "compacted:" + (i % 5), EXISTING_ALARM.json);
+        }
+        RawAlarmsPack expected = dao.queryAlarms(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName, "0", null, 1000);
+        String expectedEndTag = awaitEndTag();
+        long sizeBefore = getLogSize();
+
+        dao.compact();
+
+        // We expect that the log is smaller, but it contains the same alarms. (with the same tags)
+        //
+        assertThat(getLogSize(), lessThan(sizeBefore / 2));
+        dao.close();
+        dao = createDao(directory);
+        scenarios = new RaasDaoTestScenarios(dao);
+
+        RawAlarmsPack pack = dao.queryAlarms(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName, "0", null, 1000);
+        assertThat(pack.alarmNotificationIdentifiers, is(expected.alarmNotificationIdentifiers));
+        assertThat(pack.alarmValues, is(expected.alarmValues));
+        assertThat(awaitEndTag(), is(expectedEndTag));
+
+        // Remove them. (so that other tests are not affected)
+        for (int i = 0; i < 5; i++) {
+            dao.removeAlarm(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName, "compacted:" + i);
+        }
+    }
+
+    /*
+     * Returns a tag which points at the end of the subpartition. (i.e. at the next alarm to be saved)
+     */
+    private static String awaitEndTag() {
+        return dao.awaitAlarms(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName, "0", null, 1000, 0).join()
+                .tagOfTheNextAvailableAlarm;
+    }
+
+    private static RaasDaoLocalLog createDao(File directory) {
+        return new RaasDaoLocalLog(directory.getPath(), 1, 1, SEGMENT_SIZE, 0, 0, 3_600_000);
+    }
+
+    private static long getLogSize() {
+        long size = 0;
+        for (File file : new File(directory, "partition-0").listFiles()) {
+            size += file.length();
+        }
+        return size;
+    }
+}
@@ -2,6 +2,23 @@ package com.j9soft.poc.alarms;
 
 import org.junit.Assert;
 
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
 import static com.j9soft.poc.alarms.RaasDaoKafkaTestConfiguration.EXISTING_ALARM;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
@@ -29,7 +46,7 @@ public class RaasDaoTestScenarios {
         assertThat(pack.alarmNotificationIdentifiers.length, is(1));
         assertThat(pack.alarmNotificationIdentifiers[0], is(EXISTING_ALARM.notificationIdentifier));
         assertThat(pack.alarmValues.length, is(1));
-        assertThat(pack.alarmValues[0], is(EXISTING_ALARM.json));
+        assertThat(asString(pack.alarmValues[0]), is(EXISTING_ALARM.json));
     }
 
     public void t2_whenAlarmExists_thenShouldBeReturned() {
@@ -40,7 +57,7 @@ public class RaasDaoTestScenarios {
         assertThat(pack.alarmNotificationIdentifiers.length, is(1));
         assertThat(pack.alarmNotificationIdentifiers[0], is(EXISTING_ALARM.notificationIdentifier));
         assertThat(pack.alarmValues.length, is(1));
-        assertThat(pack.alarmValues[0], is(EXISTING_ALARM.json));
+        assertThat(asString(pack.alarmValues[0]), is(EXISTING_ALARM.json));
     }
 
     public void t3_whenUpsertingAnExistingAlarm_thenUpdateIt() {
@@ -56,7 +73,7 @@ public class RaasDaoTestScenarios {
         assertThat(pack.alarmNotificationIdentifiers.length, is(1));
         assertThat(pack.alarmNotificationIdentifiers[0], is(EXISTING_ALARM.notificationIdentifier));
         assertThat(pack.alarmValues.length, is(1));
-        assertThat(pack.alarmValues[0], is(newJson));
+        assertThat(asString(pack.alarmValues[0]), is(newJson));
     }
 
     public void t4_whenRemovedAnExistingAlarm_thenCreateIt() {
@@ -96,6 +113,337 @@ public class RaasDaoTestScenarios {
         Assert.assertArrayEquals(TEST_KEYS, pack.alarmNotificationIdentifiers );
     }
 
+    public void t8_whenQueriedConcurrently_thenReturnTheSameAlarms() throws Exception {
+
+        RawAlarmsPack expectedPack = dao.queryAlarms(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName,
+                "0", null, 5);
+
+        // Let's query from many threads at once.
+        //
+        final int threadsCount = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(threadsCount);
+        try {
+            List<Future<RawAlarmsPack>> packs = new ArrayList<>();
+            for (int i = 0; i < threadsCount * 4; i++) {
+                packs.add(executor.submit(() -> dao.queryAlarms(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName,
+                        "0", null, 5)));
+            }
+
+            // We expect that every query succeeded. (and that nobody got results of another query)
+            //
+            for (Future<RawAlarmsPack> pack : packs) {
+                Assert.assertArrayEquals(expectedPack.alarmNotificationIdentifiers, pack.get().alarmNotificationIdentifiers);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void t9_whenCreatedAlarmsAsynchronously_thenReturnThemWhenSaved() throws Exception {
+        final String[] keys = new String[]{"async:1", "async:2", "async:3", "async:4"};
+
+        // Create many alarms at once. (without waiting for each one)
+        //
+        List<CompletableFuture<Void>> savedAlarms = new ArrayList<>();
+        for (String key : keys) {
+            savedAlarms.add(dao.createOrUpdateAlarmAsync(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName,
+                    key, EXISTING_ALARM.json.getBytes(StandardCharsets.UTF_8)));
+        }
+        CompletableFuture.allOf(savedAlarms.toArray(new CompletableFuture[0])).get();
+
+        // We expect that all of them are returned. (because they are saved already)
+        //
+        RawAlarmsPack pack = dao.queryAlarms(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName,
+                "0", null, 100);
+        assertThat(Arrays.asList(pack.alarmNotificationIdentifiers), hasItems(keys));
+
+        // Remove them.
+        //
+        List<CompletableFuture<Void>> removedAlarms = new ArrayList<>();
+        for (String key : keys) {
+            removedAlarms.add(dao.removeAlarmAsync(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName, key));
+        }
+        CompletableFuture.allOf(removedAlarms.toArray(new CompletableFuture[0])).get();
+
+        pack = dao.queryAlarms(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName,
+                "0", null, 100);
+        assertThat(Arrays.asList(pack.alarmNotificationIdentifiers), not(hasItem(keys[0])));
+    }
+
+    public void t10_whenSavedBatchOfAlarms_thenApplyAllChanges() throws Exception {
+
+        // Let's be sure that an alarm exists.
+        dao.createOrUpdateAlarm(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName,
+                "batch:0", EXISTING_ALARM.json);
+
+        // Create two alarms and remove the existing one.
+        //
+        RawAlarmsBatch batch = new RawAlarmsBatch();
+        batch.alarmNotificationIdentifiers = new String[] {"batch:1", "batch:0", "batch:2"};
+        batch.alarmValues = new String[] {EXISTING_ALARM.json, null, EXISTING_ALARM.json};
+        dao.saveAlarmsBatchAsync(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName, batch).get();
+
+        // We expect that all changes are visible.
+        //
+        RawAlarmsPack pack = dao.queryAlarms(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName,
+                "0", null, 100);
+        assertThat(Arrays.asList(pack.alarmNotificationIdentifiers), hasItems("batch:1", "batch:2"));
+        assertThat(Arrays.asList(pack.alarmNotificationIdentifiers), not(hasItem("batch:0")));
+
+        // Remove them. (so that other tests are not affected)
+        //
+        batch.alarmValues = new String[] {null, null, null};
+        dao.saveAlarmsBatchAsync(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName, batch).get();
+    }
+
+    public void t11_whenAnotherAdapterCreatedAlarm_thenDoNotReturnIt() {
+        final String anotherAdapterName = EXISTING_ALARM.adapterName + "Another";
+
+        // Create an alarm with the same Notification Identifier in another adapter.
+        //
+        dao.createOrUpdateAlarm(EXISTING_ALARM.domain, anotherAdapterName,
+                "isolated:1", EXISTING_ALARM.json);
+
+        // We expect that it is not returned for our adapter.
+        //
+        for (String subpartitionName : dao.getSubpartitions(
+                new RawAlarmsPartitionDefinition(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName))) {
+            RawAlarmsPack pack = dao.queryAlarms(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName,
+                    subpartitionName, null, 100);
+            assertThat(Arrays.asList(pack.alarmNotificationIdentifiers), not(hasItem("isolated:1")));
+        }
+
+        // We expect that it is returned for another adapter.
+        //
+        boolean found = false;
+        for (String subpartitionName : dao.getSubpartitions(
+                new RawAlarmsPartitionDefinition(EXISTING_ALARM.domain, anotherAdapterName))) {
+            RawAlarmsPack pack = dao.queryAlarms(EXISTING_ALARM.domain, anotherAdapterName,
+                    subpartitionName, null, 100);
+            found |= Arrays.asList(pack.alarmNotificationIdentifiers).contains("isolated:1");
+        }
+        assertThat(found, is(true));
+
+        // Remove it. (so that other tests are not affected)
+        dao.removeAlarm(EXISTING_ALARM.domain, anotherAdapterName, "isolated:1");
+    }
+
+    public void t12_whenUpdatedWhileQueried_thenReturnEveryAlarmOnce() throws Exception {
+        final String[] keys = new String[]{"busy:1", "busy:2", "busy:3", "busy:4", "busy:5"};
+        for (String key : keys) {
+            dao.createOrUpdateAlarm(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName, key, EXISTING_ALARM.json);
+        }
+
+        // Keep updating alarms while they are queried.
+        //
+        AtomicBoolean stop = new AtomicBoolean(false);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<?> writer = executor.submit(() -> {
+            for (int i = 0; !stop.get(); i++) {
+                dao.createOrUpdateAlarm(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName,
+                        keys[i % keys.length], "{\"counter\":" + i + "}");
+            }
+        });
+        try {
+            for (int i = 0; i < 200; i++) {
+                RawAlarmsPack pack = dao.queryAlarms(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName,
+                        "0", null, 100);
+
+                // We expect that every alarm is in the pack exactly once.
+                List<String> notificationIdentifiers = Arrays.asList(pack.alarmNotificationIdentifiers);
+                assertThat(new HashSet<>(notificationIdentifiers).size(), is(notificationIdentifiers.size()));
+                assertThat(notificationIdentifiers, hasItems(keys));
+            }
+        } finally {
+            stop.set(true);
+            writer.get();
+            executor.shutdown();
+
+            // Remove them. (so that other tests are not affected, also when this one fails)
+            for (String key : keys) {
+                dao.removeAlarm(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName, key);
+            }
+        }
+    }
+
+    public void t13_whenPatchedConcurrently_thenKeepAllAttributes() throws Exception {
+        final String key = "patch:1";
+        final int patchesCount = 20;
+
+        // Patching of a not existing alarm creates it.
+        dao.patchAlarmAsync(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName,
+                key, "{\"perceivedSeverity\":\"1\",\"additionalText\":\"foo bar\"}".getBytes(StandardCharsets.UTF_8)).get();
+
+        // Patch different attributes of the same alarm concurrently.
+        //
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> patches = new ArrayList<>();
+            for (int i = 0; i < patchesCount; i++) {
+                String attributes = "{\"attribute" + i + "\":" + i + ",\"perceivedSeverity\":\"2\"}";
+                patches.add(executor.submit(() ->
+                        dao.patchAlarmAsync(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName,
+                                key, attributes.getBytes(StandardCharsets.UTF_8)).get()));
+            }
+            for (Future<?> patch : patches) {
+                patch.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // We expect that no attribute is lost.
+        //
+        String value = null;
+        for (String subpartitionName : dao.getSubpartitions(
+                new RawAlarmsPartitionDefinition(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName))) {
+            RawAlarmsPack pack = dao.queryAlarms(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName,
+                    subpartitionName, null, 100);
+            int index = Arrays.asList(pack.alarmNotificationIdentifiers).indexOf(key);
+            if (index >= 0) {
+                value = asString(pack.alarmValues[index]);
+            }
+        }
+        assertThat(value, startsWith("{\"perceivedSeverity\":\"2\",\"additionalText\":\"foo bar\","));
+        for (int i = 0; i < patchesCount; i++) {
+            assertThat(value, containsString("\"attribute" + i + "\":" + i));
+        }
+
+        // Remove it. (so that other tests are not affected)
+        dao.removeAlarm(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName, key);
+    }
+
+    public void t14_whenStreamed_thenReturnTheSameAlarmsAsQueried() throws Exception {
+        final String[] keys = new String[]{"stream:1", "stream:2", "stream:3", "stream:4", "stream:5"};
+        for (String key : keys) {
+            dao.createOrUpdateAlarm(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName, key, "{\"key\":\"" + key + "\"}");
+        }
+        dao.removeAlarm(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName, keys[2]);
+
+        // Read all packs in both ways. We expect the same alarms and the same tags.
+        //
+        String tag = null;
+        do {
+            RawAlarmsPack pack = dao.queryAlarms(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName,
+                    "0", tag, 2);
+
+            List<String> notificationIdentifiers = new ArrayList<>();
+            List<String> values = new ArrayList<>();
+            String streamedTag = dao.streamAlarms(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName,
+                    "0", tag, 2, (notificationIdentifier, value) -> {
+                        notificationIdentifiers.add(notificationIdentifier);
+                        values.add(asString(value));
+                    });
+
+            assertThat(notificationIdentifiers, is(Arrays.asList(pack.alarmNotificationIdentifiers)));
+            assertThat(values, is(Arrays.stream(pack.alarmValues).map(RaasDaoTestScenarios::asString).collect(Collectors.toList())));
+            assertThat(streamedTag, is(pack.tagOfTheNextAvailableAlarm));
+
+            tag = pack.tagOfTheNextAvailableAlarm;
+        } while (tag != null);
+
+        // Remove them. (so that other tests are not affected)
+        for (String key : keys) {
+            dao.removeAlarm(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName, key);
+        }
+    }
+
+    public void t15_whenWaitingForChanges_thenReturnThemAsSoonAsSaved() throws Exception {
+        final String key = "longpoll:1";
+
+        // Read all existing alarms. (The last pack provides a tag of the end.)
+        //
+        String tag = null;
+        RawAlarmsPack pack;
+        do {
+            pack = dao.awaitAlarms(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName, "0", tag, 100, 0).get(5, TimeUnit.SECONDS);
+            assertThat(pack.tagOfTheNextAvailableAlarm, notNullValue());
+            tag = pack.tagOfTheNextAvailableAlarm;
+        } while (pack.alarmNotificationIdentifiers.length > 0);
+
+        // Wait for a change. We expect it to be returned as soon as it is saved. (i.e. long before the wait timeout)
+        //
+        CompletableFuture<RawAlarmsPack> waiting = dao.awaitAlarms(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName,
+                "0", tag, 100, 60_000);
+        assertThat(waiting.isDone(), is(false));
+
+        dao.createOrUpdateAlarm(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName, key, EXISTING_ALARM.json);
+
+        pack = waiting.get(5, TimeUnit.SECONDS);
+        assertThat(pack.alarmNotificationIdentifiers, is(new String[] {key}));
+        assertThat(asString(pack.alarmValues[0]), is(EXISTING_ALARM.json));
+        tag = pack.tagOfTheNextAvailableAlarm;
+
+        // Without changes we expect an empty pack after the wait timeout. (with the same tag, i.e. to wait again)
+        //
+        pack = dao.awaitAlarms(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName, "0", tag, 100, 100).get(5, TimeUnit.SECONDS);
+        assertThat(pack.alarmNotificationIdentifiers.length, is(0));
+        assertThat(pack.tagOfTheNextAvailableAlarm, is(tag));
+
+        // Remove it. (so that other tests are not affected)
+        dao.removeAlarm(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName, key);
+    }
+
+    public void t16_whenSubscribed_thenReplayAlarmsAndPushChanges() throws Exception {
+        final String[] keys = new String[]{"subscribed:1", "subscribed:2", "subscribed:3"};
+        dao.createOrUpdateAlarm(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName, keys[0], "{\"key\":1}");
+        dao.createOrUpdateAlarm(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName, keys[1], "{\"key\":2}");
+
+        BlockingQueue<Map.Entry<String, String>> receivedAlarms = new LinkedBlockingQueue<>();
+        CompletableFuture<Throwable> closed = new CompletableFuture<>();
+        RawAlarmsSubscriptions.Subscription subscription = dao.subscribeToAlarms(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName,
+                "0", null, new RawAlarmsSubscriber() {
+                    @Override
+                    public void onAlarm(String notificationIdentifier, byte[] value, String tagOfTheNextAlarm) {
+                        receivedAlarms.add(new AbstractMap.SimpleEntry<>(notificationIdentifier, asString(value)));
+                    }
+
+                    @Override
+                    public void onClose(Throwable cause) {
+                        closed.complete(cause);
+                    }
+                });
+
+        // We expect the existing alarms first and then the changes. (including removals)
+        //
+        awaitAlarm(receivedAlarms, keys[0], "{\"key\":1}");
+        awaitAlarm(receivedAlarms, keys[1], "{\"key\":2}");
+
+        dao.createOrUpdateAlarm(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName, keys[2], "{\"key\":3}");
+        dao.removeAlarm(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName, keys[0]);
+
+        awaitAlarm(receivedAlarms, keys[2], "{\"key\":3}");
+        awaitAlarm(receivedAlarms, keys[0], null);
+
+        subscription.close();
+        assertThat(closed.get(5, TimeUnit.SECONDS), nullValue());
+
+        // Remove them. (so that other tests are not affected)
+        for (String key : keys) {
+            dao.removeAlarm(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName, key);
+        }
+    }
+
+    public void t18_whenWaitingForAlarmsOfNewAdapter_thenReturnThemAsSoonAsSaved() throws Exception {
+        final String adapterName = "LongPollingNewAdapter";
+        final String key = "longpoll:new";
+
+        // The adapter has no alarms yet, so we expect an empty pack read and then the first alarm as soon as it is saved.
+        //
+        RawAlarmsPack pack = dao.queryAlarms(EXISTING_ALARM.domain, adapterName, "0", null, 100);
+        assertThat(pack.alarmNotificationIdentifiers.length, is(0));
+
+        CompletableFuture<RawAlarmsPack> waiting = dao.awaitAlarms(EXISTING_ALARM.domain, adapterName, "0", null, 100, 60_000);
+
+        dao.createOrUpdateAlarm(EXISTING_ALARM.domain, adapterName, key, EXISTING_ALARM.json);
+
+        pack = waiting.get(5, TimeUnit.SECONDS);
+        assertThat(pack.alarmNotificationIdentifiers, is(new String[] {key}));
+
+        // Remove it. (so that other tests are not affected)
+        dao.removeAlarm(EXISTING_ALARM.domain, adapterName, key);
+    }
+
     /**
      * This test must be executed on an empty topic. (i.e. a new instance of embedded broker is needed)
      */
@@ -120,44 +468,74 @@ public class RaasDaoTestScenarios {
                     TEST_KEYS[i], EXISTING_ALARM.json);
         }
         // (so in the log we have: 0, 1, 2, x, x, x, 0, 1, 2)
+        // (and after compaction: 0, 1, 2)
         //
         // We expect:
         //  all results - three alarms are returned.
         //  first pack - two alarms are returned.
-        //  second pack - three alarms are returned.
+        //  second pack - the remaining alarm is returned.
         //
         check_for_t6(TEST_KEYS,
                      new String[] {TEST_KEYS[0], TEST_KEYS[1]},
-                     TEST_KEYS);
+                     new String[] {TEST_KEYS[2]});
 
         // Update one alarm.
-        // It should be returned in the first pack AND in the second pack.
+        // It should be moved to the end.
         dao.createOrUpdateAlarm(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName,
                 TEST_KEYS[0], EXISTING_ALARM.json);
         // (so in the log we have: 0, 1, 2, x, x, x, 0, 1, 2, 0)
+        // (and after compaction: 1, 2, 0)
         //
         // We expect:
         //  all results - three alarms are returned.
         //  first pack - two alarms are returned. Exactly in the same order.
-        //  second pack - three alarms are returned.
+        //  second pack - the remaining alarm is returned.
         //
         check_for_t6(new String[] {TEST_KEYS[1], TEST_KEYS[2], TEST_KEYS[0]},
-                     new String[] {TEST_KEYS[0], TEST_KEYS[1]},
-                     new String[] {TEST_KEYS[1], TEST_KEYS[2], TEST_KEYS[0]});
+                     new String[] {TEST_KEYS[1], TEST_KEYS[2]},
+                     new String[] {TEST_KEYS[0]});
 
         // Update another alarm.
         dao.createOrUpdateAlarm(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName,
                 TEST_KEYS[2], EXISTING_ALARM.json);
         // (so in the log we have: 0, 1, 2, x, x, x, 0, 1, 2, 0, 2)
+        // (and after compaction: 1, 0, 2)
         //
         // We expect:
         //  all results - three alarms are returned.
         //  first pack - two alarms are returned. Exactly in the same order.
-        //  second pack - three alarms are returned.
+        //  second pack - the remaining alarm is returned.
         //
         check_for_t6(new String[] {TEST_KEYS[1], TEST_KEYS[0], TEST_KEYS[2]},
-                     new String[] {TEST_KEYS[0], TEST_KEYS[1]},
-                     new String[] {TEST_KEYS[1], TEST_KEYS[0], TEST_KEYS[2]});
+                     new String[] {TEST_KEYS[1], TEST_KEYS[0]},
+                     new String[] {TEST_KEYS[2]});
+    }
+
+    /**
+     * This test must be executed after t6. (i.e. when three alarms exist)
+     */
+    public void t7_whenRemovedAfterTheFirstPack_thenProvideNullInTheNextPack() {
+
+        // Load the first pack.
+        //
+        RawAlarmsPack firstPack = dao.queryAlarms(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName,
+                "0", null, 2);
+        assertThat(firstPack.alarmNotificationIdentifiers.length, is(2));
+        assertThat(firstPack.tagOfTheNextAvailableAlarm, notNullValue());
+
+        // Remove an alarm delivered in the first pack.
+        //
+        dao.removeAlarm(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName,
+                firstPack.alarmNotificationIdentifiers[0]);
+
+        // We expect that the next pack contains the remaining alarm and the removed alarm with null value.
+        //
+        RawAlarmsPack secondPack = dao.queryAlarms(EXISTING_ALARM.domain, EXISTING_ALARM.adapterName,
+                "0", firstPack.tagOfTheNextAvailableAlarm, 5);
+        assertThat(secondPack.alarmNotificationIdentifiers.length, is(2));
+        assertThat(secondPack.alarmNotificationIdentifiers[1], is(firstPack.alarmNotificationIdentifiers[0]));
+        assertThat(secondPack.alarmValues[1], is(nullValue()));
+        assertThat(secondPack.tagOfTheNextAvailableAlarm, is(nullValue()));
     }
 
     private void check_for_t6(String[] allResultsExpected, String[] firstPackExpected, String[] secondPackExpected) {
@@ -183,4 +561,21 @@ public class RaasDaoTestScenarios {
         assertThat(secondPack.tagOfTheNextAvailableAlarm, is(nullValue()));
     }
 
+
+    /*
+     * Skips received alarms until the expected one.
+     */
+    private static void awaitAlarm(BlockingQueue<Map.Entry<String, String>> receivedAlarms,
+                                   String notificationIdentifier, String value) throws InterruptedException {
+        Map.Entry<String, String> expected = new AbstractMap.SimpleEntry<>(notificationIdentifier, value);
+        Map.Entry<String, String> received;
+        do {
+            received = receivedAlarms.poll(5, TimeUnit.SECONDS);
+            assertThat("Not received: " + expected, received, notNullValue());
+        } while (!received.equals(expected));
+    }
+
+    private static String asString(byte[] value) {
+        return (value == null) ? null : new String(value, StandardCharsets.UTF_8);
+    }
 }
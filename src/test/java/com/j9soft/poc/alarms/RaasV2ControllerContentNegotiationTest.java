@@ -0,0 +1,155 @@
+package com.j9soft.poc.alarms;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/*
+ * Tests HTTP wiring of the binary format. (i.e. that the format is chosen by "Accept" and "Content-Type" headers)
+ */
+public class RaasV2ControllerContentNegotiationTest {
+
+    private static final String DOMAIN = "controllerTest";
+    private static final String ADAPTER_NAME = "controllerTestAdapter";
+    private static final RawAlarmsPartitionDefinition PARTITION_DEFINITION = new RawAlarmsPartitionDefinition(DOMAIN, ADAPTER_NAME);
+    private static final String APPLICATION_CBOR = "application/cbor";
+
+    private final ObjectMapper cborMapper = new ObjectMapper(new CBORFactory());
+
+    private MockMvc mockMvc;
+    private RaasDao raasDaoMock;
+    private RawAlarmsPack pack;
+
+    @Before
+    public void initRaas() {
+        raasDaoMock = Mockito.mock(RaasDao.class);
+        mockMvc = MockMvcBuilders.standaloneSetup(
+                new RaasV2Controller(raasDaoMock, new RawAlarmsSubpartitionsFanOut(2, 10), new SimpleMeterRegistry())).build();
+
+        pack = new RawAlarmsPack();
+        pack.alarmNotificationIdentifiers = new String[] {"eric2g:341"};
+        pack.alarmValues = new byte[][] {"{\"perceivedSeverity\":\"1\",\"additionalText\":\"a \\\"quoted\\\" text\"}"
+                .getBytes(StandardCharsets.UTF_8)};
+        pack.tagOfTheNextAvailableAlarm = "7";
+        when(raasDaoMock.getSubpartitions(PARTITION_DEFINITION)).thenReturn(new String[] {"0"});
+        when(raasDaoMock.queryAlarms(DOMAIN, ADAPTER_NAME, "0", null, 100)).thenReturn(pack);
+    }
+
+    @Test
+    public void whenCborIsAccepted_thenPackIsSentInCbor() throws Exception {
+        MvcResult result = mockMvc.perform(get("/v2/rawalarms")
+                .requestAttr("partitionDefinition", PARTITION_DEFINITION)
+                .header("Accept", APPLICATION_CBOR))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(APPLICATION_CBOR))
+                .andReturn();
+
+        RawAlarmsPack receivedPack = cborMapper.readValue(result.getResponse().getContentAsByteArray(), RawAlarmsPack.class);
+        assertThat(receivedPack.alarmNotificationIdentifiers, is(pack.alarmNotificationIdentifiers));
+        assertThat(receivedPack.alarmValues, is(pack.alarmValues));
+        assertThat(receivedPack.tagOfTheNextAvailableAlarm, is(pack.tagOfTheNextAvailableAlarm));
+
+        // Values are not escaped. (i.e. the binary pack is smaller than JSON)
+        byte[] json = new ObjectMapper().writeValueAsBytes(pack);
+        assertThat(result.getResponse().getContentAsByteArray().length, lessThan(json.length));
+    }
+
+    @Test
+    public void whenNothingIsSpecified_thenPackIsSentInJson() throws Exception {
+        mockMvc.perform(get("/v2/rawalarms")
+                .requestAttr("partitionDefinition", PARTITION_DEFINITION))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith("application/json"));
+    }
+
+    @Test
+    public void whenOtherSubpartitionIsRequested_thenBadRequestIsSent() throws Exception {
+        mockMvc.perform(get("/v2/rawalarms")
+                .param("subpartitionName", "5")
+                .requestAttr("partitionDefinition", PARTITION_DEFINITION))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void whenSubpartitionIsServedByOtherNode_thenItsUrlIsSentWithoutRedirect() throws Exception {
+        when(raasDaoMock.queryAlarms(DOMAIN, ADAPTER_NAME, "0", "9", 100))
+                .thenThrow(new SubpartitionNotOwnedException("0", "http://node-b:8080"));
+
+        // (A client would drop "Authorization" header following a redirect to another host, so it gets the owner in JSON.)
+        mockMvc.perform(get("/v2/rawalarms?tagOfTheFirstAlarmToBeReturned=9")
+                .requestAttr("partitionDefinition", PARTITION_DEFINITION)
+                .header("Accept", APPLICATION_CBOR))
+                .andExpect(status().is(RaasV2Controller.SC_MISDIRECTED_REQUEST))
+                .andExpect(header().doesNotExist("Location"))
+                .andExpect(content().contentTypeCompatibleWith("application/json"))
+                .andExpect(jsonPath("$.ownerUrl").value("http://node-b:8080"))
+                .andExpect(jsonPath("$.location").value("http://node-b:8080/v2/rawalarms?tagOfTheFirstAlarmToBeReturned=9"));
+    }
+
+    @Test
+    public void whenBatchIsSentInCbor_thenItIsSavedToDao() throws Exception {
+        RawAlarmsBatch batch = new RawAlarmsBatch();
+        batch.alarmNotificationIdentifiers = new String[] {"eric2g:341", "siem:44"};
+        batch.alarmValues = new String[] {"{\"perceivedSeverity\":\"3\"}", null};
+        when(raasDaoMock.saveAlarmsBatchAsync(eq(DOMAIN), eq(ADAPTER_NAME), any(RawAlarmsBatch.class)))
+                .thenReturn(CompletableFuture.completedFuture(null));
+
+        MvcResult result = mockMvc.perform(post("/v2/rawalarmsbatch")
+                .requestAttr("partitionDefinition", PARTITION_DEFINITION)
+                .contentType(APPLICATION_CBOR)
+                .content(cborMapper.writeValueAsBytes(batch)))
+                .andReturn();
+        mockMvc.perform(asyncDispatch(result)).andExpect(status().isOk());
+
+        verify(raasDaoMock).saveAlarmsBatchAsync(eq(DOMAIN), eq(ADAPTER_NAME), Mockito.argThat(savedBatch ->
+                savedBatch.alarmNotificationIdentifiers[1].equals("siem:44") && savedBatch.alarmValues[1] == null
+                        && savedBatch.alarmValues[0].equals(batch.alarmValues[0])));
+    }
+
+    @Test
+    public void whenBatchHasMoreAlarmsThanTokensOfAdapter_thenItIsRejectedWithRetryAfter() throws Exception {
+        RawAlarmsBatch batch = new RawAlarmsBatch();
+        batch.alarmNotificationIdentifiers = new String[] {"eric2g:341", "siem:44", "huawei:11"};
+        batch.alarmValues = new String[] {"{}", "{}", "{}"};
+
+        // (1 alarm per second, and its token is taken already, i.e. by the filter)
+        AdapterAdmissionControl admissionControl = new AdapterAdmissionControl(1, Collections.emptyMap(), 1, 0,
+                new SimpleMeterRegistry());
+        admissionControl.tryAcquire(PARTITION_DEFINITION, 0);
+
+        mockMvc.perform(post("/v2/rawalarmsbatch")
+                .requestAttr("partitionDefinition", PARTITION_DEFINITION)
+                .requestAttr(AdapterAdmissionFilter.ADMISSION_CONTROL_ATTRIBUTE, admissionControl)
+                .contentType(APPLICATION_CBOR)
+                .content(cborMapper.writeValueAsBytes(batch)))
+                .andExpect(status().is(AdapterAdmissionFilter.SC_TOO_MANY_REQUESTS))
+                .andExpect(header().string("Retry-After", "1"));
+
+        verify(raasDaoMock, never()).saveAlarmsBatchAsync(any(), any(), any());
+    }
+}
@@ -1,13 +1,27 @@
 package com.j9soft.poc.alarms;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.Before;
 import org.junit.FixMethodOrder;
 import org.junit.Test;
 import org.junit.runners.MethodSorters;
 import org.mockito.Mockito;
 
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -23,13 +37,19 @@ public class RaasV2ControllerTest {
     private static final RawAlarmsPartitionDefinition PARTITION_DEFINITION = new RawAlarmsPartitionDefinition(DOMAIN, ADAPTER_NAME);
 
     private static final String ALARM_NOID = "eric2g:341";
-    private static final String ALARM_JSON = "{\"severity\"=\"1\"}";
-    private static final String ALARM_JSON_2 = "{\"severity\"=\"2\"}";
+    private static final byte[] ALARM_JSON = "{\"severity\"=\"1\"}".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ALARM_JSON_2 = "{\"severity\"=\"2\"}".getBytes(StandardCharsets.UTF_8);
 
     private static final RawAlarmsPack EMPTY_ALARMS_PACK = new RawAlarmsPack();
+    private static final RawAlarmsPack EMPTY_ALARMS_PACK_FROM_DAO = new RawAlarmsPack();
+    static {
+        EMPTY_ALARMS_PACK_FROM_DAO.alarmNotificationIdentifiers = new String[0];
+        EMPTY_ALARMS_PACK_FROM_DAO.alarmValues = new byte[0][];
+    }
 
     private RaasV2 raas;
     private RaasDao raasDaoMock;
+    private SimpleMeterRegistry meterRegistry;
 
     @Before
     public void initRaas() {
@@ -37,19 +57,29 @@ public class RaasV2ControllerTest {
         // Let's register what should be returned.
         //
         raasDaoMock = Mockito.mock(RaasDao.class);
+        meterRegistry = new SimpleMeterRegistry();
 
         // Let's create the tested bean.
-        raas = new RaasV2Controller(this.raasDaoMock);
+        raas = new RaasV2Controller(this.raasDaoMock, new RawAlarmsSubpartitionsFanOut(2, 10), meterRegistry);
+        when(raasDaoMock.getSubpartitions(PARTITION_DEFINITION)).thenReturn(new String[] {"22", "33"});
     }
 
     @Test
     public void whenCreatingNewAlarm_itIsSavedToDao() {
 
+        CompletableFuture<Void> saved = new CompletableFuture<>();
+        when(raasDaoMock.createOrUpdateAlarmAsync(DOMAIN, ADAPTER_NAME, ALARM_NOID, ALARM_JSON)).thenReturn(saved);
+
         // Let's upsert it.
-        raas.putRawAlarm(ALARM_NOID, PARTITION_DEFINITION, ALARM_JSON);
+        CompletableFuture<Void> response = raas.putRawAlarm(ALARM_NOID, PARTITION_DEFINITION, ALARM_JSON);
 
         // Let's verify that it was saved in Dao.
-        verify(raasDaoMock).createOrUpdateAlarm(DOMAIN, ADAPTER_NAME, ALARM_NOID, ALARM_JSON);
+        verify(raasDaoMock).createOrUpdateAlarmAsync(DOMAIN, ADAPTER_NAME, ALARM_NOID, ALARM_JSON);
+
+        // Let's verify that the response is sent only when Dao saved the alarm.
+        assertThat(response.isDone(), is(false));
+        saved.complete(null);
+        assertThat(response.isDone(), is(true));
     }
 
     @Test
@@ -62,14 +92,161 @@ public class RaasV2ControllerTest {
         assertThat(raas.getRawAlarms(PARTITION_DEFINITION, "22", null, 3), is(EMPTY_ALARMS_PACK));
     }
 
+    @Test
+    public void whenWaitingForRawAlarms_theyAreAwaitedInDaoWithLimitedTimeout() {
+
+        CompletableFuture<RawAlarmsPack> available = new CompletableFuture<>();
+        when(raasDaoMock.awaitAlarms(DOMAIN, ADAPTER_NAME, "22", "7", 3, 25_000)).thenReturn(available);
+
+        CompletableFuture<RawAlarmsPack> response = raas.getRawAlarmsWhenAvailable(PARTITION_DEFINITION, "22", "7", 3, 3_600_000);
+
+        // Let's verify that the response is sent only when Dao found the alarms.
+        assertThat(response.isDone(), is(false));
+        available.complete(EMPTY_ALARMS_PACK);
+        assertThat(response.isDone(), is(true));
+    }
+
+    @Test
+    public void whenSubscribingAfterReconnect_itIsResumedFromLastEventId() {
+
+        RawAlarmsSubscriptions.Subscription subscription = Mockito.mock(RawAlarmsSubscriptions.Subscription.class);
+        when(raasDaoMock.subscribeToAlarms(eq(DOMAIN), eq(ADAPTER_NAME), eq("22"), eq("8"), any(RawAlarmsSubscriber.class)))
+                .thenReturn(subscription);
+
+        assertThat(raas.getRawAlarmsChanges(PARTITION_DEFINITION, "22", "7", "8"), notNullValue());
+
+        verify(raasDaoMock).subscribeToAlarms(eq(DOMAIN), eq(ADAPTER_NAME), eq("22"), eq("8"), any(RawAlarmsSubscriber.class));
+    }
+
+    @Test
+    public void whenStreamingRawAlarms_theyAreWrittenWhileLoadedFromDao() throws Exception {
+
+        // Let's register what should be pushed by DAO to our tested controller.
+        //
+        doAnswer(invocation -> {
+            RawAlarmsWriter writer = invocation.getArgument(5);
+            writer.write(ALARM_NOID, ALARM_JSON);
+            writer.write("siem:44", null);
+            return "7";
+        }).when(raasDaoMock).streamAlarms(eq(DOMAIN), eq(ADAPTER_NAME), eq("22"), isNull(), eq(3), any(RawAlarmsWriter.class));
+
+        StreamingResponseBody body = raas.getRawAlarmsStream(PARTITION_DEFINITION, "22", null, 3);
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        body.writeTo(response);
+
+        assertThat(new String(response.toByteArray(), StandardCharsets.UTF_8), is(
+                "{\"alarms\":[{\"notificationIdentifier\":\"eric2g:341\",\"value\":\"{\\\"severity\\\"=\\\"1\\\"}\"},"
+                        + "{\"notificationIdentifier\":\"siem:44\",\"value\":null}],\"tagOfTheNextAvailableAlarm\":\"7\"}"));
+    }
+
+    @Test
+    public void whenSavingBatchOfAlarms_itIsSavedToDao() {
+
+        RawAlarmsBatch batch = new RawAlarmsBatch();
+        batch.alarmNotificationIdentifiers = new String[] {ALARM_NOID, "siem:44"};
+        batch.alarmValues = new String[] {"{\"severity\"=\"2\"}", null};
+        when(raasDaoMock.saveAlarmsBatchAsync(DOMAIN, ADAPTER_NAME, batch)).thenReturn(CompletableFuture.completedFuture(null));
+
+        // Let's save it.
+        raas.putRawAlarmsBatch(PARTITION_DEFINITION, batch);
+
+        // Let's verify that it was saved in Dao.
+        verify(raasDaoMock).saveAlarmsBatchAsync(DOMAIN, ADAPTER_NAME, batch);
+    }
+
+    @Test(expected = InvalidRequestException.class)
+    public void whenGettingRawAlarmsOfOtherSubpartition_itIsRejected() {
+
+        // We expect "400 Bad Request" for a subpartition which is not one of the adapter's ones. (i.e. alarms of other adapters)
+        try {
+            raas.getRawAlarms(PARTITION_DEFINITION, "0", null, 3);
+        } finally {
+            verify(raasDaoMock, never()).queryAlarms(any(), any(), any(), any(), Mockito.anyInt());
+        }
+    }
+
+    @Test(expected = InvalidRequestException.class)
+    public void whenSavingBatchWithDifferentLengths_itIsRejected() {
+
+        RawAlarmsBatch batch = new RawAlarmsBatch();
+        batch.alarmNotificationIdentifiers = new String[] {ALARM_NOID, "siem:44"};
+        batch.alarmValues = new String[] {"{\"severity\"=\"2\"}"};
+
+        // We expect "400 Bad Request". (and nothing saved in Dao)
+        try {
+            raas.putRawAlarmsBatch(PARTITION_DEFINITION, batch);
+        } finally {
+            verify(raasDaoMock, never()).saveAlarmsBatchAsync(any(), any(), any());
+        }
+    }
+
+    @Test
+    public void whenGettingRawAlarmsFromAllSubpartitions_theyAreLoadedFromDaoAndMerged() {
+
+        RawAlarmsPack pack22 = new RawAlarmsPack();
+        pack22.alarmNotificationIdentifiers = new String[] {ALARM_NOID};
+        pack22.alarmValues = new byte[][] {ALARM_JSON};
+        pack22.tagOfTheNextAvailableAlarm = "7";
+        RawAlarmsPack pack33 = new RawAlarmsPack();
+        pack33.alarmNotificationIdentifiers = new String[] {"siem:44"};
+        pack33.alarmValues = new byte[][] {ALARM_JSON_2};
+
+        // Let's register what should be returned by DAO to our tested controller.
+        //
+        when(raasDaoMock.getSubpartitions(PARTITION_DEFINITION)).thenReturn(new String[] {"22", "33"});
+        when(raasDaoMock.queryAlarms(DOMAIN, ADAPTER_NAME, "22", null, 3)).thenReturn(pack22);
+        when(raasDaoMock.queryAlarms(DOMAIN, ADAPTER_NAME, "33", null, 3)).thenReturn(pack33);
+        when(raasDaoMock.queryAlarms(DOMAIN, ADAPTER_NAME, "22", "7", 3)).thenReturn(EMPTY_ALARMS_PACK_FROM_DAO);
+
+        // We expect alarms from both subpartitions.
+        //
+        RawAlarmsPack firstPack = raas.getRawAlarmsFromAllSubpartitions(PARTITION_DEFINITION, null, 3);
+        assertThat(firstPack.alarmNotificationIdentifiers, is(new String[] {ALARM_NOID, "siem:44"}));
+        assertThat(firstPack.alarmValues, is(new byte[][] {ALARM_JSON, ALARM_JSON_2}));
+        assertThat(firstPack.tagOfTheNextAvailableAlarm, notNullValue());
+
+        // We expect that the next pack is loaded only from the subpartition which had more alarms.
+        //
+        RawAlarmsPack secondPack = raas.getRawAlarmsFromAllSubpartitions(PARTITION_DEFINITION, firstPack.tagOfTheNextAvailableAlarm, 3);
+        assertThat(secondPack.alarmNotificationIdentifiers.length, is(0));
+        assertThat(secondPack.tagOfTheNextAvailableAlarm, nullValue());
+        verify(raasDaoMock, never()).queryAlarms(DOMAIN, ADAPTER_NAME, "33", "7", 3);
+
+        // We expect that sizes of both returned packs are measured.
+        //
+        assertThat(meterRegistry.get("raas.pack.alarms").summary().count(), is(2L));
+        assertThat(meterRegistry.get("raas.pack.alarms").summary().totalAmount(), is(2.0));
+        assertThat(meterRegistry.get("raas.pack.bytes").summary().totalAmount(), is((double) (ALARM_JSON.length + ALARM_JSON_2.length)));
+    }
+
+    @Test
+    public void whenPatchingAlarm_itIsPatchedInDao() {
+
+        CompletableFuture<Void> patched = new CompletableFuture<>();
+        when(raasDaoMock.patchAlarmAsync(DOMAIN, ADAPTER_NAME, ALARM_NOID, ALARM_JSON_2)).thenReturn(patched);
+
+        // Let's patch it.
+        CompletableFuture<Void> response = raas.patchRawAlarm(ALARM_NOID, PARTITION_DEFINITION, ALARM_JSON_2);
+
+        // Let's verify that attributes are merged by Dao. (i.e. not replaced by the controller)
+        verify(raasDaoMock).patchAlarmAsync(DOMAIN, ADAPTER_NAME, ALARM_NOID, ALARM_JSON_2);
+        verify(raasDaoMock, never()).createOrUpdateAlarmAsync(DOMAIN, ADAPTER_NAME, ALARM_NOID, ALARM_JSON_2);
+
+        assertThat(response.isDone(), is(false));
+        patched.complete(null);
+        assertThat(response.isDone(), is(true));
+    }
+
     @Test
     public void whenDeletingOnAlarm_itIsRemovedFromDao() {
 
+        when(raasDaoMock.removeAlarmAsync(DOMAIN, ADAPTER_NAME, ALARM_NOID)).thenReturn(CompletableFuture.completedFuture(null));
+
         // Let's delete it.
         raas.deleteAlarm(ALARM_NOID, PARTITION_DEFINITION);
 
         // Let's verify that it was saved in Dao.
-        verify(raasDaoMock).removeAlarm(DOMAIN, ADAPTER_NAME, ALARM_NOID);
+        verify(raasDaoMock).removeAlarmAsync(DOMAIN, ADAPTER_NAME, ALARM_NOID);
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,44 @@
+package com.j9soft.poc.alarms;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class RawAlarmValueSerializerTest {
+
+    private static final String EXPECTED_JSON = "{\"alarmNotificationIdentifiers\":[\"noid1\",\"noid2\"]," +
+            "\"alarmValues\":[\"{\\\"a\\\":\\\"żółw\\\"}\",null],\"tagOfTheNextAvailableAlarm\":\"7\"}";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void whenPackIsWrittenAsString_thenValuesAreDecoded() throws IOException {
+        assertThat(mapper.writeValueAsString(createPack()), is(EXPECTED_JSON));
+    }
+
+    @Test
+    public void whenPackIsWrittenAsBytes_thenValuesAreTheSame() throws IOException {
+        assertThat(new String(mapper.writeValueAsBytes(createPack()), StandardCharsets.UTF_8), is(EXPECTED_JSON));
+    }
+
+    @Test
+    public void whenPackIsRead_thenValuesAreTheSame() throws IOException {
+        RawAlarmsPack pack = mapper.readValue(EXPECTED_JSON, RawAlarmsPack.class);
+
+        assertThat(pack.alarmValues[0], is(createPack().alarmValues[0]));
+        assertThat(pack.alarmValues[1], nullValue());
+    }
+
+    private static RawAlarmsPack createPack() {
+        RawAlarmsPack pack = new RawAlarmsPack();
+        pack.alarmNotificationIdentifiers = new String[]{"noid1", "noid2"};
+        pack.alarmValues = new byte[][]{"{\"a\":\"żółw\"}".getBytes(StandardCharsets.UTF_8), null};
+        pack.tagOfTheNextAvailableAlarm = "7";
+        return pack;
+    }
+}
@@ -0,0 +1,98 @@
+package com.j9soft.poc.alarms;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class RawAlarmsPackCacheTest {
+
+    private static final RawAlarmsPartitionDefinition PARTITION_DEFINITION = new RawAlarmsPartitionDefinition("dev", "Adapter");
+
+    private final RawAlarmsPackCache cache = new RawAlarmsPackCache(2);
+    private final AtomicInteger readsCount = new AtomicInteger();
+
+    @Test
+    public void whenIdenticalQueriesAreInFlight_thenTheyShareOneRead() throws Exception {
+        CountDownLatch readStarted = new CountDownLatch(1);
+        CountDownLatch readAllowed = new CountDownLatch(1);
+        RawAlarmsPack pack = new RawAlarmsPack();
+
+        CompletableFuture<RawAlarmsPack> first = CompletableFuture.supplyAsync(() -> cache.get(key(null, 10), () -> {
+            readsCount.incrementAndGet();
+            readStarted.countDown();
+            await(readAllowed);
+            return pack;
+        }));
+        assertThat(readStarted.await(5, TimeUnit.SECONDS), is(true));
+
+        // The second query waits for the first read.
+        CompletableFuture<RawAlarmsPack> second = CompletableFuture.supplyAsync(() -> cache.get(key(null, 10), this::read));
+        readAllowed.countDown();
+
+        assertThat(first.get(5, TimeUnit.SECONDS), sameInstance(pack));
+        assertThat(second.get(5, TimeUnit.SECONDS), sameInstance(pack));
+        assertThat(readsCount.get(), is(1));
+    }
+
+    @Test
+    public void whenViewChanges_thenPackIsReadAgain() {
+        RawAlarmsPack pack = cache.get(key(null, 10), this::read);
+        assertThat(cache.get(key(null, 10), this::read), sameInstance(pack));
+
+        assertThat(cache.get(new RawAlarmsPackCache.Key(PARTITION_DEFINITION, 0, null, 10, 101), this::read), not(sameInstance(pack)));
+        assertThat(readsCount.get(), is(2));
+        assertThat(cache.getHitsCount(), is(1L));
+        assertThat(cache.getMissesCount(), is(2L));
+    }
+
+    @Test
+    public void whenReadFails_thenItIsNotCached() {
+        try {
+            cache.get(key("7", 10), () -> {
+                throw new RuntimeException("Failed to load alarms");
+            });
+            throw new AssertionError("Exception expected");
+        } catch (RuntimeException e) {
+            assertThat(e.getMessage(), is("Failed to load alarms"));
+        }
+
+        cache.get(key("7", 10), this::read);
+        assertThat(readsCount.get(), is(1));
+    }
+
+    @Test
+    public void whenCacheIsFull_thenLeastRecentlyUsedPackIsForgotten() {
+        cache.get(key("1", 10), this::read);
+        cache.get(key("2", 10), this::read);
+        cache.get(key("1", 10), this::read);
+        cache.get(key("3", 10), this::read);  // (i.e. "2" is forgotten)
+
+        cache.get(key("1", 10), this::read);
+        assertThat(readsCount.get(), is(3));
+        cache.get(key("2", 10), this::read);
+        assertThat(readsCount.get(), is(4));
+    }
+
+    private static RawAlarmsPackCache.Key key(String tag, int howMany) {
+        return new RawAlarmsPackCache.Key(PARTITION_DEFINITION, 0, tag, howMany, 100);
+    }
+
+    private RawAlarmsPack read() {
+        readsCount.incrementAndGet();
+        return new RawAlarmsPack();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.j9soft.poc.alarms;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class RawAlarmsSubscriptionsTest {
+
+    private static final byte[] VALUE = "{}".getBytes(StandardCharsets.UTF_8);
+
+    private final RawAlarmsSubscriptions subscriptions = new RawAlarmsSubscriptions();
+    private final RawAlarmsChangeFeed changeFeed = new RawAlarmsChangeFeed();
+
+    @After
+    public void closeSubscriptions() {
+        subscriptions.close();
+    }
+
+    @Test
+    public void whenChangeWasAlreadyReplayed_thenItIsNotSentAgain() throws Exception {
+        List<String> received = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch liveChangeReceived = new CountDownLatch(1);
+
+        // The subpartition contains "a" (tag 0) and "b" (tag 1). Its change of "b" is published while it is replayed.
+        //
+        RawAlarmsSubscriptions.Subscription subscription = subscriptions.subscribe(changeFeed, (tag, howMany) -> {
+            if (tag == null) {
+                changeFeed.publish("b", 1, 2, VALUE);
+                return pack("2", "a", "b");
+            }
+            return pack("2");
+        }, null, new CollectingSubscriber(received) {
+            @Override
+            public void onAlarm(String notificationIdentifier, byte[] value, String tagOfTheNextAlarm) {
+                super.onAlarm(notificationIdentifier, value, tagOfTheNextAlarm);
+                if (notificationIdentifier.equals("c")) {
+                    liveChangeReceived.countDown();
+                }
+            }
+        });
+
+        changeFeed.publish("c", 2, 3, null);
+
+        assertThat(liveChangeReceived.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(received, is(Arrays.asList("a", "b", "c")));
+        subscription.close();
+    }
+
+    @Test
+    public void whenSubscriberIsTooSlow_thenSubscriptionIsClosed() throws Exception {
+        CountDownLatch sendingStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Throwable> closed = new CompletableFuture<>();
+
+        subscriptions.subscribe(changeFeed, (tag, howMany) -> pack("0"), null, new RawAlarmsSubscriber() {
+            @Override
+            public void onAlarm(String notificationIdentifier, byte[] value, String tagOfTheNextAlarm) throws IOException {
+                sendingStarted.countDown();
+                try {
+                    release.await();  // (i.e. a client which does not read)
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+
+            @Override
+            public void onClose(Throwable cause) {
+                closed.complete(cause);
+            }
+        });
+
+        // The first change blocks the sending. The next ones fill the buffer.
+        //
+        changeFeed.publish("a", 0, 1, VALUE);
+        assertThat(sendingStarted.await(5, TimeUnit.SECONDS), is(true));
+        for (int i = 1; i <= RawAlarmsSubscriptions.BUFFER_CAPACITY; i++) {
+            changeFeed.publish("a", i, i + 1, VALUE);
+        }
+        assertThat(closed.isDone(), is(false));
+
+        changeFeed.publish("a", RawAlarmsSubscriptions.BUFFER_CAPACITY + 1, RawAlarmsSubscriptions.BUFFER_CAPACITY + 2, VALUE);
+
+        assertThat(closed.get(5, TimeUnit.SECONDS), instanceOf(IllegalStateException.class));
+        release.countDown();
+    }
+
+    @Test
+    public void whenWritesToSubscribersBlock_thenOnlyTheseSubscriptionsAreClosed() throws Exception {
+        RawAlarmsSubscriptions subscriptions = new RawAlarmsSubscriptions(100);
+        CountDownLatch release = new CountDownLatch(1);
+        List<CompletableFuture<Throwable>> closed = new ArrayList<>();
+
+        // More blocked subscribers than threads. (i.e. clients which do not read)
+        //
+        try {
+            for (int i = 0; i < 10; i++) {
+                CompletableFuture<Throwable> subscriptionClosed = new CompletableFuture<>();
+                closed.add(subscriptionClosed);
+                subscriptions.subscribe(changeFeed, (tag, howMany) -> pack("0"), null, new RawAlarmsSubscriber() {
+                    @Override
+                    public void onAlarm(String notificationIdentifier, byte[] value, String tagOfTheNextAlarm) throws IOException {
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            throw new InterruptedIOException();
+                        }
+                    }
+
+                    @Override
+                    public void onClose(Throwable cause) {
+                        subscriptionClosed.complete(cause);
+                    }
+                });
+            }
+            changeFeed.publish("a", 0, 1, VALUE);
+
+            for (CompletableFuture<Throwable> subscriptionClosed : closed) {
+                assertThat(subscriptionClosed.get(5, TimeUnit.SECONDS), instanceOf(IllegalStateException.class));
+            }
+
+            // Another subscriber still gets its changes.
+            //
+            RawAlarmsChangeFeed otherChangeFeed = new RawAlarmsChangeFeed();
+            List<String> received = Collections.synchronizedList(new ArrayList<>());
+            CountDownLatch changeReceived = new CountDownLatch(1);
+            subscriptions.subscribe(otherChangeFeed, (tag, howMany) -> pack("0"), null, new CollectingSubscriber(received) {
+                @Override
+                public void onAlarm(String notificationIdentifier, byte[] value, String tagOfTheNextAlarm) {
+                    super.onAlarm(notificationIdentifier, value, tagOfTheNextAlarm);
+                    changeReceived.countDown();
+                }
+            });
+            otherChangeFeed.publish("b", 0, 1, VALUE);
+
+            assertThat(changeReceived.await(5, TimeUnit.SECONDS), is(true));
+            assertThat(received, is(Collections.singletonList("b")));
+        } finally {
+            release.countDown();
+            subscriptions.close();
+        }
+    }
+
+    private static RawAlarmsPack pack(String tagOfTheNextAvailableAlarm, String... notificationIdentifiers) {
+        RawAlarmsPack pack = new RawAlarmsPack();
+        pack.alarmNotificationIdentifiers = notificationIdentifiers;
+        pack.alarmValues = new byte[notificationIdentifiers.length][];
+        pack.tagOfTheNextAvailableAlarm = tagOfTheNextAvailableAlarm;
+        return pack;
+    }
+
+    private static class CollectingSubscriber implements RawAlarmsSubscriber {
+        private final List<String> received;
+
+        CollectingSubscriber(List<String> received) {
+            this.received = received;
+        }
+
+        @Override
+        public void onAlarm(String notificationIdentifier, byte[] value, String tagOfTheNextAlarm) {
+            received.add(notificationIdentifier);
+        }
+
+        @Override
+        public void onClose(Throwable cause) {
+        }
+    }
+}